@@ -1,6 +1,7 @@
 package org.sawiq.collins.fabric.client.command;
 
 import com.mojang.brigadier.Command;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
@@ -8,12 +9,19 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.text.Style;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
 import org.sawiq.collins.fabric.client.util.TimeFormatUtil;
+import org.sawiq.collins.fabric.client.video.AvioBenchmark;
+import org.sawiq.collins.fabric.client.video.SharedHttp;
 import org.sawiq.collins.fabric.client.video.VideoPlayer;
 import org.sawiq.collins.fabric.client.video.VideoScreen;
 import org.sawiq.collins.fabric.client.video.VideoScreenManager;
 import org.sawiq.collins.fabric.client.video.YouTubeResolver;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
 public final class CollinsClientCommands {
 
     private static final int GREEN = 0x00FF00;
@@ -32,7 +40,15 @@ public final class CollinsClientCommands {
                     .then(ClientCommandManager.literal("time")
                             .executes(ctx -> showTimeline(null))
                             .then(ClientCommandManager.argument("screen", StringArgumentType.word())
-                                    .executes(ctx -> showTimeline(StringArgumentType.getString(ctx, "screen"))))));
+                                    .executes(ctx -> showTimeline(StringArgumentType.getString(ctx, "screen")))))
+                    .then(ClientCommandManager.literal("ttff")
+                            .executes(ctx -> showTtff()))
+                    .then(ClientCommandManager.literal("latency")
+                            .executes(ctx -> showLiveLatency()))
+                    .then(ClientCommandManager.literal("aviobench")
+                            .executes(ctx -> runAvioBenchmark(null))
+                            .then(ClientCommandManager.argument("file", StringArgumentType.greedyString())
+                                    .executes(ctx -> runAvioBenchmark(StringArgumentType.getString(ctx, "file"))))));
 
             // Команды для управления кэшем
             dispatcher.register(ClientCommandManager.literal("collins-cache")
@@ -44,7 +60,10 @@ public final class CollinsClientCommands {
                     .then(ClientCommandManager.literal("delete")
                             .executes(ctx -> deletePendingFile()))
                     .then(ClientCommandManager.literal("clear")
-                            .executes(ctx -> clearCache())));
+                            .executes(ctx -> clearCache()))
+                    .then(ClientCommandManager.literal("quota")
+                            .then(ClientCommandManager.argument("mb", IntegerArgumentType.integer(0))
+                                    .executes(ctx -> setServerQuota(IntegerArgumentType.getInteger(ctx, "mb"))))));
 
             // Команды для YouTube/yt-dlp
             dispatcher.register(ClientCommandManager.literal("collins-yt")
@@ -64,13 +83,28 @@ public final class CollinsClientCommands {
         if (client.player == null) return 0;
 
         VideoPlayer.CacheInfo info = VideoPlayer.getCacheInfo();
+        VideoPlayer.CacheStats st = VideoPlayer.getCacheStats();
+        long mb = 1024L * 1024L;
+        String quota = st.server() == null ? "нет сервера"
+                : st.server() + ": " + (st.serverBytes() / mb) + " МБ"
+                + (st.serverQuotaBytes() > 0 ? " / " + (st.serverQuotaBytes() / mb) + " МБ" : " (без квоты)");
 
         Text msg = PREFIX.copy()
             .append(Text.literal("Кэш видео:\n").setStyle(Style.EMPTY.withColor(GREEN)))
             .append(Text.literal("  Папка: ").setStyle(Style.EMPTY.withColor(GRAY)))
             .append(Text.literal(info.cacheDir().toString() + "\n").setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
             .append(Text.literal("  Файлов: ").setStyle(Style.EMPTY.withColor(GRAY)))
-            .append(Text.literal(info.fileCount() + " (" + info.cacheSizeMb() + " МБ)\n").setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
+            .append(Text.literal(info.fileCount() + " (" + info.cacheSizeMb() + " МБ из " + (st.capacityBytes() / mb) + " МБ)\n").setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
+            .append(Text.literal("  Политика: ").setStyle(Style.EMPTY.withColor(GRAY)))
+            .append(Text.literal(st.policy() + ", закреплено " + st.pinnedFiles() + " (" + (st.pinnedBytes() / mb) + " МБ)\n").setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
+            .append(Text.literal("  Попадания (сессия): ").setStyle(Style.EMPTY.withColor(GRAY)))
+            .append(Text.literal(percent(st.sessionHitRate()) + " запросов, " + percent(st.sessionByteHitRate()) + " байт ("
+                    + st.sessionHits() + "/" + (st.sessionHits() + st.sessionMisses()) + ")\n").setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
+            .append(Text.literal("  Попадания (всего): ").setStyle(Style.EMPTY.withColor(GRAY)))
+            .append(Text.literal(percent(st.hitRate()) + " запросов, " + percent(st.byteHitRate()) + " байт ("
+                    + st.hits() + "/" + (st.hits() + st.misses()) + ")\n").setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
+            .append(Text.literal("  Квота сервера: ").setStyle(Style.EMPTY.withColor(GRAY)))
+            .append(Text.literal(quota + "\n").setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
             .append(Text.literal("  Свободно на диске: ").setStyle(Style.EMPTY.withColor(GRAY)))
             .append(Text.literal(info.freeSpaceGb() + " ГБ\n").setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
             .append(Text.literal("Команды: ").setStyle(Style.EMPTY.withColor(GRAY)))
@@ -82,6 +116,31 @@ public final class CollinsClientCommands {
         return Command.SINGLE_SUCCESS;
     }
 
+    private static String percent(double r) {
+        return String.format(java.util.Locale.ROOT, "%.1f%%", r * 100.0);
+    }
+
+    private static int setServerQuota(int mb) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (client.player == null) return 0;
+
+        String server = VideoScreenManager.currentServerId();
+        if (server == null) {
+            client.player.sendMessage(PREFIX.copy().append(
+                Text.literal("Не подключены к серверу").setStyle(Style.EMPTY.withColor(RED))), false);
+            return 0;
+        }
+
+        CollinsClientConfig cfg = CollinsClientConfig.get();
+        cfg.cacheServerQuotasMb.put(server, mb);
+        CollinsClientConfig.save();
+
+        String text = mb > 0 ? "✓ Квота кэша для " + server + ": " + mb + " МБ" : "✓ Квота кэша для " + server + " снята";
+        client.player.sendMessage(PREFIX.copy().append(
+            Text.literal(text).setStyle(Style.EMPTY.withColor(GREEN))), false);
+        return Command.SINGLE_SUCCESS;
+    }
+
     private static int openCacheFolder() {
         MinecraftClient client = MinecraftClient.getInstance();
         if (client.player == null) return 0;
@@ -170,6 +229,133 @@ public final class CollinsClientCommands {
         return Command.SINGLE_SUCCESS;
     }
 
+    private static int showLiveLatency() {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (client.player == null) return 0;
+
+        Text msg = PREFIX.copy().append(Text.literal("Задержка живых потоков:").setStyle(Style.EMPTY.withColor(GREEN)));
+        int shown = 0;
+        for (VideoScreen screen : VideoScreenManager.all()) {
+            VideoPlayer.LiveLatencyStats l = screen.liveLatencyStats();
+            if (l == null) continue;
+            shown++;
+
+            int color = l.latencyMs() <= l.targetMs() ? GREEN : (l.latencyMs() <= l.targetMs() * 2 ? YELLOW : RED);
+            msg = msg.copy().append(Text.literal("\n  " + screen.state().name() + ": " + l.latencyMs() + " мс")
+                    .setStyle(Style.EMPTY.withColor(color)));
+            msg = msg.copy().append(Text.literal(" (цель " + l.targetMs() + " мс, "
+                    + (l.wallclock() ? "от источника" : "от прихода кадров")
+                    + (l.catchingUp() ? ", догоняем" : "") + ", прыжков " + l.jumps() + ")")
+                    .setStyle(Style.EMPTY.withColor(GRAY)));
+        }
+
+        if (shown == 0) {
+            msg = msg.copy().append(Text.literal(" нет low-latency потоков").setStyle(Style.EMPTY.withColor(GRAY)));
+        }
+
+        client.player.sendMessage(msg, false);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int showTtff() {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (client.player == null) return 0;
+
+        Text msg = PREFIX.copy().append(Text.literal("Time-to-first-frame:").setStyle(Style.EMPTY.withColor(GREEN)));
+        int shown = 0;
+        for (VideoScreen screen : VideoScreenManager.all()) {
+            if (screen.lastTtffMs() < 0) continue;
+            shown++;
+
+            String line = "\n  " + screen.state().name() + ": " + screen.lastTtffMs() + " мс";
+            if (screen.coldTtffSamples() > 0) {
+                line += " (холодный старт " + screen.lastColdTtffMs() + " мс, среднее " + screen.avgColdTtffMs()
+                        + " мс, n=" + screen.coldTtffSamples() + ")";
+            }
+            msg = msg.copy().append(Text.literal(line).setStyle(Style.EMPTY.withColor(Formatting.WHITE)));
+
+            VideoPlayer.StartupTiming t = screen.lastStartupTiming();
+            if (t != null) {
+                msg = msg.copy().append(Text.literal("\n    resolve " + t.resolveMs() + " мс | open " + t.openMs()
+                        + " мс | первый кадр " + t.firstFrameMs() + " мс | HTTP " + t.httpRequests() + " запр., TLS "
+                        + t.tlsHandshakes()).setStyle(Style.EMPTY.withColor(GRAY)));
+            }
+        }
+
+        if (shown == 0) {
+            msg = msg.copy().append(Text.literal(" нет данных").setStyle(Style.EMPTY.withColor(GRAY)));
+        }
+
+        VideoPlayer.TeardownStats td = VideoPlayer.teardownStats();
+        if (td.count() > 0 || td.pending() > 0) {
+            msg = msg.copy().append(Text.literal("\n  Освобождение плеера: " + td.lastMs() + " мс (среднее " + td.avgMs()
+                    + " мс, макс " + td.maxMs() + " мс, n=" + td.count() + ", в очереди " + td.pending()
+                    + ") | stop() на клиенте до " + td.stopCallMaxUs() + " мкс").setStyle(Style.EMPTY.withColor(GRAY)));
+        }
+
+        SharedHttp.Stats http = SharedHttp.stats();
+        if (http.requests() > 0) {
+            msg = msg.copy().append(Text.literal("\n  HTTP: " + http.requests() + " запросов, " + http.tlsHandshakes()
+                    + " TLS-соединений (" + Math.round(http.reuseRate() * 100.0) + "% без рукопожатия), редиректов из кэша "
+                    + http.redirectCacheHits()).setStyle(Style.EMPTY.withColor(GRAY)));
+        }
+
+        client.player.sendMessage(msg, false);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int runAvioBenchmark(String file) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (client.player == null) return 0;
+
+        String path = file;
+        if (path == null || path.isEmpty()) {
+            VideoScreen screen = VideoScreenManager.findNearestPlayingOrEnded(client.player.getEntityPos());
+            if (screen != null && screen.hasCachedFile()) {
+                path = screen.getCachedFilePath();
+            }
+        }
+        if (path == null || path.isEmpty() || !Files.isRegularFile(Path.of(path))) {
+            client.player.sendMessage(PREFIX.copy().append(
+                Text.literal("Нет файла из кэша: встаньте у экрана с закэшированным видео или укажите путь")
+                    .setStyle(Style.EMPTY.withColor(RED))), false);
+            return 0;
+        }
+
+        client.player.sendMessage(PREFIX.copy().append(
+            Text.literal("Замер открытия файла (путь / mmap)... Подождите.")
+                .setStyle(Style.EMPTY.withColor(YELLOW))), false);
+
+        Path target = Path.of(path);
+        Thread t = new Thread(() -> {
+            Text msg;
+            try {
+                AvioBenchmark.Result r = AvioBenchmark.run(target);
+                msg = PREFIX.copy()
+                    .append(Text.literal("AVIO: " + target.getFileName() + " (" + r.sizeBytes() / (1024 * 1024) + " МБ)")
+                        .setStyle(Style.EMPTY.withColor(GREEN)))
+                    .append(Text.literal(benchLine("путь", r.path())).setStyle(Style.EMPTY.withColor(Formatting.WHITE)))
+                    .append(Text.literal(benchLine("mmap", r.mapped())).setStyle(Style.EMPTY.withColor(Formatting.WHITE)));
+            } catch (Exception e) {
+                msg = PREFIX.copy().append(Text.literal("✗ Замер не удался: " + e.getMessage())
+                    .setStyle(Style.EMPTY.withColor(RED)));
+            }
+            Text result = msg;
+            MinecraftClient.getInstance().execute(() -> {
+                if (client.player != null) client.player.sendMessage(result, false);
+            });
+        }, "Collins-AvioBench");
+        t.setDaemon(true);
+        t.start();
+
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static String benchLine(String name, AvioBenchmark.Timing t) {
+        return String.format(Locale.ROOT, "\n  %s: open %.1f мс | %d пакетов %.0f МБ/с | seek %.1f мс",
+            name, t.openUs() / 1000.0, t.packets(), t.readMbPerSec(), t.seekAvgUs() / 1000.0);
+    }
+
     private static int showYouTubeInfo() {
         MinecraftClient client = MinecraftClient.getInstance();
         if (client.player == null) return 0;
@@ -9,12 +9,55 @@ import java.io.BufferedWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public final class CollinsClientConfig {
 
     public int localVolumePercent = 100;
     public boolean renderVideo = true;
     public boolean actionbarTimeline = true;
+    /** Запас к hear radius (в блоках), в котором плеер прогревается заранее. 0 — выключено */
+    public int prerollMarginBlocks = 24;
+    /** Бюджет памяти (МБ) для экранов, приостановленных вне hear radius. 0 — сразу полная остановка */
+    public int suspendBudgetMb = 256;
+    /** Память (МБ) под короткие зацикленные ролики: кадры или сжатый файл. 0 — выключено */
+    public int loopCacheMaxMb = 256;
+    /** Ролики длиннее этого (с) в память для повторов не берутся */
+    public int loopCacheMaxSeconds = 30;
+    /** Общий размер дискового кэша видео (МБ) */
+    public int cacheMaxMb = 4096;
+    /** Политика вытеснения кэша: lru, lfu (с учётом размера) или arc */
+    public String cacheEvictionPolicy = "lru";
+    /** Квота кэша на один сервер (МБ) по умолчанию. 0 — без квоты */
+    public int cacheServerQuotaMb = 0;
+    /** Квоты для отдельных серверов: адрес сервера -> МБ (перекрывают cacheServerQuotaMb) */
+    public Map<String, Integer> cacheServerQuotasMb = new HashMap<>();
+    /** Переписывать скачанные MP4 с moov в конце в faststart (в фоне, без перекодирования) */
+    public boolean cacheFaststartRemux = true;
+    /** Читать файлы кэша через отображение в память (JavaCV всё равно копирует чтение через кучу — выигрыш только на seek'ах) */
+    public boolean mmapCachedFiles = false;
+    /** Перекодировать файлы кэша в размер экрана для дешёвых повторов (в фоне) */
+    public boolean cacheScaledVariants = false;
+    /** Сколько соединений закачки кэша одновременно на всю игру */
+    public int downloadMaxConnections = 6;
+    /** Общий лимит скорости закачек (Мбит/с). 0 — без лимита */
+    public int downloadMaxMbit = 0;
+    /** Сколько секунд сжатого видео читать наперёд при игре по сети. 0 — выключено (FFmpeg читает сам) */
+    public int readAheadSeconds = 20;
+    /** Потолок упреждающего чтения на экран (МБ) */
+    public int readAheadMaxMb = 16;
+    /** Окно time-shift живых потоков (минуты): пауза/перемотка назад и переживание обрывов источника. 0 — выключено */
+    public int liveTimeShiftMinutes = 2;
+    /** Low-latency режим RTMP/RTSP: короткий probe, без буферов, догонялка до liveLatencyTargetMs */
+    public boolean liveLowLatency = false;
+    /** Целевая задержка живого потока (мс) в low-latency режиме */
+    public int liveLatencyTargetMs = 1500;
+    /** Сколько HLS-сегментов качать наперёд параллельно. 0 — HLS целиком отдаётся FFmpeg */
+    public int hlsPrefetchSegments = 3;
+    /** Потолок высоты видео YouTube (бюджет декодера); ниже него формат подбирается под текстуру экрана */
+    public int youtubeMaxHeight = 1080;
 
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private static final String FILE_NAME = "collins.json";
@@ -79,8 +122,48 @@ public final class CollinsClientConfig {
         return Math.max(0f, Math.min(1f, localVolumePercent / 100f));
     }
 
+    /** Квота кэша (МБ) для сервера, 0 — без квоты */
+    public int serverQuotaMb(String server) {
+        if (server == null) return 0;
+        Integer q = cacheServerQuotasMb.get(server);
+        return q != null ? q : cacheServerQuotaMb;
+    }
+
     private static void sanitize(CollinsClientConfig cfg) {
         if (cfg.localVolumePercent < 0) cfg.localVolumePercent = 0;
         if (cfg.localVolumePercent > 100) cfg.localVolumePercent = 100;
+        if (cfg.prerollMarginBlocks < 0) cfg.prerollMarginBlocks = 0;
+        if (cfg.prerollMarginBlocks > 128) cfg.prerollMarginBlocks = 128;
+        if (cfg.suspendBudgetMb < 0) cfg.suspendBudgetMb = 0;
+        if (cfg.suspendBudgetMb > 2048) cfg.suspendBudgetMb = 2048;
+        if (cfg.loopCacheMaxMb < 0) cfg.loopCacheMaxMb = 0;
+        if (cfg.loopCacheMaxMb > 4096) cfg.loopCacheMaxMb = 4096;
+        if (cfg.loopCacheMaxSeconds < 1) cfg.loopCacheMaxSeconds = 1;
+        if (cfg.loopCacheMaxSeconds > 300) cfg.loopCacheMaxSeconds = 300;
+        if (cfg.cacheMaxMb < 256) cfg.cacheMaxMb = 256;
+        if (cfg.cacheMaxMb > 65536) cfg.cacheMaxMb = 65536;
+        if (cfg.downloadMaxConnections < 1) cfg.downloadMaxConnections = 1;
+        if (cfg.downloadMaxConnections > 32) cfg.downloadMaxConnections = 32;
+        if (cfg.downloadMaxMbit < 0) cfg.downloadMaxMbit = 0;
+        if (cfg.readAheadSeconds < 0) cfg.readAheadSeconds = 0;
+        if (cfg.readAheadSeconds > 120) cfg.readAheadSeconds = 120;
+        if (cfg.readAheadMaxMb < 1) cfg.readAheadMaxMb = 1;
+        if (cfg.readAheadMaxMb > 256) cfg.readAheadMaxMb = 256;
+        if (cfg.liveTimeShiftMinutes < 0) cfg.liveTimeShiftMinutes = 0;
+        if (cfg.liveTimeShiftMinutes > 30) cfg.liveTimeShiftMinutes = 30;
+        if (cfg.liveLatencyTargetMs < 200) cfg.liveLatencyTargetMs = 200;
+        if (cfg.liveLatencyTargetMs > 10000) cfg.liveLatencyTargetMs = 10000;
+        if (cfg.hlsPrefetchSegments < 0) cfg.hlsPrefetchSegments = 0;
+        if (cfg.hlsPrefetchSegments > 8) cfg.hlsPrefetchSegments = 8;
+        if (cfg.youtubeMaxHeight < 144) cfg.youtubeMaxHeight = 144;
+        if (cfg.youtubeMaxHeight > 2160) cfg.youtubeMaxHeight = 2160;
+        if (cfg.cacheEvictionPolicy == null) cfg.cacheEvictionPolicy = "lru";
+        cfg.cacheEvictionPolicy = cfg.cacheEvictionPolicy.trim().toLowerCase(Locale.ROOT);
+        if (!cfg.cacheEvictionPolicy.equals("lru") && !cfg.cacheEvictionPolicy.equals("lfu") && !cfg.cacheEvictionPolicy.equals("arc")) {
+            cfg.cacheEvictionPolicy = "lru";
+        }
+        if (cfg.cacheServerQuotaMb < 0) cfg.cacheServerQuotaMb = 0;
+        if (cfg.cacheServerQuotasMb == null) cfg.cacheServerQuotasMb = new HashMap<>();
+        cfg.cacheServerQuotasMb.entrySet().removeIf(e -> e.getKey() == null || e.getValue() == null || e.getValue() < 0);
     }
 }
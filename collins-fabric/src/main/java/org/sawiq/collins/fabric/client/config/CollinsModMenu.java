@@ -42,6 +42,119 @@ public final class CollinsModMenu implements ModMenuApi {
                 .setSaveConsumer(v -> cfg.actionbarTimeline = v)
                 .build());
 
+        general.addEntry(eb.startIntSlider(Text.literal("Pre-roll margin (blocks)"), cfg.prerollMarginBlocks, 0, 128)
+                .setDefaultValue(24)
+                .setSaveConsumer(v -> cfg.prerollMarginBlocks = v)
+                .build());
+
+        general.addEntry(eb.startIntSlider(Text.literal("Suspended screens memory (MB)"), cfg.suspendBudgetMb, 0, 2048)
+                .setDefaultValue(256)
+                .setSaveConsumer(v -> cfg.suspendBudgetMb = v)
+                .build());
+
+        general.addEntry(eb.startIntSlider(Text.literal("Looping clips memory (MB)"), cfg.loopCacheMaxMb, 0, 4096)
+                .setDefaultValue(256)
+                .setTooltip(Text.literal("Short looping videos are decoded once and replayed from memory; 0 = off"))
+                .setSaveConsumer(v -> cfg.loopCacheMaxMb = v)
+                .build());
+
+        general.addEntry(eb.startIntSlider(Text.literal("Looping clip max length (s)"), cfg.loopCacheMaxSeconds, 1, 300)
+                .setDefaultValue(30)
+                .setSaveConsumer(v -> cfg.loopCacheMaxSeconds = v)
+                .build());
+
+        general.addEntry(eb.startBooleanToggle(Text.literal("Low-latency live streams"), cfg.liveLowLatency)
+                .setDefaultValue(false)
+                .setTooltip(Text.literal("RTMP/RTSP: minimal buffering, catches up to the latency target by playing slightly faster or skipping ahead"))
+                .setSaveConsumer(v -> cfg.liveLowLatency = v)
+                .build());
+
+        general.addEntry(eb.startIntSlider(Text.literal("Live latency target (ms)"), cfg.liveLatencyTargetMs, 200, 10000)
+                .setDefaultValue(1500)
+                .setSaveConsumer(v -> cfg.liveLatencyTargetMs = v)
+                .build());
+
+        general.addEntry(eb.startIntSlider(Text.literal("YouTube max height (px)"), cfg.youtubeMaxHeight, 144, 2160)
+                .setDefaultValue(1080)
+                .setTooltip(Text.literal("Upper limit for YouTube video quality; below it the format follows the screen's texture size"))
+                .setSaveConsumer(v -> cfg.youtubeMaxHeight = v)
+                .build());
+
+        ConfigCategory cache = builder.getOrCreateCategory(Text.literal("Cache"));
+
+        cache.addEntry(eb.startIntField(Text.literal("Cache size (MB)"), cfg.cacheMaxMb)
+                .setDefaultValue(4096)
+                .setMin(256)
+                .setMax(65536)
+                .setSaveConsumer(v -> cfg.cacheMaxMb = v)
+                .build());
+
+        cache.addEntry(eb.startSelector(Text.literal("Eviction policy"), new String[]{"lru", "lfu", "arc"}, cfg.cacheEvictionPolicy)
+                .setDefaultValue("lru")
+                .setTooltip(Text.literal("lru — least recently used, lfu — frequency per MB (keeps small looping videos), arc — adaptive"))
+                .setSaveConsumer(v -> cfg.cacheEvictionPolicy = v)
+                .build());
+
+        cache.addEntry(eb.startIntField(Text.literal("Per-server quota (MB, 0 = off)"), cfg.cacheServerQuotaMb)
+                .setDefaultValue(0)
+                .setMin(0)
+                .setSaveConsumer(v -> cfg.cacheServerQuotaMb = v)
+                .build());
+
+        cache.addEntry(eb.startBooleanToggle(Text.literal("Faststart remux of cached MP4"), cfg.cacheFaststartRemux)
+                .setDefaultValue(true)
+                .setTooltip(Text.literal("Rewrites downloaded MP4s with the index at the end so they open and seek instantly"))
+                .setSaveConsumer(v -> cfg.cacheFaststartRemux = v)
+                .build());
+
+        cache.addEntry(eb.startBooleanToggle(Text.literal("Memory-mapped cache reads"), cfg.mmapCachedFiles)
+                .setDefaultValue(false)
+                .setTooltip(Text.literal("Plays cached files from a shared memory mapping: cheaper seeks, one mapping for all screens (reads still copy through the Java heap)"))
+                .setSaveConsumer(v -> cfg.mmapCachedFiles = v)
+                .build());
+
+        cache.addEntry(eb.startBooleanToggle(Text.literal("Screen-sized copies of cached videos"), cfg.cacheScaledVariants)
+                .setDefaultValue(false)
+                .setTooltip(Text.literal("Re-encodes cached 4K/1080p videos at the screen's texture size in the background; replays then use a fraction of the CPU"))
+                .setSaveConsumer(v -> cfg.cacheScaledVariants = v)
+                .build());
+
+        cache.addEntry(eb.startIntSlider(Text.literal("Download connections"), cfg.downloadMaxConnections, 1, 32)
+                .setDefaultValue(6)
+                .setTooltip(Text.literal("Total connections for all video downloads; nearby screens get them first"))
+                .setSaveConsumer(v -> cfg.downloadMaxConnections = v)
+                .build());
+
+        cache.addEntry(eb.startIntField(Text.literal("Download speed limit (Mbit/s, 0 = off)"), cfg.downloadMaxMbit)
+                .setDefaultValue(0)
+                .setMin(0)
+                .setTooltip(Text.literal("Leaves bandwidth for the game itself while many screens download"))
+                .setSaveConsumer(v -> cfg.downloadMaxMbit = v)
+                .build());
+
+        cache.addEntry(eb.startIntSlider(Text.literal("Network read-ahead (s)"), cfg.readAheadSeconds, 0, 120)
+                .setDefaultValue(20)
+                .setTooltip(Text.literal("Seconds of compressed video fetched ahead when playing from the network; rides out connection drops. 0 = off"))
+                .setSaveConsumer(v -> cfg.readAheadSeconds = v)
+                .build());
+
+        cache.addEntry(eb.startIntSlider(Text.literal("Network read-ahead limit (MB)"), cfg.readAheadMaxMb, 1, 256)
+                .setDefaultValue(16)
+                .setSaveConsumer(v -> cfg.readAheadMaxMb = v)
+                .build());
+
+        cache.addEntry(eb.startIntSlider(Text.literal("Live time-shift (minutes)"), cfg.liveTimeShiftMinutes, 0, 30)
+                .setDefaultValue(2)
+                .setTooltip(Text.literal("Live streams are recorded to a short on-disk ring: pause, seek back and source drops play from it. 0 = off"))
+                .setSaveConsumer(v -> cfg.liveTimeShiftMinutes = v)
+                .build());
+
+        cache.addEntry(eb.startIntSlider(Text.literal("HLS segment prefetch"), cfg.hlsPrefetchSegments, 0, 8)
+                .setDefaultValue(3)
+                .setTooltip(Text.literal("HLS segments downloaded ahead in parallel; the stream variant follows screen size and measured speed. 0 = let FFmpeg handle HLS"))
+                .setSaveConsumer(v -> cfg.hlsPrefetchSegments = v)
+                .build());
+
         return builder.build();
     }
 }
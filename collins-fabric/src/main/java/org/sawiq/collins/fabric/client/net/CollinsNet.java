@@ -20,6 +20,9 @@ public final class CollinsNet {
 
     public static final Map<String, ScreenState> SCREENS = new ConcurrentHashMap<>();
 
+    // хвостовой блок SYNC v2: флаг audioOnly на каждый экран (см. CollinsProtocol сервера)
+    private static final byte SYNC_EXT_AUDIO_ONLY = 1;
+
     // v2 globals
     public static volatile float GLOBAL_VOLUME = 1.0f;
     public static volatile int HEAR_RADIUS = 100;
@@ -123,7 +126,8 @@ public final class CollinsNet {
                             loop,
                             volume,
                             0L,
-                            0L
+                            0L,
+                            false
                     ));
                 }
 
@@ -137,7 +141,7 @@ public final class CollinsNet {
                 return;
             }
 
-            // v2: глобальные настройки + якорь времени + экраны с таймером
+            // v2: глобальные настройки + якорь времени + экраны с таймером; в хвосте — необязательные блоки
             GLOBAL_VOLUME = in.readFloat();
             HEAR_RADIUS = in.readInt();
             SERVER_NOW_MS = in.readLong();
@@ -149,7 +153,7 @@ public final class CollinsNet {
                 return;
             }
 
-            SCREENS.clear();
+            ScreenState[] parsed = new ScreenState[count];
             for (int i = 0; i < count; i++) {
                 String name = in.readUTF();
                 String world = in.readUTF();
@@ -167,7 +171,7 @@ public final class CollinsNet {
                 long startEpochMs = in.readLong();
                 long basePosMs = in.readLong();
 
-                SCREENS.put(name.toLowerCase(), new ScreenState(
+                parsed[i] = new ScreenState(
                         name, world,
                         x1, y1, z1,
                         x2, y2, z2,
@@ -177,8 +181,28 @@ public final class CollinsNet {
                         loop,
                         volume,
                         startEpochMs,
-                        basePosMs
-                ));
+                        basePosMs,
+                        false
+                );
+            }
+
+            // хвост: блоки tag + данные; незнакомый tag — дальше не читаем (сервер новее клиента)
+            while (in.available() > 0) {
+                byte tag = in.readByte();
+                if (tag != SYNC_EXT_AUDIO_ONLY) break;
+                for (int i = 0; i < count; i++) {
+                    boolean audioOnly = in.readBoolean();
+                    ScreenState s = parsed[i];
+                    if (audioOnly) {
+                        parsed[i] = new ScreenState(s.name(), s.world(), s.x1(), s.y1(), s.z1(), s.x2(), s.y2(), s.z2(),
+                                s.axis(), s.url(), s.playing(), s.loop(), s.volume(), s.startEpochMs(), s.basePosMs(), true);
+                    }
+                }
+            }
+
+            SCREENS.clear();
+            for (ScreenState s : parsed) {
+                SCREENS.put(s.name().toLowerCase(), s);
             }
 
             org.sawiq.collins.fabric.client.video.VideoScreenManager.applySync(SCREENS);
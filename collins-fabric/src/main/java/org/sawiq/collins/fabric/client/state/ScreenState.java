@@ -11,7 +11,8 @@ public record ScreenState(
         boolean loop,
         float volume,
         long startEpochMs,
-        long basePosMs
+        long basePosMs,
+        boolean audioOnly   // радио: только звук, без видео и текстуры (хвостовой блок SYNC v2)
 
 ) {
     public int minX() { return Math.min(x1, x2); }
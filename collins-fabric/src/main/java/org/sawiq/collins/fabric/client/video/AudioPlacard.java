@@ -0,0 +1,84 @@
+package org.sawiq.collins.fabric.client.video;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.client.texture.NativeImageBackedTexture;
+import net.minecraft.util.Identifier;
+
+/**
+ * Табличка экрана-радио: одна маленькая статичная текстура на все аудио-экраны.
+ * Рисуется один раз при первом обращении, дальше ни загрузок, ни памяти на экран.
+ * Только render thread.
+ */
+final class AudioPlacard {
+
+    private static final int W = 64;
+    private static final int H = 36;
+
+    private static final int BG_TOP = 0xFF151A22;
+    private static final int BG_BOTTOM = 0xFF252E3B;
+    private static final int BORDER = 0xFF3A4658;
+    private static final int NOTE = 0xFFD8DEE9;
+
+    private static Identifier texId;
+
+    private AudioPlacard() {
+    }
+
+    static Identifier textureId() {
+        if (texId != null) return texId;
+        try {
+            Identifier id = Identifier.of("collins", "screen/audio_placard");
+            NativeImageBackedTexture tex = new NativeImageBackedTexture("collins:" + id, W, H, true);
+            NativeImage img = tex.getImage();
+            if (img == null) {
+                tex.close();
+                return null;
+            }
+            draw(img);
+            tex.upload();
+            MinecraftClient.getInstance().getTextureManager().registerTexture(id, tex);
+            texId = id;
+        } catch (Exception ignored) {
+        }
+        return texId;
+    }
+
+    /** Фон с вертикальным градиентом, рамка и нота по центру */
+    private static void draw(NativeImage img) {
+        for (int y = 0; y < H; y++) {
+            int c = lerp(BG_TOP, BG_BOTTOM, y / (float) (H - 1));
+            for (int x = 0; x < W; x++) {
+                boolean edge = x == 0 || y == 0 || x == W - 1 || y == H - 1;
+                img.setColorArgb(x, y, edge ? BORDER : c);
+            }
+        }
+
+        // головка ноты — наклонённый эллипс
+        double hx = 29.0, hy = 25.0;
+        for (int y = 19; y <= 31; y++) {
+            for (int x = 21; x <= 37; x++) {
+                double dx = x + 0.5 - hx, dy = y + 0.5 - hy;
+                double rx = dx * 0.94 + dy * 0.34, ry = -dx * 0.34 + dy * 0.94;
+                if ((rx * rx) / 30.0 + (ry * ry) / 14.0 <= 1.0) img.setColorArgb(x, y, NOTE);
+            }
+        }
+        // штиль
+        for (int y = 7; y <= 25; y++) {
+            img.setColorArgb(34, y, NOTE);
+            img.setColorArgb(35, y, NOTE);
+        }
+        // флажок
+        for (int i = 0; i < 8; i++) {
+            img.setColorArgb(36 + i / 2, 8 + i, NOTE);
+            img.setColorArgb(37 + i / 2, 8 + i, NOTE);
+        }
+    }
+
+    private static int lerp(int a, int b, float t) {
+        int r = (int) (((a >> 16) & 0xFF) + (((b >> 16) & 0xFF) - ((a >> 16) & 0xFF)) * t);
+        int g = (int) (((a >> 8) & 0xFF) + (((b >> 8) & 0xFF) - ((a >> 8) & 0xFF)) * t);
+        int bl = (int) ((a & 0xFF) + ((b & 0xFF) - (a & 0xFF)) * t);
+        return 0xFF000000 | (r << 16) | (g << 8) | bl;
+    }
+}
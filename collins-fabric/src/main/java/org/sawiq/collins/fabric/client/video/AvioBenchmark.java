@@ -0,0 +1,108 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Сравнение двух способов открыть файл из кэша: по пути (файловый протокол FFmpeg)
+ * и через {@link MappedFileInputStream}. Меряем открытие, чтение пакетов без декодирования
+ * и серию seek'ов демуксера (avformat_seek_file, без декодирования); каждый прогон повторяется,
+ * в отчёт идёт медиана.
+ */
+public final class AvioBenchmark {
+
+    private static final int RUNS = 3;
+    private static final int PACKETS = 500;
+    private static final int SEEKS = 8;
+
+    public record Timing(long openUs, long packets, long packetBytes, long readUs, long seekUs) {
+        /** МБ/с на чтении пакетов */
+        public double readMbPerSec() {
+            return readUs <= 0 ? 0.0 : packetBytes / (1024.0 * 1024.0) / (readUs / 1_000_000.0);
+        }
+
+        public long seekAvgUs() {
+            return seekUs / SEEKS;
+        }
+    }
+
+    public record Result(Path file, long sizeBytes, Timing path, Timing mapped) {
+    }
+
+    private AvioBenchmark() {
+    }
+
+    /** Блокирующий прогон — звать не с потока рендера */
+    public static Result run(Path file) throws Exception {
+        long size = Files.size(file);
+        Timing[] byPath = new Timing[RUNS];
+        Timing[] byMap = new Timing[RUNS];
+        // чередуем, чтобы прогрев page cache не достался одному варианту
+        for (int i = 0; i < RUNS; i++) {
+            byPath[i] = measure(file, false);
+            byMap[i] = measure(file, true);
+        }
+        return new Result(file, size, median(byPath), median(byMap));
+    }
+
+    private static Timing measure(Path file, boolean mapped) throws Exception {
+        MappedFileInputStream in = null;
+        FFmpegFrameGrabber g;
+        long t0 = System.nanoTime();
+        if (mapped) {
+            in = MappedFileInputStream.open(file);
+            g = new FFmpegFrameGrabber(in, Integer.MAX_VALUE - 8);
+            g.setCloseInputStream(true);
+        } else {
+            g = new FFmpegFrameGrabber(file.toString());
+        }
+        try {
+            g.start();
+            long openUs = (System.nanoTime() - t0) / 1000L;
+
+            long packets = 0;
+            long bytes = 0;
+            long t1 = System.nanoTime();
+            for (int i = 0; i < PACKETS; i++) {
+                var pkt = g.grabPacket();
+                if (pkt == null) break;
+                packets++;
+                bytes += pkt.size();
+            }
+            long readUs = (System.nanoTime() - t1) / 1000L;
+
+            long lenUs = g.getLengthInTime();
+            long seekUs = 0;
+            AVFormatContext fmt = g.getFormatContext();
+            if (lenUs > 0 && fmt != null) {
+                long t2 = System.nanoTime();
+                // разбросанные позиции: вперёд и назад по всему файлу
+                for (int i = 0; i < SEEKS; i++) {
+                    long ts = lenUs * ((i * 5L) % SEEKS) / SEEKS;
+                    // только seek: setTimestamp() ещё декодирует до нужного кадра
+                    avformat.avformat_seek_file(fmt, -1, Long.MIN_VALUE, ts, Long.MAX_VALUE, avformat.AVSEEK_FLAG_BACKWARD);
+                }
+                seekUs = (System.nanoTime() - t2) / 1000L;
+            }
+            return new Timing(openUs, packets, bytes, readUs, seekUs);
+        } finally {
+            try {
+                g.release();
+            } catch (Exception ignored) {
+            }
+            if (in != null) in.close();
+        }
+    }
+
+    /** Медиана по времени открытия+чтения+seek */
+    private static Timing median(Timing[] runs) {
+        Timing[] sorted = runs.clone();
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.openUs + a.readUs + a.seekUs, b.openUs + b.readUs + b.seekUs));
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,78 @@
+package org.sawiq.collins.fabric.client.video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Множество непересекающихся диапазонов байт [start, end). Соседние и пересекающиеся диапазоны склеиваются.
+ * Не потокобезопасно — синхронизирует владелец.
+ */
+final class ByteRangeSet {
+
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    private long covered = 0;
+
+    void add(long start, long end) {
+        if (end <= start) return;
+
+        Map.Entry<Long, Long> prev = ranges.floorEntry(start);
+        if (prev != null && prev.getValue() >= start) {
+            if (prev.getValue() >= end) return;
+            start = prev.getKey();
+            end = Math.max(end, prev.getValue());
+            covered -= prev.getValue() - prev.getKey();
+            ranges.remove(prev.getKey());
+        }
+
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+        while (next != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            covered -= next.getValue() - next.getKey();
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(start);
+        }
+
+        ranges.put(start, end);
+        covered += end - start;
+    }
+
+    /** Конец сплошного покрытия, начиная с pos (pos — если байт pos не покрыт) */
+    long coveredFrom(long pos) {
+        Map.Entry<Long, Long> e = ranges.floorEntry(pos);
+        if (e != null && e.getValue() > pos) return e.getValue();
+        return pos;
+    }
+
+    /** Первый непокрытый байт >= pos */
+    long firstGap(long pos) {
+        return coveredFrom(pos);
+    }
+
+    /** Начало ближайшего диапазона после pos, Long.MAX_VALUE если его нет */
+    long nextStart(long pos) {
+        Long k = ranges.higherKey(pos);
+        return k != null ? k : Long.MAX_VALUE;
+    }
+
+    boolean contains(long start, long end) {
+        return coveredFrom(start) >= end;
+    }
+
+    long coveredBytes() {
+        return covered;
+    }
+
+    boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    List<long[]> toList() {
+        List<long[]> out = new ArrayList<>(ranges.size());
+        for (Map.Entry<Long, Long> e : ranges.entrySet()) {
+            out.add(new long[]{e.getKey(), e.getValue()});
+        }
+        return out;
+    }
+}
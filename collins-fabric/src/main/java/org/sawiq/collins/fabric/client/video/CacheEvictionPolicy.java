@@ -0,0 +1,282 @@
+package org.sawiq.collins.fabric.client.video;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * Политика вытеснения дискового кэша. Получает события от {@link DiskCacheIndex}
+ * (всегда под его монитором) и отдаёт порядок, в котором записи стоит удалять.
+ * Закреплённые записи и квоты фильтрует сам индекс.
+ */
+interface CacheEvictionPolicy {
+
+    String id();
+
+    /** Пересобрать состояние по записям индекса (от самой давней к самой свежей) */
+    void reset(Collection<DiskCacheIndex.Entry> lruOrder, long capacityBytes);
+
+    void onInsert(DiskCacheIndex.Entry e);
+
+    void onHit(DiskCacheIndex.Entry e);
+
+    /** evicted — запись удалена политикой (а не руками или из-за порчи файла) */
+    void onRemove(DiskCacheIndex.Entry e, boolean evicted);
+
+    /** Записи в порядке вытеснения: первые — первые кандидаты */
+    Iterator<DiskCacheIndex.Entry> evictionOrder();
+
+    static CacheEvictionPolicy of(String id) {
+        String s = id == null ? "" : id.trim().toLowerCase(Locale.ROOT);
+        return switch (s) {
+            case "lfu" -> new SizeAwareLfu();
+            case "arc" -> new Arc();
+            default -> new Lru();
+        };
+    }
+
+    // ==================== LRU ====================
+
+    /** Самые давно использованные — первыми */
+    final class Lru implements CacheEvictionPolicy {
+        private final LinkedHashMap<String, DiskCacheIndex.Entry> order = new LinkedHashMap<>();
+
+        @Override
+        public String id() {
+            return "lru";
+        }
+
+        @Override
+        public void reset(Collection<DiskCacheIndex.Entry> lruOrder, long capacityBytes) {
+            order.clear();
+            for (DiskCacheIndex.Entry e : lruOrder) order.put(e.hash, e);
+        }
+
+        @Override
+        public void onInsert(DiskCacheIndex.Entry e) {
+            order.remove(e.hash);
+            order.put(e.hash, e);
+        }
+
+        @Override
+        public void onHit(DiskCacheIndex.Entry e) {
+            onInsert(e);
+        }
+
+        @Override
+        public void onRemove(DiskCacheIndex.Entry e, boolean evicted) {
+            order.remove(e.hash);
+        }
+
+        @Override
+        public Iterator<DiskCacheIndex.Entry> evictionOrder() {
+            return order.values().iterator();
+        }
+    }
+
+    // ==================== LFU с учётом размера ====================
+
+    /**
+     * GDSF: приоритет = L + обращения / размер (в МБ). Маленькие часто крутящиеся ролики
+     * держатся дольше разовых фильмов. L растёт до приоритета последней жертвы,
+     * поэтому старые «заслуги» со временем перестают спасать файл.
+     */
+    final class SizeAwareLfu implements CacheEvictionPolicy {
+        private final TreeSet<DiskCacheIndex.Entry> queue = new TreeSet<>(
+                Comparator.<DiskCacheIndex.Entry>comparingDouble(e -> e.priority)
+                        .thenComparingLong(e -> e.seq));
+        private double clock = 0.0;
+        private long seq = 0;
+
+        @Override
+        public String id() {
+            return "lfu";
+        }
+
+        private double priorityOf(DiskCacheIndex.Entry e) {
+            double mb = Math.max(1.0, e.size / (1024.0 * 1024.0));
+            return clock + Math.max(1L, e.hits) / mb;
+        }
+
+        @Override
+        public void reset(Collection<DiskCacheIndex.Entry> lruOrder, long capacityBytes) {
+            queue.clear();
+            clock = 0.0;
+            for (DiskCacheIndex.Entry e : lruOrder) {
+                e.priority = priorityOf(e);
+                e.seq = ++seq;
+                queue.add(e);
+            }
+        }
+
+        @Override
+        public void onInsert(DiskCacheIndex.Entry e) {
+            queue.remove(e);
+            e.priority = priorityOf(e);
+            e.seq = ++seq;
+            queue.add(e);
+        }
+
+        @Override
+        public void onHit(DiskCacheIndex.Entry e) {
+            onInsert(e);
+        }
+
+        @Override
+        public void onRemove(DiskCacheIndex.Entry e, boolean evicted) {
+            queue.remove(e);
+            if (evicted) clock = Math.max(clock, e.priority);
+        }
+
+        @Override
+        public Iterator<DiskCacheIndex.Entry> evictionOrder() {
+            return queue.iterator();
+        }
+    }
+
+    // ==================== ARC ====================
+
+    /**
+     * Adaptive Replacement Cache в байтах: T1 — видели один раз, T2 — повторно.
+     * B1/B2 — «призраки» недавно вытесненных; попадание в призрака сдвигает цель p
+     * (сколько байт отдавать под T1) в пользу соответствующего списка.
+     */
+    final class Arc implements CacheEvictionPolicy {
+        private final LinkedHashMap<String, DiskCacheIndex.Entry> t1 = new LinkedHashMap<>();
+        private final LinkedHashMap<String, DiskCacheIndex.Entry> t2 = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Long> b1 = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Long> b2 = new LinkedHashMap<>();
+        private long t1Bytes, t2Bytes, b1Bytes, b2Bytes;
+        private long capacity = 1;
+        private long p = 0;
+
+        @Override
+        public String id() {
+            return "arc";
+        }
+
+        @Override
+        public void reset(Collection<DiskCacheIndex.Entry> lruOrder, long capacityBytes) {
+            t1.clear();
+            t2.clear();
+            b1.clear();
+            b2.clear();
+            t1Bytes = t2Bytes = b1Bytes = b2Bytes = 0;
+            capacity = Math.max(1, capacityBytes);
+            p = 0;
+            for (DiskCacheIndex.Entry e : lruOrder) {
+                if (e.hits >= 2) {
+                    t2.put(e.hash, e);
+                    t2Bytes += e.size;
+                } else {
+                    t1.put(e.hash, e);
+                    t1Bytes += e.size;
+                }
+            }
+        }
+
+        @Override
+        public void onInsert(DiskCacheIndex.Entry e) {
+            detach(e.hash);
+            Long g1 = b1.remove(e.hash);
+            Long g2 = b2.remove(e.hash);
+            if (g1 != null) {
+                // недавно выкинули из T1 и снова понадобился — T1 мал
+                b1Bytes -= g1;
+                p = Math.min(capacity, p + Math.max(e.size, b2Bytes > 0 && b1Bytes > 0 ? e.size * b2Bytes / b1Bytes : e.size));
+                t2.put(e.hash, e);
+                t2Bytes += e.size;
+            } else if (g2 != null) {
+                b2Bytes -= g2;
+                p = Math.max(0, p - Math.max(e.size, b1Bytes > 0 && b2Bytes > 0 ? e.size * b1Bytes / b2Bytes : e.size));
+                t2.put(e.hash, e);
+                t2Bytes += e.size;
+            } else {
+                t1.put(e.hash, e);
+                t1Bytes += e.size;
+            }
+        }
+
+        @Override
+        public void onHit(DiskCacheIndex.Entry e) {
+            detach(e.hash);
+            t2.put(e.hash, e);
+            t2Bytes += e.size;
+        }
+
+        @Override
+        public void onRemove(DiskCacheIndex.Entry e, boolean evicted) {
+            boolean wasT1 = t1.containsKey(e.hash);
+            if (!detach(e.hash) || !evicted) return;
+            if (wasT1) {
+                b1.put(e.hash, e.size);
+                b1Bytes += e.size;
+            } else {
+                b2.put(e.hash, e.size);
+                b2Bytes += e.size;
+            }
+            trimGhosts();
+        }
+
+        private boolean detach(String hash) {
+            DiskCacheIndex.Entry e = t1.remove(hash);
+            if (e != null) {
+                t1Bytes -= e.size;
+                return true;
+            }
+            e = t2.remove(hash);
+            if (e != null) {
+                t2Bytes -= e.size;
+                return true;
+            }
+            return false;
+        }
+
+        /** Призраки вместе не больше ёмкости кэша; урезаем больший список */
+        private void trimGhosts() {
+            while (b1Bytes + b2Bytes > capacity) {
+                boolean fromB1 = b2.isEmpty() || (!b1.isEmpty() && b1Bytes >= b2Bytes);
+                var it = (fromB1 ? b1 : b2).entrySet().iterator();
+                if (!it.hasNext()) break;
+                long sz = it.next().getValue();
+                it.remove();
+                if (fromB1) b1Bytes -= sz;
+                else b2Bytes -= sz;
+            }
+        }
+
+        /** REPLACE из ARC: берём из T1, пока он больше цели p, иначе из T2 */
+        @Override
+        public Iterator<DiskCacheIndex.Entry> evictionOrder() {
+            List<DiskCacheIndex.Entry> l1 = new ArrayList<>(t1.values());
+            List<DiskCacheIndex.Entry> l2 = new ArrayList<>(t2.values());
+            return new Iterator<>() {
+                int i1 = 0, i2 = 0;
+                long s1 = t1Bytes;
+
+                @Override
+                public boolean hasNext() {
+                    return i1 < l1.size() || i2 < l2.size();
+                }
+
+                @Override
+                public DiskCacheIndex.Entry next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    boolean fromT1 = i2 >= l2.size() || (i1 < l1.size() && s1 > p);
+                    if (fromT1) {
+                        DiskCacheIndex.Entry e = l1.get(i1++);
+                        s1 -= e.size;
+                        return e;
+                    }
+                    return l2.get(i2++);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package org.sawiq.collins.fabric.client.video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Замок закачки одного файла кэша ({@code <hash>.lock}), общий для всех процессов игры,
+ * которые смотрят в одну папку collins-cache. Держит его тот, кто качает .part;
+ * остальные ждут освобождения (ОС отпускает замок и при падении процесса)
+ * и тем временем показывают прогресс, который держатель пишет в начало lock-файла.
+ *
+ * <p>Внутри одной JVM FileLock не делится между потоками, поэтому здесь же реестр
+ * своих замков: второй поток ждёт {@link #released} вместо OverlappingFileLockException.</p>
+ */
+final class CacheFileLock implements AutoCloseable {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsLock] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    static final String SUFFIX = ".lock";
+
+    // Блокируем байт далеко за данными: на Windows замок обязательный,
+    // и заблокированный диапазон нельзя было бы прочитать ждущим
+    private static final long LOCK_POS = 1L << 40;
+    private static final int PROGRESS_BYTES = 24; // done, total, updatedAtMs
+    private static final long PROGRESS_POLL_MS = 500L;
+    private static final long PUBLISH_INTERVAL_MS = 250L;
+
+    /** Прогресс закачки, которую ведёт держатель замка */
+    interface Progress {
+        void onProgress(long done, long total);
+    }
+
+    private static final ConcurrentHashMap<String, CacheFileLock> HELD = new ConcurrentHashMap<>();
+
+    private static final ExecutorService WAITERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Collins-CacheLock");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String key;
+    private final FileChannel ch;
+    private final FileLock lock;
+    private final CompletableFuture<Void> released = new CompletableFuture<>();
+
+    private volatile long done = 0L;
+    private volatile long total = -1L;
+    private long lastPublishMs = 0L;
+
+    private CacheFileLock(String key, FileChannel ch, FileLock lock) {
+        this.key = key;
+        this.ch = ch;
+        this.lock = lock;
+    }
+
+    static Path lockFileOf(Path dir, String hash) {
+        return dir.resolve(hash + SUFFIX);
+    }
+
+    private static String keyOf(Path lockFile) {
+        return lockFile.toAbsolutePath().normalize().toString();
+    }
+
+    /** Взять замок без ожидания. null — его держит этот или другой процесс. */
+    static CacheFileLock tryAcquire(Path dir, String hash) throws IOException {
+        Path lf = lockFileOf(dir, hash);
+        String key = keyOf(lf);
+        if (HELD.containsKey(key)) return null;
+
+        FileChannel ch = FileChannel.open(lf, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock fl;
+        try {
+            fl = ch.tryLock(LOCK_POS, 1, false);
+        } catch (OverlappingFileLockException e) {
+            fl = null; // другой поток этой JVM только что взял
+        }
+        if (fl == null) {
+            ch.close();
+            return null;
+        }
+        return register(key, ch, fl);
+    }
+
+    private static CacheFileLock register(String key, FileChannel ch, FileLock fl) throws IOException {
+        CacheFileLock l = new CacheFileLock(key, ch, fl);
+        HELD.put(key, l);
+        l.writeProgress(0L, -1L);
+        return l;
+    }
+
+    /** Удаляет lock-файл, если замок никто не держит (очистка кэша) */
+    static void deleteIfIdle(Path dir, String hash) {
+        try {
+            CacheFileLock l = tryAcquire(dir, hash);
+            if (l == null) return;
+            try {
+                Files.deleteIfExists(lockFileOf(dir, hash));
+            } finally {
+                l.close();
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Взять замок, при необходимости дождавшись, пока текущий держатель его отпустит.
+     * Пока ждём — progress получает прогресс держателя. null — cancelled сработал.
+     */
+    static CacheFileLock acquire(Path dir, String hash, BooleanSupplier cancelled, Progress progress)
+            throws IOException, InterruptedException {
+        Path lf = lockFileOf(dir, hash);
+        String key = keyOf(lf);
+        boolean waited = false;
+
+        while (true) {
+            if (cancelled.getAsBoolean()) return null;
+
+            // держатель в этой же JVM — ждём его завершения
+            CacheFileLock local = HELD.get(key);
+            if (local != null) {
+                if (!waited) dbg("waiting for local holder " + hash);
+                waited = true;
+                try {
+                    local.released.get(PROGRESS_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (progress != null && local.total > 0) progress.onProgress(local.done, local.total);
+                } catch (ExecutionException ignored) {
+                }
+                continue;
+            }
+
+            CacheFileLock mine = tryAcquire(dir, hash);
+            if (mine != null) {
+                if (waited) dbg("acquired after wait " + hash);
+                return mine;
+            }
+            if (HELD.containsKey(key)) continue;
+
+            // держатель — другой процесс: блокирующий lock() в фоне, а сами читаем его прогресс
+            waited = true;
+            dbg("waiting for other process " + hash);
+            FileChannel ch = FileChannel.open(lf, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Future<FileLock> pending = WAITERS.submit(() -> ch.lock(LOCK_POS, 1, false));
+            boolean handedOver = false;
+            try {
+                while (true) {
+                    if (cancelled.getAsBoolean()) return null;
+                    try {
+                        FileLock fl = pending.get(PROGRESS_POLL_MS, TimeUnit.MILLISECONDS);
+                        handedOver = true;
+                        return register(key, ch, fl);
+                    } catch (TimeoutException e) {
+                        if (progress != null) {
+                            long[] p = readProgress(ch);
+                            if (p != null && p[1] > 0) progress.onProgress(p[0], p[1]);
+                        }
+                    } catch (ExecutionException e) {
+                        // замок взял поток этой JVM — вернёмся к ожиданию его released
+                        if (!(e.getCause() instanceof OverlappingFileLockException)) {
+                            throw new IOException("cache lock failed", e.getCause());
+                        }
+                        LockSupport.parkNanos(1_000_000L);
+                        break;
+                    }
+                }
+            } finally {
+                if (!handedOver) {
+                    pending.cancel(true);
+                    try {
+                        ch.close(); // прерывает ждущий lock()
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private static long[] readProgress(FileChannel ch) {
+        try {
+            ByteBuffer bb = ByteBuffer.allocate(PROGRESS_BYTES);
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, bb.position()) < 0) return null;
+            }
+            return new long[]{bb.getLong(0), bb.getLong(8), bb.getLong(16)};
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void writeProgress(long done, long total) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(PROGRESS_BYTES);
+        bb.putLong(0, done).putLong(8, total).putLong(16, System.currentTimeMillis());
+        while (bb.hasRemaining()) {
+            ch.write(bb, bb.position());
+        }
+    }
+
+    /** Прогресс закачки держателя замка — для ждущих в этой и других JVM */
+    static void publish(Path dir, String hash, long done, long total) {
+        CacheFileLock l = HELD.get(keyOf(lockFileOf(dir, hash)));
+        if (l == null) return;
+        l.done = done;
+        l.total = total;
+        long now = System.currentTimeMillis();
+        synchronized (l) {
+            if (now - l.lastPublishMs < PUBLISH_INTERVAL_MS && done < total) return;
+            l.lastPublishMs = now;
+            try {
+                l.writeProgress(done, total);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * Lock-файл не удаляем: ждущий в другом процессе уже держит его открытым,
+     * и после удаления он бы заблокировал «мёртвый» inode, а новый процесс — новый файл.
+     */
+    @Override
+    public void close() {
+        if (!HELD.remove(key, this)) return;
+        try {
+            lock.release();
+        } catch (Exception ignored) {
+        }
+        try {
+            ch.close();
+        } catch (Exception ignored) {
+        }
+        released.complete(null);
+    }
+}
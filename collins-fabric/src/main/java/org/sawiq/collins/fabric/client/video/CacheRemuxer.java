@@ -0,0 +1,201 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Фоновый remux файлов кэша в faststart MP4 (moov перед mdat), без перекодирования.
+ * У многих MP4 с хостингов moov в конце: каждое открытие и seek тогда читает хвост
+ * многогигабайтного файла. После remux достаточно прочитать маленький заголовок.
+ *
+ * <p>Сам файл кэша не трогаем: пишем рядом {@code <hash>.<pid>.remux.part}, а подменяет его
+ * вызывающий (под замками кэша) через commit — атомарным move.</p>
+ */
+final class CacheRemuxer {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsRemux] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static final String TMP_SUFFIX = ".remux.part";
+
+    // один поток с низким приоритетом: remux — чистый I/O, играющим экранам он не должен мешать
+    private static final ExecutorService REMUX = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Collins-Remux");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // уже в очереди или в работе
+    private static final Set<Path> QUEUED = ConcurrentHashMap.newKeySet();
+
+    private CacheRemuxer() {
+    }
+
+    /**
+     * Ставит файл в очередь на remux, если у него moov после mdat.
+     * commit(tmp, src) подменяет src готовым tmp и возвращает true при успехе; tmp удаляется в любом случае.
+     */
+    static void schedule(Path file, BooleanSupplier enabled, BiPredicate<Path, Path> commit) {
+        if (!QUEUED.add(file)) return;
+        REMUX.execute(() -> {
+            try {
+                if (enabled.getAsBoolean() && needsFaststart(file)) {
+                    remux(file, enabled, commit);
+                }
+            } catch (Throwable t) {
+                dbg("remux failed " + file + ": " + t);
+            } finally {
+                QUEUED.remove(file);
+            }
+        });
+    }
+
+    private static void remux(Path src, BooleanSupplier enabled, BiPredicate<Path, Path> commit) {
+        String name = src.getFileName().toString();
+        int dot = name.indexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        Path tmp = src.resolveSibling(base + "." + ProcessHandle.current().pid() + TMP_SUFFIX);
+
+        long startNs = System.nanoTime();
+        long srcSize;
+        long srcMtime;
+        try {
+            srcSize = Files.size(src);
+            srcMtime = Files.getLastModifiedTime(src).toMillis();
+        } catch (Exception e) {
+            return;
+        }
+
+        boolean ok = false;
+        FFmpegFrameGrabber g = new FFmpegFrameGrabber(src.toString());
+        FFmpegFrameRecorder r = null;
+        try {
+            g.start();
+            r = new FFmpegFrameRecorder(tmp.toString(), g.getImageWidth(), g.getImageHeight(), g.getAudioChannels());
+            r.setFormat("mp4");
+            // второй проход muxer'а переносит moov в начало
+            r.setOption("movflags", "+faststart");
+            r.start(g.getFormatContext());
+
+            AVPacket pkt;
+            long packets = 0;
+            while ((pkt = g.grabPacket()) != null) {
+                r.recordPacket(pkt);
+                if ((++packets & 1023) == 0 && !enabled.getAsBoolean()) {
+                    dbg("remux cancelled " + src);
+                    return;
+                }
+            }
+            r.stop();
+            ok = true;
+        } catch (Exception e) {
+            dbg("remux error " + src + ": " + e);
+        } finally {
+            try {
+                if (r != null) r.release();
+            } catch (Exception ignored) {
+            }
+            try {
+                g.release();
+            } catch (Exception ignored) {
+            }
+            if (!ok) deleteQuietly(tmp);
+        }
+        if (!ok) return;
+
+        try {
+            long outSize = Files.size(tmp);
+            // stream copy не может сильно изменить размер; сильно меньше — потеряли дорожку
+            if (outSize < srcSize / 2 || needsFaststart(tmp) || !hasMoovFirst(tmp)) {
+                dbg("remux output rejected " + tmp + " size=" + outSize + "/" + srcSize);
+                return;
+            }
+            // пока переписывали, файл могли перекачать
+            if (Files.size(src) != srcSize || Files.getLastModifiedTime(src).toMillis() != srcMtime) {
+                dbg("source changed during remux " + src);
+                return;
+            }
+            boolean swapped = commit.test(tmp, src);
+            dbg("remux " + (swapped ? "done " : "not swapped ") + src + " in "
+                    + (System.nanoTime() - startNs) / 1_000_000L + "ms");
+        } catch (Exception e) {
+            dbg("remux commit failed " + src + ": " + e);
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /** MP4/MOV, у которого mdat идёт раньше moov (fragmented и уже faststart — false) */
+    static boolean needsFaststart(Path file) {
+        return layout(file) == Layout.MOOV_LAST;
+    }
+
+    private static boolean hasMoovFirst(Path file) {
+        return layout(file) == Layout.MOOV_FIRST;
+    }
+
+    private enum Layout { NOT_MP4, MOOV_FIRST, MOOV_LAST, FRAGMENTED, BROKEN }
+
+    /** Обходит только заголовки атомов верхнего уровня — несколько коротких чтений */
+    private static Layout layout(Path file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            long size = raf.length();
+            byte[] h = new byte[16];
+            long pos = 0;
+            boolean first = true;
+            boolean seenMdat = false;
+            for (int i = 0; i < 100 && pos + 8 <= size; i++) {
+                raf.seek(pos);
+                raf.readFully(h, 0, 8);
+                long atomSize = ((h[0] & 0xFFL) << 24) | ((h[1] & 0xFFL) << 16) | ((h[2] & 0xFFL) << 8) | (h[3] & 0xFFL);
+                String type = new String(h, 4, 4, StandardCharsets.US_ASCII);
+                if (first && !"ftyp".equals(type)) return Layout.NOT_MP4;
+                first = false;
+
+                if ("moov".equals(type)) return seenMdat ? Layout.MOOV_LAST : Layout.MOOV_FIRST;
+                if ("moof".equals(type)) return Layout.FRAGMENTED;
+                if ("mdat".equals(type)) seenMdat = true;
+
+                if (atomSize == 1) {
+                    raf.readFully(h, 8, 8);
+                    atomSize = 0;
+                    for (int k = 8; k < 16; k++) atomSize = (atomSize << 8) | (h[k] & 0xFFL);
+                } else if (atomSize == 0) {
+                    atomSize = size - pos; // до конца файла
+                }
+                if (atomSize < 8) return Layout.BROKEN;
+                pos += atomSize;
+            }
+            return Layout.BROKEN;
+        } catch (Exception e) {
+            return Layout.BROKEN;
+        }
+    }
+}
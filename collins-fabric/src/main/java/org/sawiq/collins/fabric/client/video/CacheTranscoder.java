@@ -0,0 +1,199 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Фоновое перекодирование файла кэша в размер текстуры экрана ({@code <hash>.<w>x<h>.scaled.mp4}).
+ * Повторы в лобби тогда декодируют 1024×576 вместо 4K, а swscale остаётся только
+ * конвертацией цвета. GOP — около секунды, чтобы seek не декодировал длинную цепочку кадров.
+ *
+ * <p>Вариант — производный файл: в индекс кэша не попадает, удаляется вместе с исходником.
+ * Для хэша держим один вариант — новый размер вытесняет старый.</p>
+ */
+final class CacheTranscoder {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsTranscode] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    static final String SUFFIX = ".scaled.mp4";
+    private static final String TMP_SUFFIX = ".scaled.part";
+
+    // меньше — выигрыш не окупает перекодирование
+    private static final double MIN_PIXEL_RATIO = 2.0;
+    // декодер и кодер не отбирают у игры больше пары ядер
+    private static final String ENCODER_THREADS = "2";
+
+    private static final ExecutorService TRANSCODE = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Collins-Transcode");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // уже в очереди или в работе
+    private static final Set<Path> QUEUED = ConcurrentHashMap.newKeySet();
+
+    private CacheTranscoder() {
+    }
+
+    static Path variantOf(Path dir, String hash, int w, int h) {
+        return dir.resolve(hash + "." + w + "x" + h + SUFFIX);
+    }
+
+    static boolean isVariant(Path p) {
+        String n = p.getFileName().toString();
+        return n.endsWith(SUFFIX) || n.endsWith(TMP_SUFFIX);
+    }
+
+    /** Стоит ли держать вариант: источник хотя бы вдвое больше текстуры по числу пикселей */
+    static boolean worthIt(int srcW, int srcH, int w, int h) {
+        if (srcW <= 0 || srcH <= 0 || w <= 0 || h <= 0) return false;
+        return (double) srcW * srcH >= MIN_PIXEL_RATIO * w * h;
+    }
+
+    /** Удалить все варианты хэша, кроме keep (null — все) */
+    static void deleteVariants(Path dir, String hash, Path keep) {
+        try (DirectoryStream<Path> s = Files.newDirectoryStream(dir, hash + ".*" + SUFFIX)) {
+            for (Path p : s) {
+                if (p.equals(keep)) continue;
+                try {
+                    Files.deleteIfExists(p);
+                } catch (Exception ignored) {
+                    // открыт другим экраном — удалим в следующий раз
+                }
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Ставит в очередь перекодирование src в out (w×h).
+     * commit(tmp, out) переносит готовый tmp на место и возвращает true; tmp удаляется в любом случае.
+     */
+    static void schedule(Path src, Path out, int w, int h, BooleanSupplier enabled, BiPredicate<Path, Path> commit) {
+        if (!QUEUED.add(out)) return;
+        TRANSCODE.execute(() -> {
+            try {
+                if (enabled.getAsBoolean() && !Files.exists(out)) {
+                    transcode(src, out, w, h, enabled, commit);
+                }
+            } catch (Throwable t) {
+                dbg("transcode failed " + src + ": " + t);
+            } finally {
+                QUEUED.remove(out);
+            }
+        });
+    }
+
+    private static void transcode(Path src, Path out, int w, int h, BooleanSupplier enabled, BiPredicate<Path, Path> commit) {
+        String name = out.getFileName().toString();
+        Path tmp = out.resolveSibling(name.substring(0, name.length() - SUFFIX.length())
+                + "." + ProcessHandle.current().pid() + TMP_SUFFIX);
+
+        long startNs = System.nanoTime();
+        long srcLenUs;
+        long outLenUs = 0;
+        boolean ok = false;
+        FFmpegFrameGrabber g = new FFmpegFrameGrabber(src.toString());
+        FFmpegFrameRecorder r = null;
+        try {
+            // swscale сразу в размер экрана и в YUV — кодеру не нужна ещё одна конвертация
+            g.setImageWidth(w);
+            g.setImageHeight(h);
+            g.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            g.setVideoOption("threads", ENCODER_THREADS);
+            g.start();
+            srcLenUs = g.getLengthInTime();
+
+            double fps = g.getVideoFrameRate() > 0 ? g.getVideoFrameRate() : 30.0;
+            int channels = Math.min(2, Math.max(0, g.getAudioChannels()));
+
+            r = new FFmpegFrameRecorder(tmp.toString(), w, h, channels);
+            r.setFormat("mp4");
+            r.setOption("movflags", "+faststart");
+            r.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+            r.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            r.setFrameRate(fps);
+            r.setGopSize((int) Math.max(1, Math.round(fps)));
+            r.setVideoQuality(23); // crf
+            r.setVideoOption("preset", "veryfast");
+            r.setVideoOption("threads", ENCODER_THREADS);
+            if (channels > 0) {
+                r.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+                r.setSampleRate(g.getSampleRate() > 0 ? g.getSampleRate() : 48000);
+                r.setAudioBitrate(128_000);
+            }
+            r.start();
+
+            Frame f;
+            long frames = 0;
+            while ((f = g.grab()) != null) {
+                if (f.image != null) {
+                    // VFR и пропуски: держим отметки времени исходника
+                    if (g.getTimestamp() > r.getTimestamp()) r.setTimestamp(g.getTimestamp());
+                    r.record(f, avutil.AV_PIX_FMT_YUV420P);
+                    outLenUs = Math.max(outLenUs, f.timestamp);
+                    if ((++frames & 255) == 0 && !enabled.getAsBoolean()) {
+                        dbg("transcode cancelled " + src);
+                        return;
+                    }
+                } else if (f.samples != null && channels > 0) {
+                    r.record(f);
+                }
+            }
+            r.stop();
+            // обрезанный вариант хуже никакого: длина должна совпасть с исходником
+            ok = frames > 0 && (srcLenUs <= 0 || outLenUs >= srcLenUs - Math.max(2_000_000L, srcLenUs / 50));
+            if (!ok) dbg("transcode output too short " + outLenUs + "/" + srcLenUs + "us " + src);
+        } catch (Exception e) {
+            dbg("transcode error " + src + ": " + e);
+        } finally {
+            try {
+                if (r != null) r.release();
+            } catch (Exception ignored) {
+            }
+            try {
+                g.release();
+            } catch (Exception ignored) {
+            }
+            if (!ok) deleteQuietly(tmp);
+        }
+        if (!ok) return;
+
+        try {
+            boolean done = commit.test(tmp, out);
+            dbg("transcode " + (done ? "done " : "not committed ") + out + " in "
+                    + (System.nanoTime() - startNs) / 1_000_000L + "ms");
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (Exception ignored) {
+        }
+    }
+}
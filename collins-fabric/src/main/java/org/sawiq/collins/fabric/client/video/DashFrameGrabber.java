@@ -0,0 +1,150 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+
+import java.io.InputStream;
+
+/**
+ * Раздельные DASH-дорожки (видео без звука + звук) как один грабер: два демуксера,
+ * кадры отдаются по возрастанию таймстампа. Для декод-цикла VideoPlayer это обычный
+ * FFmpegFrameGrabber — seek, loop и закрытие уборщиком работают на обе дорожки.
+ * <p>
+ * Кадр JavaCV живёт до следующего grab() своего грабера. Поэтому придержанный кадр одной дорожки
+ * остаётся целым, пока отдаются кадры другой: её грабер в это время не трогаем.
+ * Звук не обязателен: не открылся — играем видео без него.
+ */
+final class DashFrameGrabber extends FFmpegFrameGrabber {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsDash] " + msg);
+        } catch (java.lang.Exception ignored) {
+        }
+    }
+
+    // здесь Exception — унаследованный FFmpegFrameGrabber.Exception; ловим всё через java.lang.Exception
+    private final FFmpegFrameGrabber audio;
+    private boolean audioUp = false;
+    private boolean audioReleased = false;
+
+    private Frame nextVideo = null;
+    private Frame nextAudio = null;
+    private boolean videoEnded = false;
+    private boolean audioEnded = false;
+
+    /** video — URL видеодорожки; audio — ещё не запущенный грабер звуковой */
+    DashFrameGrabber(String video, FFmpegFrameGrabber audio) {
+        super(video);
+        this.audio = audio;
+    }
+
+    /** Видеодорожка через InputStream (упреждающее чтение), maximumSize — как у FFmpegFrameGrabber */
+    DashFrameGrabber(InputStream video, int maximumSize, FFmpegFrameGrabber audio) {
+        super(video, maximumSize);
+        this.audio = audio;
+    }
+
+    @Override
+    public void start(boolean findStreamInfo) throws Exception {
+        super.start(findStreamInfo);
+        if (audioUp) return;
+        try {
+            audio.start(findStreamInfo);
+            audioUp = audio.getAudioChannels() > 0;
+        } catch (java.lang.Exception e) {
+            dbg("audio track failed to open: " + e.getMessage());
+            audioUp = false;
+        }
+        audioEnded = !audioUp;
+        dbg("started, audio=" + audioUp + " rate=" + (audioUp ? audio.getSampleRate() : 0));
+    }
+
+    @Override
+    public Frame grab() throws Exception {
+        if (nextVideo == null && !videoEnded) {
+            nextVideo = super.grab();
+            if (nextVideo == null) videoEnded = true;
+        }
+        if (nextAudio == null && !audioEnded) {
+            try {
+                nextAudio = audio.grab();
+            } catch (java.lang.Exception e) {
+                dbg("audio grab failed: " + e.getMessage());
+                nextAudio = null;
+            }
+            if (nextAudio == null) audioEnded = true;
+        }
+        // конец ролика — по видео; хвост звука после последнего кадра не нужен
+        if (nextVideo == null) return null;
+        if (nextAudio != null && nextAudio.timestamp <= nextVideo.timestamp) {
+            Frame f = nextAudio;
+            nextAudio = null;
+            return f;
+        }
+        Frame f = nextVideo;
+        nextVideo = null;
+        return f;
+    }
+
+    @Override
+    public void setTimestamp(long timestamp, boolean checkFrame) throws Exception {
+        nextVideo = null;
+        nextAudio = null;
+        videoEnded = false;
+        super.setTimestamp(timestamp, checkFrame);
+        if (audioUp) {
+            try {
+                audio.setTimestamp(timestamp);
+                audioEnded = false;
+            } catch (java.lang.Exception e) {
+                dbg("audio seek failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void setTimestamp(long timestamp) throws Exception {
+        setTimestamp(timestamp, false);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return audioUp ? audio.getSampleRate() : super.getSampleRate();
+    }
+
+    @Override
+    public int getAudioChannels() {
+        return audioUp ? audio.getAudioChannels() : super.getAudioChannels();
+    }
+
+    @Override
+    public void release() throws Exception {
+        try {
+            super.release();
+        } finally {
+            releaseAudio();
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        try {
+            super.stop();
+        } finally {
+            releaseAudio();
+        }
+    }
+
+    private synchronized void releaseAudio() {
+        if (audioReleased) return;
+        audioReleased = true;
+        try {
+            audio.release();
+        } catch (java.lang.Exception ignored) {
+        }
+    }
+}
@@ -0,0 +1,918 @@
+package org.sawiq.collins.fabric.client.video;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Индекс дискового кэша (collins-cache): размер, последнее обращение, результат проверки
+ * и хэш содержимого для каждого файла. Живёт в памяти, на диске — снимок {@value #SNAPSHOT_FILE}
+ * и журнал изменений {@value #JOURNAL_FILE}, который периодически сворачивается в снимок.
+ *
+ * <p>Поиск, touch и выбор жертв для вытеснения не трогают файловую систему: порядок вытеснения
+ * ведёт {@link CacheEvictionPolicy}, закреплённые записи (экраны текущего сервера) пропускаются.
+ * Полное сканирование папки — только если индекса ещё нет или он повреждён.</p>
+ *
+ * <p>Папку могут делить несколько запущенных клиентов. Чтение, дописывание журнала и сворачивание
+ * идут под файловым замком {@value #LOCK_FILE}; перед записью снимка индекс перечитывает диск
+ * и сливает чужие изменения со своими, а {@link #refresh()} подхватывает их перед вытеснением.</p>
+ */
+final class DiskCacheIndex {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsCache] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    static final String SNAPSHOT_FILE = "cache.idx";
+    static final String JOURNAL_FILE = "cache.journal";
+    static final String LOCK_FILE = "cache.idx.lock";
+    // результат remux, который ждёт подмены файла (файл был открыт): {@code <hash>.faststart.part}
+    static final String PENDING_REMUX_SUFFIX = ".faststart.part";
+
+    // файловый замок на процесс один: два захвата из одной JVM — OverlappingFileLockException
+    private static final Object FILE_LOCK = new Object();
+    // заголовок журнала: MAGIC + generation
+    private static final long JOURNAL_HEADER_BYTES = 12L;
+
+    static final byte VALID_UNKNOWN = 0;
+    static final byte VALID_OK = 1;
+    static final byte VALID_BAD = 2;
+
+    private static final int MAGIC = 0x434C4958; // "CLIX"
+    private static final int VERSION = 2;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_TOUCH = 2;
+    private static final byte OP_VALIDATION = 3;
+    private static final byte OP_REMOVE = 4;
+
+    // после стольких записей журнал сворачивается в снимок
+    private static final int COMPACT_RECORDS = 4096;
+
+    // хэш содержимого считается по началу и концу файла — целиком гигабайтные видео не читаем
+    private static final int SAMPLE_BYTES = 64 * 1024;
+
+    static final class Entry {
+        final String hash;
+        String fileName;
+        long size;
+        long lastAccessMs;
+        byte validation;
+        byte[] contentHash;
+        long hits;
+        // сервер, на котором файл использовали последним (для квот)
+        String server;
+        // хэш содержимого уже сверен в этой сессии игры
+        transient boolean verified;
+        // отложенный remux рядом с файлом: занимает место и входит в бюджет кэша
+        transient long pendingBytes;
+        // состояние политики вытеснения
+        transient double priority;
+        transient long seq;
+
+        Entry(String hash) {
+            this.hash = hash;
+        }
+    }
+
+    private final Path dir;
+    // insertion-order: touch = remove + put, голова — самая старая запись
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long totalBytes = 0L;
+    private final Map<String, Long> serverBytes = new HashMap<>();
+
+    private CacheEvictionPolicy policy = new CacheEvictionPolicy.Lru();
+    private long capacityBytes = Long.MAX_VALUE;
+    private Set<String> pinned = Set.of();
+
+    // статистика: за всё время (переживает перезапуск через журнал) и за сессию игры
+    private long hits, misses, hitBytes, missBytes;
+    private long sessionHits, sessionMisses, sessionHitBytes, sessionMissBytes;
+
+    private long generation = 0L;
+    private DataOutputStream journal;
+    private int journalRecords = 0;
+    // размер журнала, каким его оставил этот процесс; другой — значит, писал другой клиент
+    private long journalBytes = 0L;
+    private boolean journalStale = false;
+
+    private DiskCacheIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    Path dir() {
+        return dir;
+    }
+
+    static boolean isIndexFile(Path p) {
+        String n = p.getFileName().toString();
+        return n.equals(SNAPSHOT_FILE) || n.equals(JOURNAL_FILE) || n.equals(SNAPSHOT_FILE + ".tmp") || n.equals(LOCK_FILE);
+    }
+
+    /** Готовый файл кэша: не индекс, не недокачка, не замок и не уменьшенный вариант */
+    static boolean isCacheFile(Path p) {
+        if (isIndexFile(p)) return false;
+        String n = p.getFileName().toString();
+        return !(n.endsWith(".part") || n.contains(".part" + SegmentedDownloader.SIDECAR_SUFFIX)
+                || n.endsWith(CacheFileLock.SUFFIX) || CacheTranscoder.isVariant(p));
+    }
+
+    /** Хэш-ключ файла кэша по имени ({@code <sha256>.<ext>}) */
+    static String hashOf(Path file) {
+        String n = file.getFileName().toString();
+        int dot = n.indexOf('.');
+        return dot > 0 ? n.substring(0, dot) : n;
+    }
+
+    // ==================== Загрузка ====================
+
+    static DiskCacheIndex load(Path dir) {
+        DiskCacheIndex idx = new DiskCacheIndex(dir);
+        boolean[] ok = {false};
+        idx.locked(() -> {
+            try {
+                ok[0] = idx.readSnapshot();
+                if (ok[0]) idx.replayJournal();
+            } catch (Exception e) {
+                dbg("cacheIndex: load failed: " + e);
+                ok[0] = false;
+            }
+            if (!ok[0]) {
+                idx.entries.clear();
+                idx.serverBytes.clear();
+                idx.totalBytes = 0L;
+                idx.rebuildFromDirectory();
+            }
+            idx.scanPendingRemux();
+            // снимок + свежий журнал: отрезает битый хвост и лишние записи
+            idx.writeSnapshot();
+        });
+        idx.policy.reset(idx.entries.values(), idx.capacityBytes);
+        dbg("cacheIndex: loaded entries=" + idx.entries.size() + " bytes=" + idx.totalBytes
+                + (ok[0] ? "" : " (rebuilt from directory)"));
+        return idx;
+    }
+
+    private boolean readSnapshot() throws IOException {
+        Path snap = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.isRegularFile(snap)) return false;
+
+        CRC32 crc = new CRC32();
+        try (var in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(snap)), crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            long gen = in.readLong();
+            long sHits = in.readLong(), sMisses = in.readLong(), sHitBytes = in.readLong(), sMissBytes = in.readLong();
+            int count = in.readInt();
+            List<Entry> list = new ArrayList<>(Math.max(0, Math.min(count, 1 << 16)));
+            for (int i = 0; i < count; i++) {
+                Entry e = new Entry(in.readUTF());
+                e.fileName = in.readUTF();
+                e.size = in.readLong();
+                e.lastAccessMs = in.readLong();
+                e.validation = in.readByte();
+                int hl = in.readUnsignedByte();
+                if (hl > 0) {
+                    e.contentHash = new byte[hl];
+                    in.readFully(e.contentHash);
+                }
+                e.hits = in.readLong();
+                String srv = in.readUTF();
+                e.server = srv.isEmpty() ? null : srv;
+                list.add(e);
+            }
+            // последние 8 байт — CRC всего, что перед ними
+            long expected = crc.getValue();
+            long stored = in.readLong();
+            if (stored != expected) {
+                dbg("cacheIndex: snapshot crc mismatch");
+                return false;
+            }
+            generation = gen;
+            hits = sHits;
+            misses = sMisses;
+            hitBytes = sHitBytes;
+            missBytes = sMissBytes;
+            for (Entry e : list) putEntry(e);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private void replayJournal() {
+        Path jf = dir.resolve(JOURNAL_FILE);
+        if (!Files.isRegularFile(jf)) return;
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(jf)))) {
+            if (in.readInt() != MAGIC || in.readLong() != generation) {
+                // журнал от старого снимка (упали между записью снимка и сбросом журнала) — уже учтён
+                return;
+            }
+            int applied = 0;
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                if (len <= 0 || len > 64 * 1024) break;
+                byte[] rec = new byte[len];
+                long stored;
+                try {
+                    in.readFully(rec);
+                    stored = in.readLong();
+                } catch (EOFException eof) {
+                    break; // недописанная запись — игра закрылась посреди append
+                }
+                CRC32 crc = new CRC32();
+                crc.update(rec);
+                if (crc.getValue() != stored) break;
+                applyRecord(new DataInputStream(new ByteArrayInputStream(rec)));
+                applied++;
+            }
+            dbg("cacheIndex: journal replayed records=" + applied);
+        } catch (Exception e) {
+            dbg("cacheIndex: journal replay stopped: " + e);
+        }
+    }
+
+    private void applyRecord(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        String hash = in.readUTF();
+        switch (op) {
+            case OP_PUT -> {
+                boolean download = in.readBoolean();
+                Entry e = new Entry(hash);
+                e.fileName = in.readUTF();
+                e.size = in.readLong();
+                e.lastAccessMs = in.readLong();
+                e.validation = in.readByte();
+                int hl = in.readUnsignedByte();
+                if (hl > 0) {
+                    e.contentHash = new byte[hl];
+                    in.readFully(e.contentHash);
+                }
+                e.hits = in.readLong();
+                String srv = in.readUTF();
+                e.server = srv.isEmpty() ? null : srv;
+                removeEntry(hash);
+                putEntry(e);
+                if (download) {
+                    misses++;
+                    missBytes += e.size;
+                }
+            }
+            case OP_TOUCH -> {
+                long at = in.readLong();
+                String srv = in.readUTF();
+                Entry e = removeEntry(hash);
+                if (e != null) {
+                    e.lastAccessMs = at;
+                    e.hits++;
+                    if (!srv.isEmpty()) e.server = srv;
+                    putEntry(e);
+                    hits++;
+                    hitBytes += e.size;
+                }
+            }
+            case OP_VALIDATION -> {
+                byte v = in.readByte();
+                int hl = in.readUnsignedByte();
+                byte[] ch = null;
+                if (hl > 0) {
+                    ch = new byte[hl];
+                    in.readFully(ch);
+                }
+                Entry e = entries.get(hash);
+                if (e != null) {
+                    e.validation = v;
+                    if (ch != null) e.contentHash = ch;
+                }
+            }
+            case OP_REMOVE -> removeEntry(hash);
+            default -> throw new IOException("unknown journal op " + op);
+        }
+    }
+
+    /** Индекса нет или он битый — один раз собираем его по содержимому папки */
+    private void rebuildFromDirectory() {
+        List<Entry> found = scanDirectory();
+        found.sort(Comparator.comparingLong(e -> e.lastAccessMs));
+        for (Entry e : found) {
+            removeEntry(e.hash);
+            putEntry(e);
+        }
+    }
+
+    /** Размеры отложенных remux — одним листингом (старт и сворачивание), дальше их ведёт setPendingBytes */
+    private void scanPendingRemux() {
+        if (!Files.isDirectory(dir)) return;
+        try (var s = Files.newDirectoryStream(dir, "*" + PENDING_REMUX_SUFFIX)) {
+            for (Path p : s) {
+                String n = p.getFileName().toString();
+                String hash = n.substring(0, n.length() - PENDING_REMUX_SUFFIX.length());
+                try {
+                    setPendingBytes(hash, Files.size(p));
+                } catch (Exception ignored) {
+                }
+            }
+        } catch (Exception e) {
+            dbg("cacheIndex: pending remux scan failed: " + e);
+        }
+    }
+
+    /** Все готовые файлы кэша в папке как записи без результата проверки */
+    private List<Entry> scanDirectory() {
+        List<Entry> found = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return found;
+        try (var s = Files.list(dir)) {
+            s.forEach(p -> {
+                try {
+                    if (!Files.isRegularFile(p) || !isCacheFile(p)) return;
+                    Entry e = new Entry(hashOf(p));
+                    e.fileName = p.getFileName().toString();
+                    e.size = Files.size(p);
+                    e.lastAccessMs = Files.getLastModifiedTime(p).toMillis();
+                    e.validation = VALID_UNKNOWN;
+                    found.add(e);
+                } catch (Exception ignored) {
+                }
+            });
+        } catch (Exception e) {
+            dbg("cacheIndex: directory scan failed: " + e);
+        }
+        return found;
+    }
+
+    // ==================== Несколько клиентов ====================
+
+    private interface IoTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * task под файловым замком папки (другие клиенты ждут). Замок недоступен (только чтение,
+     * сетевой диск) — выполняем без него, как раньше.
+     */
+    private void locked(IoTask task) {
+        synchronized (FILE_LOCK) {
+            FileChannel ch = null;
+            FileLock lock = null;
+            try {
+                Files.createDirectories(dir);
+                ch = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                lock = ch.lock();
+            } catch (Exception e) {
+                dbg("cacheIndex: file lock unavailable: " + e);
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                dbg("cacheIndex: locked task failed: " + e);
+            } finally {
+                try {
+                    if (lock != null) lock.release();
+                } catch (Exception ignored) {
+                }
+                try {
+                    if (ch != null) ch.close();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Подхватить изменения других клиентов; если журнал тот же, что мы оставили, — ничего не читаем.
+     * Только снимок и журнал: сверка с папкой (stat каждого файла, листинг) — при старте и сворачивании.
+     */
+    synchronized void refresh() {
+        locked(() -> {
+            if (!journalStale && journalSize() == journalBytes && journalGeneration() == generation) return;
+            mergeFromDisk(false);
+        });
+    }
+
+    private long journalSize() {
+        try {
+            return Files.size(dir.resolve(JOURNAL_FILE));
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    private long journalGeneration() {
+        try (var in = new DataInputStream(Files.newInputStream(dir.resolve(JOURNAL_FILE)))) {
+            return in.readInt() == MAGIC ? in.readLong() : -1L;
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Под замком: перечитать снимок и журнал и слить с памятью. Конфликт — побеждает более свежее
+     * обращение; записи, которых на диске уже нет (удалил другой клиент), выпадают.
+     * reconcile — ещё и сверить с папкой: записи без файла выпадают, файлы мимо индекса добавляются.
+     */
+    private void mergeFromDisk(boolean reconcile) {
+        DiskCacheIndex disk = new DiskCacheIndex(dir);
+        boolean ok;
+        try {
+            ok = disk.readSnapshot();
+            if (ok) disk.replayJournal();
+        } catch (Exception e) {
+            ok = false;
+        }
+        journalBytes = journalSize();
+        journalStale = false;
+
+        Map<String, Entry> merged = new HashMap<>(entries);
+        if (ok) {
+            generation = Math.max(generation, disk.generation);
+            hits = Math.max(hits, disk.hits);
+            misses = Math.max(misses, disk.misses);
+            hitBytes = Math.max(hitBytes, disk.hitBytes);
+            missBytes = Math.max(missBytes, disk.missBytes);
+            // свои изменения мы журналируем под замком: чего нет ни в снимке, ни в журнале — удалено
+            merged.keySet().retainAll(disk.entries.keySet());
+            for (Entry d : disk.entries.values()) {
+                Entry m = merged.get(d.hash);
+                if (m != null && m.lastAccessMs >= d.lastAccessMs && m.fileName.equals(d.fileName)) continue;
+                if (m != null) {
+                    d.hits = Math.max(d.hits, m.hits);
+                    d.pendingBytes = m.pendingBytes;
+                    d.verified = m.verified && m.size == d.size && Arrays.equals(m.contentHash, d.contentHash);
+                }
+                merged.put(d.hash, d);
+            }
+        }
+        if (reconcile) {
+            merged.values().removeIf(e -> !Files.isRegularFile(dir.resolve(e.fileName)));
+            for (Entry e : scanDirectory()) merged.putIfAbsent(e.hash, e);
+        }
+
+        List<Entry> list = new ArrayList<>(merged.values());
+        list.sort(Comparator.comparingLong(e -> e.lastAccessMs));
+        entries.clear();
+        serverBytes.clear();
+        totalBytes = 0L;
+        for (Entry e : list) putEntry(e);
+        if (reconcile) scanPendingRemux();
+        policy.reset(entries.values(), capacityBytes);
+        dbg("cacheIndex: merged with disk entries=" + entries.size() + " bytes=" + totalBytes);
+    }
+
+    // ==================== Операции ====================
+
+    /** Запись по ключу, без изменения порядка LRU */
+    synchronized Entry lookup(String hash) {
+        return entries.get(hash);
+    }
+
+    /** Новый файл в кэше (после докачки) — промах кэша */
+    synchronized void put(String hash, Path file, long size, String server) {
+        Entry e = new Entry(hash);
+        e.fileName = file.getFileName().toString();
+        e.size = size;
+        e.lastAccessMs = System.currentTimeMillis();
+        e.validation = VALID_UNKNOWN;
+        e.contentHash = sampleHash(file, size);
+        e.verified = e.contentHash != null;
+        e.server = server;
+        Entry old = removeEntry(hash);
+        if (old != null) policy.onRemove(old, false);
+        putEntry(e);
+        policy.onInsert(e);
+
+        misses++;
+        missBytes += size;
+        sessionMisses++;
+        sessionMissBytes += size;
+        appendPut(e, true);
+    }
+
+    /** Файл переписан на месте (remux): новый размер и хэш содержимого, проверку повторим при открытии */
+    synchronized void replaceFile(String hash, Path file, long size) {
+        Entry e = entries.get(hash);
+        if (e == null) return;
+        policy.onRemove(e, false);
+        removeEntry(hash);
+        e.size = size;
+        e.contentHash = sampleHash(file, size);
+        e.verified = e.contentHash != null;
+        e.validation = VALID_UNKNOWN;
+        putEntry(e);
+        policy.onHit(e);
+        appendPut(e, false);
+    }
+
+    /** Размер отложенного remux рядом с файлом (0 — его нет) */
+    synchronized void setPendingBytes(String hash, long bytes) {
+        Entry e = entries.get(hash);
+        if (e == null) return;
+        long delta = bytes - e.pendingBytes;
+        if (delta == 0) return;
+        e.pendingBytes = bytes;
+        totalBytes += delta;
+        if (e.server != null) serverBytes.merge(e.server, delta, Long::sum);
+    }
+
+    /** Файл взят из кэша — попадание */
+    synchronized void touch(String hash, String server) {
+        Entry e = removeEntry(hash);
+        if (e == null) return;
+        e.lastAccessMs = System.currentTimeMillis();
+        e.hits++;
+        if (server != null) e.server = server;
+        putEntry(e);
+        policy.onHit(e);
+
+        hits++;
+        hitBytes += e.size;
+        sessionHits++;
+        sessionHitBytes += e.size;
+        append(out -> {
+            out.writeByte(OP_TOUCH);
+            out.writeUTF(hash);
+            out.writeLong(e.lastAccessMs);
+            out.writeUTF(server != null ? server : "");
+        });
+    }
+
+    synchronized void remove(String hash) {
+        remove(hash, false);
+    }
+
+    /** evicted — удаляем по решению политики (ARC запоминает призрака) */
+    synchronized void remove(String hash, boolean evicted) {
+        Entry e = removeEntry(hash);
+        if (e == null) return;
+        policy.onRemove(e, evicted);
+        append(out -> {
+            out.writeByte(OP_REMOVE);
+            out.writeUTF(hash);
+        });
+    }
+
+    /**
+     * Известный результат проверки файла: TRUE/FALSE, или null — проверять заново
+     * (записи нет, размер другой или хэш содержимого не совпал).
+     * Хэш содержимого сверяется один раз за сессию игры.
+     */
+    synchronized Boolean knownValidation(String hash, Path file, long size) {
+        Entry e = entries.get(hash);
+        if (e == null || e.size != size || e.validation == VALID_UNKNOWN) return null;
+        if (!e.verified) {
+            byte[] now = sampleHash(file, size);
+            if (now == null || e.contentHash == null || !Arrays.equals(now, e.contentHash)) {
+                // файл подменили/обрезали снаружи
+                e.contentHash = now;
+                e.validation = VALID_UNKNOWN;
+                return null;
+            }
+            e.verified = true;
+        }
+        return e.validation == VALID_OK;
+    }
+
+    synchronized void setValidation(String hash, Path file, long size, boolean ok) {
+        Entry e = entries.get(hash);
+        boolean full = e == null || e.size != size;
+        if (e == null) {
+            // файл есть на диске, но индекс о нём не знал
+            e = new Entry(hash);
+            e.fileName = file.getFileName().toString();
+            e.size = size;
+            e.lastAccessMs = System.currentTimeMillis();
+            putEntry(e);
+            policy.onInsert(e);
+        } else if (e.size != size) {
+            policy.onRemove(e, false);
+            removeEntry(hash);
+            e.size = size;
+            putEntry(e);
+            policy.onInsert(e);
+        }
+        e.validation = ok ? VALID_OK : VALID_BAD;
+        if (e.contentHash == null || !e.verified) e.contentHash = sampleHash(file, size);
+        e.verified = e.contentHash != null;
+
+        if (full) {
+            appendPut(e, false);
+        } else {
+            Entry v = e;
+            append(out -> {
+                out.writeByte(OP_VALIDATION);
+                out.writeUTF(hash);
+                out.writeByte(v.validation);
+                writeHash(out, v.contentHash);
+            });
+        }
+    }
+
+    /** Сменить политику вытеснения / ёмкость кэша (состояние политики пересобирается) */
+    synchronized void configure(String policyId, long capacityBytes) {
+        CacheEvictionPolicy next = CacheEvictionPolicy.of(policyId);
+        if (next.id().equals(policy.id()) && capacityBytes == this.capacityBytes) return;
+        dbg("cacheIndex: policy " + policy.id() + " -> " + next.id() + " capacity=" + (capacityBytes >> 20) + "MB");
+        this.capacityBytes = capacityBytes;
+        policy = next;
+        policy.reset(entries.values(), capacityBytes);
+    }
+
+    /** Записи, которые нельзя вытеснять (используются экранами текущего сервера) */
+    synchronized void setPinned(Set<String> hashes) {
+        pinned = Set.copyOf(hashes);
+    }
+
+    synchronized boolean isPinned(String hash) {
+        return pinned.contains(hash);
+    }
+
+    /**
+     * Записи, которые нужно вытеснить, чтобы уложиться в maxBytes, в порядке политики.
+     * server != null — только файлы этого сервера (квота). Из индекса не удаляются.
+     */
+    synchronized List<Entry> evictionCandidates(long maxBytes, String server) {
+        List<Entry> out = new ArrayList<>();
+        long total = server == null ? totalBytes : serverBytes.getOrDefault(server, 0L);
+        Iterator<Entry> it = policy.evictionOrder();
+        while (total > maxBytes && it.hasNext()) {
+            Entry e = it.next();
+            if (pinned.contains(e.hash)) continue;
+            if (server != null && !server.equals(e.server)) continue;
+            out.add(e);
+            total -= e.size + e.pendingBytes;
+        }
+        return out;
+    }
+
+    synchronized long serverBytes(String server) {
+        return server == null ? 0L : serverBytes.getOrDefault(server, 0L);
+    }
+
+    synchronized VideoPlayer.CacheStats stats(String server, long serverQuotaBytes) {
+        int pinnedFiles = 0;
+        long pinnedBytes = 0L;
+        for (String h : pinned) {
+            Entry e = entries.get(h);
+            if (e == null) continue;
+            pinnedFiles++;
+            pinnedBytes += e.size;
+        }
+        return new VideoPlayer.CacheStats(policy.id(), capacityBytes,
+                hits, misses, hitBytes, missBytes,
+                sessionHits, sessionMisses, sessionHitBytes, sessionMissBytes,
+                pinnedFiles, pinnedBytes, server, serverBytes(server), serverQuotaBytes);
+    }
+
+    synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        serverBytes.clear();
+        totalBytes = 0L;
+        policy.reset(entries.values(), capacityBytes);
+        compact();
+    }
+
+    synchronized void close() {
+        closeJournal();
+    }
+
+    private void putEntry(Entry e) {
+        entries.put(e.hash, e);
+        long bytes = e.size + e.pendingBytes;
+        totalBytes += bytes;
+        if (e.server != null) serverBytes.merge(e.server, bytes, Long::sum);
+    }
+
+    private Entry removeEntry(String hash) {
+        Entry e = entries.remove(hash);
+        if (e != null) {
+            long bytes = e.size + e.pendingBytes;
+            totalBytes -= bytes;
+            if (e.server != null) {
+                long left = serverBytes.getOrDefault(e.server, 0L) - bytes;
+                if (left > 0) serverBytes.put(e.server, left);
+                else serverBytes.remove(e.server);
+            }
+        }
+        return e;
+    }
+
+    // ==================== Журнал ====================
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void appendPut(Entry e, boolean download) {
+        append(out -> {
+            out.writeByte(OP_PUT);
+            out.writeUTF(e.hash);
+            out.writeBoolean(download);
+            out.writeUTF(e.fileName);
+            out.writeLong(e.size);
+            out.writeLong(e.lastAccessMs);
+            out.writeByte(e.validation);
+            writeHash(out, e.contentHash);
+            out.writeLong(e.hits);
+            out.writeUTF(e.server != null ? e.server : "");
+        });
+    }
+
+    private void append(RecordWriter w) {
+        locked(() -> {
+            long before = journalSize();
+            if (journalRecords >= COMPACT_RECORDS || before < JOURNAL_HEADER_BYTES) {
+                // снимок уже содержит это изменение (журнала нет — его удалили, начинаем заново)
+                compactLocked();
+                return;
+            }
+            // кто-то дописал после нас — перечитаем в refresh()
+            if (before != journalBytes) journalStale = true;
+            try {
+                if (journal == null) openJournal(false);
+
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+                w.write(new DataOutputStream(bos));
+                byte[] rec = bos.toByteArray();
+                CRC32 crc = new CRC32();
+                crc.update(rec);
+
+                journal.writeInt(rec.length);
+                journal.write(rec);
+                journal.writeLong(crc.getValue());
+                journal.flush();
+                journalRecords++;
+                journalBytes = before + 4L + rec.length + 8L;
+            } catch (Exception e) {
+                dbg("cacheIndex: journal append failed: " + e);
+                closeJournal();
+            }
+        });
+    }
+
+    private void openJournal(boolean truncate) throws IOException {
+        Files.createDirectories(dir);
+        Path jf = dir.resolve(JOURNAL_FILE);
+        OutputStream os = truncate
+                ? Files.newOutputStream(jf, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                : Files.newOutputStream(jf, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        journal = new DataOutputStream(new BufferedOutputStream(os, 4096));
+        if (truncate) {
+            journal.writeInt(MAGIC);
+            journal.writeLong(generation);
+            journal.close();
+            // дальше только APPEND: иначе поверх чужих записей пишем со своей позиции
+            journal = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(jf, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE), 4096));
+            journalRecords = 0;
+            journalBytes = JOURNAL_HEADER_BYTES;
+            journalStale = false;
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (Exception ignored) {
+        }
+        journal = null;
+    }
+
+    /** Сливает память с диском и пишет снимок — под файловым замком */
+    private void compact() {
+        locked(this::compactLocked);
+    }
+
+    private void compactLocked() {
+        mergeFromDisk(true);
+        writeSnapshot();
+    }
+
+    /** Пишет снимок (новое поколение) и начинает пустой журнал. Только под замком */
+    private void writeSnapshot() {
+        closeJournal();
+        try {
+            Files.createDirectories(dir);
+            long gen = generation + 1;
+            Path snap = dir.resolve(SNAPSHOT_FILE);
+            Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+
+            CRC32 crc = new CRC32();
+            try (var raw = new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024);
+                 var out = new DataOutputStream(new CheckedOutputStream(raw, crc))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(gen);
+                out.writeLong(hits);
+                out.writeLong(misses);
+                out.writeLong(hitBytes);
+                out.writeLong(missBytes);
+                out.writeInt(entries.size());
+                for (Entry e : entries.values()) {
+                    out.writeUTF(e.hash);
+                    out.writeUTF(e.fileName);
+                    out.writeLong(e.size);
+                    out.writeLong(e.lastAccessMs);
+                    out.writeByte(e.validation);
+                    writeHash(out, e.contentHash);
+                    out.writeLong(e.hits);
+                    out.writeUTF(e.server != null ? e.server : "");
+                }
+                out.flush();
+                // контрольная сумма — мимо CheckedOutputStream
+                new DataOutputStream(raw).writeLong(crc.getValue());
+            }
+            try {
+                Files.move(tmp, snap, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception e) {
+                Files.move(tmp, snap, StandardCopyOption.REPLACE_EXISTING);
+            }
+            generation = gen;
+            openJournal(true);
+        } catch (Exception e) {
+            dbg("cacheIndex: compact failed: " + e);
+            closeJournal();
+        }
+    }
+
+    private static void writeHash(DataOutputStream out, byte[] h) throws IOException {
+        if (h == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(h.length);
+            out.write(h);
+        }
+    }
+
+    /** SHA-256 от размера, первых и последних {@value #SAMPLE_BYTES} байт файла */
+    static byte[] sampleHash(Path file, long size) {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(ByteBuffer.allocate(8).putLong(0, size));
+            ByteBuffer buf = ByteBuffer.allocate(SAMPLE_BYTES);
+            readAt(ch, buf, 0L);
+            md.update(buf);
+            if (size > SAMPLE_BYTES) {
+                buf.clear();
+                readAt(ch, buf, Math.max(SAMPLE_BYTES, size - SAMPLE_BYTES));
+                md.update(buf);
+            }
+            return md.digest();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void readAt(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int r = ch.read(buf, pos);
+            if (r < 0) break;
+            pos += r;
+        }
+        buf.flip();
+    }
+}
@@ -0,0 +1,199 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Общий диспетчер закачек кэша: все соединения, которые тянут тело файла, проходят через него.
+ * <ul>
+ *     <li>не больше {@code downloadMaxConnections} одновременных соединений на всю игру;</li>
+ *     <li>свободный слот получает ждущий с наименьшим приоритетом (ближний/видимый экран),
+ *     приоритет перечитывается при каждой раздаче — экран, к которому подошли, обгоняет остальных;</li>
+ *     <li>общий лимит скорости {@code downloadMaxMbit} (token bucket);</li>
+ *     <li>одинаковые probe/resolve одного URL выполняются один раз.</li>
+ * </ul>
+ * Сетевой I/O идёт на виртуальных потоках: ожидание слота или сети не держит платформенный поток.
+ * Поэтому здесь ReentrantLock, а не synchronized — wait() внутри монитора прикалывает носитель.
+ */
+final class DownloadManager {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsDM] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /** Приоритет закачки без экрана (префетч, фоновые задачи) — после всех экранов */
+    static final double BACKGROUND_PRIORITY = 1e9;
+
+    // сколько можно «занять» у лимита скорости после простоя
+    private static final long BURST_NS = 250_000_000L;
+    private static final long WAIT_POLL_MS = 200L;
+
+    /** Виртуальные потоки для сетевого I/O закачек */
+    static final ExecutorService IO = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("Collins-DL-", 0).factory());
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final Condition CHANGED = LOCK.newCondition();
+    private static final List<Waiter> WAITERS = new ArrayList<>();
+    private static int active = 0;
+    private static long seq = 0;
+
+    private static final ReentrantLock RATE_LOCK = new ReentrantLock();
+    private static long nextFreeNs = 0;
+
+    private static final ConcurrentHashMap<String, CompletableFuture<Object>> INFLIGHT = new ConcurrentHashMap<>();
+
+    private static final class Waiter {
+        final DoubleSupplier priority;
+        final long order;
+        double current;
+
+        Waiter(DoubleSupplier priority, long order) {
+            this.priority = priority;
+            this.order = order;
+        }
+    }
+
+    /** Занятое соединение; close() отдаёт его следующему */
+    static final class Slot implements AutoCloseable {
+        private boolean closed = false;
+
+        private Slot() {
+        }
+
+        @Override
+        public void close() {
+            LOCK.lock();
+            try {
+                if (closed) return;
+                closed = true;
+                active--;
+                CHANGED.signalAll();
+            } finally {
+                LOCK.unlock();
+            }
+        }
+    }
+
+    private DownloadManager() {
+    }
+
+    private static int maxConnections() {
+        return Math.max(1, CollinsClientConfig.get().downloadMaxConnections);
+    }
+
+    /**
+     * Ждёт свободное соединение. priority — меньше значит раньше (обычно расстояние до экрана).
+     * null — cancelled сработал раньше, чем дошла очередь.
+     */
+    static Slot acquire(DoubleSupplier priority, BooleanSupplier cancelled) throws InterruptedException {
+        LOCK.lock();
+        try {
+            Waiter me = new Waiter(priority != null ? priority : () -> BACKGROUND_PRIORITY, ++seq);
+            WAITERS.add(me);
+            try {
+                while (true) {
+                    if (cancelled != null && cancelled.getAsBoolean()) return null;
+                    if (active < maxConnections() && best() == me) {
+                        active++;
+                        return new Slot();
+                    }
+                    // приоритеты меняются, пока ждём (игрок ходит) — перепроверяем и без сигнала
+                    CHANGED.await(WAIT_POLL_MS, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                WAITERS.remove(me);
+                // следующий в очереди мог стать первым
+                CHANGED.signalAll();
+            }
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /** Первый в очереди: наименьший приоритет, при равенстве — кто раньше встал */
+    private static Waiter best() {
+        Waiter best = null;
+        for (Waiter w : WAITERS) {
+            try {
+                w.current = w.priority.getAsDouble();
+            } catch (Exception e) {
+                w.current = BACKGROUND_PRIORITY;
+            }
+            if (best == null || w.current < best.current || (w.current == best.current && w.order < best.order)) {
+                best = w;
+            }
+        }
+        return best;
+    }
+
+    /** Учесть bytes скачанных байт в общем лимите скорости; при превышении — подождать */
+    static void throttle(int bytes) {
+        int mbit = CollinsClientConfig.get().downloadMaxMbit;
+        if (mbit <= 0 || bytes <= 0) return;
+        long bytesPerSec = mbit * 1_000_000L / 8L;
+        long costNs = bytes * 1_000_000_000L / bytesPerSec;
+
+        long waitNs;
+        RATE_LOCK.lock();
+        try {
+            long now = System.nanoTime();
+            if (nextFreeNs < now - BURST_NS) nextFreeNs = now - BURST_NS;
+            nextFreeNs += costNs;
+            waitNs = nextFreeNs - now;
+        } finally {
+            RATE_LOCK.unlock();
+        }
+        if (waitNs > 0) LockSupport.parkNanos(waitNs);
+    }
+
+    /**
+     * Один запрос на ключ: пока task выполняется, остальные вызовы с тем же ключом
+     * ждут и получают тот же результат. Исключение task пробрасывается всем.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T dedupe(String key, Callable<T> task) throws Exception {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = INFLIGHT.putIfAbsent(key, mine);
+        if (running != null) {
+            dbg("dedupe: joined " + key);
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception ex) throw ex;
+                throw e;
+            }
+        }
+        try {
+            T result = task.call();
+            mine.complete(result);
+            return result;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            INFLIGHT.remove(key, mine);
+        }
+    }
+}
@@ -0,0 +1,623 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * HLS на стороне Java: вместо HLS-демуксера FFmpeg, который качает сегменты по одному
+ * на потоке декодера, плейлисты разбираем сами, а демуксер получает склеенный MPEG-TS.
+ * <ul>
+ *     <li>следующие {@code hlsPrefetchSegments} сегментов качаются параллельно в память;</li>
+ *     <li>вариант — самый лёгкий, которого хватает текстуре экрана ({@link VideoSizeUtil#pick}),
+ *     ниже — если измеренной скорости на него не хватает; решение пересматривается на каждом сегменте;</li>
+ *     <li>живой плейлист перечитывается по мере проигрывания, старт — за 3 сегмента до края.</li>
+ * </ul>
+ * Только TS-сегменты без шифрования: fMP4 (EXT-X-MAP), AES (EXT-X-KEY) и EXT-X-BYTERANGE
+ * остаются FFmpeg — {@link #open} тогда возвращает null.
+ */
+final class HlsStream extends InputStream {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsHLS] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static final int LIVE_START_SEGMENTS = 3;
+    private static final int FETCH_ATTEMPTS = 3;
+    private static final long FETCH_TIMEOUT_MS = 30_000L;
+    // живой плейлист не растёт дольше — считаем, что трансляция кончилась
+    private static final long LIVE_STALL_MS = 30_000L;
+    // доля измеренной скорости, которую готовы отдать под битрейт варианта
+    private static final double UP_SAFETY = 0.75;
+    private static final double DOWN_SAFETY = 0.9;
+
+    /** Вариант из master-плейлиста; w/h = 0 — разрешение не указано */
+    private record Variant(URI uri, long bandwidth, int w, int h) {
+    }
+
+    private record Segment(long seq, URI uri, long durationUs) {
+    }
+
+    /** Разобранный media-плейлист */
+    private static final class Media {
+        final List<Segment> segments = new ArrayList<>();
+        long targetDurationMs = 6_000L;
+        boolean endList = false;
+        boolean unsupported = false;
+
+        Segment find(long seq) {
+            if (segments.isEmpty()) return null;
+            int i = (int) (seq - segments.get(0).seq);
+            return (i >= 0 && i < segments.size()) ? segments.get(i) : null;
+        }
+
+        long lastSeq() {
+            return segments.isEmpty() ? -1 : segments.get(segments.size() - 1).seq;
+        }
+    }
+
+    private final List<Variant> variants;
+    // самый лёгкий вариант, которого хватает текстуре; выше не поднимаемся
+    private final int capIndex;
+    private final Map<Long, CompletableFuture<byte[]>> fetches = new HashMap<>();
+
+    private int variant;
+    private Media media;
+    private long lastReloadMs;
+    private long lastGrowthMs;
+    private long nextSeq;
+
+    private byte[] cur = null;
+    private int curPos = 0;
+    private volatile boolean closed = false;
+
+    // плейлист варианта, на который переключаемся: качается в фоне, декодер его не ждёт
+    private volatile CompletableFuture<Media> switchFetch = null;
+    private int switchTo = -1;
+
+    // скорость: байты за время, когда шла хотя бы одна закачка (объединение интервалов, не сумма)
+    private static final long METER_WINDOW_NS = 1_000_000_000L;
+    private final Object meter = new Object();
+    private int activeFetches = 0;
+    private long busySinceNs = 0;
+    private long windowBytes = 0;
+    private double bitsPerSec = -1;
+
+    private HlsStream(List<Variant> variants, int capIndex, int variant, Media media) {
+        this.variants = variants;
+        this.capIndex = capIndex;
+        this.variant = variant;
+        this.media = media;
+        this.lastReloadMs = System.currentTimeMillis();
+        this.lastGrowthMs = lastReloadMs;
+    }
+
+    static boolean enabled() {
+        return CollinsClientConfig.get().hlsPrefetchSegments > 0;
+    }
+
+    private static int prefetch() {
+        return Math.max(1, CollinsClientConfig.get().hlsPrefetchSegments);
+    }
+
+    /**
+     * Открыть HLS для экрана blocksW x blocksH. startMs — позиция в VOD (живой поток её игнорирует).
+     * null — не HLS, формат не поддержан или сеть недоступна: играть через FFmpeg.
+     */
+    static HlsStream open(String url, int blocksW, int blocksH, long startMs) {
+        try {
+            Fetched top = fetchText(url);
+            if (top == null || !top.text.startsWith("#EXTM3U")) return null;
+
+            List<Variant> variants;
+            Media media;
+            int cap;
+            int start;
+            if (top.text.contains("#EXT-X-STREAM-INF")) {
+                variants = parseMaster(top.text, top.uri);
+                if (variants.isEmpty()) return null;
+                cap = capFor(variants, blocksW, blocksH);
+                // до первых замеров скорости — не выше второго снизу: первый кадр важнее качества
+                start = Math.min(cap, 1);
+                Fetched mt = fetchText(variants.get(start).uri().toString());
+                if (mt == null) return null;
+                media = parseMedia(mt.text, mt.uri);
+            } else {
+                variants = List.of(new Variant(top.uri, 0, 0, 0));
+                cap = 0;
+                start = 0;
+                media = parseMedia(top.text, top.uri);
+            }
+            if (media.unsupported || media.segments.isEmpty()) {
+                dbg("open: unsupported playlist " + url);
+                return null;
+            }
+
+            HlsStream s = new HlsStream(variants, cap, start, media);
+            s.nextSeq = s.startSeq(startMs);
+            s.schedule();
+            // первый сегмент должен быть MPEG-TS, иначе (голый AAC и т.п.) пусть разбирается FFmpeg
+            byte[] first = s.await(s.nextSeq);
+            if (first == null || first.length < 376 || first[0] != 0x47 || first[188] != 0x47) {
+                dbg("open: first segment is not MPEG-TS " + url);
+                s.close();
+                return null;
+            }
+            s.cur = first;
+            s.curPos = 0;
+            s.nextSeq++;
+            s.schedule();
+            dbg("open: " + variants.size() + " variants, cap=" + cap + " start=" + start + " live=" + !media.endList);
+            return s;
+        } catch (Exception e) {
+            dbg("open failed " + url + ": " + e);
+            return null;
+        }
+    }
+
+    /** Самый лёгкий вариант с разрешением не меньше текстуры экрана; без разрешений — самый тяжёлый */
+    private static int capFor(List<Variant> variants, int blocksW, int blocksH) {
+        for (int i = 0; i < variants.size(); i++) {
+            Variant v = variants.get(i);
+            if (v.w() <= 0 || v.h() <= 0) continue;
+            VideoSizeUtil.Size tex = VideoSizeUtil.pick(blocksW, blocksH, v.w(), v.h());
+            if (v.w() >= tex.w() && v.h() >= tex.h()) return i;
+        }
+        return variants.size() - 1;
+    }
+
+    private long startSeq(long startMs) {
+        List<Segment> segs = media.segments;
+        if (!media.endList) return segs.get(Math.max(0, segs.size() - LIVE_START_SEGMENTS)).seq;
+        long t = 0;
+        for (Segment s : segs) {
+            t += s.durationUs / 1000L;
+            if (t > startMs) return s.seq;
+        }
+        return segs.get(0).seq;
+    }
+
+    // ==================== Чтение ====================
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int r = read(one, 0, 1);
+        return r <= 0 ? -1 : (one[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) return 0;
+        while (true) {
+            if (closed) throw new IOException("stream closed");
+            if (cur != null && curPos < cur.length) {
+                int n = Math.min(len, cur.length - curPos);
+                System.arraycopy(cur, curPos, b, off, n);
+                curPos += n;
+                return n;
+            }
+            if (!advance()) return -1;
+        }
+    }
+
+    @Override
+    public int available() {
+        return cur != null ? cur.length - curPos : 0;
+    }
+
+    /** Следующий сегмент в cur; false — конец VOD или трансляции */
+    private boolean advance() throws IOException {
+        cur = null;
+        while (!closed) {
+            pickVariant();
+            if (media.find(nextSeq) == null && !pending(nextSeq)) {
+                if (media.endList && nextSeq > media.lastSeq()) return false;
+                if (!media.segments.isEmpty() && nextSeq < media.segments.get(0).seq) {
+                    // отстали от окна живого плейлиста — прыгаем к его началу
+                    dbg("fell behind live window, seq " + nextSeq + " -> " + media.segments.get(0).seq);
+                    nextSeq = media.segments.get(0).seq;
+                    continue;
+                }
+                if (System.currentTimeMillis() - lastGrowthMs > LIVE_STALL_MS) return false;
+                waitReload();
+                continue;
+            }
+            schedule();
+            byte[] data = await(nextSeq);
+            nextSeq++;
+            if (data == null) {
+                // VOD без сегмента играть дальше нельзя, в живом потоке — пропускаем дыру
+                if (media.endList) throw new IOException("segment " + (nextSeq - 1) + " unavailable");
+                continue;
+            }
+            cur = data;
+            curPos = 0;
+            if (!media.endList && System.currentTimeMillis() - lastReloadMs >= media.targetDurationMs) reload();
+            schedule();
+            return true;
+        }
+        return false;
+    }
+
+    /** Закачки на nextSeq .. nextSeq + prefetch - 1, что уже есть в плейлисте */
+    private void schedule() {
+        synchronized (fetches) {
+            Iterator<Map.Entry<Long, CompletableFuture<byte[]>>> it = fetches.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, CompletableFuture<byte[]>> e = it.next();
+                if (e.getKey() < nextSeq) {
+                    e.getValue().cancel(false);
+                    it.remove();
+                }
+            }
+            int want = prefetch();
+            for (long seq = nextSeq; seq < nextSeq + want; seq++) {
+                if (fetches.containsKey(seq)) continue;
+                Segment s = media.find(seq);
+                if (s == null) break;
+                CompletableFuture<byte[]> f = new CompletableFuture<>();
+                fetches.put(seq, f);
+                DownloadManager.IO.execute(() -> {
+                    try {
+                        f.complete(fetchSegment(s, f));
+                    } catch (Exception e) {
+                        f.complete(null);
+                    }
+                });
+            }
+        }
+    }
+
+    private boolean pending(long seq) {
+        synchronized (fetches) {
+            return fetches.containsKey(seq);
+        }
+    }
+
+    private byte[] await(long seq) throws IOException {
+        CompletableFuture<byte[]> f;
+        synchronized (fetches) {
+            f = fetches.remove(seq);
+        }
+        if (f == null) return null;
+        try {
+            return f.get(FETCH_TIMEOUT_MS * FETCH_ATTEMPTS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } catch (ExecutionException | TimeoutException e) {
+            f.cancel(false);
+            return null;
+        }
+    }
+
+    /** f — будущее этой закачки: отменили (сегмент больше не нужен) — бросаем чтение и не кормим замер */
+    private byte[] fetchSegment(Segment s, CompletableFuture<byte[]> f) throws InterruptedException {
+        for (int attempt = 1; attempt <= FETCH_ATTEMPTS && !closed && !f.isDone(); attempt++) {
+            meterStart();
+            long got = 0;
+            try (SharedHttp.Response r = SharedHttp.get(s.uri().toString())
+                    .timeout(FETCH_TIMEOUT_MS)
+                    .readTimeout(FETCH_TIMEOUT_MS)
+                    .followRedirects(true)
+                    .send()) {
+                if (r.code() != 200) {
+                    dbg("segment " + s.seq() + " http " + r.code() + ", attempt " + attempt);
+                } else {
+                    long len = r.contentLength();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(len > 0 && len < Integer.MAX_VALUE ? (int) len : 1 << 20);
+                    byte[] buf = new byte[64 * 1024];
+                    try (InputStream in = r.body()) {
+                        int n;
+                        while ((n = in.read(buf)) > 0) {
+                            if (closed || f.isDone()) return null;
+                            out.write(buf, 0, n);
+                            got += n;
+                            meterBytes(n);
+                            DownloadManager.throttle(n);
+                        }
+                    }
+                    if (len <= 0 || got == len) return out.toByteArray();
+                    dbg("segment " + s.seq() + " truncated " + got + "/" + len + ", attempt " + attempt);
+                }
+            } catch (Exception e) {
+                dbg("segment " + s.seq() + " error attempt " + attempt + ": " + e);
+            } finally {
+                meterEnd();
+            }
+            Thread.sleep(300L * attempt);
+        }
+        return null;
+    }
+
+    // ==================== ABR ====================
+
+    private void meterStart() {
+        synchronized (meter) {
+            if (activeFetches++ == 0) {
+                busySinceNs = System.nanoTime();
+                windowBytes = 0;
+            }
+        }
+    }
+
+    /** Байты считаем по мере прихода: тогда они попадают в то окно, в котором реально пришли */
+    private void meterBytes(long bytes) {
+        synchronized (meter) {
+            windowBytes += bytes;
+            long now = System.nanoTime();
+            // при непрерывной предзагрузке простоя нет — замер по окнам
+            if (now - busySinceNs >= METER_WINDOW_NS) meterSample(now);
+        }
+    }
+
+    private void meterEnd() {
+        synchronized (meter) {
+            // окно закрывается, только когда не идёт ни одна закачка
+            if (--activeFetches == 0) meterSample(System.nanoTime());
+        }
+    }
+
+    /** Под meter: байты окна за время окна (все параллельные закачки вместе), новое окно с now */
+    private void meterSample(long now) {
+        long busyNs = Math.max(1L, now - busySinceNs);
+        long bytes = windowBytes;
+        busySinceNs = now;
+        windowBytes = 0;
+        if (bytes <= 0) return;
+        double sample = bytes * 8.0 * 1e9 / busyNs;
+        bitsPerSec = bitsPerSec < 0 ? sample : bitsPerSec * 0.7 + sample * 0.3;
+    }
+
+    /**
+     * Пересмотреть вариант по скорости; новые закачки пойдут уже из него.
+     * Плейлист нового варианта качается в фоне — переключаемся, когда он придёт.
+     */
+    private void pickVariant() {
+        if (variants.size() < 2) return;
+        CompletableFuture<Media> sf = switchFetch;
+        if (sf != null) {
+            if (!sf.isDone()) return;
+            switchFetch = null;
+            Media m = sf.isCancelled() ? null : sf.getNow(null);
+            if (m != null && !m.unsupported && m.find(nextSeq) != null) applyVariant(switchTo, m);
+            return;
+        }
+        double bps;
+        synchronized (meter) {
+            bps = bitsPerSec;
+        }
+        if (bps <= 0) return;
+        int want = 0;
+        for (int i = 0; i <= capIndex; i++) {
+            if (variants.get(i).bandwidth() <= bps * UP_SAFETY) want = i;
+        }
+        // вниз — только если текущему правда не хватает; вверх — с запасом
+        if (want < variant && variants.get(variant).bandwidth() <= bps * DOWN_SAFETY) return;
+        if (want == variant) return;
+        dbg("variant " + variant + " -> " + want + " at " + Math.round(bps / 1000) + " kbit/s, loading playlist");
+        String uri = variants.get(want).uri().toString();
+        CompletableFuture<Media> f = new CompletableFuture<>();
+        switchTo = want;
+        switchFetch = f;
+        DownloadManager.IO.execute(() -> {
+            try {
+                Fetched mt = fetchText(uri);
+                f.complete(mt != null ? parseMedia(mt.text, mt.uri) : null);
+            } catch (Exception e) {
+                f.complete(null);
+            }
+        });
+    }
+
+    private void applyVariant(int to, Media m) {
+        dbg("variant " + variant + " -> " + to + " switched");
+        variant = to;
+        media = m;
+        lastReloadMs = System.currentTimeMillis();
+        // уже скачанное старого варианта доиграем, остальное — из нового
+        synchronized (fetches) {
+            fetches.values().removeIf(f -> {
+                if (f.isDone()) return false;
+                f.cancel(false);
+                return true;
+            });
+        }
+    }
+
+    // ==================== Плейлисты ====================
+
+    private void waitReload() throws IOException {
+        long wait = Math.max(500L, media.targetDurationMs / 2) - (System.currentTimeMillis() - lastReloadMs);
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            }
+        }
+        reload();
+    }
+
+    private void reload() {
+        lastReloadMs = System.currentTimeMillis();
+        try {
+            Fetched mt = fetchText(variants.get(variant).uri().toString());
+            if (mt == null) return;
+            Media m = parseMedia(mt.text, mt.uri);
+            if (m.unsupported || m.segments.isEmpty()) return;
+            if (m.lastSeq() > media.lastSeq()) lastGrowthMs = lastReloadMs;
+            media = m;
+        } catch (Exception e) {
+            dbg("reload failed: " + e);
+        }
+    }
+
+    private record Fetched(URI uri, String text) {
+    }
+
+    private static Fetched fetchText(String url) throws IOException {
+        try (SharedHttp.Response r = SharedHttp.get(url)
+                .timeout(15_000)
+                .readTimeout(15_000)
+                .followRedirects(true)
+                .send()) {
+            if (r.code() != 200) return null;
+            byte[] body;
+            try (InputStream in = r.body()) {
+                body = in.readAllBytes();
+            }
+            return new Fetched(URI.create(r.url()), new String(body, StandardCharsets.UTF_8).replace("\r", "").trim());
+        }
+    }
+
+    private static List<Variant> parseMaster(String text, URI base) {
+        List<Variant> out = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (!line.startsWith("#EXT-X-STREAM-INF:")) continue;
+            Map<String, String> attrs = attributes(line.substring(line.indexOf(':') + 1));
+            String uri = null;
+            while (++i < lines.length) {
+                String next = lines[i].trim();
+                if (next.isEmpty() || next.startsWith("#")) continue;
+                uri = next;
+                break;
+            }
+            if (uri == null) break;
+            long bw = parseLong(attrs.getOrDefault("AVERAGE-BANDWIDTH", attrs.get("BANDWIDTH")), 0);
+            int w = 0;
+            int h = 0;
+            String res = attrs.get("RESOLUTION");
+            if (res != null) {
+                int x = res.toLowerCase(Locale.ROOT).indexOf('x');
+                if (x > 0) {
+                    w = (int) parseLong(res.substring(0, x), 0);
+                    h = (int) parseLong(res.substring(x + 1), 0);
+                }
+            }
+            // вариант только со звуком экрану не подходит
+            String codecs = attrs.getOrDefault("CODECS", "");
+            if (!codecs.isEmpty() && !codecs.contains("avc") && !codecs.contains("hvc") && !codecs.contains("hev")
+                    && !codecs.contains("vp0") && !codecs.contains("av01")) continue;
+            out.add(new Variant(base.resolve(uri), bw, w, h));
+        }
+        out.sort(Comparator.comparingLong(Variant::bandwidth));
+        return out;
+    }
+
+    private static Media parseMedia(String text, URI base) {
+        Media m = new Media();
+        long seq = 0;
+        long durUs = 0;
+        boolean first = true;
+        for (String raw : text.split("\n")) {
+            String line = raw.trim();
+            if (line.isEmpty()) continue;
+            if (line.startsWith("#")) {
+                if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                    seq = parseLong(line.substring(22), 0);
+                } else if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                    m.targetDurationMs = Math.max(1000L, parseLong(line.substring(22), 6) * 1000L);
+                } else if (line.startsWith("#EXTINF:")) {
+                    String d = line.substring(8);
+                    int comma = d.indexOf(',');
+                    if (comma >= 0) d = d.substring(0, comma);
+                    try {
+                        durUs = (long) (Double.parseDouble(d.trim()) * 1_000_000.0);
+                    } catch (NumberFormatException e) {
+                        durUs = 0;
+                    }
+                } else if (line.startsWith("#EXT-X-ENDLIST")) {
+                    m.endList = true;
+                } else if (line.startsWith("#EXT-X-MAP") || line.startsWith("#EXT-X-BYTERANGE")) {
+                    m.unsupported = true;
+                } else if (line.startsWith("#EXT-X-KEY:")) {
+                    String method = attributes(line.substring(11)).get("METHOD");
+                    if (method != null && !method.equals("NONE")) m.unsupported = true;
+                }
+                continue;
+            }
+            if (!first) seq++;
+            first = false;
+            m.segments.add(new Segment(seq, base.resolve(line), durUs));
+            durUs = 0;
+        }
+        return m;
+    }
+
+    /** KEY=VALUE,KEY="VALUE,с запятой" */
+    private static Map<String, String> attributes(String s) {
+        Map<String, String> out = new HashMap<>();
+        int i = 0;
+        while (i < s.length()) {
+            int eq = s.indexOf('=', i);
+            if (eq < 0) break;
+            String key = s.substring(i, eq).trim();
+            int j = eq + 1;
+            String value;
+            if (j < s.length() && s.charAt(j) == '"') {
+                int end = s.indexOf('"', j + 1);
+                if (end < 0) end = s.length();
+                value = s.substring(j + 1, end);
+                j = end + 1;
+            } else {
+                int end = s.indexOf(',', j);
+                if (end < 0) end = s.length();
+                value = s.substring(j, end);
+                j = end;
+            }
+            out.put(key.toUpperCase(Locale.ROOT), value.trim());
+            int comma = s.indexOf(',', j);
+            if (comma < 0) break;
+            i = comma + 1;
+        }
+        return out;
+    }
+
+    private static long parseLong(String s, long def) {
+        if (s == null) return def;
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        CompletableFuture<Media> sf = switchFetch;
+        if (sf != null) sf.cancel(false);
+        synchronized (fetches) {
+            for (CompletableFuture<byte[]> f : fetches.values()) f.cancel(false);
+            fetches.clear();
+        }
+        cur = null;
+    }
+}
@@ -0,0 +1,371 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Сетевой файл (HTTP с Range) для {@code new FFmpegFrameGrabber(InputStream)} с упреждающим чтением
+ * сжатых данных: фоновый поток держит впереди позиции демуксера {@code readAheadSeconds} секунд
+ * (не больше {@code readAheadMaxMb}). Обрыв соединения он переживает сам — переподключается
+ * с последнего байта, а декодер тем временем ест запас. Буфер декодированных кадров
+ * при этом нужен только для пейсинга.
+ *
+ * <p>Контракт AVIO от JavaCV как у {@link PartFileInputStream}: seek = reset() + skip(offset),
+ * размер — skip до конца, поэтому skip() только двигает позицию. Чтение вне окна
+ * перезапускает закачку с нового места (Range), немного прочитанного держим позади для
+ * коротких seek'ов назад при разборе контейнера.</p>
+ */
+final class HttpReadAheadInputStream extends InputStream {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsReadAhead] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static final int CHUNK = 64 * 1024;
+    private static final int INITIAL_RING = 1024 * 1024;
+    private static final long KEEP_BEHIND = 1024L * 1024L;
+    // чуть впереди окна — дождёмся текущей закачки, а не переоткрываем соединение
+    private static final long FORWARD_SLACK = 512L * 1024L;
+    private static final long MIN_AHEAD = 2L * 1024L * 1024L;
+    private static final long READ_TIMEOUT_MS = 60_000L;
+    private static final int RECONNECT_ATTEMPTS = 6;
+
+    private final String url;
+    private final long total;
+    private final long maxAhead;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // окно [winStart, winEnd) лежит в кольце по индексу (позиция % ring.length)
+    private byte[] ring = new byte[INITIAL_RING];
+    private long winStart = 0;
+    private long winEnd = 0;
+    private long aheadLimit;
+    private long gen = 0;
+    private IOException error;
+    private boolean closed = false;
+
+    private long pos = 0;
+    private long mark = 0;
+
+    private HttpReadAheadInputStream(String url, long total, long maxAhead) {
+        this.url = url;
+        this.total = total;
+        this.maxAhead = maxAhead;
+        this.aheadLimit = maxAhead;
+    }
+
+    /** Упреждение включено в настройках */
+    static boolean enabled() {
+        CollinsClientConfig cfg = CollinsClientConfig.get();
+        return cfg.readAheadSeconds > 0 && cfg.readAheadMaxMb > 0;
+    }
+
+    /**
+     * Открыть url с начала. null — сервер не отдаёт Range (206 с размером) или сеть недоступна;
+     * тогда FFmpeg открывает url сам.
+     */
+    static HttpReadAheadInputStream open(String url) {
+        if (!enabled()) return null;
+        SharedHttp.Response r = null;
+        try {
+            r = request(url, 0L);
+            long total = (r.code() == 206 && SegmentedDownloader.contentRangeStartsAt(r.header("Content-Range"), 0L))
+                    ? SegmentedDownloader.parseContentRangeTotal(r.header("Content-Range")) : -1L;
+            if (total <= 0) {
+                dbg("no range support code=" + r.code() + " " + url);
+                r.close();
+                return null;
+            }
+            long maxAhead = Math.max(MIN_AHEAD, CollinsClientConfig.get().readAheadMaxMb * 1024L * 1024L);
+            HttpReadAheadInputStream s = new HttpReadAheadInputStream(url, total, maxAhead);
+            SharedHttp.Response first = r;
+            DownloadManager.IO.execute(() -> s.fill(0L, 0L, first));
+            return s;
+        } catch (Exception e) {
+            dbg("open failed " + url + ": " + e);
+            if (r != null) r.close();
+            return null;
+        }
+    }
+
+    private static SharedHttp.Response request(String url, long from) throws IOException {
+        return SharedHttp.get(url)
+                .header("Range", "bytes=" + from + "-")
+                .timeout(15_000)
+                .readTimeout(30_000)
+                .followRedirects(true)
+                .send();
+    }
+
+    long totalBytes() {
+        return total;
+    }
+
+    /** Скорость потока известна (после открытия) — держим впереди readAheadSeconds секунд */
+    void setBytesPerSecond(long bytesPerSec) {
+        if (bytesPerSec <= 0) return;
+        long want = bytesPerSec * CollinsClientConfig.get().readAheadSeconds;
+        lock.lock();
+        try {
+            aheadLimit = Math.max(MIN_AHEAD, Math.min(maxAhead, want));
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        dbg("read-ahead " + (aheadLimit >> 10) + " KB at " + (bytesPerSec >> 10) + " KB/s " + url);
+    }
+
+    // ==================== Фоновая закачка ====================
+
+    /** Качает с from в окно, пока поколение myGen актуально; обрыв — переподключение с последнего байта */
+    private void fill(long myGen, long from, SharedHttp.Response first) {
+        SharedHttp.Response resp = first;
+        long at = from;
+        int failures = 0;
+        byte[] chunk = new byte[CHUNK];
+        while (true) {
+            try {
+                if (resp == null) {
+                    resp = request(url, at);
+                    if (resp.code() != 206 || !SegmentedDownloader.contentRangeStartsAt(resp.header("Content-Range"), at)) {
+                        throw new IOException("range refused code=" + resp.code());
+                    }
+                }
+                try (SharedHttp.Response r = resp; InputStream in = r.body()) {
+                    while (at < total) {
+                        if (!awaitSpace(myGen)) return;
+                        int n = in.read(chunk, 0, (int) Math.min(chunk.length, total - at));
+                        if (n < 0) break;
+                        DownloadManager.throttle(n);
+                        if (!append(myGen, at, chunk, n)) return;
+                        at += n;
+                        failures = 0;
+                    }
+                }
+                resp = null;
+                if (at >= total) return;
+                throw new IOException("connection closed at " + at + "/" + total);
+            } catch (Exception e) {
+                resp = null;
+                if (!current(myGen)) return;
+                failures++;
+                dbg("fill error at " + at + " attempt " + failures + ": " + e);
+                if (failures > RECONNECT_ATTEMPTS) {
+                    fail(myGen, e instanceof IOException io ? io : new IOException(e));
+                    return;
+                }
+                // декодер пока ест запас — ждём и переподключаемся с того же байта
+                LockSupport.parkNanos(Math.min(8_000L, 250L << failures) * 1_000_000L);
+            }
+        }
+    }
+
+    private boolean current(long myGen) {
+        lock.lock();
+        try {
+            return !closed && gen == myGen;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Ждать, пока впереди читателя меньше aheadLimit; false — закачка больше не нужна */
+    private boolean awaitSpace(long myGen) {
+        lock.lock();
+        try {
+            while (!closed && gen == myGen && winEnd - Math.max(pos, winStart) >= aheadLimit) {
+                changed.await(200, TimeUnit.MILLISECONDS);
+            }
+            return !closed && gen == myGen;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean append(long myGen, long at, byte[] b, int n) {
+        lock.lock();
+        try {
+            if (closed || gen != myGen || at != winEnd) return false;
+            // позади читателя держим немного для коротких seek'ов назад, остальное отпускаем
+            long keepFrom = Math.max(winStart, Math.min(pos, winEnd) - KEEP_BEHIND);
+            if (winEnd + n - keepFrom > ring.length) grow(winEnd + n - keepFrom);
+            winStart = Math.max(keepFrom, winEnd + n - ring.length);
+            int len = ring.length;
+            int idx = (int) (winEnd % len);
+            int first = Math.min(n, len - idx);
+            System.arraycopy(b, 0, ring, idx, first);
+            if (first < n) System.arraycopy(b, first, ring, 0, n - first);
+            winEnd += n;
+            changed.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Кольцо растёт до aheadLimit + запас позади; окно переносится по новым индексам */
+    private void grow(long need) {
+        long cap = maxAhead + KEEP_BEHIND + CHUNK;
+        int size = ring.length;
+        while (size < need && size < cap) size = (int) Math.min(cap, size * 2L);
+        if (size == ring.length) return;
+        byte[] next = new byte[size];
+        for (long p = winStart; p < winEnd; ) {
+            int from = (int) (p % ring.length);
+            int to = (int) (p % size);
+            int n = (int) Math.min(winEnd - p, Math.min(ring.length - from, size - to));
+            System.arraycopy(ring, from, next, to, n);
+            p += n;
+        }
+        ring = next;
+    }
+
+    private void fail(long myGen, IOException e) {
+        lock.lock();
+        try {
+            if (gen != myGen) return;
+            error = e;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Позиция вне окна — закачка с нового места (вызывается под lock) */
+    private void restartAt(long from) {
+        long myGen = ++gen;
+        winStart = from;
+        winEnd = from;
+        error = null;
+        changed.signalAll();
+        dbg("restart at " + from + "/" + total);
+        DownloadManager.IO.execute(() -> fill(myGen, from, null));
+    }
+
+    // ==================== InputStream ====================
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int r = read(one, 0, 1);
+        return r <= 0 ? -1 : (one[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) return 0;
+        lock.lock();
+        try {
+            if (closed) throw new IOException("stream closed");
+            if (pos >= total) return -1;
+            if (pos < winStart || pos > winEnd + FORWARD_SLACK) restartAt(pos);
+
+            long deadline = System.nanoTime() + READ_TIMEOUT_MS * 1_000_000L;
+            while (pos >= winEnd) {
+                if (error != null) throw error;
+                if (closed) throw new IOException("stream closed");
+                long left = deadline - System.nanoTime();
+                if (left <= 0) throw new SocketTimeoutException("read-ahead stalled at " + pos);
+                changed.await(Math.min(left, 200_000_000L), TimeUnit.NANOSECONDS);
+                if (pos < winStart) restartAt(pos);
+            }
+
+            int n = (int) Math.min(len, winEnd - pos);
+            int idx = (int) (pos % ring.length);
+            int first = Math.min(n, ring.length - idx);
+            System.arraycopy(ring, idx, b, off, first);
+            if (first < n) System.arraycopy(ring, 0, b, off + first, n - first);
+            pos += n;
+            // место впереди освободилось
+            changed.signalAll();
+            return n;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("read-ahead interrupted");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        lock.lock();
+        try {
+            long k = Math.min(n, total - pos);
+            pos += k;
+            return k;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return (pos >= winStart && pos < winEnd) ? (int) Math.min(Integer.MAX_VALUE, winEnd - pos) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        lock.lock();
+        try {
+            mark = pos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void reset() {
+        lock.lock();
+        try {
+            pos = mark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            gen++;
+            ring = new byte[0];
+            winStart = winEnd = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
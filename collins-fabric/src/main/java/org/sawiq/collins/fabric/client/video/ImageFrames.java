@@ -0,0 +1,462 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Экран-картинка (постер, слайд, GIF): файл скачивается и декодируется один раз в готовые
+ * ABGR-кадры размера текстуры, дальше VideoScreen только копирует нужный кадр в NativeImage
+ * на render thread — без VideoPlayer, потока декодера, аудиолинии и пула буферов.
+ * <p>
+ * PNG/JPEG/BMP/GIF читает ImageIO (GIF — со сборкой кадров по disposal). Что ImageIO не знает
+ * (WebP), один раз прогоняется через FFmpegFrameGrabber прямо в задаче загрузки. Декодера
+ * анимированного WebP в FFmpeg 7.1 нет — такая картинка показывается без анимации (или не открывается).
+ * Готовые кадры лежат в {@link LoopClipCache}: другие экраны с той же картинкой и возврат
+ * в радиус обходятся без сети и декодирования.
+ */
+final class ImageFrames {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsImage] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static final String[] EXTENSIONS = {".png", ".jpg", ".jpeg", ".gif", ".webp", ".bmp"};
+
+    // больше этого картинкой не считаем — пусть играет как видео
+    private static final long MAX_FILE_BYTES = 64L * 1024L * 1024L;
+    // кадры одной анимации: не влезает — уменьшаем кадр, потом обрезаем хвост
+    private static final long MAX_FRAMES_BYTES = 64L * 1024L * 1024L;
+    private static final int MAX_FRAMES = 1000;
+    // как в браузерах: задержка GIF 0–1 сотых — это 100 мс
+    private static final int MIN_DELAY_MS = 20;
+    private static final int DEFAULT_DELAY_MS = 100;
+
+    final int w;
+    final int h;
+    private final int[][] frames;
+    // конец каждого кадра от начала круга, мс
+    private final long[] endsMs;
+
+    private ImageFrames(int w, int h, int[][] frames, long[] endsMs) {
+        this.w = w;
+        this.h = h;
+        this.frames = frames;
+        this.endsMs = endsMs;
+    }
+
+    boolean animated() {
+        return frames.length > 1;
+    }
+
+    int frameCount() {
+        return frames.length;
+    }
+
+    int[] frame(int index) {
+        return frames[index];
+    }
+
+    long bytes() {
+        return (long) w * h * 4L * frames.length;
+    }
+
+    /** Кадр, который виден на позиции posMs (анимация крутится по кругу) */
+    int indexAt(long posMs) {
+        if (frames.length <= 1) return 0;
+        long loop = endsMs[endsMs.length - 1];
+        if (loop <= 0) return 0;
+        long t = Math.floorMod(posMs, loop);
+        int lo = 0;
+        int hi = endsMs.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (endsMs[mid] <= t) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** URL картинки по расширению (query и fragment не считаются) */
+    static boolean isImageUrl(String url) {
+        if (url == null || url.isEmpty()) return false;
+        String u = url.toLowerCase(Locale.ROOT);
+        int cut = u.indexOf('?');
+        if (cut >= 0) u = u.substring(0, cut);
+        cut = u.indexOf('#');
+        if (cut >= 0) u = u.substring(0, cut);
+        for (String ext : EXTENSIONS) {
+            if (u.endsWith(ext)) return true;
+        }
+        return false;
+    }
+
+    static String key(String url, int blocksW, int blocksH) {
+        return "image|" + url + "|" + blocksW + "x" + blocksH;
+    }
+
+    /**
+     * Кадры картинки под экран blocksW x blocksH. Скачивание и декод — на потоках закачек,
+     * одинаковые запросы склеиваются. null в результате — не картинка или не вышло.
+     */
+    static CompletableFuture<ImageFrames> load(String url, int blocksW, int blocksH, DoubleSupplier priority) {
+        String key = key(url, blocksW, blocksH);
+        if (LoopClipCache.get(key) instanceof ImageFrames f) return CompletableFuture.completedFuture(f);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return DownloadManager.dedupe(key, () -> {
+                    if (LoopClipCache.get(key) instanceof ImageFrames f) return f;
+                    long t0 = System.nanoTime();
+                    byte[] data = fetch(url, priority);
+                    ImageFrames f = decode(data, blocksW, blocksH);
+                    LoopClipCache.store(key, f, f.bytes());
+                    dbg("loaded " + url + " " + f.w + "x" + f.h + " frames=" + f.frames.length
+                            + " " + (f.bytes() >> 10) + " KB in " + (System.nanoTime() - t0) / 1_000_000L + "ms");
+                    return f;
+                });
+            } catch (Exception e) {
+                dbg("load failed " + url + ": " + e);
+                return null;
+            }
+        }, DownloadManager.IO);
+    }
+
+    // ==================== Загрузка ====================
+
+    private static byte[] fetch(String url, DoubleSupplier priority) throws Exception {
+        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            Path p = Path.of(url);
+            if (Files.size(p) > MAX_FILE_BYTES) throw new IOException("image too large");
+            return Files.readAllBytes(p);
+        }
+        DownloadManager.Slot slot = DownloadManager.acquire(priority, null);
+        try (slot; SharedHttp.Response r = SharedHttp.get(url).followRedirects(true).send()) {
+            if (r.code() != 200) throw new IOException("HTTP " + r.code());
+            long len = r.contentLength();
+            if (len > MAX_FILE_BYTES) throw new IOException("image too large: " + len);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(len > 0 ? (int) len : 64 * 1024);
+            byte[] buf = new byte[64 * 1024];
+            InputStream in = r.body();
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                DownloadManager.throttle(n);
+                if (out.size() > MAX_FILE_BYTES) throw new IOException("image too large");
+            }
+            return out.toByteArray();
+        }
+    }
+
+    // ==================== Декод ====================
+
+    private static ImageFrames decode(byte[] data, int blocksW, int blocksH) throws IOException {
+        try {
+            ImageFrames f = decodeImageIo(data, blocksW, blocksH);
+            if (f != null) return f;
+        } catch (Exception e) {
+            // битый GIF и т.п. — FFmpeg бывает терпимее
+            dbg("ImageIO failed, trying FFmpeg: " + e);
+        }
+        return decodeFfmpeg(data, blocksW, blocksH);
+    }
+
+    /** null — формат ImageIO не знаком */
+    private static ImageFrames decodeImageIo(byte[] data, int blocksW, int blocksH) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, false);
+                boolean gif = "gif".equalsIgnoreCase(reader.getFormatName());
+                int n = gif ? Math.min(reader.getNumImages(true), MAX_FRAMES) : 1;
+                if (n <= 0) throw new IOException("no frames");
+
+                if (!gif || n == 1) {
+                    int srcW = reader.getWidth(0);
+                    int srcH = reader.getHeight(0);
+                    VideoSizeUtil.Size t = fit(blocksW, blocksH, srcW, srcH, 1);
+                    // большую картинку читаем через строку/столбец, но не мельче текстуры — остаток добьёт bilinear
+                    int sub = Math.max(1, Math.min(srcW / t.w(), srcH / t.h()));
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    if (sub > 1) param.setSourceSubsampling(sub, sub, 0, 0);
+                    BufferedImage img = reader.read(0, param);
+                    Builder b = new Builder(t.w(), t.h());
+                    b.add(toAbgr(img, t), 0);
+                    return b.build();
+                }
+                return decodeGif(reader, n, blocksW, blocksH);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /** Кадры GIF — частичные прямоугольники, собираем их на холсте логического экрана */
+    private static ImageFrames decodeGif(ImageReader reader, int n, int blocksW, int blocksH) throws IOException {
+        int canvasW = reader.getWidth(0);
+        int canvasH = reader.getHeight(0);
+        IIOMetadataNode screen = child(tree(reader.getStreamMetadata(), "javax_imageio_gif_stream_1.0"), "LogicalScreenDescriptor");
+        if (screen != null) {
+            canvasW = Math.max(canvasW, intAttr(screen, "logicalScreenWidth", 0));
+            canvasH = Math.max(canvasH, intAttr(screen, "logicalScreenHeight", 0));
+        }
+
+        VideoSizeUtil.Size t = fit(blocksW, blocksH, canvasW, canvasH, n);
+        Builder b = new Builder(t.w(), t.h());
+
+        BufferedImage canvas = new BufferedImage(canvasW, canvasH, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = canvas.createGraphics();
+        try {
+            for (int i = 0; i < n && !b.full(); i++) {
+                BufferedImage part = reader.read(i);
+                IIOMetadataNode root = tree(reader.getImageMetadata(i), "javax_imageio_gif_image_1.0");
+                IIOMetadataNode desc = child(root, "ImageDescriptor");
+                IIOMetadataNode gce = child(root, "GraphicControlExtension");
+                int x = desc != null ? intAttr(desc, "imageLeftPosition", 0) : 0;
+                int y = desc != null ? intAttr(desc, "imageTopPosition", 0) : 0;
+                String disposal = gce != null ? gce.getAttribute("disposalMethod") : "none";
+                int delayMs = gce != null ? intAttr(gce, "delayTime", 0) * 10 : 0;
+                if (delayMs < MIN_DELAY_MS) delayMs = DEFAULT_DELAY_MS;
+
+                BufferedImage saved = null;
+                if ("restoreToPrevious".equals(disposal)) {
+                    saved = new BufferedImage(canvasW, canvasH, BufferedImage.TYPE_INT_ARGB);
+                    int[] src = ((DataBufferInt) canvas.getRaster().getDataBuffer()).getData();
+                    int[] dst = ((DataBufferInt) saved.getRaster().getDataBuffer()).getData();
+                    System.arraycopy(src, 0, dst, 0, src.length);
+                }
+
+                g.setComposite(AlphaComposite.SrcOver);
+                g.drawImage(part, x, y, null);
+                b.add(toAbgr(canvas, t), delayMs);
+
+                if ("restoreToBackgroundColor".equals(disposal)) {
+                    g.setComposite(AlphaComposite.Clear);
+                    g.fillRect(x, y, part.getWidth(), part.getHeight());
+                } else if (saved != null) {
+                    g.setComposite(AlphaComposite.Src);
+                    g.drawImage(saved, 0, 0, null);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return b.build();
+    }
+
+    /**
+     * Через FFmpeg один раз, без потока и звука: WebP и всё, что не прочитал ImageIO.
+     * Анимированный WebP (ANIM/ANMF) FFmpeg 7.1 не декодирует — в лучшем случае будет один кадр.
+     */
+    private static ImageFrames decodeFfmpeg(byte[] data, int blocksW, int blocksH) throws IOException {
+        if (isAnimatedWebp(data)) dbg("animated WebP is not supported by bundled FFmpeg, showing a still frame");
+        FFmpegFrameGrabber g = new FFmpegFrameGrabber(new ByteArrayInputStream(data), 0);
+        try {
+            g.setPixelFormat(avutil.AV_PIX_FMT_RGBA);
+            g.start();
+            int srcW = g.getImageWidth();
+            int srcH = g.getImageHeight();
+            if (srcW <= 0 || srcH <= 0) throw new IOException("no image stream");
+            // число кадров заранее неизвестно — размер как для одного, лишние кадры обрежет бюджет
+            VideoSizeUtil.Size t = fit(blocksW, blocksH, srcW, srcH, 1);
+            g.setImageWidth(t.w());
+            g.setImageHeight(t.h());
+
+            Builder b = new Builder(t.w(), t.h());
+            byte[] row = new byte[t.w() * 4];
+            int[] pending = null;
+            long pendingTs = 0;
+            Frame f;
+            while (!b.full() && (f = g.grabImage()) != null) {
+                int[] abgr = rgbaToAbgr(f, t.w(), t.h(), row);
+                if (abgr == null) continue;
+                if (pending != null) b.add(pending, (int) Math.max(MIN_DELAY_MS, (f.timestamp - pendingTs) / 1000L));
+                pending = abgr;
+                pendingTs = f.timestamp;
+            }
+            if (pending != null) b.add(pending, DEFAULT_DELAY_MS);
+            if (b.count() == 0) throw new IOException("no frames");
+            return b.build();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            try {
+                g.release();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    // ==================== Вспомогательное ====================
+
+    /** RIFF....WEBPVP8X с флагом анимации */
+    private static boolean isAnimatedWebp(byte[] d) {
+        return d.length > 20 && d[0] == 'R' && d[1] == 'I' && d[2] == 'F' && d[3] == 'F'
+                && d[8] == 'W' && d[9] == 'E' && d[10] == 'B' && d[11] == 'P'
+                && d[12] == 'V' && d[13] == 'P' && d[14] == '8' && d[15] == 'X'
+                && (d[20] & 0x02) != 0;
+    }
+
+    /**
+     * Размер кадров: как у видео (VideoSizeUtil), но маленькую картинку не растягиваем —
+     * GPU растянет её сам, а память и копирование меньше. Анимация крупнее бюджета — кадр уменьшается.
+     */
+    private static VideoSizeUtil.Size fit(int blocksW, int blocksH, int srcW, int srcH, int frameCount) {
+        VideoSizeUtil.Size pick = VideoSizeUtil.pick(blocksW, blocksH, srcW, srcH);
+        int w = pick.w();
+        int h = pick.h();
+        if (srcW <= w && srcH <= h) {
+            w = srcW;
+            h = srcH;
+        }
+        long need = (long) w * h * 4L * Math.max(1, frameCount);
+        if (need > MAX_FRAMES_BYTES) {
+            double s = Math.sqrt((double) MAX_FRAMES_BYTES / need);
+            w = Math.max(1, (int) (w * s));
+            h = Math.max(1, (int) (h * s));
+        }
+        return new VideoSizeUtil.Size(Math.max(1, w), Math.max(1, h));
+    }
+
+    /** Картинка в размере t, пиксели ABGR (0xAABBGGRR, как у NativeImage) */
+    private static int[] toAbgr(BufferedImage src, VideoSizeUtil.Size t) {
+        BufferedImage dst = new BufferedImage(t.w(), t.h(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = dst.createGraphics();
+        try {
+            boolean upscale = t.w() > src.getWidth() || t.h() > src.getHeight();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, upscale
+                    ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(src, 0, 0, t.w(), t.h(), null);
+        } finally {
+            g.dispose();
+        }
+        int[] px = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < px.length; i++) {
+            int c = px[i];
+            px[i] = (c & 0xFF00FF00) | ((c >> 16) & 0xFF) | ((c & 0xFF) << 16);
+        }
+        return px;
+    }
+
+    private static int[] rgbaToAbgr(Frame f, int w, int h, byte[] row) {
+        if (f.image == null || !(f.image[0] instanceof ByteBuffer bb)) return null;
+        int stride = f.imageStride > 0 ? f.imageStride : w * 4;
+        int[] out = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            bb.position(y * stride);
+            bb.get(row, 0, Math.min(row.length, bb.remaining()));
+            for (int x = 0, j = 0; x < w; x++, j += 4) {
+                int r = row[j] & 0xFF;
+                int gr = row[j + 1] & 0xFF;
+                int b = row[j + 2] & 0xFF;
+                int a = row[j + 3] & 0xFF;
+                out[y * w + x] = (a << 24) | (b << 16) | (gr << 8) | r;
+            }
+        }
+        return out;
+    }
+
+    private static IIOMetadataNode tree(IIOMetadata meta, String format) {
+        if (meta == null) return null;
+        try {
+            return (IIOMetadataNode) meta.getAsTree(format);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode node, String name) {
+        if (node == null) return null;
+        for (int i = 0; i < node.getLength(); i++) {
+            if (node.item(i) instanceof IIOMetadataNode c && name.equals(c.getNodeName())) return c;
+        }
+        return null;
+    }
+
+    private static int intAttr(IIOMetadataNode node, String name, int def) {
+        try {
+            return Integer.parseInt(node.getAttribute(name));
+        } catch (Exception e) {
+            return def;
+        }
+    }
+
+    /** Сборка кадров: одинаковые подряд склеиваются (паузы в GIF), общий объём ограничен */
+    private static final class Builder {
+        private final int w;
+        private final int h;
+        private final List<int[]> frames = new ArrayList<>();
+        private final List<Long> ends = new ArrayList<>();
+        private long totalMs = 0;
+
+        Builder(int w, int h) {
+            this.w = w;
+            this.h = h;
+        }
+
+        int count() {
+            return frames.size();
+        }
+
+        boolean full() {
+            return frames.size() >= MAX_FRAMES || (long) w * h * 4L * (frames.size() + 1) > MAX_FRAMES_BYTES;
+        }
+
+        void add(int[] abgr, int delayMs) {
+            int last = frames.size() - 1;
+            if (last >= 0 && Arrays.equals(frames.get(last), abgr)) {
+                totalMs += Math.max(0, delayMs);
+                ends.set(last, totalMs);
+                return;
+            }
+            if (full()) return;
+            totalMs += Math.max(0, delayMs);
+            frames.add(abgr);
+            ends.add(totalMs);
+        }
+
+        ImageFrames build() {
+            long[] endsMs = new long[ends.size()];
+            for (int i = 0; i < endsMs.length; i++) endsMs[i] = ends.get(i);
+            return new ImageFrames(w, h, frames.toArray(new int[0][]), endsMs);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
+
+import java.util.Locale;
+
+/**
+ * Задержка живого RTMP/RTSP в low-latency режиме и решение, как её догонять.
+ * <ul>
+ *     <li>источник сообщает wallclock (RTSP по RTCP) — меряем от камеры до экрана;</li>
+ *     <li>иначе — от самого быстрого прихода кадра: сколько клиент (сеть, демуксер, очереди)
+ *     накопил позади живого края. Задержку кодера и сервера так не видно.</li>
+ * </ul>
+ * Чуть выше цели — ускоряемся на {@link #SPEEDUP}, сильно выше — прыгаем к свежему ключевому кадру.
+ */
+final class LiveLatency {
+
+    /** Насколько быстрее реального времени играем при догонялке */
+    static final double SPEEDUP = 0.05;
+
+    // не прыгать чаще — после прыжка очередям нужно время набраться
+    private static final long JUMP_COOLDOWN_NS = 5_000_000_000L;
+    // wallclock источника вне этих рамок — часы разъехались, ему не верим
+    private static final long MAX_SANE_US = 60_000_000L;
+
+    enum Action {NONE, SPEED_UP, JUMP}
+
+    private final long targetMs;
+    // epoch-мкс, соответствующие таймстампу 0; Long.MIN_VALUE — источник wallclock не даёт
+    private final long realtimeZeroUs;
+
+    private long minOffsetUs = Long.MAX_VALUE;
+    private long lastTsUs = Long.MIN_VALUE;
+    private long lastRelUs = 0;
+    private long lastArrivalUs = 0;
+    private double emaMs = -1;
+    private boolean catchingUp = false;
+    private long lastJumpNs = 0;
+    private long lastOweNs = 0;
+    private long owedUs = 0;
+
+    private volatile long latencyMs = -1;
+    private volatile boolean wallclock = false;
+    private volatile int jumps = 0;
+
+    LiveLatency(long targetMs, long realtimeZeroUs) {
+        this.targetMs = targetMs;
+        this.realtimeZeroUs = realtimeZeroUs;
+    }
+
+    /** Режим включён и url — RTMP/RTSP */
+    static boolean applies(String url) {
+        if (url == null || !CollinsClientConfig.get().liveLowLatency) return false;
+        String u = url.toLowerCase(Locale.ROOT);
+        return u.startsWith("rtmp://") || u.startsWith("rtmps://") || u.startsWith("rtsp://") || u.startsWith("rtsps://");
+    }
+
+    static long targetMs() {
+        return CollinsClientConfig.get().liveLatencyTargetMs;
+    }
+
+    /** Кадр получен из грабера: tsUs — таймстамп потока, relUs — он же на таймлайне экрана */
+    void onVideo(long tsUs, long relUs) {
+        long now = System.nanoTime() / 1000L;
+        minOffsetUs = Math.min(minOffsetUs, now - tsUs);
+        lastTsUs = tsUs;
+        lastRelUs = relUs;
+        lastArrivalUs = now;
+    }
+
+    /**
+     * Пересчитать задержку. shownRelUs — таймстамп кадра на экране (таймлайн экрана), -1 — ещё ничего не показали.
+     */
+    void sample(long shownRelUs) {
+        if (lastTsUs == Long.MIN_VALUE) return;
+        // кадры, декодированные, но ещё не показанные
+        long queuedUs = shownRelUs >= 0 ? Math.max(0L, lastRelUs - shownRelUs) : 0L;
+        long us = -1;
+        if (realtimeZeroUs != Long.MIN_VALUE) {
+            long nowEpochUs = System.currentTimeMillis() * 1000L;
+            long g2g = nowEpochUs - (realtimeZeroUs + lastTsUs) + queuedUs;
+            if (g2g >= 0 && g2g <= MAX_SANE_US) us = g2g;
+        }
+        wallclock = us >= 0;
+        if (us < 0) us = (lastArrivalUs - lastTsUs - minOffsetUs) + queuedUs;
+        double ms = us / 1000.0;
+        emaMs = emaMs < 0 ? ms : emaMs + (ms - emaMs) / 8.0;
+        latencyMs = Math.round(emaMs);
+    }
+
+    /** Что делать с накопленной задержкой */
+    Action decide() {
+        if (emaMs < 0 || targetMs <= 0) return Action.NONE;
+        long now = System.nanoTime();
+        if (emaMs > targetMs + Math.max(2000L, targetMs) && now - lastJumpNs > JUMP_COOLDOWN_NS) {
+            return Action.JUMP;
+        }
+        // гистерезис: начинаем догонять заметно выше цели, перестаём на цели
+        if (!catchingUp && emaMs > targetMs + Math.max(100L, targetMs / 5)) {
+            catchingUp = true;
+            lastOweNs = now;
+        } else if (catchingUp && emaMs <= targetMs) {
+            catchingUp = false;
+            owedUs = 0;
+        }
+        return catchingUp ? Action.SPEED_UP : Action.NONE;
+    }
+
+    /** Сколько мкс таймлайна накопилось к пропуску при ускорении */
+    long owedUs() {
+        long now = System.nanoTime();
+        if (catchingUp) owedUs += (long) ((now - lastOweNs) / 1000L * SPEEDUP);
+        lastOweNs = now;
+        return owedUs;
+    }
+
+    void consume(long us) {
+        owedUs = Math.max(0L, owedUs - us);
+    }
+
+    /** Прыгнули к свежему кадру (или сбросили очереди) — задержку меряем заново */
+    void onJump() {
+        jumps++;
+        lastJumpNs = System.nanoTime();
+        emaMs = -1;
+        catchingUp = false;
+        owedUs = 0;
+    }
+
+    long latencyMs() {
+        return latencyMs;
+    }
+
+    boolean wallclock() {
+        return wallclock;
+    }
+
+    boolean catchingUp() {
+        return catchingUp;
+    }
+
+    int jumps() {
+        return jumps;
+    }
+}
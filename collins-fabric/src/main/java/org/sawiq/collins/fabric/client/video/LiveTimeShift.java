@@ -0,0 +1,547 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Time-shift для живых URL (RTMP/RTSP/HLS): ретранслятор читает источник пакетами без декодирования
+ * и пишет их в кольцо MPEG-TS сегментов на диске ({@code liveTimeShiftMinutes} минут).
+ * Экраны играют не источник, а это кольцо ({@link #open(long)}), поэтому:
+ * <ul>
+ *     <li>seek/back сервера и переподключение плеера продолжают с места внутри окна без нового
+ *     соединения с источником;</li>
+ *     <li>короткий обрыв источника ретранслятор переживает сам (переподключение с тем же таймлайном),
+ *     а экран, играющий чуть позади края, его не замечает.</li>
+ * </ul>
+ * Сегмент начинается с ключевого кадра и своих PAT/PMT — TS склеивается простым чтением подряд.
+ * Один ретранслятор на URL для всех экранов; после ухода последнего экрана живёт ещё
+ * {@link #IDLE_GRACE_MS}, чтобы переподключение попало в окно.
+ */
+final class LiveTimeShift {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsLive] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static final long SEGMENT_TARGET_US = 2_000_000L;
+    // сегмент без ключевого кадра дольше этого режем всё равно (поток без GOP)
+    private static final long SEGMENT_MAX_US = 10_000_000L;
+    private static final long IDLE_GRACE_MS = 60_000L;
+    private static final long STALL_TIMEOUT_MS = 30_000L;
+    private static final int RECONNECT_ATTEMPTS = 8;
+    // микросекунды как AVRational (AV_TIME_BASE_Q — макрос, в пресетах его нет)
+    private static final AVRational US_TB = avutil.av_make_q(1, 1_000_000);
+
+    private static final Map<String, LiveTimeShift> RELAYS = new HashMap<>();
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Collins-LiveReaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Кусок кольца: файл TS, момент приёма первого пакета и длина по таймлайну источника */
+    private static final class Segment {
+        final long index;
+        final Path file;
+        final long wallStartMs;
+        volatile long durationUs = 0;
+        volatile boolean complete = false;
+
+        Segment(long index, Path file, long wallStartMs) {
+            this.index = index;
+            this.file = file;
+            this.wallStartMs = wallStartMs;
+        }
+    }
+
+    private final String url;
+    private final Path dir;
+    private final Supplier<FFmpegFrameGrabber> origin;
+    private final List<Segment> segments = new ArrayList<>();
+    // файлы вытесненных сегментов, которые не удалось удалить (их ещё читали) — повторяем позже
+    private final List<Path> pendingDeletes = new ArrayList<>();
+    private long nextIndex = 0;
+    private int refs = 0;
+    private long idleSinceMs = 0;
+    private volatile boolean stopped = false;
+    private volatile String failure = null;
+    private volatile boolean originUp = false;
+
+    private LiveTimeShift(String url, Path dir, Supplier<FFmpegFrameGrabber> origin) {
+        this.url = url;
+        this.dir = dir;
+        this.origin = origin;
+    }
+
+    static boolean enabled() {
+        return CollinsClientConfig.get().liveTimeShiftMinutes > 0;
+    }
+
+    private static long windowMs() {
+        return CollinsClientConfig.get().liveTimeShiftMinutes * 60_000L;
+    }
+
+    /** Удалить кольца, оставшиеся от прошлого запуска */
+    static void cleanup(Path root) {
+        try (DirectoryStream<Path> s = Files.newDirectoryStream(root)) {
+            for (Path d : s) deleteTree(d);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Ретранслятор для url (общий для экранов). origin создаёт ещё не запущенный грабер источника
+     * (вызывается на каждое переподключение).
+     * Вызывающий обязан вызвать {@link #release()}.
+     */
+    static LiveTimeShift acquire(String url, Path root, Supplier<FFmpegFrameGrabber> origin) {
+        synchronized (RELAYS) {
+            LiveTimeShift r = RELAYS.get(url);
+            if (r == null || r.stopped) {
+                if (RELAYS.isEmpty()) cleanup(root);
+                Path dir = root.resolve(Integer.toHexString(url.hashCode()) + "-" + System.nanoTime());
+                r = new LiveTimeShift(url, dir, origin);
+                RELAYS.put(url, r);
+                LiveTimeShift relay = r;
+                Thread t = new Thread(relay::runRelay, "Collins-LiveRelay");
+                t.setDaemon(true);
+                t.start();
+            }
+            r.refs++;
+            return r;
+        }
+    }
+
+    void release() {
+        synchronized (RELAYS) {
+            if (--refs > 0) return;
+            idleSinceMs = System.currentTimeMillis();
+        }
+        REAPER.schedule(() -> {
+            synchronized (RELAYS) {
+                if (refs > 0 || stopped || System.currentTimeMillis() - idleSinceMs < IDLE_GRACE_MS) return;
+                stopped = true;
+                RELAYS.remove(url, this);
+            }
+            dbg("relay idle, stopping " + url);
+        }, IDLE_GRACE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Сколько мс позади живого края доступно */
+    long bufferedMs() {
+        synchronized (segments) {
+            if (segments.isEmpty()) return 0L;
+            return System.currentTimeMillis() - segments.get(0).wallStartMs;
+        }
+    }
+
+    boolean originUp() {
+        return originUp;
+    }
+
+    /**
+     * Привязка таймлайна сервера к кольцу для одной сессии плеера: ретранслятор общий для экранов,
+     * а у каждого свой таймлайн (и новый play начинает его заново).
+     */
+    static final class Anchor {
+        // позиция сервера (мс) у живого края в момент wallMs
+        private long posMs = Long.MIN_VALUE;
+        private long wallMs = 0;
+
+        /**
+         * Момент (wall-clock) для позиции сервера posMs. Первый вызов привязывает posMs к живому краю;
+         * дальше позиция меньше — значит назад по кольцу.
+         */
+        synchronized long wallForServerPos(long posMs) {
+            long now = System.currentTimeMillis();
+            if (this.posMs == Long.MIN_VALUE) {
+                this.posMs = posMs;
+                this.wallMs = now;
+                return now;
+            }
+            return Math.min(now, wallMs + (posMs - this.posMs));
+        }
+    }
+
+    // ==================== Ретранслятор ====================
+
+    private void runRelay() {
+        long offsetUs = 0;      // сдвиг таймлайна после переподключения источника
+        long lastEndUs = Long.MIN_VALUE;
+        int failures = 0;
+        try {
+            Files.createDirectories(dir);
+            while (!stopped) {
+                FFmpegFrameGrabber g = null;
+                FFmpegFrameRecorder rec = null;
+                Segment seg = null;
+                long segStartUs = Long.MIN_VALUE;
+                long sessionFirstUs = Long.MIN_VALUE;
+                boolean progressed = false;
+                try {
+                    g = origin.get();
+                    g.start(true);
+                    originUp = true;
+                    int videoIndex = g.getVideoStream();
+                    dbg("origin up " + url + " video stream=" + videoIndex);
+
+                    AVPacket pkt;
+                    while (!stopped && (pkt = g.grabPacket()) != null) {
+                        AVStream st = g.getFormatContext().streams(pkt.stream_index());
+                        AVRational tb = st.time_base();
+                        long ts = pkt.dts() != avutil.AV_NOPTS_VALUE ? pkt.dts() : pkt.pts();
+                        if (ts == avutil.AV_NOPTS_VALUE) continue;
+                        long tsUs = avutil.av_rescale_q(ts, tb, US_TB);
+
+                        if (sessionFirstUs == Long.MIN_VALUE) {
+                            sessionFirstUs = tsUs;
+                            // новый сеанс источника продолжает таймлайн прошлого, а не начинает с нуля
+                            if (lastEndUs != Long.MIN_VALUE) offsetUs = lastEndUs - tsUs;
+                        }
+                        long shifted = tsUs + offsetUs;
+                        if (offsetUs != 0) {
+                            long off = avutil.av_rescale_q(offsetUs, US_TB, tb);
+                            if (pkt.pts() != avutil.AV_NOPTS_VALUE) pkt.pts(pkt.pts() + off);
+                            if (pkt.dts() != avutil.AV_NOPTS_VALUE) pkt.dts(pkt.dts() + off);
+                        }
+
+                        boolean key = pkt.stream_index() == videoIndex && (pkt.flags() & avcodec.AV_PKT_FLAG_KEY) != 0;
+                        boolean rotate = seg == null
+                                ? (key || videoIndex < 0)
+                                : (shifted - segStartUs >= SEGMENT_TARGET_US && (key || videoIndex < 0))
+                                        || shifted - segStartUs >= SEGMENT_MAX_US;
+                        if (rotate) {
+                            if (rec != null) closeSegment(rec, seg, shifted - segStartUs);
+                            seg = newSegment();
+                            rec = new FFmpegFrameRecorder(seg.file.toString(), g.getImageWidth(), g.getImageHeight(), g.getAudioChannels());
+                            rec.setFormat("mpegts");
+                            rec.start(g.getFormatContext());
+                            segStartUs = shifted;
+                            evictOld();
+                        }
+                        if (rec == null) continue; // ждём первый ключевой кадр
+                        rec.recordPacket(pkt);
+                        seg.durationUs = Math.max(seg.durationUs, shifted - segStartUs);
+                        lastEndUs = Math.max(lastEndUs, shifted + 1);
+                        if (!progressed) {
+                            progressed = true;
+                            failures = 0;
+                        }
+                    }
+                    dbg("origin ended " + url);
+                } catch (Exception e) {
+                    dbg("origin error " + url + ": " + e);
+                } finally {
+                    originUp = false;
+                    if (rec != null) closeSegment(rec, seg, seg.durationUs);
+                    try {
+                        if (g != null) g.release();
+                    } catch (Exception ignored) {
+                    }
+                }
+                if (stopped) break;
+                if (++failures > RECONNECT_ATTEMPTS) {
+                    failure = "origin unavailable";
+                    break;
+                }
+                // экраны пока доигрывают кольцо
+                Thread.sleep(Math.min(8_000L, 500L << Math.min(4, failures - 1)));
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failure = String.valueOf(e);
+        } finally {
+            if (failure != null) dbg("relay failed " + url + ": " + failure);
+            stopped = true;
+            synchronized (RELAYS) {
+                RELAYS.remove(url, this);
+            }
+            synchronized (segments) {
+                retryDeletes();
+                segments.notifyAll();
+            }
+            // читатели закрывают свои файлы сами; папку добьёт cleanup при следующем старте
+            REAPER.schedule(() -> deleteTree(dir), IDLE_GRACE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Segment newSegment() {
+        synchronized (segments) {
+            long i = nextIndex++;
+            Segment s = new Segment(i, dir.resolve(i + ".ts"), System.currentTimeMillis());
+            segments.add(s);
+            segments.notifyAll();
+            return s;
+        }
+    }
+
+    private void closeSegment(FFmpegFrameRecorder rec, Segment seg, long durationUs) {
+        try {
+            rec.stop();
+        } catch (Exception ignored) {
+        }
+        try {
+            rec.release();
+        } catch (Exception ignored) {
+        }
+        synchronized (segments) {
+            seg.durationUs = Math.max(seg.durationUs, durationUs);
+            seg.complete = true;
+            segments.notifyAll();
+        }
+    }
+
+    /** Сегменты старше окна — на удаление (если файл ещё читают, удалим в следующий раз) */
+    private void evictOld() {
+        long cutoff = System.currentTimeMillis() - windowMs();
+        synchronized (segments) {
+            retryDeletes();
+            while (segments.size() > 2 && segments.get(1).wallStartMs < cutoff) {
+                Segment s = segments.remove(0);
+                if (!tryDelete(s.file)) pendingDeletes.add(s.file);
+            }
+        }
+    }
+
+    /** Повторить удаление файлов, которые не удалились при вытеснении. Под segments */
+    private void retryDeletes() {
+        pendingDeletes.removeIf(LiveTimeShift::tryDelete);
+    }
+
+    private static boolean tryDelete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static void deleteTree(Path d) {
+        try {
+            if (Files.isDirectory(d)) {
+                try (DirectoryStream<Path> s = Files.newDirectoryStream(d)) {
+                    for (Path p : s) {
+                        try {
+                            Files.deleteIfExists(p);
+                        } catch (Exception ignored) {
+                        }
+                    }
+                }
+            }
+            Files.deleteIfExists(d);
+        } catch (Exception ignored) {
+        }
+    }
+
+    // ==================== Чтение кольца ====================
+
+    /** Сегмент, в который попадает wallMs (крайний — если момент вне окна); ждёт первый сегмент */
+    private Segment segmentAt(long wallMs) throws IOException {
+        long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+        synchronized (segments) {
+            while (segments.isEmpty()) {
+                if (stopped) throw new IOException("live relay stopped: " + failure);
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) throw new IOException("live relay: no data from origin");
+                try {
+                    segments.wait(Math.min(left, 200L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            Segment found = segments.get(0);
+            for (Segment s : segments) {
+                if (s.wallStartMs <= wallMs) found = s;
+                else break;
+            }
+            return found;
+        }
+    }
+
+    private Segment after(Segment cur) {
+        synchronized (segments) {
+            for (Segment s : segments) {
+                if (s.index > cur.index) return s;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Поток TS с сегмента, куда попадает wallMs (≥ now — живой край). Для
+     * {@code new FFmpegFrameGrabber(InputStream)} с форматом mpegts.
+     */
+    RingInputStream open(long wallMs) throws IOException {
+        return new RingInputStream(segmentAt(wallMs));
+    }
+
+    /**
+     * Сегменты подряд как один TS. Позиция только вперёд: reset/skip назад в пределах текущего
+     * сегмента (пробирование контейнера), дальше — {@link #seekWall(long)}.
+     */
+    final class RingInputStream extends InputStream {
+        private Segment seg;
+        private FileChannel ch;
+        private long segPos = 0;
+        private long markSeg = -1;
+        private long markPos = 0;
+        private boolean closed = false;
+
+        private RingInputStream(Segment start) throws IOException {
+            switchTo(start);
+        }
+
+        private void switchTo(Segment s) throws IOException {
+            closeChannel();
+            seg = s;
+            segPos = 0;
+            ch = FileChannel.open(s.file, StandardOpenOption.READ);
+        }
+
+        private void closeChannel() {
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (Exception ignored) {
+                }
+                ch = null;
+            }
+        }
+
+        /** Момент приёма сегмента, который сейчас читается */
+        long currentWallMs() {
+            return seg.wallStartMs;
+        }
+
+        /** Перейти к сегменту, куда попадает wallMs (seek/back без переподключения к источнику) */
+        synchronized void seekWall(long wallMs) throws IOException {
+            switchTo(segmentAt(wallMs));
+            markSeg = -1;
+        }
+
+        /** Перейти к самому свежему сегменту (догнать живой край) */
+        synchronized void jumpToLiveEdge() throws IOException {
+            Segment last;
+            synchronized (segments) {
+                last = segments.isEmpty() ? seg : segments.get(segments.size() - 1);
+            }
+            if (last != seg) {
+                switchTo(last);
+                markSeg = -1;
+            }
+        }
+
+        /** Сколько мс от читаемого сегмента до живого края */
+        long behindLiveMs() {
+            return Math.max(0L, System.currentTimeMillis() - seg.wallStartMs);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int r = read(one, 0, 1);
+            return r <= 0 ? -1 : (one[0] & 0xFF);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len <= 0) return 0;
+            long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+            while (true) {
+                if (closed) throw new IOException("stream closed");
+                int r = ch.read(ByteBuffer.wrap(b, off, len), segPos);
+                if (r > 0) {
+                    segPos += r;
+                    return r;
+                }
+                if (seg.complete) {
+                    // сегмент дописан и прочитан — следующий (или ждём его)
+                    Segment next = after(seg);
+                    if (next != null) {
+                        switchTo(next);
+                        continue;
+                    }
+                }
+                if (stopped && (seg.complete || !Files.exists(seg.file))) return -1;
+                if (System.currentTimeMillis() > deadline) throw new IOException("live relay stalled");
+                synchronized (segments) {
+                    try {
+                        segments.wait(20L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public synchronized long skip(long n) {
+            if (n <= 0) return 0;
+            try {
+                long size = ch.size();
+                long k = Math.min(n, Math.max(0L, size - segPos));
+                segPos += k;
+                return k;
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            markSeg = seg.index;
+            markPos = segPos;
+        }
+
+        @Override
+        public synchronized void reset() {
+            // назад только внутри текущего сегмента: для живого потока дальше нечего перечитывать
+            segPos = (markSeg == seg.index) ? markPos : 0;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            closeChannel();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.sawiq.collins.fabric.client.video;
+
+import org.bytedeco.javacv.Frame;
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.Buffer;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Короткие зацикленные ролики в памяти: лобби крутит один 10–30 с клип весь день,
+ * и каждый круг заново демуксится и декодируется.
+ * <ul>
+ *     <li>кадры — если готовые ABGR-кадры клипа влезают в бюджет, второй проход их записывает,
+ *     дальше круги (и новые сессии того же экрана) идут из памяти без грабера и декодера;</li>
+ *     <li>сжатые данные — клип побольше: файл кэша целиком в куче, грабер читает его из памяти;</li>
+ *     <li>картинки экранов — готовые кадры {@link ImageFrames} (GIF — тот же зацикленный клип).</li>
+ * </ul>
+ * Общий бюджет {@code loopCacheMaxMb}, вытеснение LRU. Записи держатся через SoftReference —
+ * при нехватке памяти их первым заберёт GC; новые не принимаются, если куча почти полна.
+ */
+final class LoopClipCache {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsLoop] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    // после приёма записи в куче должно остаться свободным хотя бы столько от -Xmx
+    private static final double HEAP_HEADROOM = 0.25;
+
+    /** Декодированный элемент клипа: кадр (argb) или аудио (frame.samples), в порядке декодирования */
+    record Item(Frame frame, int[] argb) {
+    }
+
+    /** Декодированный клип под конкретный размер текстуры и аудиоформат */
+    static final class Clip {
+        final int w;
+        final int h;
+        final int sampleRate;
+        final int channels;
+        private final Item[] items;
+
+        private Clip(int w, int h, int sampleRate, int channels, Item[] items) {
+            this.w = w;
+            this.h = h;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.items = items;
+        }
+
+        Replay replay() {
+            return new Replay(items);
+        }
+    }
+
+    /** Проход по клипу; next() == null — конец круга */
+    static final class Replay {
+        private final Item[] items;
+        private int pos = 0;
+
+        private Replay(Item[] items) {
+            this.items = items;
+        }
+
+        Item next() {
+            return pos < items.length ? items[pos++] : null;
+        }
+
+        void rewind() {
+            pos = 0;
+        }
+
+        /** Встать на первый элемент не раньше offsetUs от начала клипа */
+        void seek(long offsetUs) {
+            long target = items[0].frame().timestamp + Math.max(0L, offsetUs);
+            int lo = 0;
+            int hi = items.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (items[mid].frame().timestamp < target) lo = mid + 1;
+                else hi = mid;
+            }
+            pos = Math.min(lo, items.length);
+        }
+    }
+
+    /** Запись прохода с нуля до конца; любой seek или перебор бюджета её отменяет */
+    static final class Recorder {
+        private final String key;
+        private final int w;
+        private final int h;
+        private final int sampleRate;
+        private final int channels;
+        private final long budgetBytes;
+        private List<Item> items = new ArrayList<>();
+        private long bytes = 0;
+        private boolean sawVideo = false;
+
+        private Recorder(String key, int w, int h, int sampleRate, int channels, long budgetBytes) {
+            this.key = key;
+            this.w = w;
+            this.h = h;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.budgetBytes = budgetBytes;
+        }
+
+        boolean active() {
+            return items != null;
+        }
+
+        void abandon() {
+            if (items != null) dbg("recording abandoned " + key + " at " + (bytes >> 20) + " MB");
+            items = null;
+        }
+
+        void audio(Frame f) {
+            if (items == null) return;
+            Buffer[] src = f.samples;
+            Buffer[] copy = new Buffer[src.length];
+            long add = 0;
+            for (int i = 0; i < src.length; i++) {
+                if (!(src[i] instanceof ShortBuffer sb)) {
+                    abandon();
+                    return;
+                }
+                ShortBuffer d = sb.duplicate();
+                short[] arr = new short[d.remaining()];
+                d.get(arr);
+                copy[i] = ShortBuffer.wrap(arr);
+                add += arr.length * 2L;
+            }
+            Frame c = new Frame();
+            c.samples = copy;
+            c.sampleRate = f.sampleRate;
+            c.audioChannels = f.audioChannels;
+            c.timestamp = f.timestamp;
+            add(new Item(c, null), add);
+        }
+
+        void video(long timestampUs, int[] argb) {
+            if (items == null) return;
+            Frame c = new Frame();
+            c.imageWidth = w;
+            c.imageHeight = h;
+            c.timestamp = timestampUs;
+            sawVideo = true;
+            add(new Item(c, argb.clone()), argb.length * 4L);
+        }
+
+        private void add(Item item, long size) {
+            bytes += size;
+            if (bytes > budgetBytes || ((items.size() & 63) == 0 && !heapAllows(0))) {
+                abandon();
+                return;
+            }
+            items.add(item);
+        }
+
+        /** Проход дошёл до конца: сохранить клип; null — запись не удалась */
+        Clip finish() {
+            if (items == null || !sawVideo || items.isEmpty()) return null;
+            Clip clip = new Clip(w, h, sampleRate, channels, items.toArray(new Item[0]));
+            long size = bytes;
+            items = null;
+            return put(key, clip, size) ? clip : null;
+        }
+    }
+
+    private static final class Entry {
+        final SoftReference<Object> ref;
+        final long bytes;
+
+        Entry(Object value, long bytes) {
+            this.ref = new SoftReference<>(value);
+            this.bytes = bytes;
+        }
+    }
+
+    // access-order: первым вытесняется давно не игравший
+    private static final LinkedHashMap<String, Entry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalBytes = 0;
+
+    private LoopClipCache() {
+    }
+
+    private static long budgetBytes() {
+        return Math.max(0, CollinsClientConfig.get().loopCacheMaxMb) * 1024L * 1024L;
+    }
+
+    private static long maxClipUs() {
+        return Math.max(0, CollinsClientConfig.get().loopCacheMaxSeconds) * 1_000_000L;
+    }
+
+    /** Клип подходит под кэш по длине (durationMs известна и не больше лимита) */
+    static boolean eligible(long durationMs) {
+        return budgetBytes() > 0 && durationMs > 0 && durationMs * 1000L <= maxClipUs();
+    }
+
+    private static boolean heapAllows(long bytes) {
+        Runtime rt = Runtime.getRuntime();
+        long max = rt.maxMemory();
+        long used = rt.totalMemory() - rt.freeMemory();
+        return max - used - bytes >= (long) (max * HEAP_HEADROOM);
+    }
+
+    /** Ключ кадров клипа: хэш ключа дискового кэша, чтобы {@link #forget} срабатывал при вытеснении/перекачке */
+    static String framesKey(String cacheHash, int w, int h) {
+        return "frames|" + cacheHash + "|" + w + "x" + h;
+    }
+
+    /** Оценка объёма кадров клипа в байтах */
+    static long estimateFrameBytes(int w, int h, double fps, long durationMs) {
+        return (long) w * h * 4L * (long) Math.ceil(Math.max(1.0, fps) * durationMs / 1000.0);
+    }
+
+    /** Кадры клипа влезут в бюджет — тогда сжатые данные в памяти не держим */
+    static boolean framesFit(int w, int h, double fps, long durationMs) {
+        return eligible(durationMs) && estimateFrameBytes(w, h, fps, durationMs) <= budgetBytes();
+    }
+
+    /** Готовый клип с нужным размером и аудиоформатом или null */
+    static Clip frames(String key, int w, int h, int sampleRate, int channels) {
+        Object v = lookup(key);
+        if (!(v instanceof Clip c)) return null;
+        if (c.w != w || c.h != h || c.sampleRate != sampleRate || c.channels != channels) return null;
+        return c;
+    }
+
+    /** Начать запись, если кадры клипа влезают в бюджет; иначе null */
+    static Recorder record(String key, int w, int h, int sampleRate, int channels, double fps, long durationMs) {
+        if (!eligible(durationMs)) return null;
+        long budget = budgetBytes();
+        long estimate = estimateFrameBytes(w, h, fps, durationMs);
+        if (estimate > budget || !heapAllows(estimate)) return null;
+        // запас на аудио и неточную длину/fps
+        return new Recorder(key, w, h, sampleRate, channels, Math.min(budget, estimate + estimate / 4 + 8L * 1024L * 1024L));
+    }
+
+    /**
+     * Файл кэша из памяти для зацикленного клипа, кадры которого в бюджет не влезли.
+     * null — клип не подходит (длинный, большой файл, мало памяти).
+     * JavaCV делает seek через reset() + skip() — ByteArrayInputStream это умеет.
+     */
+    static InputStream compressed(Path file, long durationMs) {
+        if (!eligible(durationMs)) return null;
+        try {
+            long size = Files.size(file);
+            if (size <= 0 || size > budgetBytes() / 2) return null;
+            String key = "bytes|" + file.toAbsolutePath() + "|" + size + "|" + Files.getLastModifiedTime(file).toMillis();
+            Object v = lookup(key);
+            if (v instanceof byte[] data) return new ByteArrayInputStream(data);
+            if (!heapAllows(size)) return null;
+            byte[] data = Files.readAllBytes(file);
+            if (data.length != size) return null;
+            put(key, data, size);
+            dbg("compressed clip loaded " + file + " " + (size >> 10) + " KB");
+            return new ByteArrayInputStream(data);
+        } catch (Exception e) {
+            dbg("compressed clip failed " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /** Файл кэша удалён/заменён — забыть всё, что из него построено (по пути файла или хэшу ключа кэша) */
+    static void forget(String path) {
+        synchronized (ENTRIES) {
+            Iterator<Map.Entry<String, Entry>> it = ENTRIES.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                if (e.getKey().contains("|" + path + "|")) {
+                    totalBytes -= e.getValue().bytes;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** Готовое значение по ключу (см. {@link ImageFrames}) или null */
+    static Object get(String key) {
+        return lookup(key);
+    }
+
+    /** Положить готовое значение; false — не влезло в бюджет или мало памяти */
+    static boolean store(String key, Object value, long bytes) {
+        if (budgetBytes() <= 0 || !heapAllows(bytes)) return false;
+        return put(key, value, bytes);
+    }
+
+    private static Object lookup(String key) {
+        synchronized (ENTRIES) {
+            Entry e = ENTRIES.get(key);
+            if (e == null) return null;
+            Object v = e.ref.get();
+            if (v == null) {
+                // забрал GC под нехваткой памяти
+                ENTRIES.remove(key);
+                totalBytes -= e.bytes;
+                dbg("cleared by GC " + key);
+            }
+            return v;
+        }
+    }
+
+    private static boolean put(String key, Object value, long bytes) {
+        long budget = budgetBytes();
+        if (bytes > budget) return false;
+        synchronized (ENTRIES) {
+            Entry old = ENTRIES.remove(key);
+            if (old != null) totalBytes -= old.bytes;
+            Iterator<Map.Entry<String, Entry>> it = ENTRIES.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry e = it.next().getValue();
+                if (e.ref.get() != null && totalBytes + bytes <= budget) continue;
+                totalBytes -= e.bytes;
+                it.remove();
+            }
+            if (totalBytes + bytes > budget) return false;
+            ENTRIES.put(key, new Entry(value, bytes));
+            totalBytes += bytes;
+            dbg("stored " + key + " " + (bytes >> 20) + " MB, total " + (totalBytes >> 20) + " MB");
+            return true;
+        }
+    }
+}
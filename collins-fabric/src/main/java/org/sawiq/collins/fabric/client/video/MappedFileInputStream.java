@@ -0,0 +1,176 @@
+package org.sawiq.collins.fabric.client.video;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Файл кэша, отображённый в память, как InputStream для {@code new FFmpegFrameGrabber(InputStream)}.
+ * JavaCV строит из него AVIOContext (seek = reset() + skip()), поэтому seek — O(1) без системных вызовов.
+ * Чтение при этом не бесплатное: ReadCallback JavaCV на каждый вызов выделяет byte[] и копирует
+ * отображение → куча → нативный буфер, так что по пропускной способности это не быстрее файлового
+ * протокола FFmpeg — выигрыш только в seek'ах и в общем отображении на несколько экранов.
+ *
+ * <p>Несколько экранов с одним файлом делят одно отображение (счётчик ссылок);
+ * последний close() явно снимает отображение — иначе на Windows файл нельзя
+ * удалить или подменить (вытеснение, remux), пока не отработает GC.</p>
+ */
+final class MappedFileInputStream extends InputStream {
+
+    // MappedByteBuffer ограничен 2 ГБ — большие файлы отображаем кусками
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    /** Одно отображение файла на всех читателей */
+    private static final class Mapping {
+        final String key;
+        final ByteBuffer[] chunks;
+        final long size;
+        int refs = 0;
+
+        Mapping(String key, ByteBuffer[] chunks, long size) {
+            this.key = key;
+            this.chunks = chunks;
+            this.size = size;
+        }
+    }
+
+    private static final Map<String, Mapping> MAPPINGS = new HashMap<>();
+
+    private final Mapping mapping;
+    private long pos = 0;
+    private long mark = 0;
+    private boolean closed = false;
+
+    private MappedFileInputStream(Mapping mapping) {
+        this.mapping = mapping;
+    }
+
+    /** Открыть (или подключиться к уже открытому) отображению файла */
+    static MappedFileInputStream open(Path file) throws IOException {
+        Path real = file.toRealPath();
+        long size = Files.size(real);
+        // размер и mtime в ключе: файл, подменённый remux'ом, отобразится заново
+        String key = real + "|" + size + "|" + Files.getLastModifiedTime(real).toMillis();
+
+        synchronized (MAPPINGS) {
+            Mapping m = MAPPINGS.get(key);
+            if (m == null) {
+                m = map(key, real, size);
+                MAPPINGS.put(key, m);
+            }
+            m.refs++;
+            return new MappedFileInputStream(m);
+        }
+    }
+
+    private static Mapping map(String key, Path file, long size) throws IOException {
+        int n = (int) Math.max(1, (size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+        ByteBuffer[] chunks = new ByteBuffer[n];
+        // канал можно закрыть сразу — отображение живёт само по себе
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < n; i++) {
+                long off = i * CHUNK_BYTES;
+                chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, off, Math.min(CHUNK_BYTES, size - off));
+            }
+        }
+        return new Mapping(key, chunks, size);
+    }
+
+    long size() {
+        return mapping.size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int r = read(one, 0, 1);
+        return r <= 0 ? -1 : (one[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("stream closed");
+        if (len <= 0) return 0;
+        if (pos >= mapping.size) return -1;
+
+        int total = 0;
+        while (len > 0 && pos < mapping.size) {
+            ByteBuffer chunk = mapping.chunks[(int) (pos / CHUNK_BYTES)];
+            int inChunk = (int) (pos % CHUNK_BYTES);
+            int n = Math.min(len, chunk.capacity() - inChunk);
+            // абсолютный get не трогает position — буфер безопасно делить между потоками
+            chunk.get(inChunk, b, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        long k = Math.min(n, mapping.size - pos);
+        pos += k;
+        return k;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, mapping.size - pos);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = pos;
+    }
+
+    @Override
+    public synchronized void reset() {
+        pos = mark;
+    }
+
+    @Override
+    public void close() {
+        synchronized (MAPPINGS) {
+            if (closed) return;
+            closed = true;
+            if (--mapping.refs > 0) return;
+            MAPPINGS.remove(mapping.key, mapping);
+        }
+        for (ByteBuffer bb : mapping.chunks) unmap(bb);
+    }
+
+    private static volatile Method invokeCleaner;
+    private static volatile Object unsafe;
+
+    /** Снять отображение сразу (Unsafe.invokeCleaner); не вышло — останется до GC */
+    private static void unmap(ByteBuffer bb) {
+        if (!(bb instanceof MappedByteBuffer)) return;
+        try {
+            if (invokeCleaner == null) {
+                Class<?> c = Class.forName("sun.misc.Unsafe");
+                var f = c.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                unsafe = f.get(null);
+                invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+            }
+            invokeCleaner.invoke(unsafe, bb);
+        } catch (Throwable ignored) {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.sawiq.collins.fabric.client.video;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Чтение .part файла, который ещё качается ({@link SegmentedDownloader} в потоковом режиме).
+ * read() блокируется, пока нужные байты не скачаны, и двигает приоритет скачивания к позиции чтения.
+ *
+ * <p>JavaCV ({@code new FFmpegFrameGrabber(InputStream)}) строит из этого AVIOContext:
+ * seek = reset() к метке в начале файла + skip(offset), размер — skip до конца.
+ * Поэтому skip() не ждёт данных, а только двигает позицию.</p>
+ */
+final class PartFileInputStream extends InputStream {
+
+    private final SegmentedDownloader download;
+    private final Path cachePath;
+    private final FileChannel ch;
+    private final long total;
+
+    private long pos = 0;
+    private long mark = 0;
+
+    PartFileInputStream(SegmentedDownloader download, Path cachePath) throws IOException {
+        this.download = download;
+        this.cachePath = cachePath;
+        // NIO-канал открывается с FILE_SHARE_DELETE (Windows): готовый .part можно переименовать, пока его читают
+        this.ch = FileChannel.open(download.file(), StandardOpenOption.READ);
+        this.total = download.totalBytes();
+    }
+
+    SegmentedDownloader download() {
+        return download;
+    }
+
+    /** Куда файл переедет после докачки */
+    Path cachePath() {
+        return cachePath;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int r = read(one, 0, 1);
+        return r <= 0 ? -1 : (one[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) return 0;
+        if (pos >= total) return -1;
+
+        download.setReadHead(pos);
+        long avail;
+        try {
+            avail = download.awaitAvailable(pos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("part read interrupted");
+        }
+        if (avail < 0) throw new IOException("download aborted at " + pos + "/" + total);
+        if (avail == 0) return -1;
+
+        int n = (int) Math.min(len, avail);
+        ByteBuffer bb = ByteBuffer.wrap(b, off, n);
+        long at = pos;
+        while (bb.hasRemaining()) {
+            int r = ch.read(bb, at);
+            if (r < 0) break;
+            at += r;
+        }
+        int read = (int) (at - pos);
+        pos = at;
+        return read > 0 ? read : -1;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        long k = Math.min(n, total - pos);
+        pos += k;
+        return k;
+    }
+
+    @Override
+    public int available() {
+        if (pos >= total) return 0;
+        return download.isAvailable(pos, pos + 1) ? 1 : 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = pos;
+    }
+
+    @Override
+    public synchronized void reset() {
+        pos = mark;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+}
@@ -0,0 +1,557 @@
+package org.sawiq.collins.fabric.client.video;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Параллельное скачивание по HTTP Range в заранее выделенный файл.
+ * Несколько соединений берут куски из общей очереди и пишут их в файл по смещению через FileChannel.
+ * Размер куска подстраивается под скорость соединения, упавший кусок докачивается с места обрыва.
+ *
+ * <p>В потоковом режиме файл можно читать во время скачивания ({@link PartFileInputStream}):
+ * сначала качаются голова и хвост (там бывает moov), дальше — от текущей позиции чтения.</p>
+ *
+ * <p>Докачка: рядом с .part лежит sidecar (.part.json) со скачанными диапазонами и ETag/Last-Modified.
+ * После обрыва или перезапуска качаются только недостающие куски; если валидаторы на сервере
+ * изменились — файл качается заново.</p>
+ *
+ * <p>Каждый кусок качается под слотом {@link DownloadManager}: соединения всех закачек
+ * делят общий лимит, и ближние экраны получают их первыми. Куски идут по HTTP/1.1:
+ * в одном HTTP/2-соединении параллельные потоки делили бы одно TCP-окно.</p>
+ */
+final class SegmentedDownloader {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsDL] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /** Меньше этого качаем одним соединением — параллельность не окупается */
+    static final long MIN_SEGMENTED_BYTES = 8L * 1024L * 1024L;
+
+    private static final int MAX_CONNECTIONS = 4;
+    private static final long MIN_SEGMENT_BYTES = 1L * 1024L * 1024L;
+    private static final long INITIAL_SEGMENT_BYTES = 4L * 1024L * 1024L;
+    private static final long MAX_SEGMENT_BYTES = 32L * 1024L * 1024L;
+    // кусок должен качаться примерно столько — меньше накладных расходов на запросы, но хвост не затягивается
+    private static final long TARGET_SEGMENT_MS = 3_000L;
+    private static final int SEGMENT_ATTEMPTS = 4;
+    private static final long PROGRESS_INTERVAL_MS = 250L;
+
+    // Потоковый режим: размер головы и хвоста файла, которые качаются первыми
+    static final long STREAM_HEAD_BYTES = 2L * 1024L * 1024L;
+    private static final long STREAM_TAIL_MIN_BYTES = 1L * 1024L * 1024L;
+    private static final long STREAM_TAIL_MAX_BYTES = 16L * 1024L * 1024L;
+    // при чтении из головы качаем кусками поменьше — быстрее первый кадр
+    private static final long STREAM_READ_AHEAD_SEGMENT_BYTES = 2L * 1024L * 1024L;
+
+    static final String SIDECAR_SUFFIX = ".json";
+    private static final long SIDECAR_SAVE_INTERVAL_MS = 2_000L;
+    private static final Gson GSON = new Gson();
+
+    interface Progress {
+        void onProgress(long doneBytes, long totalBytes);
+    }
+
+    /** Почему скачивание не завершилось */
+    enum Failure {
+        NONE,
+        /** отменено владельцем — .part и sidecar остаются для докачки */
+        CANCELLED,
+        /** сервер не отдаёт 206 — нужна закачка одним соединением */
+        NO_RANGE,
+        /** ETag/Last-Modified изменились — скачанное не годится */
+        CHANGED,
+        /** сеть: кусок не скачался за SEGMENT_ATTEMPTS попыток — .part остаётся для докачки */
+        NETWORK
+    }
+
+    /** Содержимое sidecar-файла */
+    private static final class Sidecar {
+        String url;
+        long total;
+        String etag;
+        String lastModified;
+        long[][] ranges;
+        long updatedAtMs;
+    }
+
+    private final String url;
+    private final Path file;
+    private final long totalBytes;
+    private final BooleanSupplier cancelled;
+    private final DoubleSupplier priority;
+    private final boolean streaming;
+    private final String etag;
+    private final String lastModified;
+    private final Path sidecar;
+
+    private final AtomicLong doneBytes = new AtomicLong();
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private volatile Failure failure = Failure.NONE;
+    private volatile long resumedBytes = 0;
+    private final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+
+    // под монитором this
+    private final ByteRangeSet claimed = new ByteRangeSet();
+    private final ByteRangeSet done = new ByteRangeSet();
+    private final List<long[]> priorityRanges = new ArrayList<>();
+    private long readHead = 0;
+
+    SegmentedDownloader(String url, Path file, long totalBytes, BooleanSupplier cancelled) {
+        this(url, file, totalBytes, cancelled, null, false, null, null);
+    }
+
+    /** priority — для {@link DownloadManager#acquire}: меньше — раньше; null — фоновая закачка */
+    SegmentedDownloader(String url, Path file, long totalBytes, BooleanSupplier cancelled, DoubleSupplier priority,
+                        boolean streaming, String etag, String lastModified) {
+        this.url = url;
+        this.file = file;
+        this.totalBytes = totalBytes;
+        this.cancelled = cancelled;
+        this.priority = priority;
+        this.streaming = streaming;
+        this.etag = (etag != null && !etag.isBlank()) ? etag : null;
+        this.lastModified = (lastModified != null && !lastModified.isBlank()) ? lastModified : null;
+        this.sidecar = sidecarOf(file);
+
+        if (streaming && totalBytes > 0) {
+            long head = Math.min(totalBytes, STREAM_HEAD_BYTES);
+            long tail = Math.max(STREAM_TAIL_MIN_BYTES, Math.min(STREAM_TAIL_MAX_BYTES, totalBytes / 64L));
+            priorityRanges.add(new long[]{0, head});
+            if (totalBytes - tail > head) {
+                priorityRanges.add(new long[]{totalBytes - tail, totalBytes});
+            }
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long totalBytes() {
+        return totalBytes;
+    }
+
+    /** Завершение скачивания: true — файл целиком, false — отмена/ошибка */
+    CompletableFuture<Boolean> completion() {
+        return completion;
+    }
+
+    Failure failure() {
+        return failure;
+    }
+
+    /** Сколько байт взято из прошлой закачки */
+    long resumedBytes() {
+        return resumedBytes;
+    }
+
+    static Path sidecarOf(Path partFile) {
+        return partFile.resolveSibling(partFile.getFileName().toString() + SIDECAR_SUFFIX);
+    }
+
+    /** Удаляет .part вместе с sidecar */
+    static void deletePart(Path partFile) {
+        try {
+            Files.deleteIfExists(partFile);
+        } catch (Exception ignored) {
+        }
+        try {
+            Files.deleteIfExists(sidecarOf(partFile));
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Блокирует до конца скачивания. true — файл полностью записан;
+     * false — отмена или кусок не удалось скачать за SEGMENT_ATTEMPTS попыток (файл неполный).
+     */
+    boolean download(Progress progress) throws Exception {
+        start(progress);
+        return completion.join();
+    }
+
+    /** Запускает скачивание в фоне и сразу возвращается. Прогресс вызывается из фонового потока. */
+    void start(Progress progress) throws Exception {
+        if (totalBytes <= 0) {
+            failure = Failure.NETWORK;
+            completion.complete(false);
+            return;
+        }
+
+        if (!resumeFromSidecar()) {
+            deletePart(file);
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(totalBytes);
+            }
+        }
+
+        int connections = (int) Math.min(MAX_CONNECTIONS, Math.max(1L, totalBytes / MIN_SEGMENT_BYTES));
+        long startNs = System.nanoTime();
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE);
+
+        CountDownLatch workersDone = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            final int worker = i;
+            DownloadManager.IO.execute(() -> {
+                try {
+                    runWorker(worker, connections, ch);
+                } catch (Exception e) {
+                    dbg("worker " + worker + " failed: " + e);
+                    fail(Failure.NETWORK);
+                } finally {
+                    workersDone.countDown();
+                }
+            });
+        }
+
+        DownloadManager.IO.execute(() -> {
+            boolean ok = false;
+            long lastSaveMs = System.currentTimeMillis();
+            long lastSavedBytes = doneBytes.get();
+            try {
+                while (!workersDone.await(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    if (cancelled.getAsBoolean()) fail(Failure.CANCELLED);
+                    if (progress != null) progress.onProgress(doneBytes.get(), totalBytes);
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastSaveMs >= SIDECAR_SAVE_INTERVAL_MS && doneBytes.get() != lastSavedBytes) {
+                        lastSaveMs = now;
+                        lastSavedBytes = doneBytes.get();
+                        saveSidecar(ch);
+                    }
+                }
+                if (progress != null) progress.onProgress(doneBytes.get(), totalBytes);
+                ok = !failed.get() && isComplete();
+            } catch (Exception e) {
+                dbg("monitor failed: " + e);
+            } finally {
+                if (ok) {
+                    try {
+                        Files.deleteIfExists(sidecar);
+                    } catch (Exception ignored) {
+                    }
+                } else if (failure == Failure.CANCELLED || failure == Failure.NETWORK || failure == Failure.NONE) {
+                    // скачанное пригодится при следующей попытке
+                    saveSidecar(ch);
+                }
+                try {
+                    ch.close();
+                } catch (Exception ignored) {
+                }
+                if (!ok) fail(Failure.NETWORK);
+                long ms = Math.max(1L, (System.nanoTime() - startNs) / 1_000_000L);
+                dbg("done ok=" + ok + " failure=" + failure + " resumed=" + resumedBytes
+                        + " bytes=" + doneBytes.get() + "/" + totalBytes + " connections=" + connections
+                        + " " + ms + "ms (" + (doneBytes.get() / 1024L * 1000L / ms) + " KB/s)");
+                completion.complete(ok);
+            }
+        });
+    }
+
+    /** Потоковое чтение сдвинулось — следующие куски качаем отсюда */
+    synchronized void setReadHead(long pos) {
+        readHead = Math.max(0L, Math.min(pos, totalBytes));
+    }
+
+    /**
+     * Ждёт, пока байт pos будет скачан. Возвращает, сколько байт подряд доступно с pos,
+     * или -1 если скачивание прервано.
+     */
+    synchronized long awaitAvailable(long pos) throws InterruptedException {
+        if (pos >= totalBytes) return 0;
+        while (true) {
+            long end = done.coveredFrom(pos);
+            if (end > pos) return end - pos;
+            if (failed.get()) return -1;
+            wait(PROGRESS_INTERVAL_MS);
+        }
+    }
+
+    synchronized boolean isAvailable(long start, long end) {
+        return done.contains(start, Math.min(end, totalBytes));
+    }
+
+    private synchronized boolean isComplete() {
+        return done.coveredBytes() >= totalBytes;
+    }
+
+    private synchronized void markDone(long start, long end) {
+        done.add(start, end);
+        notifyAll();
+    }
+
+    /** Первая причина побеждает: последующие fail() её не перетирают */
+    private void fail(Failure reason) {
+        synchronized (this) {
+            if (failure == Failure.NONE) failure = reason;
+            failed.set(true);
+            notifyAll();
+        }
+    }
+
+    /** Подхватывает .part прошлой закачки, если sidecar совпадает с сервером. false — качаем с нуля. */
+    private boolean resumeFromSidecar() {
+        try {
+            if (!Files.isRegularFile(file) || !Files.isRegularFile(sidecar)) return false;
+            Sidecar sc;
+            try (BufferedReader r = Files.newBufferedReader(sidecar, StandardCharsets.UTF_8)) {
+                sc = GSON.fromJson(r, Sidecar.class);
+            }
+            if (sc == null || sc.ranges == null || sc.total != totalBytes || Files.size(file) != totalBytes) return false;
+
+            // без совпавшего валидатора нельзя быть уверенным, что это тот же файл
+            boolean etagOk = etag != null && etag.equals(sc.etag);
+            boolean lmOk = etag == null && lastModified != null && lastModified.equals(sc.lastModified);
+            if (!etagOk && !lmOk) {
+                dbg("sidecar validators changed: etag " + sc.etag + " -> " + etag + ", lm " + sc.lastModified + " -> " + lastModified);
+                return false;
+            }
+
+            synchronized (this) {
+                for (long[] range : sc.ranges) {
+                    if (range == null || range.length != 2) continue;
+                    long a = Math.max(0L, range[0]);
+                    long b = Math.min(totalBytes, range[1]);
+                    done.add(a, b);
+                    claimed.add(a, b);
+                }
+                resumedBytes = done.coveredBytes();
+            }
+            doneBytes.set(resumedBytes);
+            dbg("resume " + file.getFileName() + " from sidecar: " + resumedBytes + "/" + totalBytes + " bytes");
+            return true;
+        } catch (Exception e) {
+            dbg("sidecar read failed: " + e);
+            return false;
+        }
+    }
+
+    private void saveSidecar(FileChannel ch) {
+        try {
+            // сначала данные на диск, потом запись о них
+            ch.force(false);
+
+            Sidecar sc = new Sidecar();
+            sc.url = url;
+            sc.total = totalBytes;
+            sc.etag = etag;
+            sc.lastModified = lastModified;
+            synchronized (this) {
+                sc.ranges = done.toList().toArray(new long[0][]);
+            }
+            sc.updatedAtMs = System.currentTimeMillis();
+
+            Path tmp = sidecar.resolveSibling(sidecar.getFileName().toString() + ".tmp");
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                GSON.toJson(sc, w);
+            }
+            try {
+                Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception e) {
+                Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            dbg("sidecar write failed: " + e);
+        }
+    }
+
+    private void runWorker(int worker, int connections, FileChannel ch) throws Exception {
+        long segmentBytes = INITIAL_SEGMENT_BYTES;
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+
+        while (!failed.get()) {
+            // слот берём до claim: пока ждём, позиция чтения могла сдвинуться
+            DownloadManager.Slot slot = DownloadManager.acquire(priority, () -> cancelled.getAsBoolean() || failed.get());
+            if (slot == null) {
+                if (cancelled.getAsBoolean()) fail(Failure.CANCELLED);
+                return;
+            }
+            long[] seg;
+            long segMs;
+            try (slot) {
+                seg = claim(segmentBytes, connections);
+                if (seg == null) return;
+
+                long segStartNs = System.nanoTime();
+                Failure f = fetchSegment(seg[0], seg[1], ch, buf);
+                if (f != Failure.NONE) {
+                    fail(f);
+                    return;
+                }
+                segMs = Math.max(1L, (System.nanoTime() - segStartNs) / 1_000_000L);
+            }
+
+            // адаптивный размер: сколько это соединение успевает за TARGET_SEGMENT_MS
+            long bytesPerSec = (seg[1] - seg[0] + 1) * 1000L / segMs;
+            segmentBytes = Math.max(MIN_SEGMENT_BYTES, Math.min(MAX_SEGMENT_BYTES, bytesPerSec * TARGET_SEGMENT_MS / 1000L));
+            dbg("worker " + worker + " segment " + seg[0] + "-" + seg[1] + " " + segMs + "ms next=" + (segmentBytes >> 10) + "KB");
+        }
+    }
+
+    /** Следующий кусок [start, end] (end включительно) или null, если всё роздано */
+    private synchronized long[] claim(long preferredBytes, int connections) {
+        long start = -1;
+        long limit = totalBytes;
+
+        // 1) голова и хвост (потоковый режим)
+        for (long[] p : priorityRanges) {
+            long gap = claimed.firstGap(p[0]);
+            if (gap < p[1]) {
+                start = gap;
+                limit = p[1];
+                break;
+            }
+        }
+
+        // 2) от позиции чтения, затем всё, что осталось до неё
+        if (start < 0) {
+            start = claimed.firstGap(readHead);
+            if (start >= totalBytes) start = claimed.firstGap(0);
+            if (start >= totalBytes) return null;
+            // пока плеер ждёт данные у позиции чтения — мелкие куски, чтобы они приходили быстрее
+            if (streaming && !done.contains(readHead, Math.min(totalBytes, readHead + STREAM_HEAD_BYTES))) {
+                preferredBytes = Math.min(preferredBytes, STREAM_READ_AHEAD_SEGMENT_BYTES);
+            }
+        }
+
+        long remaining = totalBytes - claimed.coveredBytes();
+        // к концу файла режем мельче, чтобы соединения закончили одновременно
+        long size = Math.min(preferredBytes, Math.max(MIN_SEGMENT_BYTES, remaining / connections));
+        long end = Math.min(start + size, Math.min(limit, claimed.nextStart(start)));
+
+        claimed.add(start, end);
+        return new long[]{start, end - 1};
+    }
+
+    /** Качает кусок с повторами; после обрыва продолжает с последнего записанного байта */
+    private Failure fetchSegment(long start, long end, FileChannel ch, ByteBuffer buf) {
+        long pos = start;
+        // If-Range: если файл на сервере сменился, придёт 200 вместо 206
+        String ifRange = (etag != null && !etag.startsWith("W/")) ? etag : lastModified;
+        for (int attempt = 1; attempt <= SEGMENT_ATTEMPTS; attempt++) {
+            if (cancelled.getAsBoolean()) return Failure.CANCELLED;
+            if (failed.get()) return Failure.NETWORK;
+
+            SharedHttp.Response c = null;
+            try {
+                // куски одного файла идут по одному HTTP/2-соединению (или по пулу HTTP/1.1)
+                c = SharedHttp.get(url)
+                        .header("Range", "bytes=" + pos + "-" + end)
+                        .header("If-Range", ifRange)
+                        .timeout(30_000)
+                        .readTimeout(30_000)
+                        .followRedirects(true)
+                        .http1()
+                        .send();
+
+                int code = c.code();
+                if (code == 200 && ifRange != null) {
+                    dbg("segment " + pos + "-" + end + " If-Range mismatch, file changed on server");
+                    return Failure.CHANGED;
+                }
+                if (code == 416 || code == 412) {
+                    return Failure.CHANGED;
+                }
+                if (code != 206 || !contentRangeStartsAt(c.header("Content-Range"), pos)) {
+                    // сервер проигнорировал Range — повторять бессмысленно
+                    dbg("segment " + pos + "-" + end + " unexpected code=" + code + " range=" + c.header("Content-Range"));
+                    return Failure.NO_RANGE;
+                }
+
+                try (InputStream in = c.body()) {
+                    byte[] arr = buf.array();
+                    while (pos <= end) {
+                        int want = (int) Math.min(arr.length, end - pos + 1);
+                        int r = in.read(arr, 0, want);
+                        if (r < 0) break;
+                        buf.clear().limit(r);
+                        long at = pos;
+                        while (buf.hasRemaining()) {
+                            at += ch.write(buf, at);
+                        }
+                        markDone(pos, pos + r);
+                        pos += r;
+                        doneBytes.addAndGet(r);
+                        DownloadManager.throttle(r);
+                        if (cancelled.getAsBoolean()) return Failure.CANCELLED;
+                        if (failed.get()) return Failure.NETWORK;
+                    }
+                }
+                if (pos > end) return Failure.NONE;
+                dbg("segment " + start + "-" + end + " truncated at " + pos + ", attempt " + attempt);
+            } catch (Exception e) {
+                dbg("segment " + start + "-" + end + " error at " + pos + " attempt " + attempt + ": " + e);
+            } finally {
+                if (c != null) {
+                    try {
+                        c.close();
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+
+            try {
+                Thread.sleep(500L * attempt);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return Failure.CANCELLED;
+            }
+        }
+        return Failure.NETWORK;
+    }
+
+    static boolean contentRangeStartsAt(String contentRange, long pos) {
+        // "bytes 1000-1999/123456"
+        if (contentRange == null) return false;
+        try {
+            String s = contentRange.trim();
+            int sp = s.indexOf(' ');
+            int dash = s.indexOf('-');
+            if (sp < 0 || dash < sp) return false;
+            return Long.parseLong(s.substring(sp + 1, dash).trim()) == pos;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Полный размер из "bytes 0-1/123456", -1 если неизвестен */
+    static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null) return -1L;
+        try {
+            int slash = contentRange.lastIndexOf('/');
+            if (slash < 0) return -1L;
+            String t = contentRange.substring(slash + 1).trim();
+            if (t.equals("*")) return -1L;
+            return Long.parseLong(t);
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+}
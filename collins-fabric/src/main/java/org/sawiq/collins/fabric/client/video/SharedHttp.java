@@ -0,0 +1,494 @@
+package org.sawiq.collins.fabric.client.video;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CookieHandler;
+import java.net.CookieManager;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Один {@link HttpClient} на весь клиент мода: HTTP/2 (ALPN), пул соединений и кэш редиректов.
+ * Повторные запросы к тому же CDN идут по уже открытому соединению без TCP/TLS-рукопожатия,
+ * а HTTP/2 мультиплексирует запросы в одно соединение. Куски параллельной закачки идут
+ * по HTTP/1.1 ({@link Request#http1()}): каждому своё TCP-соединение и своё окно перегрузки.
+ *
+ * <p>Редиректы клиент сам не проходит: это делает {@link Request#send()} (или вызывающий вручную) —
+ * так работает кэш редиректов и переход https→http, который встроенный NORMAL запрещает.</p>
+ *
+ * <p>Счётчик рукопожатий точный для https: SSLContext клиента обёрнут, и каждое новое
+ * TLS-соединение создаёт SSLEngine ровно один раз.</p>
+ */
+public final class SharedHttp {
+
+    private static final boolean DEBUG = false;
+
+    private static void dbg(String msg) {
+        if (!DEBUG) return;
+        try {
+            System.out.println("[CollinsHttp] " + msg);
+        } catch (Exception ignored) {
+        }
+    }
+
+    static final String UA = "Mozilla/5.0 (Windows NT 10.0; Win64; x64)";
+
+    private static final int MAX_REDIRECTS = 8;
+    // постоянный редирект (301/308) помним дольше временного (302/303/307: подписанные ссылки CDN)
+    private static final long PERMANENT_REDIRECT_TTL_MS = 30L * 60L * 1000L;
+    private static final long TEMPORARY_REDIRECT_TTL_MS = 2L * 60L * 1000L;
+    private static final int REDIRECT_CACHE_MAX = 512;
+    // недочитанный хвост меньше этого дочитываем при close(), чтобы HTTP/1.1-соединение вернулось в пул
+    private static final long DRAIN_ON_CLOSE_BYTES = 64L * 1024L;
+
+    private static final LongAdder REQUESTS = new LongAdder();
+    private static final LongAdder TLS_HANDSHAKES = new LongAdder();
+    private static final LongAdder REDIRECT_HITS = new LongAdder();
+
+    private record Redirect(String location, long expiresAtMs) {
+    }
+
+    private static final Map<String, Redirect> REDIRECTS = new ConcurrentHashMap<>();
+
+    private static final HttpClient CLIENT = buildClient();
+
+    /** Общее число запросов, новых TLS-соединений и редиректов, пройденных из кэша */
+    public record Stats(long requests, long tlsHandshakes, long redirectCacheHits) {
+        /** Доля запросов, которые обошлись без нового TLS-соединения */
+        public double reuseRate() {
+            return requests <= 0 ? 0.0 : Math.max(0.0, 1.0 - (double) tlsHandshakes / requests);
+        }
+    }
+
+    private SharedHttp() {
+    }
+
+    public static Stats stats() {
+        return new Stats(REQUESTS.sum(), TLS_HANDSHAKES.sum(), REDIRECT_HITS.sum());
+    }
+
+    private static HttpClient buildClient() {
+        try {
+            if (CookieHandler.getDefault() == null) {
+                CookieHandler.setDefault(new CookieManager());
+            }
+        } catch (Throwable ignored) {
+        }
+
+        HttpClient.Builder b = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(15))
+                .executor(DownloadManager.IO);
+        try {
+            b.sslContext(new CountingSslContext(SSLContext.getDefault()));
+        } catch (Exception e) {
+            dbg("counting SSLContext unavailable: " + e);
+        }
+        CookieHandler cookies = CookieHandler.getDefault();
+        if (cookies != null) b.cookieHandler(cookies);
+        return b.build();
+    }
+
+    // ==================== Запрос ====================
+
+    static Request get(String url) {
+        return new Request(url);
+    }
+
+    /** GET-запрос; заголовки и таймауты как у HttpURLConnection */
+    static final class Request {
+        private final String url;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private long timeoutMs = 15_000L;
+        private long readTimeoutMs = 60_000L;
+        private boolean follow = false;
+        private boolean http1 = false;
+
+        private Request(String url) {
+            this.url = url;
+            headers.put("User-Agent", UA);
+            headers.put("Accept", "*/*");
+            headers.put("Accept-Encoding", "identity");
+        }
+
+        Request header(String name, String value) {
+            if (value == null) headers.remove(name);
+            else headers.put(name, value);
+            return this;
+        }
+
+        /** Сколько ждать заголовков ответа (вместе с соединением) */
+        Request timeout(long ms) {
+            this.timeoutMs = ms;
+            return this;
+        }
+
+        /** Сколько ждать очередную порцию тела */
+        Request readTimeout(long ms) {
+            this.readTimeoutMs = ms;
+            return this;
+        }
+
+        /** Проходить редиректы (через кэш) до конечного ответа */
+        Request followRedirects(boolean follow) {
+            this.follow = follow;
+            return this;
+        }
+
+        /** Только HTTP/1.1: отдельное соединение из пула вместо общего HTTP/2 */
+        Request http1() {
+            this.http1 = true;
+            return this;
+        }
+
+        Response send() throws IOException {
+            String cur = follow ? cachedTarget(url) : url;
+            for (int hop = 0; ; hop++) {
+                Response r = sendOnce(cur);
+                if (!follow || !r.isRedirect()) return r;
+                String loc = r.header("Location");
+                // некуда идти — отдаём сам 3xx, вызывающий решит (повтор того же запроса ничего не даст)
+                if (loc == null || loc.isBlank()) return r;
+                r.close();
+                if (hop >= MAX_REDIRECTS) throw new IOException("too many redirects: " + url);
+                String next = rememberRedirect(cur, r.code(), loc);
+                if (next == null) throw new IOException("bad redirect location: " + loc);
+                cur = next;
+            }
+        }
+
+        private Response sendOnce(String target) throws IOException {
+            URI uri;
+            try {
+                uri = URI.create(target);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("bad url " + target, e);
+            }
+            HttpRequest.Builder rb = HttpRequest.newBuilder(uri).GET().timeout(Duration.ofMillis(timeoutMs));
+            // h2c upgrade на чистом http ломает часть серверов — там только HTTP/1.1
+            if (http1 || !"https".equalsIgnoreCase(uri.getScheme())) rb.version(HttpClient.Version.HTTP_1_1);
+            for (Map.Entry<String, String> h : headers.entrySet()) rb.header(h.getKey(), h.getValue());
+
+            REQUESTS.increment();
+            BodyStream body = new BodyStream(readTimeoutMs);
+            try {
+                HttpResponse<Void> resp = CLIENT.send(rb.build(), HttpResponse.BodyHandlers.fromSubscriber(body));
+                return new Response(target, resp, body);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted", ie);
+            }
+        }
+    }
+
+    /** Ответ: статус, заголовки и тело как InputStream. close() освобождает соединение (или поток HTTP/2). */
+    static final class Response implements AutoCloseable {
+        private final String url;
+        private final HttpResponse<Void> resp;
+        private final BodyStream body;
+
+        private Response(String url, HttpResponse<Void> resp, BodyStream body) {
+            this.url = url;
+            this.resp = resp;
+            this.body = body;
+        }
+
+        /** URL, на который ушёл последний запрос (после редиректов) */
+        String url() {
+            return url;
+        }
+
+        int code() {
+            return resp.statusCode();
+        }
+
+        boolean isRedirect() {
+            int c = resp.statusCode();
+            return c == 301 || c == 302 || c == 303 || c == 307 || c == 308;
+        }
+
+        String header(String name) {
+            return resp.headers().firstValue(name).orElse(null);
+        }
+
+        /** Content-Length или -1 */
+        long contentLength() {
+            return resp.headers().firstValueAsLong("Content-Length").orElse(-1L);
+        }
+
+        HttpClient.Version version() {
+            return resp.version();
+        }
+
+        InputStream body() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            long len = contentLength();
+            body.closeDraining(len >= 0 && len <= DRAIN_ON_CLOSE_BYTES);
+        }
+    }
+
+    // ==================== Кэш редиректов ====================
+
+    /** Конец цепочки известных редиректов для url (сам url, если их нет) */
+    static String cachedTarget(String url) {
+        String cur = url;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < MAX_REDIRECTS; i++) {
+            Redirect r = REDIRECTS.get(cur);
+            if (r == null) break;
+            if (r.expiresAtMs() < now) {
+                REDIRECTS.remove(cur, r);
+                break;
+            }
+            REDIRECT_HITS.increment();
+            cur = r.location();
+        }
+        if (!cur.equals(url)) dbg("redirect cache: " + url + " -> " + cur);
+        return cur;
+    }
+
+    /** Запомнить редирект from -> location; возвращает абсолютный адрес перехода (null — битый Location) */
+    static String rememberRedirect(String from, int code, String location) {
+        String next;
+        try {
+            next = URI.create(from).resolve(location.trim()).toString();
+        } catch (Exception e) {
+            return null;
+        }
+        if (code == 303) return next; // «см. другое» — не подмена ресурса
+        long ttl = (code == 301 || code == 308) ? PERMANENT_REDIRECT_TTL_MS : TEMPORARY_REDIRECT_TTL_MS;
+        if (REDIRECTS.size() >= REDIRECT_CACHE_MAX) REDIRECTS.clear();
+        REDIRECTS.put(from, new Redirect(next, System.currentTimeMillis() + ttl));
+        return next;
+    }
+
+    /** Забыть редиректы, ведущие на url (ссылка протухла: 403/404 по закэшированному адресу) */
+    static void forgetRedirectsTo(String url) {
+        REDIRECTS.values().removeIf(r -> r.location().equals(url));
+    }
+
+    // ==================== Тело ответа ====================
+
+    /**
+     * Тело как InputStream с таймаутом чтения: у HttpClient его нет, а зависшая раздача
+     * иначе держала бы поток закачки вечно. Отмена подписки рвёт только этот запрос
+     * (HTTP/2 — RST_STREAM, соединение живёт дальше).
+     */
+    private static final class BodyStream extends InputStream implements Flow.Subscriber<List<ByteBuffer>> {
+        private static final List<ByteBuffer> END = List.of();
+
+        private final long readTimeoutMs;
+        private final LinkedBlockingQueue<List<ByteBuffer>> queue = new LinkedBlockingQueue<>();
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+        private List<ByteBuffer> current;
+        private int index;
+        private boolean ended;
+        private volatile boolean closed;
+
+        BodyStream(long readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            queue.offer(item);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            queue.offer(END);
+        }
+
+        @Override
+        public void onComplete() {
+            queue.offer(END);
+        }
+
+        /** Текущий непустой буфер или null в конце тела */
+        private ByteBuffer buffer() throws IOException {
+            while (true) {
+                if (ended) return null;
+                if (current != null) {
+                    while (index < current.size()) {
+                        ByteBuffer bb = current.get(index);
+                        if (bb.hasRemaining()) return bb;
+                        index++;
+                    }
+                    current = null;
+                    Flow.Subscription s = subscription;
+                    if (s != null) s.request(1);
+                }
+                List<ByteBuffer> next;
+                try {
+                    next = queue.poll(readTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted", ie);
+                }
+                if (next == null) {
+                    cancel();
+                    throw new SocketTimeoutException("read timed out");
+                }
+                if (next == END) {
+                    ended = true;
+                    if (error != null) throw new IOException(error);
+                    return null;
+                }
+                current = next;
+                index = 0;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int r = read(one, 0, 1);
+            return r <= 0 ? -1 : (one[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("stream closed");
+            if (len <= 0) return 0;
+            ByteBuffer bb = buffer();
+            if (bb == null) return -1;
+            int n = Math.min(len, bb.remaining());
+            bb.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer bb = (current != null && index < current.size()) ? current.get(index) : null;
+            return bb != null ? bb.remaining() : 0;
+        }
+
+        private void cancel() {
+            Flow.Subscription s = subscription;
+            if (s != null) s.cancel();
+        }
+
+        @Override
+        public void close() {
+            closeDraining(false);
+        }
+
+        void closeDraining(boolean drain) {
+            if (closed) return;
+            if (drain && !ended) {
+                // короткий хвост дочитываем — HTTP/1.1-соединение тогда вернётся в пул
+                try {
+                    byte[] skip = new byte[8192];
+                    while (read(skip, 0, skip.length) >= 0) {
+                    }
+                } catch (Exception ignored) {
+                }
+            }
+            closed = true;
+            if (!ended) cancel();
+        }
+    }
+
+    // ==================== Счётчик TLS-соединений ====================
+
+    /** Делегирующий SSLContext: считает SSLEngine, которые HttpClient создаёт на каждое новое соединение */
+    private static final class CountingSslContext extends SSLContext {
+        CountingSslContext(SSLContext delegate) {
+            super(new CountingSpi(delegate), delegate.getProvider(), delegate.getProtocol());
+        }
+    }
+
+    private static final class CountingSpi extends SSLContextSpi {
+        private final SSLContext d;
+
+        CountingSpi(SSLContext d) {
+            this.d = d;
+        }
+
+        @Override
+        protected void engineInit(javax.net.ssl.KeyManager[] km, javax.net.ssl.TrustManager[] tm, SecureRandom sr)
+                throws KeyManagementException {
+            d.init(km, tm, sr);
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return d.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return d.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            TLS_HANDSHAKES.increment();
+            return d.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            TLS_HANDSHAKES.increment();
+            dbg("new TLS connection " + host.toLowerCase(Locale.ROOT) + ":" + port);
+            return d.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return d.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return d.getClientSessionContext();
+        }
+
+        // по умолчанию SSLContextSpi строит их через engineCreateSSLEngine — это не соединения
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return d.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return d.getSupportedSSLParameters();
+        }
+    }
+}
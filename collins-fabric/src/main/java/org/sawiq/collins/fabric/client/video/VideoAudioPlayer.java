@@ -12,6 +12,8 @@ public final class VideoAudioPlayer implements AutoCloseable {
     private final SourceDataLine line;
 
     private volatile boolean started;
+    // сессию остановили с другого потока: больше не пишем и не запускаем, линию закроет уборщик
+    private volatile boolean stopRequested;
 
     private volatile float gain = 1.0f;
 
@@ -22,22 +24,31 @@ public final class VideoAudioPlayer implements AutoCloseable {
     private int prebufferLen = 0;
 
     public VideoAudioPlayer(int sampleRate, int channels) throws LineUnavailableException {
+        this(sampleRate, channels, 0);
+    }
+
+    /** bufferMs — размер буфера линии (low-latency живой поток); 0 — по умолчанию */
+    public VideoAudioPlayer(int sampleRate, int channels, int bufferMs) throws LineUnavailableException {
         this.sampleRate = sampleRate;
         this.channels = channels;
 
         AudioFormat fmt = new AudioFormat(sampleRate, 16, channels, true, false); // PCM 16-bit LE
         DataLine.Info info = new DataLine.Info(SourceDataLine.class, fmt);
 
+        int bytesPerSecond = sampleRate * channels * 2;
         this.line = (SourceDataLine) AudioSystem.getLine(info);
-        this.line.open(fmt);
+        if (bufferMs > 0) {
+            this.line.open(fmt, Math.max(fmt.getFrameSize(), (int) ((long) bytesPerSecond * bufferMs / 1000L) / fmt.getFrameSize() * fmt.getFrameSize()));
+        } else {
+            this.line.open(fmt);
+        }
         this.started = false;
 
-        int bytesPerSecond = sampleRate * channels * 2;
         this.prebufferMaxBytes = Math.max(65536, bytesPerSecond * 4);
     }
 
     public void startPlayback() {
-        if (started) return;
+        if (started || stopRequested) return;
         line.start();
         started = true;
     }
@@ -50,6 +61,27 @@ public final class VideoAudioPlayer implements AutoCloseable {
         this.gain = Math.max(0f, gain);
     }
 
+    /**
+     * Останавливает линию и выбрасывает всё что в ней накоплено (pause/seek внутри сессии).
+     * Линия остаётся открытой — следующий startPlayback() продолжит без переоткрытия.
+     */
+    public void flushAndStop() {
+        started = false;
+        try { line.stop(); } catch (Exception ignored) {}
+        try { line.flush(); } catch (Exception ignored) {}
+        prebufferLen = 0;
+    }
+
+    /**
+     * Остановка с чужого потока (stop() плеера): саму линию не трогаем — в неё может писать
+     * или её закрывать декодер. Записи прекращаются сразу, stop/flush/close сделает уборщик
+     * после выхода потока декодера.
+     */
+    public void requestStop() {
+        stopRequested = true;
+        started = false;
+    }
+
     public void shutdownNow() {
         try { line.stop(); } catch (Exception ignored) {}
         try { line.flush(); } catch (Exception ignored) {}
@@ -66,7 +98,8 @@ public final class VideoAudioPlayer implements AutoCloseable {
         if (samples == null || samples.length == 0) return;
         if (!(samples[0] instanceof ShortBuffer)) return;
 
-        int pcmLen = toPcm16le(samples, channelsWanted);
+        // громкость применяется при flushPrebuffer — пока копим (pre-roll), gain может быть 0
+        int pcmLen = toPcm16le(samples, channelsWanted, 1.0f);
         if (pcmLen <= 0) return;
 
         if (prebufferLen + pcmLen > prebufferMaxBytes) return;
@@ -77,6 +110,14 @@ public final class VideoAudioPlayer implements AutoCloseable {
 
     public void flushPrebuffer() {
         if (prebufferLen <= 0) return;
+        float g = this.gain;
+        if (g != 1.0f) {
+            for (int i = 0; i + 1 < prebufferLen; i += 2) {
+                short v = scaleClamp((short) ((prebuffer[i] & 0xFF) | (prebuffer[i + 1] << 8)), g);
+                prebuffer[i] = (byte) (v & 0xFF);
+                prebuffer[i + 1] = (byte) ((v >>> 8) & 0xFF);
+            }
+        }
         writePcmNonBlocking(prebuffer, prebufferLen);
         prebufferLen = 0;
     }
@@ -94,15 +135,14 @@ public final class VideoAudioPlayer implements AutoCloseable {
 
         // чаще всего JavaCV даёт ShortBuffer
         if (samples[0] instanceof ShortBuffer) {
-            int pcmLen = toPcm16le(samples, channelsWanted);
+            int pcmLen = toPcm16le(samples, channelsWanted, this.gain);
             if (pcmLen > 0) {
                 writePcmNonBlocking(pcmBuf, pcmLen);
             }
         }
     }
 
-    private int toPcm16le(Buffer[] samples, int channelsWanted) {
-        float g = this.gain;
+    private int toPcm16le(Buffer[] samples, int channelsWanted, float g) {
 
         if (channelsWanted <= 1) {
             ShortBuffer sb = ((ShortBuffer) samples[0]).duplicate();
@@ -168,6 +208,7 @@ public final class VideoAudioPlayer implements AutoCloseable {
         int off = 0;
         while (off < len) {
             if (Thread.interrupted()) return;
+            if (!started) return; // линия остановлена (pause/seek) — не ждём освобождения места
 
             int avail = line.available();
             if (avail <= 0) {
@@ -2,16 +2,17 @@ package org.sawiq.collins.fabric.client.video;
 
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
 import net.fabricmc.loader.api.FabricLoader;
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
 
 import javax.sound.sampled.LineUnavailableException;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.CookieHandler;
-import java.net.CookieManager;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -20,11 +21,21 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
 
 public final class VideoPlayer {
 
@@ -36,6 +47,32 @@ public final class VideoPlayer {
         return path;
     }
 
+    /** Локальный файл, отображённый в память; null — не файл, выключено или не вышло */
+    private static MappedFileInputStream openMapped(String url) {
+        if (url == null || !CollinsClientConfig.get().mmapCachedFiles) return null;
+        if (url.startsWith("http://") || url.startsWith("https://") || isStreamingUrl(url)) return null;
+        try {
+            Path p = Path.of(url);
+            if (!Files.isRegularFile(p)) return null;
+            return MappedFileInputStream.open(p);
+        } catch (Exception e) {
+            dbg("openMapped failed " + url + ": " + e);
+            return null;
+        }
+    }
+
+    /** Короткий зацикленный клип из кэша целиком в куче (см. {@link LoopClipCache}); null — не подходит */
+    private static InputStream openLoopCompressed(String url, long durationMs) {
+        if (url == null || url.startsWith("http://") || url.startsWith("https://") || isStreamingUrl(url)) return null;
+        try {
+            Path p = Path.of(url);
+            if (!Files.isRegularFile(p)) return null;
+            return LoopClipCache.compressed(p, durationMs);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private static boolean isStreamingUrl(String url) {
         if (url == null) return false;
         String u = url.toLowerCase(Locale.ROOT);
@@ -62,13 +99,6 @@ public final class VideoPlayer {
             org.bytedeco.javacv.FFmpegLogCallback.set();
         } catch (Throwable ignored) {
         }
-
-        try {
-            if (CookieHandler.getDefault() == null) {
-                CookieHandler.setDefault(new CookieManager());
-            }
-        } catch (Throwable ignored) {
-        }
     }
 
     private static String readLimitedUtf8(InputStream in, int maxBytes) throws Exception {
@@ -162,43 +192,48 @@ public final class VideoPlayer {
         String hash = sha256Hex(key);
         Object lock = DISK_CACHE_LOCKS.computeIfAbsent(hash, k -> new Object());
 
+        // Если файл уже качает другой экран или другой запущенный клиент — ждём его,
+        // показывая его прогресс; замок освобождается и при падении того процесса.
+        // Ждём до монитора: держатель (потоковая закачка) берёт его, чтобы закоммитить файл
+        Path dir = getCacheDir();
+        CacheFileLock fileLock;
+        try {
+            Files.createDirectories(dir);
+            fileLock = CacheFileLock.acquire(dir, hash,
+                    () -> player != null && player.sessionId != sessionId,
+                    (done, total) -> {
+                        if (sink != null) {
+                            sink.onDownloadProgress((int) (done * 100L / total), done / (1024L * 1024L), total / (1024L * 1024L));
+                        }
+                    });
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            dbg("cacheFallback: cache lock failed " + e);
+            return null;
+        }
+        if (fileLock == null) {
+            dbg("cacheFallback: session changed while waiting, aborting");
+            return null;
+        }
+
         synchronized (lock) {
+            DownloadManager.Slot slot = null;
             try {
                 dbg("cacheFallback: start keyHash=" + hash + " url=" + u0);
-                Path dir = getCacheDir();
-                Files.createDirectories(dir);
-
-                Path partFile = dir.resolve(hash + ".part");
-                // Если загрузка в процессе (есть .part файл), ждём завершения
-                int waitAttempts = 0;
-                while (Files.exists(partFile) && waitAttempts < 300) { // макс 5 минут
-                    // Проверяем что сессия ещё активна
-                    if (player != null && player.sessionId != sessionId) {
-                        dbg("cacheFallback: session changed while waiting, aborting");
-                        return null;
-                    }
-                    dbg("cacheFallback: waiting for download in progress keyHash=" + hash);
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        return null;
-                    }
-                    waitAttempts++;
-                }
 
                 Path existing = findExistingCacheFile(dir, hash);
+                if (existing != null) applyPendingRemux(dir, hash, existing);
                 if (existing != null && Files.isRegularFile(existing)) {
                     try {
                         long sz = Files.size(existing);
                         if (sz > 0 && sz <= DISK_CACHE_MAX_BYTES) {
-                            // Проверяем валидность кэша через FFmpeg
-                            if (isValidMediaFile(existing)) {
-                                try {
-                                    Files.setLastModifiedTime(existing, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis()));
-                                } catch (Exception ignored) {
-                                }
-                                enforceDiskCacheLimit(dir, DISK_CACHE_MAX_BYTES);
+                            // Проверяем валидность кэша (результат запоминается в индексе)
+                            if (isValidCacheEntry(dir, hash, existing, sz)) {
+                                cacheIndex(dir).touch(hash, CACHE_SERVER);
+                                scheduleFaststartRemux(dir, hash, existing);
+                                enforceDiskCacheLimit(dir);
                                 DISK_CACHE_LAST_FAIL_MS.remove(hash);
                                 dbg("cacheFallback: using valid existing file keyHash=" + hash);
                                 // Уведомляем о использовании существующего кэша
@@ -218,6 +253,7 @@ public final class VideoPlayer {
                         Files.deleteIfExists(existing);
                     } catch (Exception ignored) {
                     }
+                    dropCacheEntry(dir, hash);
                 }
 
                 Long lastFail = DISK_CACHE_LAST_FAIL_MS.get(hash);
@@ -226,61 +262,63 @@ public final class VideoPlayer {
                     return null;
                 }
 
-                enforceDiskCacheLimit(dir, DISK_CACHE_MAX_BYTES);
+                enforceDiskCacheLimit(dir);
 
                 Path tmp = dir.resolve(hash + ".part");
-                try {
-                    Files.deleteIfExists(tmp);
-                } catch (Exception ignored) {
+                if (Files.exists(SegmentedDownloader.sidecarOf(tmp))) {
+                    // недокачанный файл с sidecar — его докачает основной путь, не затираем
+                    dbg("cacheFallback: resumable part exists, skipping keyHash=" + hash);
+                    return null;
                 }
+                SegmentedDownloader.deletePart(tmp);
 
+                // слот общего лимита берём до первого send(), как ImageFrames.fetch:
+                // соединение не должно простаивать открытым, пока ждём очередь
+                slot = DownloadManager.acquire(priorityOf(sink),
+                        () -> player != null && player.sessionId != sessionId);
+                if (slot == null) return null;
 
                 String cur = u0;
                 String ref = null;
-                HttpURLConnection c = null;
+                SharedHttp.Response c = null;
                 String ct = null;
 
                 for (int i = 0; i < 8; i++) {
+                    // известные редиректы проходим без запроса
+                    cur = SharedHttp.cachedTarget(cur);
                     URL base = new URL(cur);
-                    c = (HttpURLConnection) base.openConnection();
-                    c.setInstanceFollowRedirects(false);
-                    c.setRequestMethod("GET");
-                    c.setConnectTimeout(15_000);
-                    c.setReadTimeout(60_000); // Увеличен для больших файлов
-                    c.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64)");
-                    c.setRequestProperty("Accept", "*/*");
-                    c.setRequestProperty("Accept-Encoding", "identity");
-                    c.setRequestProperty("Accept-Language", "en-US,en;q=0.9");
-                    c.setRequestProperty("Connection", "keep-alive");
-                    if (ref != null && !ref.isBlank()) {
-                        c.setRequestProperty("Referer", ref);
-                    }
-
-                    int code = c.getResponseCode();
-                    dbg("cacheFallback: GET " + cur + " -> " + code);
+                    c = SharedHttp.get(cur)
+                            .header("Accept-Language", "en-US,en;q=0.9")
+                            .header("Referer", (ref != null && !ref.isBlank()) ? ref : null)
+                            .timeout(60_000)
+                            .readTimeout(60_000) // Увеличен для больших файлов
+                            .send();
+
+                    int code = c.code();
+                    dbg("cacheFallback: GET " + cur + " -> " + code + " " + c.version());
                     if (code >= 300 && code < 400) {
-                        String loc = c.getHeaderField("Location");
-                        c.disconnect();
-                        if (loc == null || loc.isBlank()) {
+                        String loc = c.header("Location");
+                        c.close();
+                        String next = (loc == null || loc.isBlank()) ? null : SharedHttp.rememberRedirect(cur, code, loc);
+                        if (next == null) {
                             dbg("cacheFallback: redirect without Location");
                             DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
                             return null;
                         }
-                        URL next = new URL(base, loc);
                         ref = cur;
-                        cur = next.toString();
+                        cur = next;
                         continue;
                     }
 
                     if (code < 200 || code >= 400) {
                         dbg("cacheFallback: non-2xx code=" + code + " url=" + cur);
-                        c.disconnect();
+                        c.close();
                         DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
                         return null;
                     }
 
                     try {
-                        ct = c.getHeaderField("Content-Type");
+                        ct = c.header("Content-Type");
                     } catch (Exception ignored) {
                         ct = null;
                     }
@@ -298,12 +336,12 @@ public final class VideoPlayer {
 
                         if (isSurl || ctHtml) {
                             String html = null;
-                            try (InputStream in = c.getInputStream()) {
+                            try (InputStream in = c.body()) {
                                 html = readLimitedUtf8(in, 256 * 1024);
                             } catch (Exception ignored) {
                             }
                             String extracted = extractLikelyMediaUrl(html);
-                            c.disconnect();
+                            c.close();
                             if (extracted != null && !extracted.isBlank() && !extracted.equalsIgnoreCase(cur)) {
                                 dbg("cacheFallback: extracted media url=" + extracted);
                                 ref = cur;
@@ -329,12 +367,12 @@ public final class VideoPlayer {
 
                 long declaredLen = -1L;
                 try {
-                    declaredLen = c.getContentLengthLong();
+                    declaredLen = c.contentLength();
                 } catch (Exception ignored) {
                 }
                 dbg("cacheFallback: contentType=" + ct + " contentLength=" + declaredLen + " finalUrl=" + cur);
                 if (declaredLen > DISK_CACHE_MAX_BYTES) {
-                    c.disconnect();
+                    c.close();
                     DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
                     return null;
                 }
@@ -342,9 +380,41 @@ public final class VideoPlayer {
                 String ext = guessCacheExtension(cur, ct);
                 Path dst = dir.resolve(hash + ext);
 
+                // После редиректов оказались на файле с поддержкой Range — качаем несколькими соединениями
+                String acceptRanges = c.header("Accept-Ranges");
+                boolean ctHtmlFinal = ct != null && ct.toLowerCase(Locale.ROOT).startsWith("text/html");
+                if (!ctHtmlFinal && acceptRanges != null && acceptRanges.toLowerCase(Locale.ROOT).contains("bytes")
+                        && declaredLen >= SegmentedDownloader.MIN_SEGMENTED_BYTES) {
+                    String etag = c.header("ETag");
+                    String lastModified = c.header("Last-Modified");
+                    c.close();
+                    // сегменты берут свои слоты
+                    slot.close();
+                    SegmentedDownloader.Failure f = downloadSegmented(cur, tmp, declaredLen, etag, lastModified, sink, sessionId, player);
+                    if (f == SegmentedDownloader.Failure.NONE) {
+                        dbg("cacheFallback: segmented download complete bytes=" + declaredLen + " -> " + dst);
+                        Path committed = commitCacheFile(dir, tmp, dst, hash);
+                        return committed != null ? new CacheResult(committed, ct) : null;
+                    }
+                    if (f != SegmentedDownloader.Failure.NO_RANGE) {
+                        dbg("cacheFallback: segmented download stopped (" + f + "), part kept for resume");
+                        return null;
+                    }
+                    dbg("cacheFallback: segmented download failed, reopening single connection");
+                    slot = DownloadManager.acquire(priorityOf(sink),
+                            () -> player != null && player.sessionId != sessionId);
+                    if (slot == null) return null;
+                    c = SharedHttp.get(cur)
+                            .header("Referer", (ref != null && !ref.isBlank()) ? ref : null)
+                            .timeout(60_000)
+                            .readTimeout(60_000)
+                            .followRedirects(true)
+                            .send();
+                }
+
                 long written = 0L;
                 long lastProgressLog = 0L;
-                try (InputStream in = c.getInputStream(); OutputStream out = Files.newOutputStream(tmp)) {
+                try (InputStream in = c.body(); OutputStream out = Files.newOutputStream(tmp)) {
                     boolean ctHtml = false;
                     try {
                         if (ct != null) {
@@ -379,6 +449,7 @@ public final class VideoPlayer {
 
                         out.write(buf, 0, r);
                         written += r;
+                        DownloadManager.throttle(r);
 
                         // Логируем прогресс каждые 10 МБ
                         long progressMb = written / (10L * 1024L * 1024L);
@@ -394,10 +465,11 @@ public final class VideoPlayer {
                                 dbg("cacheFallback: downloading... " + writtenMb + " MB");
                             }
 
-                            // Отправляем прогресс в sink
+                            // Отправляем прогресс в sink (и ждущим этот файл)
                             if (sink != null) {
                                 sink.onDownloadProgress(Math.max(0, pct), writtenMb, Math.max(0, totalMb));
                             }
+                            CacheFileLock.publish(dir, hash, written, declaredLen);
 
                             // Проверяем что сессия ещё активна
                             if (player != null && player.sessionId != sessionId) {
@@ -421,9 +493,10 @@ public final class VideoPlayer {
                     }
                 } finally {
                     try {
-                        c.disconnect();
+                        c.close();
                     } catch (Exception ignored) {
                     }
+                    slot.close();
                 }
 
                 dbg("cacheFallback: downloaded bytes=" + written + " -> " + dst);
@@ -453,16 +526,25 @@ public final class VideoPlayer {
                         DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
                         return null;
                     }
+                    deletePendingRemux(dir, hash);
+                    REMUX_CHECKED.remove(hash);
+                    LoopClipCache.forget(hash);
+                    cacheIndex(dir).put(hash, dst, sz, CACHE_SERVER);
+                    CacheTranscoder.deleteVariants(dir, hash, null);
+                    scheduleFaststartRemux(dir, hash, dst);
                 } catch (Exception ignored) {
                 }
 
-                enforceDiskCacheLimit(dir, DISK_CACHE_MAX_BYTES);
+                enforceDiskCacheLimit(dir);
                 DISK_CACHE_LAST_FAIL_MS.remove(hash);
                 return new CacheResult(dst, ct);
             } catch (Exception e) {
                 dbg("cacheFallback: exception " + e);
                 DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
                 return null;
+            } finally {
+                if (slot != null) slot.close();
+                fileLock.close();
             }
         }
     }
@@ -513,10 +595,51 @@ public final class VideoPlayer {
         default void returnBuffer(int[] buf) {
         }
 
+        /**
+         * Вызывается ИЗ ДЕКОДЕР-ПОТОКА перед initVideo: true — грабер читает из источника с упреждающим
+         * буфером сжатых данных (HttpReadAheadInputStream, .part, кольцо live), и глубокая очередь кадров не нужна.
+         */
+        default void onReadAheadSource(boolean readAhead) {
+        }
+
         /** true когда буфер видео готов (можно начинать аудио) */
         default boolean isBufferReady() {
             return true;
         }
+
+        /**
+         * Очерёдность закачки этого экрана в {@link DownloadManager}: меньше — раньше.
+         * Вызывается из потоков закачки, должен быть дешёвым.
+         */
+        default double downloadPriority() {
+            return 0.0;
+        }
+
+        /**
+         * Вызывается ИЗ ДЕКОДЕР-ПОТОКА после seek/resume внутри сессии:
+         * накопленные кадры больше не актуальны, нужно сбросить очередь и заново буферизоваться.
+         */
+        default void onFlush() {
+        }
+
+        /**
+         * Low-latency догонялка: часы показа сдвигаются вперёд на deltaNs
+         * (аудио этой длины выброшено, кадры видео должны выйти раньше).
+         */
+        default void onPlaybackClockShift(long deltaNs) {
+        }
+
+        /** Таймстамп кадра, который сейчас на экране; -1 — ещё ничего не показано */
+        default long shownTimestampUs() {
+            return -1L;
+        }
+
+        /**
+         * Вызывается ИЗ ДЕКОДЕР-ПОТОКА: сессия играет только звук (экран-радио или у источника нет видео).
+         * initVideo и кадров в этой сессии не будет — текстура и пул буферов не нужны.
+         */
+        default void onAudioOnly() {
+        }
     }
 
     private final FrameSink sink;
@@ -530,12 +653,124 @@ public final class VideoPlayer {
     private volatile VideoAudioPlayer currentAudio;
     private volatile long startRequestEpochMs = 0;
 
+    // Управление тёплой сессией: грабер остаётся открытым, pause/resume/seek выполняет декодер-поток
+    private volatile boolean paused = false;
+    private final AtomicLong pendingSeekMs = new AtomicLong(-1L);
+    private volatile boolean sessionSeekable = false;
+    // live time-shift: момент кольца, который играли последним (переподключение продолжает с него)
+    private volatile long liveResumeWallMs = -1L;
+    // live time-shift: таймлайн сервера этой сессии относительно кольца (новый на каждый play)
+    private volatile LiveTimeShift.Anchor liveAnchor = new LiveTimeShift.Anchor();
+
+    // Pre-roll: декодер работает с низким приоритетом и только заполняет буфер (без пропуска кадров)
+    private volatile boolean preroll = false;
+
+    // Экран-радио: видеодорожка не открывается вовсе (применяется при следующем start)
+    private volatile boolean audioOnlyRequested = false;
+    // у звука нет fps; для добора кадров после seek — примерная частота аудиокадров (1024 сэмпла при 48 кГц)
+    private static final double AUDIO_FRAMES_PER_SEC = 50.0;
+
     private record CachedMeta(String resolvedUrl, boolean forceMp4Demuxer, int videoW, int videoH, double fps, long durationMs, long cachedAtMs) {
     }
 
     private static final ConcurrentHashMap<String, CachedMeta> META_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Тайминги старта: resolve+probe(+кэш), открытие демуксера, первый декодированный кадр (от начала playOnce).
+     * httpRequests/tlsHandshakes — прирост счётчиков {@link SharedHttp} за старт (общие на клиент:
+     * при одновременном старте нескольких экранов попадут и чужие запросы).
+     */
+    public record StartupTiming(long resolveMs, long openMs, long firstFrameMs, long httpRequests, long tlsHandshakes) {
+    }
+
+    private volatile StartupTiming lastStartupTiming = null;
+
+    public StartupTiming lastStartupTiming() {
+        return lastStartupTiming;
+    }
+
+    /**
+     * Задержка живого потока в low-latency режиме. wallclock — от камеры (источник сообщил время),
+     * иначе — сколько накопил клиент позади самого быстрого прихода кадров.
+     */
+    public record LiveLatencyStats(long latencyMs, long targetMs, boolean wallclock, boolean catchingUp, int jumps) {
+    }
+
+    private volatile LiveLatency liveLatency = null;
+
+    /** null — сейчас не low-latency живой поток или задержка ещё не измерена */
+    public LiveLatencyStats liveLatencyStats() {
+        LiveLatency l = liveLatency;
+        if (l == null || l.latencyMs() < 0) return null;
+        return new LiveLatencyStats(l.latencyMs(), LiveLatency.targetMs(), l.wallclock(), l.catchingUp(), l.jumps());
+    }
+
+    /**
+     * Фоновый уборщик: закрывает грабер и аудио-линию завершённых сессий.
+     * stop() на client thread только переключает состояние и сразу возвращается.
+     */
+    private static final ExecutorService REAPER = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Collins-Reaper");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // sessionId -> время stop() (nanoTime), для замера задержки освобождения
+    private static final ConcurrentHashMap<Long, Long> TEARDOWN_REQUESTED_NS = new ConcurrentHashMap<>();
+    private static final long TEARDOWN_STALE_NS = 60_000_000_000L;
+    private static final AtomicLong TEARDOWN_COUNT = new AtomicLong();
+    private static final AtomicLong TEARDOWN_TOTAL_MS = new AtomicLong();
+    private static volatile long teardownLastMs = -1;
+    private static volatile long teardownMaxMs = 0;
+    private static volatile long stopCallMaxUs = 0;
+    // сессия, чей последний проход playOnce отдал ресурсы уборщику (тот и запишет teardown)
+    private final AtomicLong reapedSession = new AtomicLong();
+    // сессия, у которой не открылась разрешённая ссылка YouTube: runLoop один раз разрешает заново
+    private final AtomicLong ytInvalidatedSession = new AtomicLong();
+
+    /** Задержка освобождения: от stop() до закрытия грабера/линии; stopCallMaxUs — сколько stop() занял на client thread */
+    public record TeardownStats(long lastMs, long avgMs, long maxMs, long count, int pending, long stopCallMaxUs) {
+    }
+
+    public static TeardownStats teardownStats() {
+        long count = TEARDOWN_COUNT.get();
+        long avg = count > 0 ? TEARDOWN_TOTAL_MS.get() / count : -1;
+        return new TeardownStats(teardownLastMs, avg, teardownMaxMs, count, TEARDOWN_REQUESTED_NS.size(), stopCallMaxUs);
+    }
+
+    /** Передаёт ресурсы сессии уборщику. Вызывается потоком декодера, когда он с ними закончил. */
+    private static void reap(long mySessionId, VideoAudioPlayer audio, FFmpegFrameGrabber grabber) {
+        REAPER.execute(() -> {
+            if (audio != null) {
+                try {
+                    audio.close();
+                } catch (Exception ignored) {
+                }
+            }
+            if (grabber != null) {
+                try {
+                    grabber.close();
+                } catch (Exception ignored) {
+                }
+            }
+            recordTeardown(mySessionId);
+        });
+    }
+
+    private static void recordTeardown(long mySessionId) {
+        Long requestedNs = TEARDOWN_REQUESTED_NS.remove(mySessionId);
+        if (requestedNs == null) return;
+        long ms = (System.nanoTime() - requestedNs) / 1_000_000L;
+        teardownLastMs = ms;
+        if (ms > teardownMaxMs) teardownMaxMs = ms;
+        TEARDOWN_COUNT.incrementAndGet();
+        TEARDOWN_TOTAL_MS.addAndGet(ms);
+        dbg("teardown: session=" + mySessionId + " " + ms + "ms");
+    }
     private static final long META_TTL_MS = 15L * 60L * 1000L;
 
+    // предел для одного файла; общий размер кэша — cacheMaxMb в конфиге
     private static final long DISK_CACHE_MAX_BYTES = 4L * 1024L * 1024L * 1024L;
     private static final long DISK_CACHE_FAIL_COOLDOWN_MS = 10_000L;
 
@@ -660,6 +895,13 @@ public final class VideoPlayer {
         this.startPosMs = Math.max(0L, startPosMs);
         this.gain = Math.max(0f, gain);
         this.startRequestEpochMs = System.currentTimeMillis();
+        this.paused = false;
+        this.pendingSeekMs.set(-1L);
+        this.sessionSeekable = false;
+        this.liveResumeWallMs = -1L;
+        this.liveAnchor = new LiveTimeShift.Anchor();
+        this.lastStartupTiming = null;
+        this.liveLatency = null;
 
         // Уникальный ID сессии для защиты от дублирования
         final long mySessionId = System.nanoTime();
@@ -670,7 +912,7 @@ public final class VideoPlayer {
         running = true;
         thread = new Thread(() -> runLoop(urlFinal, blocksW, blocksH, loop, mySessionId), "Collins-VideoPlayer");
         thread.setDaemon(true);
-        thread.setPriority(Thread.MAX_PRIORITY); // высокий приоритет для уменьшения GC пауз
+        thread.setPriority(preroll ? Thread.MIN_PRIORITY : Thread.MAX_PRIORITY); // высокий приоритет для уменьшения GC пауз
         thread.start();
     }
 
@@ -682,25 +924,96 @@ public final class VideoPlayer {
         if (a != null) a.setGain(g);
     }
 
+    /** Пауза без закрытия демуксера/декодера: последний кадр остаётся на экране, звук глушится. */
+    public void pause() {
+        if (!isRunning()) return;
+        paused = true;
+    }
+
+    /** Продолжить тёплую сессию с позиции posMs (seek внутри открытого грабера). */
+    public void resume(long posMs) {
+        pendingSeekMs.set(Math.max(0L, posMs));
+        paused = false;
+    }
+
+    /** Перемотка внутри открытой сессии, без переоткрытия URL. */
+    public void seek(long posMs) {
+        pendingSeekMs.set(Math.max(0L, posMs));
+    }
+
+    /** Pre-roll: низкий приоритет, декодер останавливается когда буфер полон. Можно менять на лету. */
+    public void setPreroll(boolean preroll) {
+        this.preroll = preroll;
+        Thread t = thread;
+        if (t != null) {
+            try {
+                t.setPriority(preroll ? Thread.MIN_PRIORITY : Thread.MAX_PRIORITY);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /** Только звук: демуксер открывается без видео, кадры не декодируются. Действует со следующего start. */
+    public void setAudioOnly(boolean audioOnly) {
+        this.audioOnlyRequested = audioOnly;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /** true если сессия открыта и умеет pause/resume/seek без перезапуска (не live) */
+    public boolean isSessionSeekable() {
+        return sessionSeekable && isRunning();
+    }
+
+    /**
+     * Неблокирующая остановка: поток декодера сам выходит по sessionId и отдаёт грабер
+     * и аудио-линию уборщику (REAPER). Здесь не ждём ни потока, ни FFmpeg.
+     */
     public void stop() {
+        long callStartNs = System.nanoTime();
+        long oldSession = sessionId;
+
         running = false;
         sessionId = 0; // Сброс сессии
+        paused = false;
+        pendingSeekMs.set(-1L);
+        sessionSeekable = false;
 
         Thread t = thread;
-        if (t != null) {
-            t.interrupt();
-            // Ждём завершения потока (максимум 500мс)
-            try {
-                t.join(500);
-            } catch (InterruptedException ignored) {
-                Thread.currentThread().interrupt();
+        if (t != null && t.isAlive()) {
+            if (oldSession != 0) {
+                TEARDOWN_REQUESTED_NS.values().removeIf(ns -> callStartNs - ns > TEARDOWN_STALE_NS);
+                TEARDOWN_REQUESTED_NS.put(oldSession, callStartNs);
             }
+            t.interrupt();
         }
         thread = null;
 
+        // новых сэмплов в линию больше нет; stop/flush/close — в reap() после выхода декодера,
+        // иначе уборщик и декодер трогали бы одну линию одновременно
         VideoAudioPlayer a = currentAudio;
-        if (a != null) a.shutdownNow();
         currentAudio = null;
+        if (a != null) a.requestStop();
+
+        long us = (System.nanoTime() - callStartNs) / 1000L;
+        if (us > stopCallMaxUs) stopCallMaxUs = us;
+    }
+
+    /**
+     * Разрешённая ссылка YouTube не открылась (403 после смены IP, истекла раньше expire=):
+     * забыть её в резолвере и в метаданных, runLoop разрешит видео заново.
+     */
+    private void invalidateYouTube(String originalUrl, int ytHeight, String metaKey, long mySessionId) {
+        YouTubeResolver.invalidate(originalUrl, ytHeight);
+        META_CACHE.remove(metaKey);
+        ytInvalidatedSession.set(mySessionId);
+    }
+
+    /** Сессия ещё наша: после stop() + start() поле running снова true, поэтому сверяем и sessionId */
+    private boolean alive(long mySessionId) {
+        return running && sessionId == mySessionId;
     }
 
     private void runLoop(String url, int blocksW, int blocksH, boolean loop, long mySessionId) {
@@ -712,13 +1025,24 @@ public final class VideoPlayer {
 
         try {
             boolean first = true;
+            boolean ytRetried = false;
             int failStreak = 0;
             while (running && sessionId == mySessionId) {
                 long seekMs = first ? startPosMs : 0L;
                 long requestEpochMs = first ? startRequestEpochMs : 0L;
+                boolean firstPass = first;
                 first = false;
 
-                boolean ok = playOnce(url, blocksW, blocksH, seekMs, requestEpochMs, mySessionId);
+                reapedSession.compareAndSet(mySessionId, 0L);
+                boolean ok = playOnce(url, blocksW, blocksH, loop, seekMs, requestEpochMs, mySessionId);
+                if (!ok && !ytRetried && ytInvalidatedSession.compareAndSet(mySessionId, 0L)) {
+                    // ссылка из кэша резолвера протухла — сразу ещё раз со свежей (и без loop тоже)
+                    ytRetried = true;
+                    // повтор первого прохода стартует с той же позиции сервера
+                    first = firstPass;
+                    dbg("runLoop: YouTube URL rejected, resolving again");
+                    continue;
+                }
                 if (!ok) {
                     failStreak++;
                     if (!loop) break;
@@ -746,11 +1070,15 @@ public final class VideoPlayer {
             if (sessionId == mySessionId) {
                 currentAudio = null;
                 sink.onStop();
+            } else if (!reapedSession.compareAndSet(mySessionId, 0L)) {
+                // stop() пришёл, когда грабер не был открыт (например, backoff) — закрывать нечего;
+                // иначе teardown запишет задача reap() после закрытия
+                REAPER.execute(() -> recordTeardown(mySessionId));
             }
         }
     }
 
-    private boolean playOnce(String url, int blocksW, int blocksH, long seekMs, long requestEpochMs, long mySessionId) {
+    private boolean playOnce(String url, int blocksW, int blocksH, boolean loop, long seekMs, long requestEpochMs, long mySessionId) {
         // Проверка сессии в начале
         if (sessionId != mySessionId || !running) {
             dbg("playOnce: session mismatch or stopped, aborting");
@@ -759,15 +1087,27 @@ public final class VideoPlayer {
 
         String originalUrl = stripFragment(url);
         url = originalUrl;
+        long playStartNs = System.nanoTime();
+        SharedHttp.Stats httpAtStart = SharedHttp.stats();
 
         dbg("playOnce: originalUrl=" + originalUrl + " blocks=" + blocksW + "x" + blocksH + " seekMs=" + seekMs);
 
+        // экран-радио: видео не открываем; false может стать true, если у источника нет видеодорожки
+        boolean audioOnly = audioOnlyRequested;
+        // YouTube: отдельная дорожка звука (DASH), если формат пришёл раздельно
+        String ytAudioUrl = null;
+        // метаданные YouTube зависят от выбранного под экран формата, радио — от того, что видео не нужно
+        String metaKey = audioOnly ? originalUrl + "#audio" : originalUrl;
+
         // YouTube URL resolution
+        int ytHeight = 0;
         if (YouTubeResolver.isYouTubeUrl(originalUrl)) {
             dbg("playOnce: detected YouTube URL, resolving...");
             sink.onDownloadStart("collins.video.youtube_resolving");
 
-            YouTubeResolver.YouTubeResult ytResult = YouTubeResolver.resolve(originalUrl);
+            ytHeight = YouTubeResolver.formatHeight(blocksW, blocksH);
+            if (!audioOnly) metaKey = originalUrl + "#h" + ytHeight;
+            YouTubeResolver.YouTubeResult ytResult = YouTubeResolver.resolve(originalUrl, ytHeight);
 
             if (sessionId != mySessionId || !running) {
                 dbg("playOnce: session changed during YouTube resolution, aborting");
@@ -797,7 +1137,7 @@ public final class VideoPlayer {
                 }
 
                 // Retry resolution after download
-                ytResult = YouTubeResolver.resolve(originalUrl);
+                ytResult = YouTubeResolver.resolve(originalUrl, ytHeight);
             }
 
             if (!ytResult.isSuccess()) {
@@ -806,7 +1146,14 @@ public final class VideoPlayer {
             }
 
             url = ytResult.directUrl();
-            dbg("playOnce: YouTube resolved to: " + url.substring(0, Math.min(100, url.length())) + "...");
+            ytAudioUrl = ytResult.audioUrl();
+            if (audioOnly && ytAudioUrl != null) {
+                // радио: звуковая DASH-дорожка сама по себе, видеодорожку не качаем
+                url = ytAudioUrl;
+                ytAudioUrl = null;
+            }
+            dbg("playOnce: YouTube resolved to: " + url.substring(0, Math.min(100, url.length())) + "..."
+                    + " maxHeight=" + ytHeight + (ytAudioUrl != null ? " +audio" : ""));
             sink.onDownloadComplete();
 
             // Отправляем duration от yt-dlp на сервер (FFmpeg часто не получает duration из YouTube стримов)
@@ -820,13 +1167,15 @@ public final class VideoPlayer {
         }
 
         boolean forceMp4Demuxer = false;
+        // потоковое чтение из .part, который ещё докачивается в кэш
+        PartFileInputStream streamIn = null;
 
         int videoW;
         int videoH;
         double fps;
         long durationMs;
 
-        CachedMeta cached = META_CACHE.get(originalUrl);
+        CachedMeta cached = META_CACHE.get(metaKey);
         if (cached != null && (System.currentTimeMillis() - cached.cachedAtMs()) <= META_TTL_MS) {
             String cachedResolved = cached.resolvedUrl();
             if (cachedResolved != null && !cachedResolved.isBlank()) {
@@ -854,19 +1203,38 @@ public final class VideoPlayer {
         }
 
         if (cached != null) {
+            // в кэше нет размеров — источник без видео
+            if (cached.videoW() <= 0) audioOnly = true;
             forceMp4Demuxer = cached.forceMp4Demuxer();
             videoW = cached.videoW();
             videoH = cached.videoH();
             fps = cached.fps();
             durationMs = cached.durationMs();
         } else {
+            // resolve и HTTP-probe идут параллельно: probe сам проходит редиректы,
+            // поэтому его finalUrl обычно уже совпадает с результатом resolve
+            final String probeTarget = url;
+            CompletableFuture<ProbeResult> probeFuture = CompletableFuture.supplyAsync(() -> probeUrl(probeTarget), DownloadManager.IO);
+
             String resolved = tryResolveUrl(url);
+            ProbeResult pr;
+            try {
+                pr = probeFuture.join();
+            } catch (Exception e) {
+                pr = null;
+            }
+
             if (resolved != null) {
                 dbg("playOnce: resolved url=" + resolved);
                 url = resolved;
+                if (pr == null) pr = probeUrl(url);
+            }
+
+            if (sessionId != mySessionId || !running) {
+                dbg("playOnce: session changed during resolve/probe, aborting");
+                return false;
             }
 
-            ProbeResult pr = probeUrl(url);
             if (pr == null) {
                 // Для стримов пропускаем кэширование
                 if (isStreamingUrl(url)) {
@@ -918,6 +1286,7 @@ public final class VideoPlayer {
                         url = toFFmpegPath(cr.path().toString());
                         dbg("playOnce: fallback cached path=" + url + " ct=" + cr.contentType());
                     } else {
+                        if (ytHeight > 0) invalidateYouTube(originalUrl, ytHeight, metaKey, mySessionId);
                         return false;
                     }
                 }
@@ -963,7 +1332,9 @@ public final class VideoPlayer {
                     // Уведомляем о начале скачивания тяжёлого видео
                     sink.onDownloadStart("collins.video.downloading");
 
-                    Path cachedFile = ensureCachedToDisk(originalUrl, url, pr, sink, mySessionId, this);
+                    // Сервер умеет Range: играем прямо из .part, пока он докачивается в кэш
+                    streamIn = openStreamingCache(originalUrl, url, pr, sink, mySessionId, this);
+                    Path cachedFile = (streamIn == null) ? ensureCachedToDisk(originalUrl, url, pr, sink, mySessionId, this) : null;
 
                     // Проверяем что сессия ещё активна
                     if (sessionId != mySessionId || !running) {
@@ -983,6 +1354,9 @@ public final class VideoPlayer {
                         if (ctLower != null && ctLower.contains("video/mp4")) {
                             forceMp4Demuxer = true;
                         }
+                    } else if (streamIn != null) {
+                        sink.onDownloadComplete();
+                        dbg("playOnce: streaming from part file " + streamIn.download().file() + " -> " + streamIn.cachePath());
                     } else {
                         dbg("playOnce: ensureCachedToDisk returned null, trying fallback");
                         try {
@@ -1043,30 +1417,127 @@ public final class VideoPlayer {
                 }
             }
 
-            try (FFmpegFrameGrabber meta = new FFmpegFrameGrabber(url)) {
-                if (forceMp4Demuxer) {
-                    try {
-                        meta.setFormat("mp4");
-                    } catch (Exception ignored) {
-                    }
+            // метаданные прочитаем из того же грабера, что и декодирует (одно открытие демуксера)
+            videoW = 0;
+            videoH = 0;
+            fps = 0;
+            durationMs = 0L;
+        }
+
+        long openStartNs = System.nanoTime();
+        long resolveMs = (openStartNs - playStartNs) / 1_000_000L;
+        VideoSizeUtil.Size target = null;
+        if (cached != null && !audioOnly) {
+            // 2) target размер известен заранее — swscale сразу в нужный размер
+            if (videoW <= 0 || videoH <= 0) {
+                return false;
+            }
+            target = VideoSizeUtil.pick(blocksW, blocksH, videoW, videoH);
+            // есть копия ровно под этот размер — декодируем её, а не исходник
+            String scaled = scaledVariantFor(url, target);
+            if (scaled != null) {
+                dbg("playOnce: using scaled variant " + scaled);
+                url = scaled;
+            }
+        }
+
+        // 3) декод
+        // грабер закрывает уборщик (reap), а не поток декодера
+        // готовый локальный файл — через общее отображение в память (дешёвые чтения и seek)
+        // короткий зацикленный клип, чьи кадры не влезут в память, — сжатый файл целиком из кучи
+        InputStream loopIn = (streamIn == null && loop && target != null
+                && !LoopClipCache.framesFit(target.w(), target.h(), fps, durationMs)) ? openLoopCompressed(url, durationMs) : null;
+        MappedFileInputStream mappedIn = (streamIn == null && loopIn == null) ? openMapped(url) : null;
+        // сетевой файл: упреждающее чтение сжатых данных переживает провалы сети лучше буфера кадров
+        HttpReadAheadInputStream netIn = (streamIn == null && (url.startsWith("http://") || url.startsWith("https://"))
+                && !isStreamingUrl(url)) ? HttpReadAheadInputStream.open(url) : null;
+        // живой поток: играем из кольца ретранслятора — seek/back и переподключения внутри окна
+        LiveTimeShift liveRelay = null;
+        LiveTimeShift.RingInputStream liveIn = null;
+        // low-latency RTMP/RTSP играет прямо из источника: запись в кольцо — лишнее звено
+        if (streamIn == null && isStreamingUrl(url) && LiveTimeShift.enabled() && !LiveLatency.applies(url)) {
+            final String originUrl = url;
+            liveRelay = LiveTimeShift.acquire(originUrl, getCacheDir().resolve("live"), () -> openOrigin(originUrl, blocksW, blocksH));
+            try {
+                long wall = (seekMs == 0 && requestEpochMs == 0 && liveResumeWallMs > 0)
+                        ? liveResumeWallMs
+                        : liveAnchor.wallForServerPos(seekMs + (requestEpochMs > 0 ? Math.max(0L, System.currentTimeMillis() - requestEpochMs) : 0L));
+                liveIn = liveRelay.open(wall);
+                dbg("playOnce: live time-shift, behind live " + liveIn.behindLiveMs() + "ms, buffered " + liveRelay.bufferedMs() + "ms");
+            } catch (Exception e) {
+                dbg("playOnce: live relay unavailable: " + e);
+                liveRelay.release();
+                liveRelay = null;
+                return false;
+            }
+        }
+        // HLS без кольца: сегменты качает Java-движок (параллельно, вариант под экран), FFmpeg видит склеенный TS
+        HlsStream hlsIn = (streamIn == null && liveIn == null && isHlsUrl(url) && HlsStream.enabled())
+                ? HlsStream.open(url, blocksW, blocksH, seekMs + (requestEpochMs > 0 ? Math.max(0L, System.currentTimeMillis() - requestEpochMs) : 0L))
+                : null;
+        InputStream avioIn = (streamIn != null) ? streamIn
+                : (liveIn != null ? liveIn : (hlsIn != null ? hlsIn : (netIn != null ? netIn : (loopIn != null ? loopIn : mappedIn))));
+        // кольцо живого потока и HLS не перематываются по байтам — без seek-колбэка AVIO
+        boolean tsStream = liveIn != null || hlsIn != null;
+        // DASH: второй демуксер на звук, кадры двух дорожек сводятся по таймстампу
+        FFmpegFrameGrabber dashAudio = (ytAudioUrl != null && !audioOnly) ? openDashAudio(ytAudioUrl) : null;
+        FFmpegFrameGrabber grabber;
+        if (dashAudio != null) {
+            grabber = (avioIn != null)
+                    ? new DashFrameGrabber(avioIn, Integer.MAX_VALUE - 8, dashAudio)
+                    : new DashFrameGrabber(url, dashAudio);
+        } else {
+            grabber = (avioIn != null)
+                    ? new FFmpegFrameGrabber(avioIn, tsStream ? 0 : Integer.MAX_VALUE - 8)
+                    : new FFmpegFrameGrabber(url);
+        }
+        VideoAudioPlayer audio = null;
+        try {
+            if (tsStream) {
+                grabber.setFormat("mpegts");
+            }
+            if (forceMp4Demuxer) {
+                try {
+                    grabber.setFormat("mp4");
+                } catch (Exception ignored) {
                 }
-                applyNetOptions(meta, url);
-                meta.start();
-                videoW = meta.getImageWidth();
-                videoH = meta.getImageHeight();
-                fps = meta.getVideoFrameRate();
-                long lenUs = meta.getLengthInTime();
-                durationMs = lenUs > 0 ? (lenUs / 1000L) : 0L;
-                meta.stop();
+            }
+            if (avioIn != null) {
+                grabber.setCloseInputStream(true);
+            } else {
+                applyNetOptions(grabber, url);
+            }
+            if (audioOnly) {
+                // ни одна дорожка не подходит под этот индекс — FFmpeg не откроет видеодекодер и swscale
+                grabber.setVideoStream(Integer.MAX_VALUE);
+            } else if (target != null) {
+                grabber.setImageWidth(target.w());
+                grabber.setImageHeight(target.h());
+            }
+            grabber.setPixelFormat(avutil.AV_PIX_FMT_BGR24);
+
+            try {
+                grabber.start();
             } catch (Exception e) {
-                dbg("playOnce: FFmpeg meta failed url=" + url + " err=" + e);
+                dbg("playOnce: FFmpeg open failed url=" + url + " err=" + e);
+                // отображение держит файл — на Windows его иначе не удалить
+                if (mappedIn != null) mappedIn.close();
+                if (netIn != null) netIn.close();
+                if (liveIn != null) liveIn.close();
+                if (hlsIn != null) hlsIn.close();
                 // Если это локальный файл из кэша — удаляем его, он повреждён
-                if (!url.startsWith("http://") && !url.startsWith("https://") && !isStreamingUrl(url)) {
+                // (радио не открывается и на целом файле без звука — его не трогаем)
+                if (!audioOnly && !url.startsWith("http://") && !url.startsWith("https://") && !isStreamingUrl(url)) {
                     try {
                         Path badFile = Path.of(url);
-                        if (Files.exists(badFile)) {
+                        if (CacheTranscoder.isVariant(badFile)) {
+                            // битая копия под экран — исходник в кэше цел
+                            dbg("playOnce: deleting corrupted scaled variant: " + url);
+                            Files.deleteIfExists(badFile);
+                        } else if (Files.exists(badFile)) {
                             dbg("playOnce: deleting corrupted cache file: " + url);
                             Files.deleteIfExists(badFile);
+                            forgetCacheFile(badFile);
                             // Удаляем из DISK_CACHE_LAST_FAIL_MS чтобы можно было перезагрузить
                             String hash = sha256Hex(originalUrl.trim());
                             DISK_CACHE_LAST_FAIL_MS.remove(hash);
@@ -1075,37 +1546,57 @@ public final class VideoPlayer {
                         dbg("playOnce: failed to delete corrupted cache: " + deleteErr.getMessage());
                     }
                 }
+                META_CACHE.remove(metaKey);
+                if (ytHeight > 0) invalidateYouTube(originalUrl, ytHeight, metaKey, mySessionId);
                 return false;
             }
 
-            long max = 12L * 60L * 60L * 1000L;
-            if (durationMs < 0 || durationMs > max) durationMs = 0L;
-
-            if (fps <= 0) fps = 30.0;
-            META_CACHE.put(originalUrl, new CachedMeta(url, forceMp4Demuxer, videoW, videoH, fps, durationMs, System.currentTimeMillis()));
-        }
+            if (!audioOnly && !grabber.hasVideo() && grabber.hasAudio()) {
+                // видеодорожки нет (интернет-радио, подкаст) — играем как экран-радио
+                dbg("playOnce: no video stream, audio-only");
+                audioOnly = true;
+            }
 
-        if (videoW <= 0 || videoH <= 0) {
-            return false;
-        }
+            if (audioOnly) {
+                discardNonAudio(grabber);
+                if (cached == null) {
+                    long lenUs = grabber.getLengthInTime();
+                    durationMs = lenUs > 0 ? (lenUs / 1000L) : 0L;
+                    if (durationMs < 0 || durationMs > 12L * 60L * 60L * 1000L) durationMs = 0L;
+                    String metaUrl = (streamIn != null) ? streamIn.cachePath().toString() : url;
+                    META_CACHE.put(metaKey, new CachedMeta(metaUrl, forceMp4Demuxer, 0, 0, 0.0, durationMs, System.currentTimeMillis()));
+                }
+            } else if (target == null) {
+                // grabber открыт без setImageWidth/Height — отдаёт исходный размер потока
+                videoW = grabber.getImageWidth();
+                videoH = grabber.getImageHeight();
+                fps = grabber.getVideoFrameRate();
+                long lenUs = grabber.getLengthInTime();
+                durationMs = lenUs > 0 ? (lenUs / 1000L) : 0L;
 
-        // 2) target размер
-        VideoSizeUtil.Size target = VideoSizeUtil.pick(blocksW, blocksH, videoW, videoH);
+                long max = 12L * 60L * 60L * 1000L;
+                if (durationMs < 0 || durationMs > max) durationMs = 0L;
 
-        // 3) декод
-        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(url)) {
-            if (forceMp4Demuxer) {
-                try {
-                    grabber.setFormat("mp4");
-                } catch (Exception ignored) {
+                if (fps <= 0) fps = 30.0;
+                if (videoW <= 0 || videoH <= 0) {
+                    return false;
                 }
+                // при потоковом кэше следующий старт пойдёт с готового файла (если он уже докачан)
+                String metaUrl = (streamIn != null) ? streamIn.cachePath().toString() : url;
+                META_CACHE.put(metaKey, new CachedMeta(metaUrl, forceMp4Demuxer, videoW, videoH, fps, durationMs, System.currentTimeMillis()));
+
+                // swscale пересоздаёт контекст под новый размер на первом же кадре
+                target = VideoSizeUtil.pick(blocksW, blocksH, videoW, videoH);
+                grabber.setImageWidth(target.w());
+                grabber.setImageHeight(target.h());
             }
-            applyNetOptions(grabber, url);
-            grabber.setImageWidth(target.w());
-            grabber.setImageHeight(target.h());
-            grabber.setPixelFormat(avutil.AV_PIX_FMT_BGR24);
-            grabber.start();
-            dbg("playOnce: FFmpeg started url=" + url + " target=" + target.w() + "x" + target.h() + " forceMp4=" + forceMp4Demuxer);
+            long openMs = (System.nanoTime() - openStartNs) / 1_000_000L;
+            if (netIn != null && durationMs > 0) {
+                netIn.setBytesPerSecond(netIn.totalBytes() * 1000L / durationMs);
+            }
+            dbg("playOnce: FFmpeg started url=" + url + " target=" + (target != null ? target.w() + "x" + target.h() : "audio-only")
+                    + " forceMp4=" + forceMp4Demuxer + " openMs=" + openMs);
+            if (target != null) scheduleScaledVariant(url, videoW, videoH, target);
 
             long openLagMs = (requestEpochMs > 0) ? Math.max(0L, System.currentTimeMillis() - requestEpochMs) : 0L;
             long effectiveSeekMs = seekMs + openLagMs;
@@ -1114,57 +1605,72 @@ public final class VideoPlayer {
             if (isLive) {
                 effectiveSeekMs = 0;
                 dbg("playOnce: live stream detected, seek disabled");
+            } else if (loop && effectiveSeekMs >= durationMs) {
+                // зацикленный экран: серверная позиция растёт бесконечно, сводим её в пределы ролика
+                effectiveSeekMs %= durationMs;
             }
+            // с кольцом time-shift живой поток тоже умеет pause/resume/seek в пределах окна
+            sessionSeekable = !isLive || liveIn != null;
+            LiveLatency latency = (isLive && liveIn == null && !audioOnly && LiveLatency.applies(url))
+                    ? new LiveLatency(LiveLatency.targetMs(), realtimeZeroUs(grabber)) : null;
+            liveLatency = latency;
+
+            int sampleRate = grabber.getSampleRate() > 0 ? grabber.getSampleRate() : 48000;
+            int channels = grabber.getAudioChannels() > 0 ? grabber.getAudioChannels() : 2;
+            channels = Math.min(2, channels);
 
-            if (effectiveSeekMs > 0) {
-                long seekTargetUs = effectiveSeekMs * 1000L;
+            if (audioOnly) {
+                // экран-радио: ни текстуры, ни пула кадров — только звук
+                if (!alive(mySessionId)) return false;
+                sink.onAudioOnly();
+                sink.onDuration(durationMs);
                 try {
-                    grabber.setTimestamp(seekTargetUs);
-                } catch (Exception e) {
+                    audio = new VideoAudioPlayer(sampleRate, channels);
+                } catch (LineUnavailableException e) {
+                    dbg("playOnce: audio-only, no audio line: " + e.getMessage());
+                    return false;
                 }
-
+                currentAudio = audio;
+                audio.setGain(gain);
                 try {
-                    long nowUs = grabber.getTimestamp();
-                    if (nowUs >= 0 && nowUs + 50_000L < seekTargetUs) {
-                        int skipped = 0;
-
-                        long needUs = Math.max(0L, seekTargetUs - nowUs);
-                        long needMs = needUs / 1000L;
-
-                        int maxSkipped = (int) Math.min(20_000L, Math.max(600L, (long) (fps * (needMs / 1000.0) + 120)));
-
-                        long startSkipNs = System.nanoTime();
-                        long maxSkipNs = 2_000_000_000L;
-
-                        while (running && skipped < maxSkipped) {
-                            if (System.nanoTime() - startSkipNs > maxSkipNs) break;
-                            Frame f = grabber.grab();
-                            if (f == null) break;
-
-                            long ts = f.timestamp;
-                            if (ts <= 0) ts = grabber.getTimestamp();
-
-                            if (ts >= seekTargetUs - 50_000L) {
-                                // дальше пойдет обычный decode loop
-                                break;
-                            }
-
-                            skipped++;
-                        }
-                    }
-                } catch (Exception ignored) {
+                    if (effectiveSeekMs > 0) seekGrabber(grabber, effectiveSeekMs * 1000L, AUDIO_FRAMES_PER_SEC);
+                    boolean ended = decodeAudioOnly(grabber, audio, channels, loop, durationMs, liveIn, mySessionId);
+                    if (ended && alive(mySessionId)) sink.onEnded(durationMs);
+                } finally {
+                    if (currentAudio == audio) currentAudio = null;
                 }
+                return true;
             }
 
-            int sampleRate = grabber.getSampleRate() > 0 ? grabber.getSampleRate() : 48000;
-            int channels = grabber.getAudioChannels() > 0 ? grabber.getAudioChannels() : 2;
-            channels = Math.min(2, channels);
             if (fps <= 0) {
                 fps = grabber.getVideoFrameRate();
                 if (fps <= 0) fps = 30.0;
             }
 
+            // короткий зацикленный клип уже декодирован — круги идут из памяти, грабер не читает
+            String loopKey = (loop && !isLive && LoopClipCache.eligible(durationMs))
+                    ? LoopClipCache.framesKey(sha256Hex(originalUrl.trim()), target.w(), target.h()) : null;
+            LoopClipCache.Clip loopClip = (loopKey != null)
+                    ? LoopClipCache.frames(loopKey, target.w(), target.h(), sampleRate, channels) : null;
+            LoopClipCache.Replay replay = (loopClip != null) ? loopClip.replay() : null;
+            LoopClipCache.Recorder recorder = null;
+            boolean loopRecordTried = false;
+
+            if (replay != null) {
+                replay.seek(effectiveSeekMs * 1000L);
+                dbg("playOnce: looping clip from memory, seekMs=" + effectiveSeekMs);
+            } else if (effectiveSeekMs > 0) {
+                seekGrabber(grabber, effectiveSeekMs * 1000L, fps);
+            } else if (loopKey != null) {
+                recorder = LoopClipCache.record(loopKey, target.w(), target.h(), sampleRate, channels, fps, durationMs);
+                loopRecordTried = true;
+            }
+
+            // пока открывали грабер, сессию могли остановить — не трогаем экран
+            if (!alive(mySessionId)) return false;
+
             // инициализируем видео
+            sink.onReadAheadSource(avioIn != null && (avioIn == streamIn || avioIn == liveIn || avioIn == netIn));
             sink.initVideo(videoW, videoH, target.w(), target.h(), fps);
             sink.onDuration(durationMs);
             dbg("playOnce: sink.initVideo called w=" + videoW + " h=" + videoH + " target=" + target.w() + "x" + target.h() + " fps=" + fps);
@@ -1182,13 +1688,21 @@ public final class VideoPlayer {
             int audioFrameCount = 0;
             long lastDiagnosticNs = System.nanoTime();
 
-            try (VideoAudioPlayer audio = new VideoAudioPlayer(sampleRate, channels)) {
+            try {
+                // короткая аудио-линия: её буфер — тоже задержка живого потока
+                audio = new VideoAudioPlayer(sampleRate, channels,
+                        latency != null ? (int) Math.max(100L, Math.min(500L, LiveLatency.targetMs() / 3)) : 0);
                 currentAudio = audio;
                 audio.setGain(gain);
 
                 long baseStreamTsUs = Long.MIN_VALUE;
                 long videoFrameIndex = 0;
 
+                // смещение таймлайна для бесшовного зацикливания внутри сессии
+                long loopOffsetUs = 0;
+                long lastRelativeTs = 0;
+                final long frameDurUs = (long) (1_000_000.0 / fps);
+
                 long lastDecodeLogNs = 0;
                 long DECODE_LOG_INTERVAL_NS = 2_000_000_000L;
                 long maxGrabUs = 0;
@@ -1198,12 +1712,59 @@ public final class VideoPlayer {
 
                 dbg("playOnce: entering decode loop...");
 
-                while (running) {
+                while (alive(mySessionId)) {
+                    // pause/resume/seek внутри тёплой сессии — без переоткрытия грабера
+                    if (paused) {
+                        audio.flushAndStop();
+                        wallStarted = false;
+                        if (recorder != null) {
+                            // на паузе кадр выбрасывается — запись уже не полный круг
+                            recorder.abandon();
+                            recorder = null;
+                        }
+                        dbg("playOnce: paused (session kept warm)");
+                        while (alive(mySessionId) && paused && pendingSeekMs.get() < 0) {
+                            LockSupport.parkNanos(5_000_000L);
+                        }
+                        if (!alive(mySessionId)) break;
+                    }
+
+                    long seekReqMs = pendingSeekMs.getAndSet(-1L);
+                    if (seekReqMs >= 0) {
+                        long seekStartNs = System.nanoTime();
+                        if (loop && durationMs > 0) seekReqMs %= durationMs;
+                        audio.flushAndStop();
+                        if (replay != null) {
+                            replay.seek(seekReqMs * 1000L);
+                        } else if (liveIn != null) {
+                            liveIn.seekWall(liveAnchor.wallForServerPos(seekReqMs));
+                        } else {
+                            seekGrabber(grabber, seekReqMs * 1000L, fps);
+                        }
+                        if (recorder != null) {
+                            recorder.abandon();
+                            recorder = null;
+                        }
+                        baseStreamTsUs = Long.MIN_VALUE;
+                        loopOffsetUs = 0;
+                        lastRelativeTs = 0;
+                        wallStarted = false;
+                        sink.onFlush();
+                        dbg("playOnce: in-session seek to " + seekReqMs + "ms took " + ((System.nanoTime() - seekStartNs) / 1_000_000L) + "ms");
+                        continue;
+                    }
+
                     long grabStart = System.nanoTime();
                     Frame frame = null;
+                    LoopClipCache.Item cachedItem = null;
 
                     try {
-                        frame = grabber.grab();
+                        if (replay != null) {
+                            cachedItem = replay.next();
+                            frame = (cachedItem != null) ? cachedItem.frame() : null;
+                        } else {
+                            frame = grabber.grab();
+                        }
                     } catch (Exception e) {
                         dbg("playOnce: grabber.grab() exception: " + e.getMessage());
                         e.printStackTrace();
@@ -1216,6 +1777,33 @@ public final class VideoPlayer {
 
                     if (frame == null) {
                         dbg("playOnce: frame is null after " + frameCount + " total frames (video=" + videoFrameCount + " audio=" + audioFrameCount + ")");
+                        if (loop && sessionSeekable && videoFrameCount > 0 && liveIn == null) {
+                            // бесшовный loop: перематываем открытый грабер в ноль и продолжаем таймлайн
+                            try {
+                                if (recorder != null) {
+                                    // полный проход записан — дальше круги из памяти
+                                    LoopClipCache.Clip clip = recorder.finish();
+                                    recorder = null;
+                                    if (clip != null) replay = clip.replay();
+                                }
+                                if (replay != null) {
+                                    replay.rewind();
+                                } else {
+                                    grabber.setTimestamp(0L);
+                                    if (loopKey != null && !loopRecordTried) {
+                                        // этот круг идёт с нуля — записываем его
+                                        recorder = LoopClipCache.record(loopKey, target.w(), target.h(), sampleRate, channels, fps, durationMs);
+                                        loopRecordTried = true;
+                                    }
+                                }
+                                loopOffsetUs = lastRelativeTs + frameDurUs;
+                                baseStreamTsUs = Long.MIN_VALUE;
+                                dbg("playOnce: loop to zero in session, offsetUs=" + loopOffsetUs);
+                                continue;
+                            } catch (Exception e) {
+                                dbg("playOnce: loop seek failed: " + e.getMessage());
+                            }
+                        }
                         ended = true;
                         break;
                     }
@@ -1227,7 +1815,7 @@ public final class VideoPlayer {
                     }
 
                     long tsUsForPace = frame.timestamp;
-                    if (tsUsForPace <= 0) tsUsForPace = grabber.getTimestamp();
+                    if (tsUsForPace <= 0 && cachedItem == null) tsUsForPace = grabber.getTimestamp();
 
                     if (tsUsForPace > 0 && baseStreamTsUs == Long.MIN_VALUE) {
                         baseStreamTsUs = tsUsForPace;
@@ -1237,6 +1825,7 @@ public final class VideoPlayer {
                     if (frame.samples != null) {
                         audioFrameCount++;
                         hasAnyAudio = true;
+                        if (recorder != null) recorder.audio(frame);
 
                         if (!sink.isBufferReady()) {
                             audio.prebufferSamples(frame.samples, channels);
@@ -1255,26 +1844,44 @@ public final class VideoPlayer {
                             dbg("playOnce: audio playback started");
                         }
                         if (audio.hasPrebuffer()) audio.flushPrebuffer();
+                        if (latency != null && latency.catchingUp() && frame.sampleRate > 0 && frame.samples[0] != null) {
+                            // ускорение: выбрасываем кусок звука и сдвигаем часы видео на его длину
+                            long durUs = frame.samples[0].remaining() * 1_000_000L
+                                    / ((long) frame.sampleRate * (frame.samples.length > 1 ? 1 : Math.max(1, frame.audioChannels)));
+                            if (durUs > 0 && latency.owedUs() >= durUs) {
+                                latency.consume(durUs);
+                                wallStartNs -= durUs * 1000L;
+                                sink.onPlaybackClockShift(durUs * 1000L);
+                                continue;
+                            }
+                        }
                         audio.writeSamples(frame.samples, channels);
                         continue;
                     }
 
-                    if (frame.image == null || frame.image.length == 0) {
+                    if (cachedItem == null && (frame.image == null || frame.image.length == 0)) {
                         dbg("playOnce: frame has no image data (frame.image is " + (frame.image == null ? "null" : "empty") + ")");
                         continue;
                     }
 
                     videoFrameCount++;
                     videoFrameIndex++;
+                    if (liveIn != null) liveResumeWallMs = liveIn.currentWallMs();
 
                     if (videoFrameCount == 1) {
-                        dbg("playOnce: FIRST VIDEO FRAME RECEIVED! frame.image.length=" + frame.image.length + " imageWidth=" + frame.imageWidth + " imageHeight=" + frame.imageHeight);
+                        dbg("playOnce: FIRST VIDEO FRAME RECEIVED! frame.image.length=" + (frame.image != null ? frame.image.length : 0) + " imageWidth=" + frame.imageWidth + " imageHeight=" + frame.imageHeight);
+                        long firstFrameMs = (System.nanoTime() - playStartNs) / 1_000_000L;
+                        SharedHttp.Stats http = SharedHttp.stats();
+                        lastStartupTiming = new StartupTiming(resolveMs, openMs, firstFrameMs,
+                                http.requests() - httpAtStart.requests(), http.tlsHandshakes() - httpAtStart.tlsHandshakes());
+                        dbg("playOnce: startup resolveMs=" + resolveMs + " openMs=" + openMs + " firstFrameMs=" + firstFrameMs
+                                + " http=" + lastStartupTiming.httpRequests() + " tls=" + lastStartupTiming.tlsHandshakes());
                     }
 
-                    if (!hasAnyAudio) {
-                        // без аудио: декодер бежит пока буфер не полон
+                    if (!hasAnyAudio || preroll) {
+                        // без аудио (или в pre-roll): декодер бежит пока буфер не полон
                         // пейсинг делается на render thread
-                        while (running && !sink.canAcceptFrame()) {
+                        while (alive(mySessionId) && !sink.canAcceptFrame() && !paused && pendingSeekMs.get() < 0) {
                             // буфер полон - ждём пока render thread освободит место
                             LockSupport.parkNanos(1_000_000L); // 1ms
                             if (Thread.interrupted()) {
@@ -1282,12 +1889,25 @@ public final class VideoPlayer {
                                 return false;
                             }
                         }
+                        if (paused || pendingSeekMs.get() >= 0) continue;
                     }
 
                     long convertStart = System.nanoTime(); // ПОСЛЕ пейсинга
 
                     // получаем буфер из пула (управляется VideoScreen)
                     int[] out = sink.borrowBuffer();
+                    if (out == null && recorder != null) {
+                        // идёт запись круга: звук этого кадра уже записан, выбросить кадр нельзя — ждём буфер
+                        while (out == null && alive(mySessionId) && !paused && pendingSeekMs.get() < 0) {
+                            LockSupport.parkNanos(1_000_000L);
+                            out = sink.borrowBuffer();
+                        }
+                        if (out == null) {
+                            // пауза/seek/стоп — кадр всё-таки теряется, запись уже не полный круг
+                            recorder.abandon();
+                            recorder = null;
+                        }
+                    }
                     if (out == null) {
                         // пул пуст - ждём
                         LockSupport.parkNanos(1_000_000L);
@@ -1297,41 +1917,47 @@ public final class VideoPlayer {
                     int w = target.w();
                     int h = target.h();
 
-                    // прямое чтение из ByteBuffer (BGR24 формат)
-                    ByteBuffer bb = (ByteBuffer) frame.image[0];
-                    if (bb == null) {
-                        dbg("playOnce: frame.image[0] ByteBuffer is null!");
-                        sink.returnBuffer(out); // возвращаем буфер
-                        continue;
-                    }
+                    if (cachedItem != null) {
+                        // кадр из памяти: уже ABGR в размере текстуры
+                        System.arraycopy(cachedItem.argb(), 0, out, 0, pixels);
+                    } else {
+                        // прямое чтение из ByteBuffer (BGR24 формат)
+                        ByteBuffer bb = (ByteBuffer) frame.image[0];
+                        if (bb == null) {
+                            dbg("playOnce: frame.image[0] ByteBuffer is null!");
+                            sink.returnBuffer(out); // возвращаем буфер
+                            continue;
+                        }
 
-                    int strideBytes = frame.imageStride;
-                    int rowBytes = w * 3;
+                        int strideBytes = frame.imageStride;
+                        int rowBytes = w * 3;
 
-                    // читаем напрямую через bulk get в кэшированный byte[]
-                    try {
-                        if (strideBytes <= 0 || strideBytes == rowBytes) {
-                            bb.position(0);
-                            bb.get(tmpBytes, 0, Math.min(tmpBytes.length, bb.remaining()));
-                        } else {
-                            // с учётом stride
-                            for (int y = 0; y < h; y++) {
-                                bb.position(y * strideBytes);
-                                bb.get(tmpBytes, y * rowBytes, Math.min(rowBytes, bb.remaining()));
+                        // читаем напрямую через bulk get в кэшированный byte[]
+                        try {
+                            if (strideBytes <= 0 || strideBytes == rowBytes) {
+                                bb.position(0);
+                                bb.get(tmpBytes, 0, Math.min(tmpBytes.length, bb.remaining()));
+                            } else {
+                                // с учётом stride
+                                for (int y = 0; y < h; y++) {
+                                    bb.position(y * strideBytes);
+                                    bb.get(tmpBytes, y * rowBytes, Math.min(rowBytes, bb.remaining()));
+                                }
                             }
+                        } catch (Exception e) {
+                            dbg("playOnce: failed to read frame data: " + e.getMessage());
+                            sink.returnBuffer(out);
+                            continue;
                         }
-                    } catch (Exception e) {
-                        dbg("playOnce: failed to read frame data: " + e.getMessage());
-                        sink.returnBuffer(out);
-                        continue;
-                    }
 
-                    // BGR24 -> ABGR (0xAABBGGRR)
-                    for (int i = 0, j = 0; i < pixels; i++, j += 3) {
-                        int b = tmpBytes[j] & 0xFF;
-                        int g = tmpBytes[j + 1] & 0xFF;
-                        int r = tmpBytes[j + 2] & 0xFF;
-                        out[i] = 0xFF000000 | (b << 16) | (g << 8) | r;
+                        // BGR24 -> ABGR (0xAABBGGRR)
+                        for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+                            int b = tmpBytes[j] & 0xFF;
+                            int g = tmpBytes[j + 1] & 0xFF;
+                            int r = tmpBytes[j + 2] & 0xFF;
+                            out[i] = 0xFF000000 | (b << 16) | (g << 8) | r;
+                        }
+                        if (recorder != null) recorder.video(tsUsForPace, out);
                     }
 
                     long convertEnd = System.nanoTime();
@@ -1349,17 +1975,49 @@ public final class VideoPlayer {
                     }
 
                     long relativeTs = (baseStreamTsUs != Long.MIN_VALUE && tsUsForPace > 0) ? (tsUsForPace - baseStreamTsUs) : 0;
+                    relativeTs += loopOffsetUs;
+                    lastRelativeTs = relativeTs;
 
                     if (videoFrameCount <= 3) {
                         dbg("playOnce: calling sink.onFrame #" + videoFrameCount + " w=" + w + " h=" + h + " relativeTs=" + relativeTs);
                     }
 
+                    if (!alive(mySessionId)) {
+                        // grab() завершился уже после stop() — кадр чужой сессии не отдаём
+                        sink.returnBuffer(out);
+                        break;
+                    }
                     sink.onFrame(out, target.w(), target.h(), relativeTs);
+
+                    if (latency != null) {
+                        latency.onVideo(tsUsForPace, relativeTs);
+                        latency.sample(sink.shownTimestampUs());
+                        LiveLatency.Action action = latency.decide();
+                        if (action == LiveLatency.Action.JUMP) {
+                            long jumpStartNs = System.nanoTime();
+                            audio.flushAndStop();
+                            int skipped = skipToNewestKeyframe(grabber);
+                            baseStreamTsUs = Long.MIN_VALUE;
+                            lastRelativeTs = 0;
+                            wallStarted = false;
+                            sink.onFlush();
+                            latency.onJump();
+                            dbg("playOnce: live latency " + latency.latencyMs() + "ms, jumped over " + skipped
+                                    + " keyframes in " + ((System.nanoTime() - jumpStartNs) / 1_000_000L) + "ms");
+                        } else if (action == LiveLatency.Action.SPEED_UP && !hasAnyAudio) {
+                            // без звука просто сдвигаем часы показа
+                            long owed = latency.owedUs();
+                            if (owed >= frameDurUs) {
+                                latency.consume(owed);
+                                sink.onPlaybackClockShift(owed * 1000L);
+                            }
+                        }
+                    }
                 }
 
                 dbg("playOnce: decode loop finished - total=" + frameCount + " video=" + videoFrameCount + " audio=" + audioFrameCount + " ended=" + ended);
 
-                if (ended) {
+                if (ended && alive(mySessionId)) {
                     sink.onEnded(durationMs);
                 }
 
@@ -1369,23 +2027,213 @@ public final class VideoPlayer {
                 dbg("playOnce: unexpected exception in audio player: " + e.getMessage());
                 e.printStackTrace();
             } finally {
-                currentAudio = null;
-                try {
-                    grabber.stop();
-                    dbg("playOnce: grabber stopped");
-                } catch (Exception ignored) {
-                }
+                if (currentAudio == audio) currentAudio = null;
             }
 
         } catch (Exception e) {
             dbg("playOnce: FFmpeg decode failed url=" + url + " err=" + e);
             e.printStackTrace();
             return false;
+        } finally {
+            reap(mySessionId, audio, grabber);
+            reapedSession.set(mySessionId);
+            if (liveRelay != null) liveRelay.release();
+            dbg("playOnce: grabber handed to reaper");
         }
 
         return true;
     }
 
+    /**
+     * Декод-цикл экрана-радио: только сэмплы, темп задаёт аудиолиния (запись блокируется, пока она полна).
+     * pause/resume/seek и loop — как в видео-цикле. true — поток закончился.
+     */
+    private boolean decodeAudioOnly(FFmpegFrameGrabber grabber, VideoAudioPlayer audio, int channels, boolean loop, long durationMs,
+                                    LiveTimeShift.RingInputStream liveIn, long mySessionId) throws Exception {
+        boolean wallStarted = false;
+        long audioFrameCount = 0;
+
+        while (alive(mySessionId)) {
+            if (paused) {
+                audio.flushAndStop();
+                wallStarted = false;
+                dbg("decodeAudioOnly: paused (session kept warm)");
+                while (alive(mySessionId) && paused && pendingSeekMs.get() < 0) {
+                    LockSupport.parkNanos(5_000_000L);
+                }
+                if (!alive(mySessionId)) break;
+            }
+
+            long seekReqMs = pendingSeekMs.getAndSet(-1L);
+            if (seekReqMs >= 0) {
+                if (loop && durationMs > 0) seekReqMs %= durationMs;
+                audio.flushAndStop();
+                if (liveIn != null) {
+                    liveIn.seekWall(liveAnchor.wallForServerPos(seekReqMs));
+                } else {
+                    seekGrabber(grabber, seekReqMs * 1000L, AUDIO_FRAMES_PER_SEC);
+                }
+                wallStarted = false;
+                sink.onFlush();
+                continue;
+            }
+
+            Frame frame = grabber.grabSamples();
+            if (frame == null) {
+                if (loop && sessionSeekable && audioFrameCount > 0 && liveIn == null) {
+                    try {
+                        grabber.setTimestamp(0L);
+                        continue;
+                    } catch (Exception e) {
+                        dbg("decodeAudioOnly: loop seek failed: " + e.getMessage());
+                    }
+                }
+                dbg("decodeAudioOnly: end of stream after " + audioFrameCount + " audio frames");
+                return true;
+            }
+            if (frame.samples == null) continue;
+
+            audioFrameCount++;
+            if (liveIn != null) liveResumeWallMs = liveIn.currentWallMs();
+
+            if (!wallStarted) {
+                wallStarted = true;
+                sink.onPlaybackClockStart(System.nanoTime());
+            }
+            if (!audio.isStarted()) audio.startPlayback();
+            audio.writeSamples(frame.samples, channels);
+        }
+        return false;
+    }
+
+    /** Экран-радио: демуксер не читает пакеты видео, субтитров и обложек — только звук */
+    private static void discardNonAudio(FFmpegFrameGrabber grabber) {
+        try {
+            AVFormatContext fmt = grabber.getFormatContext();
+            if (fmt == null) return;
+            for (int i = 0; i < fmt.nb_streams(); i++) {
+                AVStream st = fmt.streams(i);
+                if (st.codecpar().codec_type() != avutil.AVMEDIA_TYPE_AUDIO) st.discard(avcodec.AVDISCARD_ALL);
+            }
+        } catch (Exception e) {
+            dbg("discardNonAudio: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Seek в открытом грабере: setTimestamp + добор кадров до цели (FFmpeg встаёт на ближайший keyframe).
+     */
+    private void seekGrabber(FFmpegFrameGrabber grabber, long seekTargetUs, double fps) {
+        try {
+            grabber.setTimestamp(seekTargetUs);
+        } catch (Exception e) {
+        }
+
+        try {
+            long nowUs = grabber.getTimestamp();
+            if (nowUs >= 0 && nowUs + 50_000L < seekTargetUs) {
+                int skipped = 0;
+
+                long needUs = Math.max(0L, seekTargetUs - nowUs);
+                long needMs = needUs / 1000L;
+
+                int maxSkipped = (int) Math.min(20_000L, Math.max(600L, (long) (fps * (needMs / 1000.0) + 120)));
+
+                long startSkipNs = System.nanoTime();
+                long maxSkipNs = 2_000_000_000L;
+
+                while (running && skipped < maxSkipped) {
+                    if (System.nanoTime() - startSkipNs > maxSkipNs) break;
+                    Frame f = grabber.grab();
+                    if (f == null) break;
+
+                    long ts = f.timestamp;
+                    if (ts <= 0) ts = grabber.getTimestamp();
+
+                    if (ts >= seekTargetUs - 50_000L) {
+                        // дальше пойдет обычный decode loop
+                        break;
+                    }
+
+                    skipped++;
+                }
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static boolean isHlsUrl(String url) {
+        return url != null && url.toLowerCase(Locale.ROOT).contains(".m3u8");
+    }
+
+    /** Грабер источника для ретранслятора time-shift: HLS — через Java-движок, остальное — FFmpeg напрямую */
+    private static FFmpegFrameGrabber openOrigin(String url, int blocksW, int blocksH) {
+        if (isHlsUrl(url) && HlsStream.enabled()) {
+            HlsStream hls = HlsStream.open(url, blocksW, blocksH, 0L);
+            if (hls != null) {
+                FFmpegFrameGrabber g = new FFmpegFrameGrabber(hls, 0);
+                g.setFormat("mpegts");
+                g.setCloseInputStream(true);
+                return g;
+            }
+        }
+        FFmpegFrameGrabber g = new FFmpegFrameGrabber(url);
+        applyNetOptions(g, url);
+        return g;
+    }
+
+    /** Грабер звуковой DASH-дорожки YouTube (ещё не запущен); читается наперёд, как и видео */
+    private static FFmpegFrameGrabber openDashAudio(String audioUrl) {
+        HttpReadAheadInputStream in = HttpReadAheadInputStream.open(audioUrl);
+        if (in != null) {
+            FFmpegFrameGrabber g = new FFmpegFrameGrabber(in, Integer.MAX_VALUE - 8);
+            g.setCloseInputStream(true);
+            return g;
+        }
+        FFmpegFrameGrabber g = new FFmpegFrameGrabber(audioUrl);
+        applyNetOptions(g, audioUrl);
+        return g;
+    }
+
+    /** Epoch-мкс для таймстампа 0, если источник сообщает wallclock (RTSP по RTCP); иначе Long.MIN_VALUE */
+    private static long realtimeZeroUs(FFmpegFrameGrabber g) {
+        try {
+            AVFormatContext fmt = g.getFormatContext();
+            long rt = fmt != null ? fmt.start_time_realtime() : avutil.AV_NOPTS_VALUE;
+            if (rt == avutil.AV_NOPTS_VALUE || rt <= 0) return Long.MIN_VALUE;
+            long start = fmt.start_time() != avutil.AV_NOPTS_VALUE ? fmt.start_time() : 0L;
+            return rt - start;
+        } catch (Exception e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Low-latency: пропустить накопленное до самого свежего ключевого кадра. Он уже декодирован,
+     * так что дальше grab() идёт без артефактов. Возвращает число пропущенных ключевых кадров.
+     */
+    private static int skipToNewestKeyframe(FFmpegFrameGrabber g) {
+        int skipped = 0;
+        long prevTs = Long.MIN_VALUE;
+        long deadlineNs = System.nanoTime() + 3_000_000_000L;
+        try {
+            while (skipped < 32 && System.nanoTime() < deadlineNs) {
+                long t0 = System.nanoTime();
+                Frame key = g.grabKeyFrame();
+                if (key == null) break;
+                skipped++;
+                long tookUs = (System.nanoTime() - t0) / 1000L;
+                long gopUs = prevTs != Long.MIN_VALUE ? key.timestamp - prevTs : 0L;
+                prevTs = key.timestamp;
+                // ключевой кадр пришёл почти за реальное время GOP — в буфере пусто, это живой край
+                if (gopUs > 0 && tookUs > gopUs / 2) break;
+            }
+        } catch (Exception e) {
+            dbg("skipToNewestKeyframe: " + e.getMessage());
+        }
+        return skipped;
+    }
+
     private static void applyNetOptions(FFmpegFrameGrabber g, String url) {
         // Применяем сетевые опции только для HTTP/HTTPS/RTMP/RTMPS URL.
         boolean isHttp = url != null && (url.startsWith("http://") || url.startsWith("https://"));
@@ -1393,7 +2241,16 @@ public final class VideoPlayer {
         boolean isRtsp = url != null && (url.toLowerCase().startsWith("rtsp://") || url.toLowerCase().startsWith("rtsps://"));
 
         try {
-            if (isRtmp) {
+            if (isRtmp && LiveLatency.applies(url)) {
+                // RTMP low-latency: короткий probe, без буфера демуксера, сервер шлёт с малым запасом
+                g.setOption("fflags", "nobuffer");
+                g.setOption("flags", "low_delay");
+                g.setOption("probesize", "65536");
+                g.setOption("analyzeduration", "500000");
+                g.setOption("rtmp_buffer", String.valueOf(Math.max(100L, LiveLatency.targetMs())));
+
+                dbg("applyNetOptions: RTMP low-latency options applied");
+            } else if (isRtmp) {
                 // RTMP: минимальные опции (метод 1 из теста работает лучше всего)
                 // НЕ устанавливаем format — JavaCV сам определит FLV
                 // НЕ устанавливаем опции — FFmpeg работает стабильнее без них
@@ -1406,7 +2263,7 @@ public final class VideoPlayer {
                 g.setOption("fflags", "nobuffer");
                 g.setOption("flags", "low_delay");
                 g.setOption("probesize", "32768");
-                g.setOption("analyzeduration", "1000000");
+                g.setOption("analyzeduration", LiveLatency.applies(url) ? "500000" : "1000000");
 
                 dbg("applyNetOptions: RTSP options applied");
             } else if (isHttp) {
@@ -1440,7 +2297,17 @@ public final class VideoPlayer {
         }
     }
 
+    /** Несколько экранов с одним URL стартуют вместе — редиректы проходим один раз */
     private static String tryResolveUrl(String url) {
+        if (url == null) return null;
+        try {
+            return DownloadManager.dedupe("resolve:" + url.trim(), () -> tryResolveUrlOnce(url));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String tryResolveUrlOnce(String url) {
         if (url == null) return null;
         String u = url.trim();
         if (!(u.startsWith("http://") || u.startsWith("https://"))) return null;
@@ -1450,36 +2317,25 @@ public final class VideoPlayer {
         try {
             String cur = u;
             for (int i = 0; i < 5; i++) {
-                URL base = new URL(cur);
-                HttpURLConnection c = (HttpURLConnection) base.openConnection();
-                c.setInstanceFollowRedirects(false);
-                c.setRequestMethod("GET");
-                c.setConnectTimeout(5000);
-                c.setReadTimeout(5000);
-                c.setRequestProperty("User-Agent", "Mozilla/5.0");
-                c.setRequestProperty("Accept", "*/*");
-                c.setRequestProperty("Accept-Encoding", "identity");
-
-                int code = c.getResponseCode();
+                cur = SharedHttp.cachedTarget(cur);
+                int code;
+                String loc;
+                try (SharedHttp.Response c = SharedHttp.get(cur).timeout(5000).readTimeout(5000).send()) {
+                    code = c.code();
+                    loc = c.header("Location");
+                }
 
                 if (code >= 300 && code < 400) {
-                    String loc = c.getHeaderField("Location");
-                    if (loc == null || loc.isBlank()) {
-                        c.disconnect();
-                        break;
-                    }
-                    URL next = new URL(base, loc);
-                    c.disconnect();
-                    cur = next.toString();
+                    String next = (loc == null || loc.isBlank()) ? null : SharedHttp.rememberRedirect(cur, code, loc);
+                    if (next == null) break;
+                    cur = next;
                     continue;
                 }
 
                 if (code == 401 || code == 403) {
-                    c.disconnect();
                     return null;
                 }
 
-                c.disconnect();
                 return cur.equals(u) ? null : cur;
             }
         } catch (Exception ignored) {
@@ -1494,18 +2350,38 @@ public final class VideoPlayer {
         final boolean isHttp;
         final String contentDisposition;
         final int httpCode;
+        final long contentLength; // полный размер файла (из Content-Range), -1 если неизвестен
+        final String etag;         // валидаторы для докачки (If-Range)
+        final String lastModified;
 
         private ProbeResult(String finalUrl, String contentType, boolean supportsRange, boolean isHttp, String contentDisposition, int httpCode) {
+            this(finalUrl, contentType, supportsRange, isHttp, contentDisposition, httpCode, -1L, null, null);
+        }
+
+        private ProbeResult(String finalUrl, String contentType, boolean supportsRange, boolean isHttp, String contentDisposition, int httpCode,
+                            long contentLength, String etag, String lastModified) {
             this.finalUrl = finalUrl;
             this.contentType = contentType;
             this.supportsRange = supportsRange;
             this.isHttp = isHttp;
             this.contentDisposition = contentDisposition;
             this.httpCode = httpCode;
+            this.contentLength = contentLength;
+            this.etag = etag;
+            this.lastModified = lastModified;
         }
     }
 
     private static ProbeResult probeUrl(String url) {
+        if (url == null) return null;
+        try {
+            return DownloadManager.dedupe("probe:" + stripFragment(url.trim()), () -> probeUrlOnce(url));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static ProbeResult probeUrlOnce(String url) {
         if (url == null) return null;
         String u = stripFragment(url.trim());
         boolean isHttp = (u.startsWith("http://") || u.startsWith("https://"));
@@ -1514,68 +2390,56 @@ public final class VideoPlayer {
         try {
             String cur = u;
             for (int i = 0; i < 5; i++) {
-                URL base = new URL(cur);
-                HttpURLConnection c = (HttpURLConnection) base.openConnection();
-                c.setInstanceFollowRedirects(false);
-                c.setRequestMethod("GET");
-                c.setConnectTimeout(5000);
-                c.setReadTimeout(5000);
-                c.setRequestProperty("User-Agent", "Mozilla/5.0");
-                c.setRequestProperty("Accept", "*/*");
-                c.setRequestProperty("Range", "bytes=0-1");
-                c.setRequestProperty("Accept-Encoding", "identity");
-
-                int code = c.getResponseCode();
-                dbg("probe: GET " + cur + " -> " + code);
-
-                if (code == 401 || code == 403 || code == 416) {
-                    try { c.disconnect(); } catch (Exception ignored) {}
-                    c = (HttpURLConnection) base.openConnection();
-                    c.setInstanceFollowRedirects(false);
-                    c.setRequestMethod("GET");
-                    c.setConnectTimeout(8000);
-                    c.setReadTimeout(8000);
-                    c.setRequestProperty("User-Agent", "Mozilla/5.0");
-                    c.setRequestProperty("Accept", "*/*");
-                    c.setRequestProperty("Accept-Encoding", "identity");
-                    code = c.getResponseCode();
-                    dbg("probe: retry GET(no-range) " + cur + " -> " + code);
-                }
+                cur = SharedHttp.cachedTarget(cur);
+                SharedHttp.Response c = SharedHttp.get(cur)
+                        .header("Range", "bytes=0-1")
+                        .timeout(5000)
+                        .readTimeout(5000)
+                        .send();
+                try {
+                    int code = c.code();
+                    dbg("probe: GET " + cur + " -> " + code + " " + c.version());
 
-                if (code >= 300 && code < 400) {
-                    String loc = c.getHeaderField("Location");
-                    c.disconnect();
-                    if (loc == null || loc.isBlank()) return new ProbeResult(cur, null, false, true, null, code);
-                    URL next = new URL(base, loc);
-                    cur = next.toString();
-                    continue;
-                }
+                    if (code == 401 || code == 403 || code == 416) {
+                        c.close();
+                        c = SharedHttp.get(cur).timeout(8000).readTimeout(8000).send();
+                        code = c.code();
+                        dbg("probe: retry GET(no-range) " + cur + " -> " + code);
+                    }
 
-                if (code < 200 || code >= 400) {
-                    String ct = null;
-                    try {
-                        ct = c.getHeaderField("Content-Type");
-                    } catch (Exception ignored) {
+                    if (code >= 300 && code < 400) {
+                        String loc = c.header("Location");
+                        String next = (loc == null || loc.isBlank()) ? null : SharedHttp.rememberRedirect(cur, code, loc);
+                        if (next == null) return new ProbeResult(cur, null, false, true, null, code);
+                        cur = next;
+                        continue;
                     }
-                    dbg("probe: http error code=" + code + " url=" + cur + " ct=" + ct);
-                    c.disconnect();
-                    return new ProbeResult(cur, ct, false, true, null, code);
-                }
 
-                String ct = c.getHeaderField("Content-Type");
-                String ar = c.getHeaderField("Accept-Ranges");
-                boolean supportsRange = false;
-                if (code == 206) supportsRange = true;
-                if (ar != null && ar.toLowerCase(Locale.ROOT).contains("bytes")) supportsRange = true;
-                String cd = c.getHeaderField("Content-Disposition");
-                long len = -1L;
-                try {
-                    len = c.getContentLengthLong();
-                } catch (Exception ignored) {
+                    if (code < 200 || code >= 400) {
+                        String ct = c.header("Content-Type");
+                        dbg("probe: http error code=" + code + " url=" + cur + " ct=" + ct);
+                        // закэшированный редирект мог протухнуть (подписанная ссылка)
+                        SharedHttp.forgetRedirectsTo(cur);
+                        return new ProbeResult(cur, ct, false, true, null, code);
+                    }
+
+                    String ct = c.header("Content-Type");
+                    String ar = c.header("Accept-Ranges");
+                    boolean supportsRange = false;
+                    if (code == 206) supportsRange = true;
+                    if (ar != null && ar.toLowerCase(Locale.ROOT).contains("bytes")) supportsRange = true;
+                    String cd = c.header("Content-Disposition");
+                    long len = c.contentLength();
+                    // на Range-запрос Content-Length = 2, полный размер — в Content-Range
+                    long total = (code == 206) ? SegmentedDownloader.parseContentRangeTotal(c.header("Content-Range")) : len;
+                    String etag = c.header("ETag");
+                    String lastModified = c.header("Last-Modified");
+                    dbg("probe: finalUrl=" + cur + " ct=" + ct + " ar=" + ar + " len=" + len + " total=" + total + " supportsRange=" + supportsRange
+                            + " cd=" + cd + " etag=" + etag + " lm=" + lastModified);
+                    return new ProbeResult(cur, ct, supportsRange, true, cd, code, total, etag, lastModified);
+                } finally {
+                    c.close();
                 }
-                dbg("probe: finalUrl=" + cur + " ct=" + ct + " ar=" + ar + " len=" + len + " supportsRange=" + supportsRange + " cd=" + cd);
-                c.disconnect();
-                return new ProbeResult(cur, ct, supportsRange, true, cd, code);
             }
         } catch (Exception e) {
             dbg("probe: exception " + e + " url=" + u);
@@ -1597,43 +2461,48 @@ public final class VideoPlayer {
         String hash = sha256Hex(key);
         Object lock = DISK_CACHE_LOCKS.computeIfAbsent(hash, k -> new Object());
 
+        // Если файл уже качает другой экран или другой запущенный клиент — ждём его,
+        // показывая его прогресс; замок освобождается и при падении того процесса.
+        // Ждём до монитора: держатель (потоковая закачка) берёт его, чтобы закоммитить файл
+        Path dir = getCacheDir();
+        CacheFileLock fileLock;
+        try {
+            Files.createDirectories(dir);
+            fileLock = CacheFileLock.acquire(dir, hash,
+                    () -> player != null && player.sessionId != sessionId,
+                    (done, total) -> {
+                        if (sink != null) {
+                            sink.onDownloadProgress((int) (done * 100L / total), done / (1024L * 1024L), total / (1024L * 1024L));
+                        }
+                    });
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            dbg("cache: cache lock failed " + e);
+            return null;
+        }
+        if (fileLock == null) {
+            dbg("cache: session changed while waiting, aborting");
+            return null;
+        }
+
         synchronized (lock) {
+            DownloadManager.Slot slot = null;
             try {
                 dbg("cache: start keyHash=" + hash + " url=" + u);
-                Path dir = getCacheDir();
-                Files.createDirectories(dir);
-
-                Path partFile = dir.resolve(hash + ".part");
-                // Если загрузка в процессе (есть .part файл), ждём завершения
-                int waitAttempts = 0;
-                while (Files.exists(partFile) && waitAttempts < 300) { // макс 5 минут
-                    // Проверяем что сессия ещё активна
-                    if (player != null && player.sessionId != sessionId) {
-                        dbg("cache: session changed while waiting, aborting");
-                        return null;
-                    }
-                    dbg("cache: waiting for download in progress keyHash=" + hash);
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        return null;
-                    }
-                    waitAttempts++;
-                }
 
                 Path existing = findExistingCacheFile(dir, hash);
+                if (existing != null) applyPendingRemux(dir, hash, existing);
                 if (existing != null && Files.isRegularFile(existing)) {
                     try {
                         long sz = Files.size(existing);
                         if (sz > 0 && sz <= DISK_CACHE_MAX_BYTES) {
-                            // Проверяем валидность кэша через FFmpeg
-                            if (isValidMediaFile(existing)) {
-                                try {
-                                    Files.setLastModifiedTime(existing, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis()));
-                                } catch (Exception ignored) {
-                                }
-                                enforceDiskCacheLimit(dir, DISK_CACHE_MAX_BYTES);
+                            // Проверяем валидность кэша (результат запоминается в индексе)
+                            if (isValidCacheEntry(dir, hash, existing, sz)) {
+                                cacheIndex(dir).touch(hash, CACHE_SERVER);
+                                scheduleFaststartRemux(dir, hash, existing);
+                                enforceDiskCacheLimit(dir);
                                 DISK_CACHE_LAST_FAIL_MS.remove(hash);
                                 dbg("cache: using valid existing file keyHash=" + hash);
                                 // Уведомляем о использовании существующего кэша
@@ -1653,6 +2522,7 @@ public final class VideoPlayer {
                         Files.deleteIfExists(existing);
                     } catch (Exception ignored) {
                     }
+                    dropCacheEntry(dir, hash);
                 }
 
                 Long lastFail = DISK_CACHE_LAST_FAIL_MS.get(hash);
@@ -1661,46 +2531,66 @@ public final class VideoPlayer {
                     return null;
                 }
 
-                enforceDiskCacheLimit(dir, DISK_CACHE_MAX_BYTES);
+                enforceDiskCacheLimit(dir);
 
                 Path tmp = dir.resolve(hash + ".part");
-                try {
-                    Files.deleteIfExists(tmp);
-                } catch (Exception ignored) {
+
+                // Сервер умеет Range и размер известен — качаем несколькими соединениями (с докачкой .part)
+                boolean probeHtml = pr.contentType != null && pr.contentType.toLowerCase(Locale.ROOT).startsWith("text/html");
+                if (pr.supportsRange && !probeHtml && pr.contentLength >= SegmentedDownloader.MIN_SEGMENTED_BYTES
+                        && pr.contentLength <= DISK_CACHE_MAX_BYTES) {
+                    Path dst = dir.resolve(hash + guessCacheExtension(u, pr.contentType));
+                    SegmentedDownloader.Failure f = downloadSegmented(u, tmp, pr.contentLength, pr.etag, pr.lastModified,
+                            sink, sessionId, player);
+                    if (f == SegmentedDownloader.Failure.NONE) {
+                        dbg("cache: segmented download complete bytes=" + pr.contentLength + " -> " + dst);
+                        return commitCacheFile(dir, tmp, dst, hash);
+                    }
+                    if (f != SegmentedDownloader.Failure.NO_RANGE) {
+                        // .part с sidecar остался — следующая попытка докачает, cooldown не ставим
+                        dbg("cache: segmented download stopped (" + f + "), part kept for resume");
+                        return null;
+                    }
+                    dbg("cache: segmented download failed, falling back to single connection");
                 }
 
-                HttpURLConnection c = (HttpURLConnection) new URL(u).openConnection();
-                c.setInstanceFollowRedirects(true);
-                c.setRequestMethod("GET");
-                c.setConnectTimeout(15_000);
-                c.setReadTimeout(60_000); // Увеличен для больших файлов
-                c.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64)");
-                c.setRequestProperty("Accept", "*/*");
-                c.setRequestProperty("Accept-Encoding", "identity");
+                SegmentedDownloader.deletePart(tmp);
+
+                // тело файла качаем под общим лимитом соединений; слот берём до send(),
+                // чтобы в очереди не висело открытое соединение с непрочитанным телом
+                slot = DownloadManager.acquire(priorityOf(sink),
+                        () -> player != null && player.sessionId != sessionId);
+                if (slot == null) return null;
 
-                int code = c.getResponseCode();
+                SharedHttp.Response c = SharedHttp.get(u)
+                        .timeout(60_000)
+                        .readTimeout(60_000) // Увеличен для больших файлов
+                        .followRedirects(true)
+                        .send();
+
+                int code = c.code();
                 if (code < 200 || code >= 400) {
                     dbg("cache: non-2xx code=" + code + " url=" + u);
-                    c.disconnect();
+                    c.close();
                     DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
                     return null;
                 }
 
                 long declaredLen = -1L;
                 try {
-                    declaredLen = c.getContentLengthLong();
+                    declaredLen = c.contentLength();
                 } catch (Exception ignored) {
                 }
                 dbg("cache: contentLength=" + declaredLen);
                 if (declaredLen > DISK_CACHE_MAX_BYTES) {
-                    c.disconnect();
+                    c.close();
                     DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
                     return null;
                 }
 
                 String actualCt = null;
                 try {
-                    actualCt = c.getHeaderField("Content-Type");
+                    actualCt = c.header("Content-Type");
                 } catch (Exception ignored) {
                 }
                 dbg("cache: contentType=" + actualCt + " url=" + u);
@@ -1709,7 +2599,7 @@ public final class VideoPlayer {
 
                 long written = 0L;
                 long lastProgressLog = 0L;
-                try (InputStream in = c.getInputStream(); OutputStream out = Files.newOutputStream(tmp)) {
+                try (InputStream in = c.body(); OutputStream out = Files.newOutputStream(tmp)) {
                     // Если probe видел text/html, но мы всё равно пытаемся кэшировать —
                     // защитимся от сохранения HTML-страницы в кэш.
                     boolean ctHtml = false;
@@ -1745,6 +2635,7 @@ public final class VideoPlayer {
 
                         out.write(buf, 0, r);
                         written += r;
+                        DownloadManager.throttle(r);
 
                         // Логируем прогресс каждые 10 МБ
                         long progressMb = written / (10L * 1024L * 1024L);
@@ -1760,10 +2651,11 @@ public final class VideoPlayer {
                                 dbg("cache: downloading... " + writtenMb + " MB");
                             }
 
-                            // Отправляем прогресс в sink
+                            // Отправляем прогресс в sink (и ждущим этот файл)
                             if (sink != null) {
                                 sink.onDownloadProgress(Math.max(0, pct), writtenMb, Math.max(0, totalMb));
                             }
+                            CacheFileLock.publish(dir, hash, written, declaredLen);
 
                             // Проверяем что сессия ещё активна
                             if (player != null && player.sessionId != sessionId) {
@@ -1786,83 +2678,489 @@ public final class VideoPlayer {
                         }
                     }
                 } finally {
-                    c.disconnect();
+                    c.close();
+                    slot.close();
                 }
 
                 dbg("cache: downloaded bytes=" + written + " -> " + dst);
+                return commitCacheFile(dir, tmp, dst, hash);
+            } catch (Exception e) {
+                dbg("cache: exception " + e);
+                DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
+                return null;
+            } finally {
+                if (slot != null) slot.close();
+                fileLock.close();
+            }
+        }
+    }
 
-                try {
-                    Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-                    dbg("cache: atomic move succeeded");
-                } catch (Exception e) {
-                    dbg("cache: atomic move failed, trying regular move: " + e.getMessage());
-                    try {
-                        Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING);
-                        dbg("cache: regular move succeeded");
-                    } catch (Exception moveErr) {
-                        dbg("cache: regular move also failed: " + moveErr.getMessage());
-                        try {
-                            Files.deleteIfExists(tmp);
-                        } catch (Exception ignored2) {
+    /** Идущие потоковые закачки (hash -> закачка): второй экран с тем же URL читает тот же .part */
+    private record StreamingCache(SegmentedDownloader download, Path dst, List<BooleanSupplier> owners,
+                                  List<DoubleSupplier> priorities, CacheFileLock fileLock) {
+    }
+
+    private static final ConcurrentHashMap<String, StreamingCache> STREAMING_CACHES = new ConcurrentHashMap<>();
+
+    /**
+     * Запускает (или подключается к) параллельной закачке в .part и возвращает поток для FFmpeg,
+     * который читает файл по мере скачивания. null — потоковый режим не подходит, нужен обычный путь.
+     */
+    private static PartFileInputStream openStreamingCache(String cacheKeyUrl, String downloadUrl, ProbeResult pr,
+                                                          FrameSink sink, long sessionId, VideoPlayer player) {
+        if (cacheKeyUrl == null || cacheKeyUrl.isBlank() || downloadUrl == null || pr == null) return null;
+        if (!pr.supportsRange || pr.contentLength < SegmentedDownloader.MIN_SEGMENTED_BYTES
+                || pr.contentLength > DISK_CACHE_MAX_BYTES) return null;
+        if (pr.contentType != null && pr.contentType.toLowerCase(Locale.ROOT).startsWith("text/html")) return null;
+        // Dropbox кэшируем целиком именно из-за ненадёжных Range
+        if (isDropboxDownloadUrl(downloadUrl)) return null;
+
+        String u = stripFragment(downloadUrl.trim());
+        if (!(u.startsWith("http://") || u.startsWith("https://"))) return null;
+
+        String hash = sha256Hex(cacheKeyUrl.trim());
+        BooleanSupplier gone = () -> player == null || player.sessionId != sessionId;
+
+        try {
+            StreamingCache sc = STREAMING_CACHES.get(hash);
+            if (sc == null) {
+                Object lock = DISK_CACHE_LOCKS.computeIfAbsent(hash, k -> new Object());
+                synchronized (lock) {
+                    sc = STREAMING_CACHES.get(hash);
+                    if (sc == null) {
+                        Path dir = getCacheDir();
+                        Files.createDirectories(dir);
+                        Path tmp = dir.resolve(hash + ".part");
+                        if (findExistingCacheFile(dir, hash) != null) return null;
+                        // файл качает другой клиент — обычный путь (ensureCachedToDisk) подождёт его
+                        CacheFileLock fileLock = CacheFileLock.tryAcquire(dir, hash);
+                        if (fileLock == null) return null;
+
+                        Long lastFail = DISK_CACHE_LAST_FAIL_MS.get(hash);
+                        if (findExistingCacheFile(dir, hash) != null
+                                || (lastFail != null && (System.currentTimeMillis() - lastFail) < DISK_CACHE_FAIL_COOLDOWN_MS)) {
+                            fileLock.close();
+                            return null;
                         }
-                        DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
-                        return null;
+                        // замок наш: .part без sidecar — обрывок старой версии; с sidecar SegmentedDownloader докачает
+                        if (Files.exists(tmp) && !Files.exists(SegmentedDownloader.sidecarOf(tmp))) {
+                            SegmentedDownloader.deletePart(tmp);
+                        }
+                        enforceDiskCacheLimit(dir);
+
+                        Path dst = dir.resolve(hash + guessCacheExtension(u, pr.contentType));
+                        List<BooleanSupplier> owners = new CopyOnWriteArrayList<>();
+                        List<DoubleSupplier> priorities = new CopyOnWriteArrayList<>();
+                        // закачку отменяем, только когда все подключённые сессии закончились;
+                        // в очереди соединений она стоит по самому срочному из подключённых экранов
+                        SegmentedDownloader dl = new SegmentedDownloader(u, tmp, pr.contentLength,
+                                () -> owners.stream().allMatch(BooleanSupplier::getAsBoolean),
+                                () -> priorities.stream().mapToDouble(DoubleSupplier::getAsDouble).min()
+                                        .orElse(DownloadManager.BACKGROUND_PRIORITY),
+                                true, pr.etag, pr.lastModified);
+                        StreamingCache created = new StreamingCache(dl, dst, owners, priorities, fileLock);
+                        owners.add(gone);
+                        priorities.add(priorityOf(sink));
+
+                        final long totalMb = pr.contentLength / (1024L * 1024L);
+                        dl.start((done, total) -> {
+                            if (sink != null && !gone.getAsBoolean()) {
+                                sink.onDownloadProgress((int) (done * 100L / total), done / (1024L * 1024L), totalMb);
+                            }
+                            CacheFileLock.publish(dir, hash, done, total);
+                        });
+                        dl.completion().thenAccept(ok -> finishStreamingCache(hash, created, ok, sink, gone));
+                        STREAMING_CACHES.put(hash, created);
+                        dbg("cache: streaming download started keyHash=" + hash + " size=" + pr.contentLength);
+                        return new PartFileInputStream(dl, dst);
                     }
                 }
+            }
 
-                try {
-                    long sz = Files.size(dst);
-                    dbg("cache: final file size=" + sz);
-                    if (sz <= 0 || sz > DISK_CACHE_MAX_BYTES) {
-                        dbg("cache: invalid file size, deleting");
-                        try {
-                            Files.deleteIfExists(dst);
-                        } catch (Exception ignored) {
-                        }
-                        DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
-                        return null;
+            sc.owners().add(gone);
+            sc.priorities().add(priorityOf(sink));
+            dbg("cache: attached to streaming download keyHash=" + hash);
+            return new PartFileInputStream(sc.download(), sc.dst());
+        } catch (Exception e) {
+            dbg("cache: streaming cache failed " + e);
+            return null;
+        }
+    }
+
+    private static void finishStreamingCache(String hash, StreamingCache sc, boolean ok, FrameSink sink, BooleanSupplier ownerGone) {
+        Object lock = DISK_CACHE_LOCKS.computeIfAbsent(hash, k -> new Object());
+        synchronized (lock) {
+            try {
+                finishStreamingCacheLocked(hash, sc, ok, sink, ownerGone);
+            } finally {
+                sc.fileLock().close();
+            }
+        }
+    }
+
+    private static void finishStreamingCacheLocked(String hash, StreamingCache sc, boolean ok, FrameSink sink, BooleanSupplier ownerGone) {
+        STREAMING_CACHES.remove(hash, sc);
+        Path tmp = sc.download().file();
+        if (!ok) {
+            SegmentedDownloader.Failure f = sc.download().failure();
+            // сетевой обрыв/отмена: .part с sidecar остаётся, следующий старт докачает
+            if (f == SegmentedDownloader.Failure.NO_RANGE || f == SegmentedDownloader.Failure.CHANGED) {
+                SegmentedDownloader.deletePart(tmp);
+            }
+            if (f == SegmentedDownloader.Failure.NO_RANGE) {
+                DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
+            }
+            dbg("cache: streaming download failed (" + f + ") keyHash=" + hash);
+            return;
+        }
+
+        // читатели держат .part открытым — NIO-каналы это переживают
+        Path dst = commitCacheFile(getCacheDir(), tmp, sc.dst(), hash);
+        dbg("cache: streaming download committed keyHash=" + hash + " -> " + dst);
+        if (dst != null && sink != null && !ownerGone.getAsBoolean()) {
+            try {
+                sink.onCachedFileUsed(dst.toString(), Files.size(dst));
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    // Сколько раз подряд докачиваем .part после сетевой ошибки, прежде чем сдаться
+    private static final int SEGMENTED_RESUME_ROUNDS = 3;
+
+    /**
+     * Многопоточное скачивание в tmp с докачкой. NONE — файл целиком.
+     * NO_RANGE — tmp удалён, вызывающий может скачать одним соединением;
+     * CANCELLED/NETWORK — .part и sidecar оставлены для следующей попытки.
+     * Если файл на сервере сменился (CHANGED) — один раз качаем заново.
+     */
+    private static SegmentedDownloader.Failure downloadSegmented(String url, Path tmp, long totalBytes,
+                                                                 String etag, String lastModified,
+                                                                 FrameSink sink, long sessionId, VideoPlayer player) {
+        final long totalMb = totalBytes / (1024L * 1024L);
+        final String hash = DiskCacheIndex.hashOf(tmp);
+        BooleanSupplier gone = () -> player != null && player.sessionId != sessionId;
+        SegmentedDownloader.Failure f = SegmentedDownloader.Failure.NETWORK;
+        boolean refetched = false;
+
+        for (int round = 0; round < SEGMENTED_RESUME_ROUNDS; round++) {
+            try {
+                SegmentedDownloader dl = new SegmentedDownloader(url, tmp, totalBytes, gone, priorityOf(sink), false, etag, lastModified);
+                boolean ok = dl.download((done, total) -> {
+                    if (sink != null) {
+                        sink.onDownloadProgress((int) (done * 100L / total), done / (1024L * 1024L), totalMb);
                     }
-                } catch (Exception e) {
-                    dbg("cache: failed to check file size: " + e.getMessage());
+                    CacheFileLock.publish(tmp.getParent(), hash, done, total);
+                });
+                if (ok) return SegmentedDownloader.Failure.NONE;
+                f = dl.failure();
+            } catch (Exception e) {
+                dbg("cache: segmented download exception " + e);
+                f = SegmentedDownloader.Failure.NETWORK;
+            }
+
+            if (f == SegmentedDownloader.Failure.CANCELLED || gone.getAsBoolean()) return SegmentedDownloader.Failure.CANCELLED;
+            if (f == SegmentedDownloader.Failure.NO_RANGE) {
+                SegmentedDownloader.deletePart(tmp);
+                return f;
+            }
+            if (f == SegmentedDownloader.Failure.CHANGED) {
+                // валидаторы сменились — скачанное выбрасываем, полная перекачка (один раз)
+                SegmentedDownloader.deletePart(tmp);
+                if (refetched) return f;
+                refetched = true;
+                dbg("cache: file changed on server, refetching from scratch");
+                continue;
+            }
+
+            dbg("cache: segmented round " + (round + 1) + " failed (" + f + "), resuming");
+            try {
+                Thread.sleep(1000L * (round + 1));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return SegmentedDownloader.Failure.CANCELLED;
+            }
+        }
+        return f;
+    }
+
+    /** Переносит скачанный .part на место файла кэша и проверяет размер. null — не удалось. */
+    private static Path commitCacheFile(Path dir, Path tmp, Path dst, String hash) {
+        try {
+            Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dbg("cache: atomic move succeeded");
+        } catch (Exception e) {
+            dbg("cache: atomic move failed, trying regular move: " + e.getMessage());
+            try {
+                Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING);
+                dbg("cache: regular move succeeded");
+            } catch (Exception moveErr) {
+                dbg("cache: regular move also failed: " + moveErr.getMessage());
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (Exception ignored2) {
                 }
+                DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
+                return null;
+            }
+        }
 
-                enforceDiskCacheLimit(dir, DISK_CACHE_MAX_BYTES);
-                DISK_CACHE_LAST_FAIL_MS.remove(hash);
-                dbg("cache: success, returning " + dst);
-                return dst;
-            } catch (Exception e) {
-                dbg("cache: exception " + e);
+        try {
+            long sz = Files.size(dst);
+            dbg("cache: final file size=" + sz);
+            if (sz <= 0 || sz > DISK_CACHE_MAX_BYTES) {
+                dbg("cache: invalid file size, deleting");
+                try {
+                    Files.deleteIfExists(dst);
+                } catch (Exception ignored) {
+                }
                 DISK_CACHE_LAST_FAIL_MS.put(hash, System.currentTimeMillis());
                 return null;
             }
+            // remux, отложенный для прежнего содержимого, к новому файлу не относится
+            deletePendingRemux(dir, hash);
+            REMUX_CHECKED.remove(hash);
+            LoopClipCache.forget(hash);
+            cacheIndex(dir).put(hash, dst, sz, CACHE_SERVER);
+            CacheTranscoder.deleteVariants(dir, hash, null);
+            scheduleFaststartRemux(dir, hash, dst);
+        } catch (Exception e) {
+            dbg("cache: failed to check file size: " + e.getMessage());
         }
+
+        enforceDiskCacheLimit(dir);
+        DISK_CACHE_LAST_FAIL_MS.remove(hash);
+        dbg("cache: success, returning " + dst);
+        return dst;
     }
 
-    private static Path findExistingCacheFile(Path dir, String hash) {
+    // ==================== Faststart remux ====================
+
+    // файлы, которые в этой сессии уже проверены/поставлены на remux
+    private static final Set<String> REMUX_CHECKED = ConcurrentHashMap.newKeySet();
+
+    private static Path pendingRemuxOf(Path dir, String hash) {
+        return dir.resolve(hash + DiskCacheIndex.PENDING_REMUX_SUFFIX);
+    }
+
+    /** Рядом с отложенным remux: размер и хэш содержимого исходника, из которого он сделан */
+    private static Path pendingRemuxSourceOf(Path dir, String hash) {
+        return dir.resolve(hash + DiskCacheIndex.PENDING_REMUX_SUFFIX + SegmentedDownloader.SIDECAR_SUFFIX);
+    }
+
+    /** Отпечаток файла для сверки с отложенным remux: размер + хэш начала и конца */
+    private static String remuxSourceTag(Path file) {
+        try {
+            long size = Files.size(file);
+            byte[] h = DiskCacheIndex.sampleHash(file, size);
+            return h == null ? null : size + ":" + HexFormat.of().formatHex(h);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Выбросить отложенный remux (файл перекачан, удалён или вытеснен) */
+    private static void deletePendingRemux(Path dir, String hash) {
         try {
-            Path bin = dir.resolve(hash + ".bin");
-            if (Files.isRegularFile(bin)) return bin;
+            Files.deleteIfExists(pendingRemuxOf(dir, hash));
+            Files.deleteIfExists(pendingRemuxSourceOf(dir, hash));
+        } catch (Exception ignored) {
+        }
+        cacheIndex(dir).setPendingBytes(hash, 0L);
+    }
 
-            try (var s = Files.list(dir)) {
-                return s.filter(p -> {
-                            try {
-                                if (!Files.isRegularFile(p)) return false;
-                                String n = p.getFileName().toString();
-                                if (!n.startsWith(hash + ".")) return false;
-                                if (n.endsWith(".part")) return false;
-                                return true;
-                            } catch (Exception e) {
-                                return false;
-                            }
-                        })
-                        .findFirst()
-                        .orElse(null);
+    /** Запись кэша больше не действительна: убрать её из индекса вместе с отложенным remux и кадрами в памяти */
+    private static void dropCacheEntry(Path dir, String hash) {
+        deletePendingRemux(dir, hash);
+        LoopClipCache.forget(hash);
+        cacheIndex(dir).remove(hash);
+    }
+
+    /** Переписать файл кэша с moov в начале (в фоне, stream copy), если это включено в конфиге */
+    private static void scheduleFaststartRemux(Path dir, String hash, Path file) {
+        if (!CollinsClientConfig.get().cacheFaststartRemux) return;
+        if (!REMUX_CHECKED.add(hash)) return;
+        CacheRemuxer.schedule(file, () -> CollinsClientConfig.get().cacheFaststartRemux,
+                (tmp, src) -> commitRemux(dir, hash, tmp, src));
+    }
+
+    /**
+     * Подменяет файл кэша результатом remux. Если файл сейчас открыт (Windows не даёт его заменить) —
+     * откладываем: результат лежит рядом и подменится перед следующим открытием.
+     */
+    private static boolean commitRemux(Path dir, String hash, Path tmp, Path src) {
+        Object lock = DISK_CACHE_LOCKS.computeIfAbsent(hash, k -> new Object());
+        synchronized (lock) {
+            CacheFileLock fileLock = null;
+            try {
+                fileLock = CacheFileLock.tryAcquire(dir, hash);
+                if (fileLock == null) return false; // файл перекачивают
+                if (!src.equals(findExistingCacheFile(dir, hash))) return false;
+                try {
+                    Files.move(tmp, src, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (Exception busy) {
+                    String tag = remuxSourceTag(src);
+                    if (tag == null) return false;
+                    Path pending = pendingRemuxOf(dir, hash);
+                    Files.move(tmp, pending, StandardCopyOption.REPLACE_EXISTING);
+                    Files.writeString(pendingRemuxSourceOf(dir, hash), tag, StandardCharsets.UTF_8);
+                    cacheIndex(dir).setPendingBytes(hash, Files.size(pending));
+                    dbg("cache: remuxed file is busy, swap deferred keyHash=" + hash);
+                    return false;
+                }
+                cacheIndex(dir).replaceFile(hash, src, Files.size(src));
+                return true;
+            } catch (Exception e) {
+                dbg("cache: remux commit failed " + e);
+                return false;
+            } finally {
+                if (fileLock != null) fileLock.close();
             }
+        }
+    }
+
+    /** Отложенная подмена после remux — вызывается под замками кэша, до открытия файла */
+    private static void applyPendingRemux(Path dir, String hash, Path file) {
+        Path pending = pendingRemuxOf(dir, hash);
+        if (!Files.exists(pending)) return;
+        String recorded = null;
+        try {
+            recorded = Files.readString(pendingRemuxSourceOf(dir, hash), StandardCharsets.UTF_8).trim();
+        } catch (Exception ignored) {
+        }
+        if (recorded == null || !recorded.equals(remuxSourceTag(file))) {
+            // remux сделан из другого содержимого (файл с тех пор перекачан) — подменять нельзя
+            dbg("cache: deferred remux is stale, dropped keyHash=" + hash);
+            deletePendingRemux(dir, hash);
+            return;
+        }
+        try {
+            Files.move(pending, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(pendingRemuxSourceOf(dir, hash));
+            cacheIndex(dir).setPendingBytes(hash, 0L);
+            cacheIndex(dir).replaceFile(hash, file, Files.size(file));
+            dbg("cache: deferred remux applied keyHash=" + hash);
+        } catch (Exception e) {
+            dbg("cache: deferred remux still busy keyHash=" + hash + " " + e.getMessage());
+        }
+    }
+
+    // ==================== Копии под размер экрана ====================
+
+    /** Файл из папки кэша (не копия) -> его хэш, иначе null */
+    private static String cacheHashOf(String url, Path dir) {
+        if (url == null || url.startsWith("http://") || url.startsWith("https://") || isStreamingUrl(url)) return null;
+        try {
+            Path p = Path.of(url);
+            Path parent = p.toAbsolutePath().getParent();
+            if (parent == null || !parent.equals(dir.toAbsolutePath()) || CacheTranscoder.isVariant(p)) return null;
+            return DiskCacheIndex.hashOf(p);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Готовая копия файла кэша ровно под target, иначе null */
+    private static String scaledVariantFor(String url, VideoSizeUtil.Size target) {
+        if (!CollinsClientConfig.get().cacheScaledVariants) return null;
+        Path dir = getCacheDir();
+        String hash = cacheHashOf(url, dir);
+        if (hash == null) return null;
+        Path variant = CacheTranscoder.variantOf(dir, hash, target.w(), target.h());
+        return Files.isRegularFile(variant) ? toFFmpegPath(variant.toString()) : null;
+    }
+
+    /** Поставить в фон перекодирование файла кэша в target, если исходник заметно больше */
+    private static void scheduleScaledVariant(String url, int srcW, int srcH, VideoSizeUtil.Size target) {
+        if (!CollinsClientConfig.get().cacheScaledVariants) return;
+        if (!CacheTranscoder.worthIt(srcW, srcH, target.w(), target.h())) return;
+        Path dir = getCacheDir();
+        String hash = cacheHashOf(url, dir);
+        if (hash == null) return;
+        Path out = CacheTranscoder.variantOf(dir, hash, target.w(), target.h());
+        if (Files.exists(out)) return;
+        CacheTranscoder.schedule(Path.of(url), out, target.w(), target.h(),
+                () -> CollinsClientConfig.get().cacheScaledVariants,
+                (tmp, dst) -> commitScaledVariant(dir, hash, tmp, dst));
+    }
+
+    /** Кладёт готовую копию на место, если исходник всё ещё в кэше; прочие размеры этого хэша удаляет */
+    private static boolean commitScaledVariant(Path dir, String hash, Path tmp, Path out) {
+        Object lock = DISK_CACHE_LOCKS.computeIfAbsent(hash, k -> new Object());
+        synchronized (lock) {
+            try {
+                if (findExistingCacheFile(dir, hash) == null) return false; // исходник вытеснили
+                Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                CacheTranscoder.deleteVariants(dir, hash, out);
+                return true;
+            } catch (Exception e) {
+                dbg("cache: scaled variant commit failed " + e);
+                return false;
+            }
+        }
+    }
+
+    private static DoubleSupplier priorityOf(FrameSink sink) {
+        return sink != null ? sink::downloadPriority : () -> DownloadManager.BACKGROUND_PRIORITY;
+    }
+
+    private static Path findExistingCacheFile(Path dir, String hash) {
+        try {
+            DiskCacheIndex idx = cacheIndex(dir);
+            DiskCacheIndex.Entry e = idx.lookup(hash);
+            if (e != null) {
+                Path p = dir.resolve(e.fileName);
+                if (Files.isRegularFile(p)) return p;
+                // файл удалили снаружи (или другой клиент переписал его с другим расширением)
+                dropCacheEntry(dir, hash);
+            }
+            // файл мог закоммитить другой клиент, пока мы ждали его замок: подхватываем общий журнал
+            // (не менялся — только проверка размера, без листинга папки); содержимое проверит вызывающий
+            idx.refresh();
+            e = idx.lookup(hash);
+            if (e == null) return null;
+            Path p = dir.resolve(e.fileName);
+            return Files.isRegularFile(p) ? p : null;
         } catch (Exception ignored) {
             return null;
         }
     }
 
+    private static volatile DiskCacheIndex CACHE_INDEX;
+
+    // текущий сервер (для квот) и ключи видео его экранов (закреплены от вытеснения)
+    private static volatile String CACHE_SERVER;
+    private static volatile Set<String> PINNED_HASHES = Set.of();
+
+    /** Индекс кэша для папки dir (грузится при первом обращении) */
+    private static DiskCacheIndex cacheIndex(Path dir) {
+        DiskCacheIndex idx = CACHE_INDEX;
+        if (idx != null && idx.dir().equals(dir)) return idx;
+        synchronized (DiskCacheIndex.class) {
+            idx = CACHE_INDEX;
+            if (idx == null || !idx.dir().equals(dir)) {
+                if (idx != null) idx.close();
+                idx = DiskCacheIndex.load(dir);
+                idx.setPinned(PINNED_HASHES);
+                CACHE_INDEX = idx;
+            }
+            return idx;
+        }
+    }
+
+    /** Проверка файла кэша: результат берётся из индекса, MP4 разбирается только если он неизвестен */
+    private static boolean isValidCacheEntry(Path dir, String hash, Path file, long size) {
+        DiskCacheIndex idx = cacheIndex(dir);
+        Boolean known = idx.knownValidation(hash, file, size);
+        if (known != null) {
+            dbg("cache: validation from index keyHash=" + hash + " valid=" + known);
+            return known;
+        }
+        boolean ok = isValidMediaFile(file);
+        idx.setValidation(hash, file, size, ok);
+        return ok;
+    }
+
     private static String guessCacheExtension(String url, String contentType) {
         try {
             if (contentType != null) {
@@ -1966,54 +3264,78 @@ public final class VideoPlayer {
         }
     }
 
-    private static void enforceDiskCacheLimit(Path dir, long maxBytes) {
+    private static void enforceDiskCacheLimit(Path dir) {
         try {
-            if (!Files.isDirectory(dir)) return;
-
-            List<Path> files = new ArrayList<>();
-            long total = 0L;
-            try (var s = Files.list(dir)) {
-                s.forEach(p -> {
-                    try {
-                        if (Files.isRegularFile(p) && !p.getFileName().toString().endsWith(".part")) {
-                            files.add(p);
-                        }
-                    } catch (Exception ignored) {
-                    }
-                });
+            CollinsClientConfig cfg = CollinsClientConfig.get();
+            DiskCacheIndex idx = cacheIndex(dir);
+            idx.configure(cfg.cacheEvictionPolicy, cfg.cacheMaxMb * 1024L * 1024L);
+            // папку может делить другой клиент — решаем по общей картине, а не только по своей
+            idx.refresh();
+            sweepStaleParts(dir);
+
+            List<DiskCacheIndex.Entry> victims = idx.evictionCandidates(cfg.cacheMaxMb * 1024L * 1024L, null);
+
+            // квота текущего сервера: сверх неё вытесняем только его же файлы
+            String server = CACHE_SERVER;
+            long quota = cfg.serverQuotaMb(server) * 1024L * 1024L;
+            if (server != null && quota > 0 && idx.serverBytes(server) > quota) {
+                victims = new ArrayList<>(victims);
+                for (DiskCacheIndex.Entry e : idx.evictionCandidates(quota, server)) {
+                    if (!victims.contains(e)) victims.add(e);
+                }
             }
 
-            for (Path p : files) {
+            for (DiskCacheIndex.Entry e : victims) {
                 try {
-                    total += Files.size(p);
+                    Files.deleteIfExists(dir.resolve(e.fileName));
                 } catch (Exception ignored) {
                 }
+                deletePendingRemux(dir, e.hash);
+                CacheTranscoder.deleteVariants(dir, e.hash, null);
+                CacheFileLock.deleteIfIdle(dir, e.hash);
+                idx.remove(e.hash, true);
+                dbg("cache: evicted (" + cfg.cacheEvictionPolicy + ") " + e.fileName + " size=" + e.size + " hits=" + e.hits);
             }
+        } catch (Exception ignored) {
+        }
+    }
 
-            if (total <= maxBytes) return;
-
-            files.sort(Comparator.comparingLong(p -> {
-                try {
-                    return Files.getLastModifiedTime(p).toMillis();
-                } catch (Exception e) {
-                    return 0L;
-                }
-            }));
-
-            for (Path p : files) {
-                if (total <= maxBytes) break;
-                long sz = 0L;
+    // брошенные недокачки (.part + sidecar) лежат вне cacheMaxMb — держим их не дольше недели
+    private static final long STALE_PART_MAX_AGE_MS = 7L * 24L * 60L * 60L * 1000L;
+    private static final long STALE_PART_SWEEP_INTERVAL_MS = 60L * 60L * 1000L;
+    private static final AtomicLong LAST_PART_SWEEP_MS = new AtomicLong();
+
+    /** Удаляет недокачки, к которым давно не возвращались (одним листингом, не чаще раза в час) */
+    private static void sweepStaleParts(Path dir) {
+        long now = System.currentTimeMillis();
+        long last = LAST_PART_SWEEP_MS.get();
+        if (now - last < STALE_PART_SWEEP_INTERVAL_MS || !LAST_PART_SWEEP_MS.compareAndSet(last, now)) return;
+        try (var s = Files.newDirectoryStream(dir, "*.part*")) {
+            for (Path p : s) {
                 try {
-                    sz = Files.size(p);
-                } catch (Exception ignored) {
-                }
-                try {
-                    Files.deleteIfExists(p);
+                    String hash = DiskCacheIndex.hashOf(p);
+                    Path part = dir.resolve(hash + ".part");
+                    Path sidecar = SegmentedDownloader.sidecarOf(part);
+                    // временные файлы remux/уменьшения и отложенный remux сюда не относятся
+                    if (!p.equals(part) && !p.equals(sidecar)) continue;
+                    long touched = 0L;
+                    if (Files.exists(part)) touched = Files.getLastModifiedTime(part).toMillis();
+                    if (Files.exists(sidecar)) touched = Math.max(touched, Files.getLastModifiedTime(sidecar).toMillis());
+                    if (touched == 0L || now - touched < STALE_PART_MAX_AGE_MS) continue;
+                    CacheFileLock l = CacheFileLock.tryAcquire(dir, hash);
+                    if (l == null) continue; // кто-то докачивает прямо сейчас
+                    try {
+                        SegmentedDownloader.deletePart(part);
+                    } finally {
+                        l.close();
+                    }
+                    CacheFileLock.deleteIfIdle(dir, hash);
+                    dbg("cache: dropped stale part keyHash=" + hash);
                 } catch (Exception ignored) {
                 }
-                total -= sz;
             }
-        } catch (Exception ignored) {
+        } catch (Exception e) {
+            dbg("cache: stale part sweep failed " + e);
         }
     }
 
@@ -2041,6 +3363,52 @@ public final class VideoPlayer {
         public long freeSpaceGb() { return freeSpaceBytes / (1024L * 1024L * 1024L); }
     }
 
+    /** Статистика кэша: попадания за всё время и за сессию, закреплённые файлы, квота сервера */
+    public record CacheStats(String policy, long capacityBytes,
+                             long hits, long misses, long hitBytes, long missBytes,
+                             long sessionHits, long sessionMisses, long sessionHitBytes, long sessionMissBytes,
+                             int pinnedFiles, long pinnedBytes,
+                             String server, long serverBytes, long serverQuotaBytes) {
+        public double hitRate() { return ratio(hits, hits + misses); }
+        public double byteHitRate() { return ratio(hitBytes, hitBytes + missBytes); }
+        public double sessionHitRate() { return ratio(sessionHits, sessionHits + sessionMisses); }
+        public double sessionByteHitRate() { return ratio(sessionHitBytes, sessionHitBytes + sessionMissBytes); }
+
+        private static double ratio(long a, long b) {
+            return b > 0 ? (double) a / b : 0.0;
+        }
+    }
+
+    public static CacheStats getCacheStats() {
+        try {
+            CollinsClientConfig cfg = CollinsClientConfig.get();
+            DiskCacheIndex idx = cacheIndex(getCacheDir());
+            idx.configure(cfg.cacheEvictionPolicy, cfg.cacheMaxMb * 1024L * 1024L);
+            String server = CACHE_SERVER;
+            return idx.stats(server, cfg.serverQuotaMb(server) * 1024L * 1024L);
+        } catch (Exception e) {
+            return new CacheStats("lru", 0L, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0L, null, 0L, 0L);
+        }
+    }
+
+    /**
+     * Сервер, к которому подключены, и URL его экранов. Файлы этих URL не вытесняются,
+     * а новые файлы учитываются в квоте сервера. server == null — отключились.
+     */
+    public static void setCacheContext(String server, Collection<String> screenUrls) {
+        Set<String> hashes = new HashSet<>();
+        if (screenUrls != null) {
+            for (String u : screenUrls) {
+                if (u == null || u.isBlank()) continue;
+                hashes.add(sha256Hex(stripFragment(u).trim()));
+            }
+        }
+        CACHE_SERVER = server;
+        PINNED_HASHES = Set.copyOf(hashes);
+        DiskCacheIndex idx = CACHE_INDEX;
+        if (idx != null) idx.setPinned(PINNED_HASHES);
+    }
+
     /** Получить информацию о кэше */
     public static CacheInfo getCacheInfo() {
         try {
@@ -2051,19 +3419,10 @@ public final class VideoPlayer {
                 return new CacheInfo(dir, 0L, 0, freeSpace);
             }
 
-            long totalSize = 0L;
-            int count = 0;
-            try (var stream = Files.list(dir)) {
-                var files = stream.toList();
-                for (Path p : files) {
-                    if (Files.isRegularFile(p) && !p.getFileName().toString().endsWith(".part")) {
-                        try {
-                            totalSize += Files.size(p);
-                            count++;
-                        } catch (Exception ignored) {}
-                    }
-                }
-            }
+            // размер и число файлов — из индекса, без обхода папки
+            DiskCacheIndex idx = cacheIndex(dir);
+            long totalSize = idx.totalBytes();
+            int count = idx.size();
 
             long freeSpace = dir.toFile().getFreeSpace();
             return new CacheInfo(dir, totalSize, count, freeSpace);
@@ -2082,7 +3441,12 @@ public final class VideoPlayer {
             try (var stream = Files.list(dir)) {
                 var files = stream.toList();
                 for (Path p : files) {
-                    if (Files.isRegularFile(p)) {
+                    if (p.getFileName().toString().endsWith(CacheFileLock.SUFFIX)) {
+                        // замок идущей закачки (в т.ч. другого клиента) не трогаем
+                        CacheFileLock.deleteIfIdle(dir, DiskCacheIndex.hashOf(p));
+                        continue;
+                    }
+                    if (Files.isRegularFile(p) && !DiskCacheIndex.isIndexFile(p)) {
                         try {
                             long sz = Files.size(p);
                             Files.deleteIfExists(p);
@@ -2091,6 +3455,7 @@ public final class VideoPlayer {
                     }
                 }
             }
+            cacheIndex(dir).clear();
             return deleted;
         } catch (Exception e) {
             return 0L;
@@ -2103,12 +3468,28 @@ public final class VideoPlayer {
             Path p = Path.of(filePath);
             if (Files.exists(p)) {
                 Files.deleteIfExists(p);
+                forgetCacheFile(p);
                 return true;
             }
         } catch (Exception ignored) {}
         return false;
     }
 
+    /** Убирает удалённый файл из индекса, если он лежал в папке кэша */
+    private static void forgetCacheFile(Path file) {
+        try {
+            Path dir = getCacheDir();
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null && parent.equals(dir.toAbsolutePath())) {
+                String hash = DiskCacheIndex.hashOf(file);
+                dropCacheEntry(dir, hash);
+                CacheTranscoder.deleteVariants(dir, hash, null);
+            }
+            LoopClipCache.forget(file.toAbsolutePath().toString());
+        } catch (Exception ignored) {
+        }
+    }
+
     /** Открыть папку кэша в проводнике */
     public static void openCacheFolder() {
         try {
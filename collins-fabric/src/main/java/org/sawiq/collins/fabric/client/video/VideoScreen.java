@@ -12,6 +12,8 @@ import org.sawiq.collins.fabric.mixin.NativeImageAccessor;
 
 import java.nio.IntBuffer;
 import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -23,6 +25,23 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
 
     private static final long OUT_OF_RADIUS_GRACE_MS = 15_000L;
     private static final long RADIUS_AUDIO_HYSTERESIS_MS = 250L;
+    // Сколько держим открытую сессию на паузе, прежде чем полностью освободить декодер
+    private static final long PAUSED_WARM_MAX_MS = 10L * 60L * 1000L;
+
+    // Pre-roll: прогрев плеера при подходе к экрану
+    private static final double WALK_SPEED_BLOCKS_PER_S = 4.3;
+    private static final long PREROLL_MAX_LEAD_MS = 5_000L;
+    private static final long PREROLL_MAX_DRIFT_MS = 750L;
+    private static final long PREROLL_RETARGET_INTERVAL_MS = 1_000L;
+
+    // Оценка памяти декодера на тёплой приостановке: ~12 опорных/рабочих кадров YUV420 исходника
+    private static final int SUSPEND_DECODER_FRAMES = 12;
+
+    /**
+     * Приостановка после выхода из hear radius. WARM — декодер запаркован в открытой сессии,
+     * COLD — сессия закрыта, но последний кадр в текстуре, а resolved URL и метаданные в кэше плеера.
+     */
+    public enum Suspension { NONE, WARM, COLD }
 
     private ScreenState state;
 
@@ -32,6 +51,7 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
     private VideoPlayer player;
 
     private int texW, texH;
+    private int videoW, videoH;
 
     private long nativePtr = 0;
     private IntBuffer nativeDst = null;
@@ -51,11 +71,45 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
     private volatile boolean mutedByRadius = false;
     private volatile long outOfRadiusSinceMs = 0;
 
+    // Тёплая пауза: плеер жив, грабер открыт, на экране последний кадр
+    private volatile boolean pausedWarm = false;
+    private volatile long pausedAtMs = 0;
+    // resume/seek от сервера применяются в tickPlayback (там известна серверная позиция)
+    private volatile boolean pendingResume = false;
+    private volatile boolean pendingSeek = false;
+
+    // Pre-roll: плеер открыт и буферизуется без звука, кадры не показываются (кроме постера)
+    private volatile boolean prerolling = false;
+    private volatile long prerollPosMs = 0;
+    private volatile long prerollRetargetAtMs = 0;
+    private volatile boolean prerollPosterShown = false;
+
+    private volatile Suspension suspension = Suspension.NONE;
+    private volatile long suspendedAtMs = 0;
+
     private volatile boolean displayFrozen = false;
     private volatile long displayFrozenPosMs = 0;
     private volatile long displayStartPosMs = 0;
     private volatile long displayWallStartNs = 0;
 
+    // очерёдность закачки (расстояние, у видимых — меньше); обновляет VideoScreenManager.tick
+    private volatile double downloadPriority = 0.0;
+
+    // URL, у которого плеер не нашёл видеодорожки (радио без флага audioOnly от сервера)
+    private volatile String audioOnlyUrl = null;
+    private final AtomicBoolean pendingAudioOnly = new AtomicBoolean(false);
+
+    // Экран-картинка: готовые кадры ImageFrames, без плеера, потока и пула. Только client/render thread
+    private String imageKey = null;
+    private CompletableFuture<ImageFrames> imageLoad = null;
+    private ImageFrames image = null;
+    private int imageShownIndex = -1;
+    private long imageClockPosMs = 0;
+    private long imageClockNs = 0;
+    private boolean imageRunning = false;
+    // URL, который не декодировался как картинка — играет через VideoPlayer
+    private String imageFailedUrl = null;
+
     // ===== Очередь кадров для буферизации =====
     private record InitReq(int videoW, int videoH, int targetW, int targetH, double fps) {}
     private record FrameData(int[] abgr, int w, int h, long timestampUs) {}
@@ -69,13 +123,21 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
     // пул свободных буферов - буферы возвращаются после показа кадра
     private final ConcurrentLinkedQueue<int[]> freeBuffers = new ConcurrentLinkedQueue<>();
     private static final int BUFFER_POOL_SIZE = 60; // должен быть > MAX_BUFFER_FRAMES
+    // запас от провалов сети держит упреждающее чтение сжатых данных (HttpReadAheadInputStream, .part, кольцо live),
+    // декодированных кадров нужно немного — только на пейсинг
+    private static final int READ_AHEAD_POOL_SIZE = 16;
+    private volatile boolean readAheadSource = false;
     
     // буферизация: ждём пока накопится минимум кадров перед показом
     private int getMinBufferFrames() {
+        if (LiveLatency.applies(state.url())) return 2; // low-latency: каждый кадр в очереди — задержка
+        if (readAheadSource) return isLiveStream() ? 4 : 6; // 4 кадра для live (~130мс при 30fps)
         return isLiveStream() ? 5 : 15; // 5 кадров для live (~160мс при 30fps)
     }
 
     private int getMaxBufferFrames() {
+        if (LiveLatency.applies(state.url())) return 4;
+        if (readAheadSource) return isLiveStream() ? 8 : 12; // 12 кадров (~400мс при 30fps)
         return isLiveStream() ? 20 : 45; // 20 кадров для live (~660мс)
     }
     private volatile boolean buffering = true; // тру пока буферизуем
@@ -84,12 +146,21 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
     // Пейсинг на render thread
     private double videoFps = 30.0;
     private volatile long playbackStartNs = 0; // время начала воспроизведения (из декодера или локальное)
+    private volatile long shownTimestampUs = -1; // таймстамп кадра на экране (для замера задержки live)
     private long framesShown = 0;
     
     // Диагностика
     private long lastUploadLogNs = 0;
     private static final long UPLOAD_LOG_INTERVAL_NS = 2_000_000_000L;
 
+    // Time-to-first-frame: от запроса старта (cold start / resume / seek) до первого кадра в текстуре
+    private volatile long ttffStartNs = 0;
+    private volatile boolean ttffColdStart = false;
+    private volatile long lastTtffMs = -1;
+    private volatile long lastColdTtffMs = -1;
+    private long ttffTotalMs = 0;
+    private int ttffSamples = 0;
+
     // Диагностика tick() - ищем источник фризов
     private long lastTickNs = 0;
     private long maxTickGapUs = 0;
@@ -123,28 +194,57 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
 
     public ScreenState state() { return state; }
 
+    /** Экран-радио: сервер так объявил или у текущего URL нет видео */
+    public boolean isAudioOnly() {
+        ScreenState st = state;
+        return st != null && (st.audioOnly() || Objects.equals(audioOnlyUrl, st.url()));
+    }
+
+    /** Вместо кадров рисуем табличку радио (пока сессия идёт или на паузе) */
+    public boolean showsAudioPlacard() {
+        return started && isAudioOnly();
+    }
+
     public void updateState(ScreenState newState) {
         ScreenState old = this.state;
         this.state = newState;
 
         if (old == null || newState == null) return;
 
+        // на холодной приостановке в текстуре кадр старого видео — при смене URL он не нужен
+        if (suspension != Suspension.NONE && !Objects.equals(old.url(), newState.url())) {
+            stop();
+            return;
+        }
+
         if (!started) return;
 
         String ou = old.url();
         String nu = newState.url();
 
-        if (!old.playing() && newState.playing()) {
+        if (ou != null && nu != null && !ou.equals(nu) && newState.playing()) {
             resetForNewVideo();
             return;
         }
 
-        if (ou != null && nu != null && !ou.equals(nu) && newState.playing()) {
+        // сервер переключил режим радио — сессию открываем заново (с видео или без)
+        if (old.audioOnly() != newState.audioOnly()) {
             resetForNewVideo();
             return;
         }
 
-        if (!started) return;
+        if (!old.playing() && newState.playing()) {
+            // resume: если сессия на тёплой паузе — продолжаем её, иначе холодный старт
+            if (pausedWarm && player != null && player.isSessionSeekable()) {
+                pendingResume = true;
+                return;
+            }
+            resetForNewVideo();
+            return;
+        }
+
+        // pause обрабатывается в tickPlayback/pause(), позицию тут не трогаем
+        if (!newState.playing()) return;
 
         long db = Math.abs(newState.basePosMs() - old.basePosMs());
         long ds = Math.abs(newState.startEpochMs() - old.startEpochMs());
@@ -153,6 +253,11 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
             ended = false;
             endedUrl = "";
             endedAtMs = 0;
+            if (player != null && player.isSessionSeekable()) {
+                // seek внутри открытой сессии
+                pendingSeek = true;
+                return;
+            }
             if (player != null) {
                 player.stop();
             }
@@ -161,6 +266,59 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         }
     }
 
+    /**
+     * Пауза от сервера. Для файлов держим сессию тёплой (последний кадр на экране),
+     * live и неготовые сессии останавливаем полностью.
+     */
+    public void pause() {
+        if (pausedWarm) return;
+        if (!started || player == null || !player.isSessionSeekable() || ended) {
+            stop();
+            return;
+        }
+        player.pause();
+        pausedWarm = true;
+        pausedAtMs = System.currentTimeMillis();
+        pendingResume = false;
+        pendingSeek = false;
+        displayFrozen = true;
+        displayFrozenPosMs = currentPosMsForDisplay(0L);
+        displayWallStartNs = 0;
+    }
+
+    /** Применяет отложенный resume/seek к тёплой сессии. false — сессия умерла, нужен холодный старт. */
+    private boolean applyPendingSessionControl(long posMs) {
+        if (!pendingResume && !pendingSeek) return true;
+        boolean resume = pendingResume;
+        pendingResume = false;
+        pendingSeek = false;
+
+        if (player == null || !player.isSessionSeekable()) {
+            if (player != null) player.stop();
+            pausedWarm = false;
+            started = false;
+            startedUrl = "";
+            return false;
+        }
+
+        ttffStartNs = System.nanoTime();
+        ttffColdStart = false;
+
+        if (resume) {
+            player.resume(posMs);
+            pausedWarm = false;
+            pausedAtMs = 0;
+        } else {
+            player.seek(posMs);
+        }
+
+        displayFrozen = true;
+        displayFrozenPosMs = posMs;
+        displayStartPosMs = posMs;
+        displayWallStartNs = 0;
+        return true;
+    }
+
     private void resetForNewVideo() {
         ended = false;
         endedUrl = "";
@@ -177,7 +335,7 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
 
     public Identifier textureId() { return texId; }
 
-    public void tickPlayback(Vec3d playerPos, int radiusBlocks, float globalVolume, long serverNowMs) {
+    public void tickPlayback(Vec3d playerPos, Vec3d playerVelocity, int radiusBlocks, float globalVolume, long serverNowMs) {
         long tickStart = System.nanoTime();
         
         // диагностика: время между tick() и время внутри tick()
@@ -189,6 +347,7 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         // 1) применяем всё, что пришло из декодера (ТОЛЬКО тут)
         applyPendingStop();
         applyPendingInit();
+        applyPendingAudioOnly();
 
         CollinsClientConfig cfg = CollinsClientConfig.get();
 
@@ -199,7 +358,24 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         }
 
         // 2) управление воспроизведением
-        if (state.url() == null || state.url().isEmpty() || !state.playing()) {
+        if (state.url() == null || state.url().isEmpty()) {
+            stop();
+            return;
+        }
+
+        if (isImageSession()) {
+            tickImage(playerPos, radiusBlocks, serverNowMs);
+            return;
+        }
+        if (imageKey != null) releaseImage();
+
+        if (!state.playing()) {
+            if (started && startedUrl.equals(state.url())) {
+                pause();
+                if (pausedWarm && (System.currentTimeMillis() - pausedAtMs) <= PAUSED_WARM_MAX_MS) {
+                    return;
+                }
+            }
             stop();
             return;
         }
@@ -217,9 +393,26 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
                 mutedByRadius = false;
                 lastGain = -1f;
             }
+
+            if (prerolling) {
+                goLiveAfterPreroll(currentVideoPosMs(serverNowMs));
+            }
+
+            if (suspension != Suspension.NONE) {
+                resumeFromSuspension(currentVideoPosMs(serverNowMs));
+            }
         } else {
             pausedByRadius = true;
 
+            // pre-roll: игрок подходит к экрану — открываем и буферизуем заранее
+            long etaMs = prerollEtaMs(playerPos, playerVelocity, radiusBlocks, cfg.prerollMarginBlocks);
+            // радио открывается быстро и без кадров — прогревать нечего
+            if (etaMs >= 0 && (!started || prerolling) && !isLiveStream() && !isAudioOnly()) {
+                long leadMs = Math.min(etaMs, PREROLL_MAX_LEAD_MS);
+                tickPreroll(clampToDuration(currentVideoPosMs(serverNowMs) + leadMs), nowMs);
+                return;
+            }
+
             if (outOfRadiusSinceMs == 0) outOfRadiusSinceMs = nowMs;
 
             if (player != null) {
@@ -229,12 +422,17 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
                 }
             }
 
-            if (started && (nowMs - lastInRadiusAtMs) <= OUT_OF_RADIUS_GRACE_MS) {
+            if (started && suspension == Suspension.NONE && (nowMs - lastInRadiusAtMs) <= OUT_OF_RADIUS_GRACE_MS) {
                 displayFrozen = true;
                 displayFrozenPosMs = clampToDuration(currentVideoPosMs(serverNowMs));
                 return;
             }
 
+            // после grace не разбираем плеер целиком, а приостанавливаем (лимит памяти — в VideoScreenManager)
+            if (suspension != Suspension.NONE || suspend(nowMs, cfg.suspendBudgetMb)) {
+                return;
+            }
+
             stop();
             return;
         }
@@ -260,7 +458,17 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
             return;
         }
 
+        if (started && startedUrl.equals(state.url()) && !applyPendingSessionControl(posMs)) {
+            // сессия не пережила pause/seek — ниже будет холодный старт
+            started = false;
+        }
+
         if (!started || !startedUrl.equals(state.url())) {
+            prerolling = false;
+            player.setPreroll(false);
+            pausedWarm = false;
+            pendingResume = false;
+            pendingSeek = false;
             started = true;
             startedUrl = state.url();
             ended = false;
@@ -271,6 +479,10 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
             displayFrozenPosMs = posMs;
             displayStartPosMs = posMs;
             displayWallStartNs = 0;
+            ttffStartNs = System.nanoTime();
+            ttffColdStart = true;
+            if (state.audioOnly()) releaseVideoResources();
+            player.setAudioOnly(state.audioOnly());
             player.start(state.url(), state.blocksW(), state.blocksH(), state.loop(), posMs, gain);
             return;
         }
@@ -294,10 +506,210 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         }
     }
 
+    /**
+     * Оценка времени до входа в hear radius (мс) или -1, если игрок вне pre-roll зоны.
+     * Зона = радиус + запас, запас растёт при движении к экрану и сжимается при удалении.
+     */
+    private long prerollEtaMs(Vec3d playerPos, Vec3d playerVelocity, int radiusBlocks, int marginBlocks) {
+        if (playerPos == null || radiusBlocks <= 0 || marginBlocks <= 0) return -1;
+
+        double cx = (state.minX() + state.maxX() + 1) * 0.5;
+        double cy = (state.minY() + state.maxY() + 1) * 0.5;
+        double cz = (state.minZ() + state.maxZ() + 1) * 0.5;
+
+        double dx = playerPos.x - cx;
+        double dy = playerPos.y - cy;
+        double dz = playerPos.z - cz;
+        double dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double outside = dist - radiusBlocks;
+        if (outside <= 0) return 0;
+
+        // скорость приближения к центру экрана, блоков/сек (velocity — блоков за тик)
+        double approach = 0;
+        if (playerVelocity != null && dist > 1e-3) {
+            double radial = (playerVelocity.x * dx + playerVelocity.y * dy + playerVelocity.z * dz) / dist;
+            approach = Math.max(0, -radial) * 20.0;
+        }
+
+        double weight = approach > 0.5 ? Math.min(2.0, 1.0 + approach / WALK_SPEED_BLOCKS_PER_S) : 0.5;
+        if (outside > marginBlocks * weight) return -1;
+
+        double speed = Math.max(approach, WALK_SPEED_BLOCKS_PER_S);
+        return (long) (outside / speed * 1000.0);
+    }
+
+    private void tickPreroll(long targetPosMs, long nowMs) {
+        if (player == null) player = new VideoPlayer(this);
+        if (ended && endedUrl.equals(state.url())) return;
+
+        if (!started || !startedUrl.equals(state.url())) {
+            started = true;
+            startedUrl = state.url();
+            ended = false;
+            endedUrl = "";
+            endedAtMs = 0;
+            suspension = Suspension.NONE;
+            suspendedAtMs = 0;
+            prerolling = true;
+            prerollPosMs = targetPosMs;
+            prerollRetargetAtMs = nowMs + PREROLL_RETARGET_INTERVAL_MS;
+            prerollPosterShown = false;
+            lastGain = 0f;
+            mutedByRadius = false;
+            displayFrozen = true;
+            displayFrozenPosMs = targetPosMs;
+            displayStartPosMs = targetPosMs;
+            displayWallStartNs = 0;
+            ttffStartNs = 0;
+            player.setPreroll(true);
+            player.setAudioOnly(false);
+            player.start(state.url(), state.blocksW(), state.blocksH(), state.loop(), targetPosMs, 0f);
+            return;
+        }
+
+        // прогноз сместился (игрок остановился/ускорился) — перенацеливаем буфер в тёплой сессии
+        if (nowMs >= prerollRetargetAtMs && Math.abs(targetPosMs - prerollPosMs) > PREROLL_MAX_DRIFT_MS
+                && player.isSessionSeekable()) {
+            prerollRetargetAtMs = nowMs + PREROLL_RETARGET_INTERVAL_MS;
+            prerollPosMs = targetPosMs;
+            displayFrozenPosMs = targetPosMs;
+            displayStartPosMs = targetPosMs;
+            player.seek(targetPosMs);
+        }
+    }
+
+    private void goLiveAfterPreroll(long posMs) {
+        prerolling = false;
+        ttffStartNs = System.nanoTime();
+        ttffColdStart = true;
+        if (player == null) return;
+        player.setPreroll(false);
+
+        // буфер начинается с prerollPosMs; если прогноз промахнулся — дешёвый seek в открытой сессии
+        if (Math.abs(posMs - prerollPosMs) > PREROLL_MAX_DRIFT_MS && player.isSessionSeekable()) {
+            player.seek(posMs);
+            displayFrozenPosMs = posMs;
+            displayStartPosMs = posMs;
+        }
+    }
+
+    /**
+     * Приостановка вне радиуса: декодер паркуется в открытой сессии, пул кадров освобождается,
+     * последний кадр остаётся в текстуре. false — приостановить нельзя (live, конец, выключено).
+     */
+    private boolean suspend(long nowMs, int budgetMb) {
+        if (budgetMb <= 0 || !started || ended || prerolling || pausedWarm || isLiveStream()) return false;
+        if (player == null || !player.isSessionSeekable()) return false;
+
+        player.pause();
+        suspension = Suspension.WARM;
+        suspendedAtMs = nowMs;
+        releaseFrameBuffers();
+        if (DEBUG) System.out.println("[Collins] suspend " + state.name() + " (warm)");
+        return true;
+    }
+
+    private void resumeFromSuspension(long posMs) {
+        Suspension s = suspension;
+        suspension = Suspension.NONE;
+        suspendedAtMs = 0;
+        if (DEBUG) System.out.println("[Collins] resume " + state.name() + " from " + s);
+
+        // COLD: started == false — ниже обычный старт, но без resolve/probe (META_CACHE плеера)
+        if (s != Suspension.WARM || !started) return;
+
+        if (player == null || !player.isSessionSeekable()) {
+            if (player != null) player.stop();
+            started = false;
+            startedUrl = "";
+            return;
+        }
+
+        allocateFrameBuffers();
+        ttffStartNs = System.nanoTime();
+        ttffColdStart = false;
+        player.resume(posMs);
+        displayFrozen = true;
+        displayFrozenPosMs = posMs;
+        displayStartPosMs = posMs;
+        displayWallStartNs = 0;
+    }
+
+    /** Понижает приостановку: WARM → COLD (закрываем декодер), COLD → полная остановка */
+    void demoteSuspension() {
+        if (suspension == Suspension.WARM) {
+            if (player != null) player.stop();
+            started = false;
+            startedUrl = "";
+            lastGain = -1f;
+            suspension = Suspension.COLD;
+            if (DEBUG) System.out.println("[Collins] suspend " + state.name() + " warm -> cold");
+        } else if (suspension == Suspension.COLD) {
+            stop();
+        }
+    }
+
+    public Suspension suspension() { return suspension; }
+
+    long suspendedAtMs() { return suspendedAtMs; }
+
+    /** Примерный объём памяти, который удерживает приостановленный экран (байты) */
+    long suspendCostBytes() {
+        if (suspension == Suspension.NONE) return 0;
+        long cost = (long) texW * texH * 4L;
+        if (suspension == Suspension.WARM) {
+            cost += (long) videoW * videoH * 3L / 2L * SUSPEND_DECODER_FRAMES;
+        }
+        return cost;
+    }
+
+    private void releaseFrameBuffers() {
+        frameQueue.clear();
+        frameQueueSize.set(0);
+        freeBuffers.clear();
+        buffering = true;
+        playbackStartNs = 0;
+        shownTimestampUs = -1;
+        framesShown = 0;
+    }
+
+    private void allocateFrameBuffers() {
+        freeBuffers.clear();
+        int pixels = texW * texH;
+        if (pixels <= 0) return;
+        int poolSize = readAheadSource
+                ? (isLiveStream() ? 12 : READ_AHEAD_POOL_SIZE) // 12 для live, 16 для файлов
+                : (isLiveStream() ? 30 : BUFFER_POOL_SIZE); // 30 для live, 60 для файлов
+        for (int i = 0; i < poolSize; i++) {
+            freeBuffers.offer(new int[pixels]);
+        }
+    }
+
+    /** Пока идёт pre-roll — показываем первый буферизованный кадр, не забирая его из очереди */
+    private void uploadPrerollPoster() {
+        if (prerollPosterShown || texture == null) return;
+        FrameData head = frameQueue.peek();
+        if (head == null || head.w() != texW || head.h() != texH) return;
+        IntBuffer dst = nativeDst;
+        if (dst == null) return;
+        dst.position(0);
+        dst.put(head.abgr(), 0, texW * texH);
+        texture.upload();
+        prerollPosterShown = true;
+    }
+
     public void renderPlayback() {
+        if (image != null) {
+            renderImage();
+            return;
+        }
         if (!started) return;
         if (!CollinsClientConfig.get().renderVideo) return;
-        if (pausedByRadius) return;
+        if (pausedByRadius) {
+            if (prerolling) uploadPrerollPoster();
+            return;
+        }
+        if (pausedWarm) return;
         uploadPendingFrameFast();
     }
 
@@ -325,11 +737,16 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         started = false;
         startedUrl = "";
         lastGain = -1f;
+        pausedWarm = false;
+        pendingResume = false;
+        pendingSeek = false;
+        prerolling = false;
 
         frameQueue.clear();
         frameQueueSize.set(0);
         buffering = true;
         playbackStartNs = 0;
+        shownTimestampUs = -1;
         framesShown = 0;
         lastUploadLogNs = 0;
 
@@ -350,25 +767,88 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         outOfRadiusSinceMs = 0;
     }
 
+    /** Сессия оказалась радио: текстура и пул кадров этому экрану не нужны */
+    private void applyPendingAudioOnly() {
+        if (!pendingAudioOnly.getAndSet(false)) return;
+        releaseVideoResources();
+        if (DEBUG) System.out.println("[Collins] audio-only " + state.name());
+    }
+
+    private void releaseVideoResources() {
+        frameQueue.clear();
+        frameQueueSize.set(0);
+        freeBuffers.clear();
+        if (texture != null) {
+            try {
+                texture.close();
+            } catch (Exception ignored) {}
+            texture = null;
+        }
+        nativePtr = 0;
+        nativeDst = null;
+        texW = 0;
+        texH = 0;
+    }
+
     private void applyPendingInit() {
         InitReq req = pendingInit.getAndSet(null);
         if (req == null) return;
 
-        this.texW = req.targetW();
-        this.texH = req.targetH();
+        boolean reuseTexture = ensureTexture(req.targetW(), req.targetH());
+        this.videoW = req.videoW();
+        this.videoH = req.videoH();
         this.videoFps = req.fps();
 
+        // быстро заливаем цветом (без двойных циклов)
+        NativeImage img = texture.getImage();
+        if (img != null && !reuseTexture) {
+            img.fillRect(0, 0, texW, texH, 0xFFFF00FF);
+            texture.upload();
+        }
+
+        // очередь кадров и сбрасываем пейсинг
+        frameQueue.clear();
+        frameQueueSize.set(0);
+        buffering = true;
+        playbackStartNs = 0;
+        shownTimestampUs = -1;
+        framesShown = 0;
+        lastUploadLogNs = 0;
+        
+        // пул буферов
+        allocateFrameBuffers();
+
+        if (DEBUG) {
+            String type = isLiveStream() ? "LIVE STREAM" : "FILE";
+            System.out.println("[Collins] initVideo " + texW + "x" + texH +
+                    " fps=" + videoFps + " pool=" + freeBuffers.size() +
+                    " type=" + type + " buffering...");
+        }
+    }
+
+    /**
+     * Текстура w x h и прямой указатель на её пиксели. true — переиспользована текстура того же
+     * размера: после приостановки на ней остаётся последний кадр.
+     */
+    private boolean ensureTexture(int w, int h) {
+        boolean reuseTexture = texture != null && texture.getImage() != null && texW == w && texH == h;
+
+        this.texW = w;
+        this.texH = h;
+
         if (texId == null) {
             texId = Identifier.of("collins", "screen/" + state.name().toLowerCase());
         }
 
-        if (texture != null) {
+        if (texture != null && !reuseTexture) {
             texture.close();
             texture = null;
         }
 
-        texture = new NativeImageBackedTexture("collins:" + texId, texW, texH, true);
-        MinecraftClient.getInstance().getTextureManager().registerTexture(texId, texture);
+        if (!reuseTexture) {
+            texture = new NativeImageBackedTexture("collins:" + texId, texW, texH, true);
+            MinecraftClient.getInstance().getTextureManager().registerTexture(texId, texture);
+        }
 
         NativeImage imgForPtr = texture.getImage();
         if (imgForPtr != null) {
@@ -378,37 +858,108 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
             nativePtr = 0;
             nativeDst = null;
         }
+        return reuseTexture;
+    }
 
-        // быстро заливаем цветом (без двойных циклов)
-        NativeImage img = texture.getImage();
-        if (img != null) {
-            img.fillRect(0, 0, texW, texH, 0xFFFF00FF);
+    // ===== Экран-картинка =====
+
+    private boolean isImageSession() {
+        String url = state.url();
+        return !state.audioOnly() && ImageFrames.isImageUrl(url) && !url.equals(imageFailedUrl);
+    }
+
+    /**
+     * Картинка: загрузка один раз (кадры общие через LoopClipCache), дальше только часы анимации.
+     * Позиция анимации идёт от серверного таймлайна — у всех игроков один и тот же кадр.
+     */
+    private void tickImage(Vec3d playerPos, int radiusBlocks, long serverNowMs) {
+        // видеосессия прошлого URL (на паузе или приостановленная) больше не нужна
+        if (started || suspension != Suspension.NONE) stop();
+
+        boolean inRadius = isInHearRadius(playerPos, radiusBlocks);
+        long nowMs = System.currentTimeMillis();
+        if (inRadius) {
+            lastInRadiusAtMs = nowMs;
+        } else if (nowMs - lastInRadiusAtMs > OUT_OF_RADIUS_GRACE_MS) {
+            // текстуру отдаём, кадры остаются в кэше — при возврате показ без сети и декода
+            if (imageKey != null) {
+                releaseImage();
+                releaseVideoResources();
+            }
+            return;
         }
 
-        texture.upload();
+        String key = ImageFrames.key(state.url(), state.blocksW(), state.blocksH());
+        if (!key.equals(imageKey)) {
+            releaseImage();
+            imageKey = key;
+            imageLoad = ImageFrames.load(state.url(), state.blocksW(), state.blocksH(), () -> downloadPriority);
+            durationMs = 0;
+            ttffStartNs = System.nanoTime();
+            ttffColdStart = true;
+        }
 
-        // очередь кадров и сбрасываем пейсинг
+        CompletableFuture<ImageFrames> load = imageLoad;
+        if (load != null) {
+            if (!load.isDone()) return;
+            imageLoad = null;
+            ImageFrames f = load.getNow(null);
+            if (f == null) {
+                // не декодировалось — со следующего тика играет VideoPlayer
+                imageFailedUrl = state.url();
+                releaseImage();
+                if (DEBUG) System.out.println("[Collins] image failed, fallback to player " + state.name());
+                return;
+            }
+            showImage(f);
+        }
+
+        imageRunning = state.playing() && inRadius;
+        imageClockPosMs = state.playing() ? currentVideoPosMs(serverNowMs) : Math.max(0L, state.basePosMs());
+        imageClockNs = System.nanoTime();
+    }
+
+    private void showImage(ImageFrames f) {
         frameQueue.clear();
         frameQueueSize.set(0);
-        buffering = true;
-        playbackStartNs = 0;
-        framesShown = 0;
-        lastUploadLogNs = 0;
-        
-        // пул буферов
         freeBuffers.clear();
-        int pixels = texW * texH;
-        int poolSize = isLiveStream() ? 30 : BUFFER_POOL_SIZE; // 30 для live, 60 для файлов
-        for (int i = 0; i < poolSize; i++) {
-            freeBuffers.offer(new int[pixels]);
-        }
+        ensureTexture(f.w, f.h);
+        image = f;
+        imageShownIndex = -1;
+        uploadImageFrame(0);
+        if (DEBUG) System.out.println("[Collins] image " + state.name() + " " + f.w + "x" + f.h + " frames=" + f.frameCount());
+    }
 
-        if (DEBUG) {
-            String type = isLiveStream() ? "LIVE STREAM" : "FILE";
-            System.out.println("[Collins] initVideo " + texW + "x" + texH +
-                    " fps=" + videoFps + " pool=" + poolSize +
-                    " type=" + type + " buffering...");
+    /** Render thread: статичная картинка уже в текстуре, анимация — копия кадра при смене */
+    private void renderImage() {
+        ImageFrames img = image;
+        if (!img.animated()) {
+            if (imageShownIndex != 0) uploadImageFrame(0);
+            return;
         }
+        long posMs = imageClockPosMs;
+        if (imageRunning) posMs += (System.nanoTime() - imageClockNs) / 1_000_000L;
+        int idx = img.indexAt(posMs);
+        if (idx != imageShownIndex) uploadImageFrame(idx);
+    }
+
+    private void uploadImageFrame(int index) {
+        ImageFrames img = image;
+        IntBuffer dst = nativeDst;
+        if (img == null || dst == null || texture == null || texW != img.w || texH != img.h) return;
+        dst.position(0);
+        dst.put(img.frame(index), 0, img.w * img.h);
+        texture.upload();
+        imageShownIndex = index;
+        if (ttffStartNs > 0) recordTtff((System.nanoTime() - ttffStartNs) / 1_000_000L);
+    }
+
+    private void releaseImage() {
+        imageKey = null;
+        imageLoad = null;
+        image = null;
+        imageShownIndex = -1;
+        imageRunning = false;
     }
 
     /**
@@ -471,6 +1022,7 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         if (chosen == null) return;
         frame = chosen;
         framesShown++;
+        shownTimestampUs = frame.timestampUs();
 
         int w = frame.w();
         int h = frame.h();
@@ -496,6 +1048,10 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         long uploadStart = System.nanoTime();
         texture.upload();
         long end = System.nanoTime();
+
+        if (ttffStartNs > 0) {
+            recordTtff((end - ttffStartNs) / 1_000_000L);
+        }
         
         // ВАЖНО: возвращаем буфер в пул после использования
         freeBuffers.offer(abgr);
@@ -507,6 +1063,21 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         }
     }
 
+    private void recordTtff(long ttffMs) {
+        ttffStartNs = 0;
+        lastTtffMs = ttffMs;
+        if (ttffColdStart) {
+            lastColdTtffMs = ttffMs;
+            ttffTotalMs += ttffMs;
+            ttffSamples++;
+        }
+        if (DEBUG) {
+            VideoPlayer.StartupTiming t = lastStartupTiming();
+            System.out.println("[Collins] TTFF " + state.name() + ": " + ttffMs + "ms cold=" + ttffColdStart
+                    + (t != null ? " resolve=" + t.resolveMs() + "ms open=" + t.openMs() + "ms firstFrame=" + t.firstFrameMs() + "ms http=" + t.httpRequests() + " tls=" + t.tlsHandshakes() : ""));
+        }
+    }
+
     private long currentVideoPosMs(long serverNowMs) {
         long base = Math.max(0L, state.basePosMs());
         if (serverNowMs <= 0 || state.startEpochMs() <= 0) return base;
@@ -545,11 +1116,22 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         startedUrl = "";
         lastGain = -1f;
 
+        pausedWarm = false;
+        pausedAtMs = 0;
+        pendingResume = false;
+        pendingSeek = false;
+        ttffStartNs = 0;
+        prerolling = false;
+        suspension = Suspension.NONE;
+        suspendedAtMs = 0;
+
         frameQueue.clear();
         frameQueueSize.set(0);
         buffering = true;
 
         playbackStartNs = 0;
+
+        shownTimestampUs = -1;
         framesShown = 0;
         lastUploadLogNs = 0;
 
@@ -561,6 +1143,8 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         mutedByRadius = false;
         outOfRadiusSinceMs = 0;
 
+        releaseImage();
+
         // Очищаем текстуру
         if (texture != null && texture.getImage() != null) {
             try {
@@ -572,19 +1156,8 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
 
     public void destroy() {
         stop();
-
-        if (texture != null) {
-            try {
-                texture.close();
-            } catch (Exception ignored) {}
-            texture = null;
-        }
-
+        releaseVideoResources();
         texId = null;
-        nativePtr = 0;
-        nativeDst = null;
-
-        freeBuffers.clear();
     }
 
     // ===== FrameSink: эти методы могут вызываться ИЗ ДЕКОДЕР-ПОТОКА =====
@@ -594,6 +1167,17 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         pendingInit.set(new InitReq(videoW, videoH, targetW, targetH, fps));
     }
 
+    @Override
+    public void onReadAheadSource(boolean readAhead) {
+        readAheadSource = readAhead;
+    }
+
+    @Override
+    public void onAudioOnly() {
+        audioOnlyUrl = startedUrl;
+        pendingAudioOnly.set(true);
+    }
+
     @Override
     public void onDuration(long durationMs) {
         long d = Math.max(0L, durationMs);
@@ -650,6 +1234,32 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         pendingStop.set(true);
     }
 
+    @Override
+    public void onFlush() {
+        // вызывается из декодер-потока: очереди конкурентные, просто возвращаем буферы в пул
+        FrameData f;
+        while ((f = frameQueue.poll()) != null) {
+            frameQueueSize.decrementAndGet();
+            freeBuffers.offer(f.abgr());
+        }
+        buffering = true;
+        playbackStartNs = 0;
+        shownTimestampUs = -1;
+        framesShown = 0;
+        prerollPosterShown = false;
+    }
+
+    @Override
+    public void onPlaybackClockShift(long deltaNs) {
+        long start = playbackStartNs;
+        if (start != 0) playbackStartNs = start - deltaNs;
+    }
+
+    @Override
+    public long shownTimestampUs() {
+        return shownTimestampUs;
+    }
+
     private long clampToDuration(long posMs) {
         long d = durationMs;
         if (d > 0 && !state.loop()) {
@@ -674,6 +1284,15 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
         }
     }
 
+    public void setDownloadPriority(double priority) {
+        this.downloadPriority = priority;
+    }
+
+    @Override
+    public double downloadPriority() {
+        return downloadPriority;
+    }
+
     @Override
     public boolean canAcceptFrame() {
         return frameQueueSize.get() < getMaxBufferFrames();
@@ -768,6 +1387,14 @@ public final class VideoScreen implements VideoPlayer.FrameSink {
     // Возвращает true если видео закончилось (без ограничения по времени)
     public boolean hasEnded() { return ended; }
 
+    // Time-to-first-frame (для /collinsc ttff)
+    public long lastTtffMs() { return lastTtffMs; }
+    public long lastColdTtffMs() { return lastColdTtffMs; }
+    public long avgColdTtffMs() { return ttffSamples > 0 ? ttffTotalMs / ttffSamples : -1; }
+    public int coldTtffSamples() { return ttffSamples; }
+    public VideoPlayer.StartupTiming lastStartupTiming() { return player != null ? player.lastStartupTiming() : null; }
+    public VideoPlayer.LiveLatencyStats liveLatencyStats() { return player != null ? player.liveLatencyStats() : null; }
+
     public int texW() { return texW; }
     public int texH() { return texH; }
 }
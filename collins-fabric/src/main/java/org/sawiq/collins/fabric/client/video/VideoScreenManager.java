@@ -35,6 +35,12 @@ public final class VideoScreenManager {
 
     private static volatile long lastActionbarUpdateMs = 0;
     private static volatile String lastClientWorldKey = "";
+    // позиция игрока на прошлом тике — для оценки направления/скорости (pre-roll)
+    private static Vec3d lastPlayerPos = null;
+
+    // Приостановленные экраны: тёплые держим до 5 минут, холодные (только текстура) до 30
+    private static final long SUSPEND_WARM_MAX_MS = 5L * 60L * 1000L;
+    private static final long SUSPEND_COLD_MAX_MS = 30L * 60L * 1000L;
 
     static String currentWorldKey(MinecraftClient client) {
         if (client == null) return "";
@@ -134,6 +140,21 @@ public final class VideoScreenManager {
         return best;
     }
 
+    /**
+     * Очерёдность закачки экрана: расстояние до центра в блоках, у экранов в поле зрения — вдвое меньше.
+     * Чем меньше, тем раньше экран получает соединения у DownloadManager.
+     */
+    private static double downloadPriority(ScreenState st, Vec3d playerPos, Vec3d look) {
+        double dx = (st.minX() + st.maxX() + 1) * 0.5 - playerPos.x;
+        double dy = (st.minY() + st.maxY() + 1) * 0.5 - playerPos.y;
+        double dz = (st.minZ() + st.maxZ() + 1) * 0.5 - playerPos.z;
+        double dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (look == null || dist < 1e-3) return dist;
+        // угол до центра меньше ~60° — считаем видимым
+        double cos = (dx * look.x + dy * look.y + dz * look.z) / dist;
+        return cos > 0.5 ? dist * 0.5 : dist;
+    }
+
     private static VideoScreen findNearestPlayingInRadius(Vec3d playerPos, int radiusBlocks) {
         if (playerPos == null) return null;
         if (radiusBlocks <= 0) return findNearestPlaying(playerPos);
@@ -176,6 +197,16 @@ public final class VideoScreenManager {
     public static void applySync(Map<String, ScreenState> incoming) {
         Set<String> keep = new HashSet<>(incoming.keySet());
 
+        // видео экранов этого сервера не вытесняются из дискового кэша
+        List<String> urls = new ArrayList<>();
+        for (ScreenState st : incoming.values()) urls.add(st.url());
+        VideoPlayer.setCacheContext(currentServerId(), urls);
+        // YouTube: ссылку получаем заранее, к старту воспроизведения она уже в кэше
+        // (формат — под размер экрана, поэтому и ключ кэша у каждого размера свой)
+        for (ScreenState st : incoming.values()) {
+            if (YouTubeResolver.isYouTubeUrl(st.url())) YouTubeResolver.prefetch(st.url(), st.blocksW(), st.blocksH());
+        }
+
         // 1) удалённые экраны
         for (String key : new ArrayList<>(SCREENS.keySet())) {
             if (!keep.contains(key)) {
@@ -202,11 +233,51 @@ public final class VideoScreenManager {
             }
 
             // 3) если сервер сказал остановить — останавливаем
-            if (!st.playing() || st.url() == null || st.url().isEmpty()) {
-                if (DEBUG) System.out.println("[Collins] STOP by sync: name=" + st.name()
-                        + " playing=" + st.playing()
-                        + " url=" + st.url());
+            if (st.url() == null || st.url().isEmpty()) {
+                if (DEBUG) System.out.println("[Collins] STOP by sync: name=" + st.name() + " url=" + st.url());
                 vs.stop();
+            } else if (!st.playing()) {
+                // pause: сессия остаётся тёплой (для live — полная остановка внутри pause())
+                if (DEBUG) System.out.println("[Collins] PAUSE by sync: name=" + st.name());
+                vs.pause();
+            }
+        }
+    }
+
+    /**
+     * Ограничивает приостановленные экраны по времени и по бюджету памяти:
+     * сначала закрываем самые старые тёплые сессии, потом освобождаем их текстуры.
+     */
+    private static void enforceSuspendBudget() {
+        long budget = (long) CollinsClientConfig.get().suspendBudgetMb * 1024L * 1024L;
+        long now = System.currentTimeMillis();
+
+        List<VideoScreen> suspended = new ArrayList<>();
+        long total = 0;
+        for (VideoScreen s : SCREENS.values()) {
+            VideoScreen.Suspension sus = s.suspension();
+            if (sus == VideoScreen.Suspension.NONE) continue;
+
+            long age = now - s.suspendedAtMs();
+            if ((sus == VideoScreen.Suspension.WARM && age > SUSPEND_WARM_MAX_MS)
+                    || (sus == VideoScreen.Suspension.COLD && age > SUSPEND_COLD_MAX_MS)) {
+                s.demoteSuspension();
+                if (s.suspension() == VideoScreen.Suspension.NONE) continue;
+            }
+            suspended.add(s);
+            total += s.suspendCostBytes();
+        }
+        if (total <= budget) return;
+
+        suspended.sort(Comparator.comparingLong(VideoScreen::suspendedAtMs));
+        for (VideoScreen.Suspension level : new VideoScreen.Suspension[]{VideoScreen.Suspension.WARM, VideoScreen.Suspension.COLD}) {
+            for (VideoScreen s : suspended) {
+                if (total <= budget) return;
+                if (s.suspension() != level) continue;
+                long before = s.suspendCostBytes();
+                s.demoteSuspension();
+                total -= before - s.suspendCostBytes();
+                if (DEBUG) System.out.println("[Collins] suspend budget: demoted " + s.state().name() + " total=" + (total >> 20) + "MB");
             }
         }
     }
@@ -220,10 +291,16 @@ public final class VideoScreenManager {
         String worldKey = currentWorldKey(client);
         if (!worldKey.equals(lastClientWorldKey)) {
             lastClientWorldKey = worldKey;
+            lastPlayerPos = null;
             stopAllPlayback();
         }
 
         Vec3d pos = p.getEntityPos();
+        Vec3d look = p.getRotationVec(1.0f);
+        // смещение за тик (работает и в транспорте, в отличие от getVelocity)
+        Vec3d velocity = (lastPlayerPos != null) ? pos.subtract(lastPlayerPos) : Vec3d.ZERO;
+        if (velocity.lengthSquared() > 100.0) velocity = Vec3d.ZERO; // телепорт
+        lastPlayerPos = pos;
 
         // ВАЖНО: используем server-sent настройки (а не тестовые константы)
         int radius = CollinsNet.HEAR_RADIUS;
@@ -260,9 +337,12 @@ public final class VideoScreenManager {
                     continue;
                 }
             }
-            s.tickPlayback(pos, radius, globalVolume, serverNowMs);
+            if (st != null) s.setDownloadPriority(downloadPriority(st, pos, look));
+            s.tickPlayback(pos, velocity, radius, globalVolume, serverNowMs);
         }
 
+        enforceSuspendBudget();
+
         CollinsClientConfig cfg = CollinsClientConfig.get();
         if (cfg.renderVideo && cfg.actionbarTimeline && !(client.currentScreen instanceof ChatScreen)) {
             long now = System.currentTimeMillis();
@@ -358,6 +438,17 @@ public final class VideoScreenManager {
         if (DEBUG) System.out.println("[Collins] stopAll()");
         for (VideoScreen s : SCREENS.values()) s.stop();
         SCREENS.clear();
+        VideoPlayer.setCacheContext(null, List.of());
+    }
+
+    /** Адрес текущего сервера (ключ квоты кэша), "singleplayer" для локального мира */
+    public static String currentServerId() {
+        MinecraftClient client = MinecraftClient.getInstance();
+        var entry = client.getCurrentServerEntry();
+        if (entry != null && entry.address != null && !entry.address.isBlank()) {
+            return entry.address.trim().toLowerCase(Locale.ROOT);
+        }
+        return client.isIntegratedServerRunning() ? "singleplayer" : null;
     }
 
     public static void stopAllPlayback() {
@@ -44,7 +44,10 @@ public final class VideoScreenRenderer {
             if (!VideoScreenManager.isCompatibleWithCurrentWorld(st, client)) continue;
             screen.renderPlayback();
 
-            if (!screen.hasTexture() || screen.textureId() == null) continue;
+            // экран-радио без своей текстуры — общая табличка
+            Identifier tex = screen.hasTexture() ? screen.textureId()
+                    : (screen.showsAudioPlacard() ? AudioPlacard.textureId() : null);
+            if (tex == null) continue;
 
             ScreenState s = screen.state();
             int chunkX = s.minX() >> 4;
@@ -53,7 +56,7 @@ public final class VideoScreenRenderer {
                 continue;
             }
 
-            drawScreen(entry, consumers, cam, screen.state(), screen.textureId());
+            drawScreen(entry, consumers, cam, screen.state(), tex);
         }
 
         matrices.pop();
@@ -1,17 +1,25 @@
 package org.sawiq.collins.fabric.client.video;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import net.fabricmc.loader.api.FabricLoader;
+import org.sawiq.collins.fabric.client.config.CollinsClientConfig;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -19,6 +27,11 @@ import java.util.regex.Pattern;
 /**
  * Resolves YouTube URLs to direct video stream URLs using yt-dlp.
  * Supports automatic yt-dlp download and URL caching.
+ * One {@code --dump-json} run per video gives both URL and duration; concurrent requests for the
+ * same video share it, runs are limited to {@link #MAX_PARALLEL_RESOLVES}, and resolved URLs
+ * survive restarts on disk until the signed URL's {@code expire=}.
+ * The format is picked per screen: video no taller than the texture (capped by {@code youtubeMaxHeight}),
+ * usually as separate DASH video and audio URLs that {@link DashFrameGrabber} plays together.
  */
 public final class YouTubeResolver {
 
@@ -36,11 +49,33 @@ public final class YouTubeResolver {
         "(?:https?://)?(?:www\\.|m\\.)?(?:youtube\\.com/watch\\?v=|youtu\\.be/|youtube\\.com/embed/|youtube\\.com/v/|youtube\\.com/shorts/)([a-zA-Z0-9_-]{11})"
     );
 
-    // Cache for resolved URLs (video ID -> ResolvedUrl)
+    // Cache for resolved URLs (video ID -> ResolvedUrl), persisted to collins-tools/yt-resolve-cache.json
     private static final ConcurrentHashMap<String, ResolvedUrl> URL_CACHE = new ConcurrentHashMap<>();
+    private static final Object DISK_LOCK = new Object();
+    private static volatile boolean diskCacheLoaded = false;
+    private static final Gson GSON = new Gson();
 
-    // Resolved URL expires after 5 hours (YouTube URLs typically valid for 6 hours)
+    // Fallback lifetime when the signed URL has no expire= (YouTube URLs typically valid for 6 hours)
     private static final long URL_CACHE_TTL_MS = 5L * 60L * 60L * 1000L;
+    // Ссылку, которой осталось жить меньше, не выдаём: воспроизведению (докачке кэша) нужен запас
+    private static final long EXPIRY_MARGIN_MS = 30L * 60L * 1000L;
+    private static final Pattern EXPIRE_PATTERN = Pattern.compile("[?&/]expire[=/](\\d+)");
+
+    // Ступени высоты YouTube: текстуру округляем вверх до ближайшей
+    private static final int[] HEIGHT_LADDER = {144, 240, 360, 480, 720, 1080, 1440, 2160};
+
+    // Resolutions in flight (video ID@height -> result): N screens with one video share one yt-dlp run
+    private static final ConcurrentHashMap<String, CompletableFuture<YouTubeResult>> INFLIGHT = new ConcurrentHashMap<>();
+    // yt-dlp тяжёлый (Python + сеть) — одновременно не больше стольких процессов
+    private static final int MAX_PARALLEL_RESOLVES = 2;
+    private static final ExecutorService RESOLVERS = Executors.newFixedThreadPool(MAX_PARALLEL_RESOLVES, r -> {
+        Thread t = new Thread(r, "Collins-YtResolve");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final long RESOLVE_WAIT_SECONDS = 90L;
+    // один запуск yt-dlp дольше этого — убиваем, поток резолвера нужен другим видео
+    private static final long YTDLP_TIMEOUT_SECONDS = 60L;
 
     // yt-dlp download URL (latest release)
     private static final String YTDLP_DOWNLOAD_URL = "https://github.com/yt-dlp/yt-dlp/releases/latest/download/yt-dlp.exe";
@@ -54,9 +89,9 @@ public final class YouTubeResolver {
     private static volatile boolean ytdlpDownloading = false;
     private static volatile int ytdlpDownloadProgress = 0;
 
-    private record ResolvedUrl(String directUrl, String videoId, long resolvedAtMs, long durationMs) {
+    private record ResolvedUrl(String directUrl, String videoId, long durationMs, long expiresAtMs, String audioUrl, int maxHeight) {
         boolean isExpired() {
-            return System.currentTimeMillis() - resolvedAtMs > URL_CACHE_TTL_MS;
+            return System.currentTimeMillis() >= expiresAtMs;
         }
     }
 
@@ -68,8 +103,13 @@ public final class YouTubeResolver {
         String videoId,         // YouTube video ID
         long durationMs,        // Video duration in ms (0 if unknown)
         String error,           // Error message (null if success)
-        boolean needsDownload   // true if yt-dlp needs to be downloaded
+        boolean needsDownload,  // true if yt-dlp needs to be downloaded
+        String audioUrl         // Separate DASH audio stream URL (null if directUrl carries audio)
     ) {
+        public YouTubeResult(String directUrl, String videoId, long durationMs, String error, boolean needsDownload) {
+            this(directUrl, videoId, durationMs, error, needsDownload, null);
+        }
+
         public boolean isSuccess() {
             return directUrl != null && !directUrl.isBlank();
         }
@@ -101,6 +141,34 @@ public final class YouTubeResolver {
      * This method is blocking and should be called from a background thread.
      */
     public static YouTubeResult resolve(String url) {
+        return resolve(url, maxHeight());
+    }
+
+    /**
+     * Highest video height worth fetching for a screen of blocksW x blocksH:
+     * the texture height rounded up to a YouTube rung, capped by {@code youtubeMaxHeight}.
+     */
+    public static int formatHeight(int blocksW, int blocksH) {
+        int textureH = VideoSizeUtil.pick(blocksW, blocksH, 16, 9).h();
+        int h = HEIGHT_LADDER[HEIGHT_LADDER.length - 1];
+        for (int rung : HEIGHT_LADDER) {
+            if (rung >= textureH) {
+                h = rung;
+                break;
+            }
+        }
+        return Math.min(h, maxHeight());
+    }
+
+    private static int maxHeight() {
+        return Math.max(HEIGHT_LADDER[0], CollinsClientConfig.get().youtubeMaxHeight);
+    }
+
+    /**
+     * Resolve YouTube URL to stream URLs with video no taller than maxHeight.
+     * This method is blocking and should be called from a background thread.
+     */
+    public static YouTubeResult resolve(String url, int maxHeight) {
         if (url == null || url.isBlank()) {
             return new YouTubeResult(null, null, 0, "Empty URL", false);
         }
@@ -110,13 +178,14 @@ public final class YouTubeResolver {
             return new YouTubeResult(null, null, 0, "Not a valid YouTube URL", false);
         }
 
-        dbg("resolve: videoId=" + videoId + " url=" + url);
+        String key = videoId + "@" + maxHeight;
+        dbg("resolve: videoId=" + videoId + " maxHeight=" + maxHeight + " url=" + url);
 
         // Check cache first
-        ResolvedUrl cached = URL_CACHE.get(videoId);
-        if (cached != null && !cached.isExpired()) {
+        YouTubeResult cached = cached(key);
+        if (cached != null) {
             dbg("resolve: using cached URL for " + videoId);
-            return new YouTubeResult(cached.directUrl, videoId, cached.durationMs, null, false);
+            return cached;
         }
 
         // Ensure yt-dlp is available
@@ -127,15 +196,70 @@ public final class YouTubeResolver {
             return new YouTubeResult(null, videoId, 0, "yt-dlp not available", true);
         }
 
-        // Resolve using yt-dlp
+        // Resolve using yt-dlp (joins a resolution already running for this video)
+        CompletableFuture<YouTubeResult> f = resolveAsync(videoId, maxHeight);
         try {
-            return resolveWithYtdlp(videoId, url);
+            return f.get(RESOLVE_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new YouTubeResult(null, videoId, 0, "Interrupted", false);
         } catch (Exception e) {
             dbg("resolve: error " + e.getMessage());
             return new YouTubeResult(null, videoId, 0, "Resolution failed: " + e.getMessage(), false);
         }
     }
 
+    /**
+     * Start resolving in the background so playback finds the URL ready (called on screen sync).
+     * Does nothing if the URL is cached, already resolving or yt-dlp is not installed yet.
+     */
+    public static void prefetch(String url, int blocksW, int blocksH) {
+        String videoId = extractVideoId(url);
+        if (videoId == null || !isYtdlpAvailable()) return;
+        int maxHeight = formatHeight(blocksW, blocksH);
+        if (cached(videoId + "@" + maxHeight) != null) return;
+        dbg("prefetch: " + videoId + " maxHeight=" + maxHeight);
+        resolveAsync(videoId, maxHeight);
+    }
+
+    private static YouTubeResult cached(String key) {
+        loadDiskCache();
+        ResolvedUrl r = URL_CACHE.get(key);
+        if (r == null) return null;
+        if (r.isExpired()) {
+            URL_CACHE.remove(key, r);
+            return null;
+        }
+        return new YouTubeResult(r.directUrl(), r.videoId(), r.durationMs(), null, false, r.audioUrl());
+    }
+
+    /** One yt-dlp run per video and height at a time, on the bounded resolver pool */
+    private static CompletableFuture<YouTubeResult> resolveAsync(String videoId, int maxHeight) {
+        String key = videoId + "@" + maxHeight;
+        CompletableFuture<YouTubeResult> mine = new CompletableFuture<>();
+        CompletableFuture<YouTubeResult> running = INFLIGHT.putIfAbsent(key, mine);
+        if (running != null) {
+            dbg("resolveAsync: joined in-flight resolution of " + key);
+            return running;
+        }
+        try {
+            RESOLVERS.execute(() -> {
+                try {
+                    YouTubeResult r = cached(key);
+                    mine.complete(r != null ? r : resolveWithYtdlp(videoId, maxHeight));
+                } catch (Exception e) {
+                    mine.complete(new YouTubeResult(null, videoId, 0, "Exception: " + e.getMessage(), false));
+                } finally {
+                    INFLIGHT.remove(key, mine);
+                }
+            });
+        } catch (Exception e) {
+            INFLIGHT.remove(key, mine);
+            mine.complete(new YouTubeResult(null, videoId, 0, "Exception: " + e.getMessage(), false));
+        }
+        return mine;
+    }
+
     /**
      * Check if yt-dlp is available (non-blocking check).
      */
@@ -202,40 +326,36 @@ public final class YouTubeResolver {
                 Path tmp = dir.resolve("yt-dlp.exe.tmp");
                 Files.deleteIfExists(tmp);
 
-                URL downloadUrl = new URL(YTDLP_DOWNLOAD_URL);
-                HttpURLConnection conn = (HttpURLConnection) downloadUrl.openConnection();
-                conn.setInstanceFollowRedirects(true);
-                conn.setConnectTimeout(30_000);
-                conn.setReadTimeout(60_000);
-                conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-
-                int code = conn.getResponseCode();
-                if (code != 200) {
-                    dbg("ensureYtdlpAvailable: download failed, code=" + code);
-                    conn.disconnect();
-                    return false;
-                }
+                try (SharedHttp.Response conn = SharedHttp.get(YTDLP_DOWNLOAD_URL)
+                        .timeout(30_000)
+                        .readTimeout(60_000)
+                        .followRedirects(true)
+                        .send()) {
+                    int code = conn.code();
+                    if (code != 200) {
+                        dbg("ensureYtdlpAvailable: download failed, code=" + code);
+                        return false;
+                    }
 
-                long contentLength = conn.getContentLengthLong();
-                dbg("ensureYtdlpAvailable: downloading " + (contentLength / 1024 / 1024) + " MB");
-
-                try (InputStream in = conn.getInputStream();
-                     var out = Files.newOutputStream(tmp)) {
-                    
-                    byte[] buf = new byte[64 * 1024];
-                    long written = 0;
-                    int r;
-                    while ((r = in.read(buf)) >= 0) {
-                        out.write(buf, 0, r);
-                        written += r;
-                        if (contentLength > 0) {
-                            ytdlpDownloadProgress = (int) (written * 100 / contentLength);
+                    long contentLength = conn.contentLength();
+                    dbg("ensureYtdlpAvailable: downloading " + (contentLength / 1024 / 1024) + " MB");
+
+                    try (InputStream in = conn.body();
+                         var out = Files.newOutputStream(tmp)) {
+
+                        byte[] buf = new byte[64 * 1024];
+                        long written = 0;
+                        int r;
+                        while ((r = in.read(buf)) >= 0) {
+                            out.write(buf, 0, r);
+                            written += r;
+                            if (contentLength > 0) {
+                                ytdlpDownloadProgress = (int) (written * 100 / contentLength);
+                            }
                         }
                     }
                 }
 
-                conn.disconnect();
-
                 // Move to final location
                 Files.move(tmp, ytdlp, StandardCopyOption.REPLACE_EXISTING);
                 
@@ -254,97 +374,96 @@ public final class YouTubeResolver {
     }
 
     /**
-     * Resolve YouTube video using yt-dlp.
+     * Resolve a video with a single {@code yt-dlp --dump-json} run: stream URLs and duration in one process.
      */
-    private static YouTubeResult resolveWithYtdlp(String videoId, String originalUrl) {
+    private static YouTubeResult resolveWithYtdlp(String videoId, int maxHeight) {
         Path ytdlp = getYtdlpPath();
         if (!Files.isRegularFile(ytdlp)) {
             return new YouTubeResult(null, videoId, 0, "yt-dlp not found", true);
         }
 
         try {
-            // Build yt-dlp command
-            // -f: format selection - prefer high quality mp4 for streaming
-            // -g: get URL only (no download)
-            // --no-playlist: single video only
-            // --no-warnings: suppress warnings
-            // Формат: сначала пробуем 720p/1080p mp4 (хорошее качество для стриминга)
+            // -f: видео не выше текстуры экрана; раздельные DASH-дорожки играет DashFrameGrabber
+            // Приоритет: H.264 DASH + m4a > любой DASH + звук > mp4 со звуком > любой со звуком
+            // (avc1 декодируется дешевле VP9/AV1 — бюджет декодера на клиенте один на все экраны)
+            // --dump-json: URL выбранных форматов и длительность одним запуском
+            String h = "[height<=" + maxHeight + "]";
             ProcessBuilder pb = new ProcessBuilder(
                 ytdlp.toString(),
-                "-f", "bestvideo[height<=1080][ext=mp4]+bestaudio[ext=m4a]/bestvideo[height<=720][ext=mp4]+bestaudio/best[height<=1080][ext=mp4]/best[ext=mp4]/best",
-                "-g",
+                "-f", "bestvideo" + h + "[vcodec^=avc1]+bestaudio[ext=m4a]/bestvideo" + h + "+bestaudio/best"
+                        + h + "[ext=mp4]/best" + h + "/best",
+                "--dump-json",
                 "--no-playlist",
                 "--no-warnings",
                 "--no-check-certificates",
                 "https://www.youtube.com/watch?v=" + videoId
             );
-            
-            pb.redirectErrorStream(true);
-            
-            dbg("resolveWithYtdlp: running yt-dlp for " + videoId);
+
+            dbg("resolveWithYtdlp: running yt-dlp for " + videoId + " maxHeight=" + maxHeight);
             long startMs = System.currentTimeMillis();
-            
+
             Process p = pb.start();
-            
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
-            
-            boolean finished = p.waitFor(60, TimeUnit.SECONDS);
+            // stdout и stderr читаем отдельными задачами: JSON не смешивается с предупреждениями,
+            // переполненный канал не останавливает процесс, а срок ниже действует и на зависший yt-dlp
+            CompletableFuture<String> stdout = CompletableFuture.supplyAsync(() -> readAll(p.getInputStream()), DownloadManager.IO);
+            CompletableFuture<String> stderr = CompletableFuture.supplyAsync(() -> readAll(p.getErrorStream()), DownloadManager.IO);
+
+            boolean finished = p.waitFor(YTDLP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
             if (!finished) {
+                // убитый процесс закрывает каналы — задачи чтения тоже завершатся
                 p.destroyForcibly();
+                dbg("resolveWithYtdlp: timeout after " + YTDLP_TIMEOUT_SECONDS + "s, killed");
                 return new YouTubeResult(null, videoId, 0, "yt-dlp timeout", false);
             }
+            // процесс вышел, но его потомок мог унаследовать stdout — ждём недолго
+            String json = stdout.get(5, TimeUnit.SECONDS);
 
             int exitCode = p.exitValue();
             long elapsedMs = System.currentTimeMillis() - startMs;
             dbg("resolveWithYtdlp: exit=" + exitCode + " elapsed=" + elapsedMs + "ms");
 
             if (exitCode != 0) {
-                String error = output.toString().trim();
+                String error = stderr.getNow("").trim();
                 if (error.length() > 200) error = error.substring(0, 200) + "...";
                 dbg("resolveWithYtdlp: error output: " + error);
                 return new YouTubeResult(null, videoId, 0, "yt-dlp error: " + error, false);
             }
 
-            // Parse output - yt-dlp with -g returns URLs (one per line for video+audio or single for combined)
-            String[] lines = output.toString().trim().split("\n");
+            JsonObject info = JsonParser.parseString(json.trim()).getAsJsonObject();
             String directUrl = null;
-            
-            for (String line : lines) {
-                line = line.trim();
-                if (line.startsWith("http") && line.contains("googlevideo.com")) {
-                    // Prefer video URL (first one is usually video in separate streams)
-                    if (directUrl == null) {
-                        directUrl = line;
+            String audioUrl = null;
+            // видео+звук раздельно: URL каждой дорожки лежит в requested_formats, а не в url
+            if (info.has("requested_formats") && info.get("requested_formats").isJsonArray()) {
+                for (JsonElement e : info.getAsJsonArray("requested_formats")) {
+                    if (!e.isJsonObject()) continue;
+                    JsonObject f = e.getAsJsonObject();
+                    String fUrl = string(f, "url");
+                    if (fUrl == null || !fUrl.startsWith("http")) continue;
+                    if (!"none".equals(string(f, "vcodec"))) {
+                        if (directUrl == null) directUrl = fUrl;
+                    } else if (!"none".equals(string(f, "acodec"))) {
+                        if (audioUrl == null) audioUrl = fUrl;
                     }
                 }
             }
-
-            // If we got separate video+audio, we need to use the combined one
-            // For simplicity, let's re-run with a format that gives combined stream
-            if (directUrl == null || lines.length > 1) {
-                dbg("resolveWithYtdlp: retrying with combined format");
-                return resolveWithYtdlpCombined(videoId);
+            if (directUrl == null) {
+                directUrl = string(info, "url");
+                audioUrl = null;
             }
-
-            if (directUrl == null || directUrl.isBlank()) {
+            if (directUrl == null || directUrl.isBlank() || !directUrl.startsWith("http")) {
                 return new YouTubeResult(null, videoId, 0, "No URL in yt-dlp output", false);
             }
+            long durationMs = 0;
+            if (info.has("duration") && info.get("duration").isJsonPrimitive()) {
+                durationMs = Math.round(info.get("duration").getAsDouble() * 1000.0);
+            }
 
-            dbg("resolveWithYtdlp: resolved to " + directUrl.substring(0, Math.min(100, directUrl.length())) + "...");
-
-            // Get duration
-            long durationMs = getDurationWithYtdlp(videoId);
-
-            // Cache the result
-            URL_CACHE.put(videoId, new ResolvedUrl(directUrl, videoId, System.currentTimeMillis(), durationMs));
-
-            return new YouTubeResult(directUrl, videoId, durationMs, null, false);
+            dbg("resolveWithYtdlp: resolved to " + directUrl.substring(0, Math.min(100, directUrl.length())) + "..."
+                    + (audioUrl != null ? " +audio" : ""));
+            long expiresAtMs = expiresAt(directUrl);
+            if (audioUrl != null) expiresAtMs = Math.min(expiresAtMs, expiresAt(audioUrl));
+            remember(new ResolvedUrl(directUrl, videoId, durationMs, expiresAtMs, audioUrl, maxHeight));
+            return new YouTubeResult(directUrl, videoId, durationMs, null, false, audioUrl);
 
         } catch (Exception e) {
             dbg("resolveWithYtdlp: exception " + e.getMessage());
@@ -352,122 +471,86 @@ public final class YouTubeResolver {
         }
     }
 
-    /**
-     * Resolve with a combined video+audio format (better for FFmpeg).
-     */
-    private static YouTubeResult resolveWithYtdlpCombined(String videoId) {
-        Path ytdlp = getYtdlpPath();
+    private static String string(JsonObject o, String key) {
+        JsonElement e = o.get(key);
+        return e != null && e.isJsonPrimitive() ? e.getAsString() : null;
+    }
 
-        try {
-            // Use format that gives a single URL with both video and audio
-            // Приоритет: 720p mp4 > 1080p > best mp4 > best
-            ProcessBuilder pb = new ProcessBuilder(
-                ytdlp.toString(),
-                "-f", "best[height>=720][height<=1080][ext=mp4]/best[height>=480][ext=mp4]/best[ext=mp4]/best",
-                "-g",
-                "--no-playlist",
-                "--no-warnings",
-                "--no-check-certificates",
-                "https://www.youtube.com/watch?v=" + videoId
-            );
-            
-            pb.redirectErrorStream(true);
-            Process p = pb.start();
-            
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
-            
-            boolean finished = p.waitFor(60, TimeUnit.SECONDS);
-            if (!finished) {
-                p.destroyForcibly();
-                return new YouTubeResult(null, videoId, 0, "yt-dlp timeout", false);
-            }
+    private static String readAll(InputStream in) {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return "";
+        }
+    }
 
-            if (p.exitValue() != 0) {
-                return new YouTubeResult(null, videoId, 0, "yt-dlp error (combined)", false);
+    /** Срок жизни подписанной ссылки из её expire= (или /expire/ в пути); без него — URL_CACHE_TTL_MS */
+    private static long expiresAt(String directUrl) {
+        Matcher m = EXPIRE_PATTERN.matcher(directUrl);
+        if (m.find()) {
+            try {
+                return Long.parseLong(m.group(1)) * 1000L - EXPIRY_MARGIN_MS;
+            } catch (NumberFormatException ignored) {
             }
+        }
+        return System.currentTimeMillis() + URL_CACHE_TTL_MS;
+    }
 
-            String directUrl = output.toString().trim().split("\n")[0].trim();
-            
-            if (directUrl.isBlank() || !directUrl.startsWith("http")) {
-                return new YouTubeResult(null, videoId, 0, "Invalid URL from yt-dlp", false);
-            }
+    // ==================== Дисковый кэш ====================
 
-            long durationMs = getDurationWithYtdlp(videoId);
-            URL_CACHE.put(videoId, new ResolvedUrl(directUrl, videoId, System.currentTimeMillis(), durationMs));
+    private static Path diskCachePath() {
+        return getYtdlpPath().resolveSibling("yt-resolve-cache.json");
+    }
 
-            dbg("resolveWithYtdlpCombined: resolved to " + directUrl.substring(0, Math.min(100, directUrl.length())) + "...");
-            return new YouTubeResult(directUrl, videoId, durationMs, null, false);
+    private static String cacheKey(ResolvedUrl r) {
+        return r.videoId() + "@" + r.maxHeight();
+    }
 
-        } catch (Exception e) {
-            return new YouTubeResult(null, videoId, 0, "Exception: " + e.getMessage(), false);
-        }
+    private static void remember(ResolvedUrl r) {
+        URL_CACHE.put(cacheKey(r), r);
+        saveDiskCache();
     }
 
-    /**
-     * Get video duration using yt-dlp.
-     */
-    private static long getDurationWithYtdlp(String videoId) {
-        Path ytdlp = getYtdlpPath();
-        
-        try {
-            ProcessBuilder pb = new ProcessBuilder(
-                ytdlp.toString(),
-                "--get-duration",
-                "--no-playlist",
-                "--no-warnings",
-                "--no-check-certificates",
-                "https://www.youtube.com/watch?v=" + videoId
-            );
-            
-            pb.redirectErrorStream(true);
-            Process p = pb.start();
-            
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line);
-                    break; // Only need first line
+    /** Один раз за запуск поднять с диска ссылки, которые ещё не истекли */
+    private static void loadDiskCache() {
+        if (diskCacheLoaded) return;
+        synchronized (DISK_LOCK) {
+            if (diskCacheLoaded) return;
+            diskCacheLoaded = true;
+            Path file = diskCachePath();
+            if (!Files.isRegularFile(file)) return;
+            try {
+                JsonObject root = JsonParser.parseString(Files.readString(file, StandardCharsets.UTF_8)).getAsJsonObject();
+                int loaded = 0;
+                for (Map.Entry<String, JsonElement> e : root.entrySet()) {
+                    ResolvedUrl r = GSON.fromJson(e.getValue(), ResolvedUrl.class);
+                    // записи без высоты — от прежнего формата, под экран не подобраны
+                    if (r == null || r.directUrl() == null || r.maxHeight() <= 0 || r.isExpired()) continue;
+                    URL_CACHE.putIfAbsent(cacheKey(r), r);
+                    loaded++;
                 }
+                dbg("loadDiskCache: " + loaded + " resolved URLs");
+            } catch (Exception e) {
+                dbg("loadDiskCache: " + e.getMessage());
             }
-            
-            p.waitFor(30, TimeUnit.SECONDS);
-            
-            if (p.exitValue() == 0) {
-                return parseDuration(output.toString().trim());
-            }
-        } catch (Exception ignored) {}
-        
-        return 0;
+        }
     }
 
-    /**
-     * Parse duration string (e.g., "1:23:45" or "12:34" or "45") to milliseconds.
-     */
-    private static long parseDuration(String duration) {
-        if (duration == null || duration.isBlank()) return 0;
-        
-        try {
-            String[] parts = duration.split(":");
-            long seconds = 0;
-            
-            if (parts.length == 1) {
-                seconds = Long.parseLong(parts[0]);
-            } else if (parts.length == 2) {
-                seconds = Long.parseLong(parts[0]) * 60 + Long.parseLong(parts[1]);
-            } else if (parts.length == 3) {
-                seconds = Long.parseLong(parts[0]) * 3600 + Long.parseLong(parts[1]) * 60 + Long.parseLong(parts[2]);
+    private static void saveDiskCache() {
+        synchronized (DISK_LOCK) {
+            try {
+                JsonObject root = new JsonObject();
+                for (ResolvedUrl r : URL_CACHE.values()) {
+                    if (!r.isExpired()) root.add(cacheKey(r), GSON.toJsonTree(r));
+                }
+                Path file = diskCachePath();
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.writeString(tmp, GSON.toJson(root), StandardCharsets.UTF_8);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception e) {
+                dbg("saveDiskCache: " + e.getMessage());
             }
-            
-            return seconds * 1000;
-        } catch (Exception e) {
-            return 0;
         }
     }
 
@@ -484,10 +567,29 @@ public final class YouTubeResolver {
     }
 
     /**
-     * Clear URL cache.
+     * Forget the resolved URLs of a video at this height: googlevideo refused them (403 after an IP
+     * change, expired before {@code expire=}). The next {@link #resolve(String, int)} runs yt-dlp again.
+     */
+    public static void invalidate(String url, int maxHeight) {
+        String videoId = extractVideoId(url);
+        if (videoId == null) return;
+        loadDiskCache();
+        if (URL_CACHE.remove(videoId + "@" + maxHeight) != null) {
+            dbg("invalidate: " + videoId + "@" + maxHeight);
+            saveDiskCache();
+        }
+    }
+
+    /**
+     * Clear URL cache (memory and disk).
      */
     public static void clearCache() {
         URL_CACHE.clear();
+        synchronized (DISK_LOCK) {
+            try {
+                Files.deleteIfExists(diskCachePath());
+            } catch (Exception ignored) {}
+        }
     }
 
     /**
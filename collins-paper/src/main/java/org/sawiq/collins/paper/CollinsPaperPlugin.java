@@ -124,7 +124,8 @@ public final class CollinsPaperPlugin extends JavaPlugin implements Listener {
                                 nextEntry.url(),
                                 true,
                                 false,
-                                screen.volume()
+                                screen.volume(),
+                                screen.audioOnly()
                         );
                         runtime.resetPlayback(screen.name());
                         CollinsRuntimeState.Playback pb = runtime.get(screen.name());
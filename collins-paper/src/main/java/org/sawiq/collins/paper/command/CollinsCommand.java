@@ -176,7 +176,8 @@ public final class CollinsCommand implements TabExecutor {
                         safeUrl,
                         s.playing(),
                         s.loop(),
-                        s.volume()
+                        s.volume(),
+                        s.audioOnly()
                 );
 
                 // Смена url => сброс таймера, иначе будет seek в старую позицию другого файла
@@ -218,7 +219,8 @@ public final class CollinsCommand implements TabExecutor {
                         s.mp4Url(),
                         true,
                         isStreamingUrl(s.mp4Url()) || s.loop(),
-                        s.volume()
+                        s.volume(),
+                        s.audioOnly()
                 );
 
                 store.put(updated);
@@ -249,7 +251,8 @@ public final class CollinsCommand implements TabExecutor {
                         s.mp4Url(),
                         false,
                         s.loop(),
-                        s.volume()
+                        s.volume(),
+                        s.audioOnly()
                 );
 
                 store.put(updated);
@@ -285,7 +288,8 @@ public final class CollinsCommand implements TabExecutor {
                         s.mp4Url(),
                         false,
                         s.loop(),
-                        s.volume()
+                        s.volume(),
+                        s.audioOnly()
                 );
 
                 store.put(updated);
@@ -316,7 +320,8 @@ public final class CollinsCommand implements TabExecutor {
                         s.mp4Url(),
                         true,
                         s.loop(),
-                        s.volume()
+                        s.volume(),
+                        s.audioOnly()
                 );
 
                 store.put(updated);
@@ -519,6 +524,24 @@ public final class CollinsCommand implements TabExecutor {
                 return true;
             }
 
+            case "audio" -> {
+                if (args.length < 3) { lang.send(p, "error.usage", lang.vars("usage", "/collins audio <screen> on|off")); return true; }
+                String name = args[1];
+
+                Screen s = store.get(name);
+                if (s == null) { lang.send(p, "error.screen_not_found", lang.vars("name", name)); return true; }
+
+                // on = радио: клиенты играют только звук, без видео и текстуры
+                boolean audioOnly = args[2].equalsIgnoreCase("on");
+                store.put(s.withAudioOnly(audioOnly));
+                store.save();
+                messenger.requestBroadcastSync();
+
+                lang.send(p, audioOnly ? "cmd.audio_only.on" : "cmd.audio_only.off", lang.vars("name", name));
+                plugin.getLogger().info(p.getName() + " audio '" + name + "' " + (audioOnly ? "on" : "off"));
+                return true;
+            }
+
             case "remove" -> {
                 if (args.length < 2) { lang.send(p, "error.usage", lang.vars("usage", "/collins remove <screen>")); return true; }
                 String name = args[1];
@@ -569,14 +592,14 @@ public final class CollinsCommand implements TabExecutor {
                     "pos1", "pos2", "create", "seturl",
                     "play", "stop", "pause", "resume",
                     "seek", "back",
-                    "volume", "radius",
+                    "volume", "radius", "audio",
                     "remove", "list", "playlist"
             ));
         }
 
         if (args.length == 2) {
             String sub = args[0].toLowerCase(Locale.ROOT);
-            if (sub.equals("seturl") || sub.equals("play") || sub.equals("stop") || sub.equals("pause") || sub.equals("resume") || sub.equals("remove") || sub.equals("seek") || sub.equals("back")) {
+            if (sub.equals("seturl") || sub.equals("play") || sub.equals("stop") || sub.equals("pause") || sub.equals("resume") || sub.equals("remove") || sub.equals("seek") || sub.equals("back") || sub.equals("audio")) {
                 List<String> names = new ArrayList<>();
                 for (Screen s : store.all()) names.add(s.name());
                 return startsWith(args[1], names);
@@ -591,6 +614,10 @@ public final class CollinsCommand implements TabExecutor {
             }
         }
 
+        if (args.length == 3 && args[0].equalsIgnoreCase("audio")) {
+            return startsWith(args[2], List.of("on", "off"));
+        }
+
         if (args.length == 3 && args[0].equalsIgnoreCase("playlist")) {
             return startsWith(args[2], List.of("add", "remove", "play", "next", "prev", "list", "clear", "loop", "enable", "disable"));
         }
@@ -996,7 +1023,8 @@ public final class CollinsCommand implements TabExecutor {
                 url,
                 true,
                 false, // loop=false для плейлиста!
-                screen.volume()
+                screen.volume(),
+                screen.audioOnly()
         );
 
         runtime.resetPlayback(screen.name());
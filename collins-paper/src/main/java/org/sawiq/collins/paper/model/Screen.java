@@ -9,10 +9,16 @@ public record Screen(
         String mp4Url,
         boolean playing,
         boolean loop,
-        float volume
+        float volume,
+        boolean audioOnly   // радио: клиент играет только звук, без видео и текстуры
 ) {
     /** Создаёт копию с изменённым флагом playing */
     public Screen withPlaying(boolean playing) {
-        return new Screen(name, world, x1, y1, z1, x2, y2, z2, axis, mp4Url, playing, loop, volume);
+        return new Screen(name, world, x1, y1, z1, x2, y2, z2, axis, mp4Url, playing, loop, volume, audioOnly);
+    }
+
+    /** Создаёт копию с изменённым флагом audioOnly */
+    public Screen withAudioOnly(boolean audioOnly) {
+        return new Screen(name, world, x1, y1, z1, x2, y2, z2, axis, mp4Url, playing, loop, volume, audioOnly);
     }
 }
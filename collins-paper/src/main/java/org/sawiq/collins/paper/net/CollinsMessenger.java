@@ -10,6 +10,7 @@ import org.sawiq.collins.paper.store.ScreenStore;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 public final class CollinsMessenger {
 
@@ -84,6 +85,9 @@ public final class CollinsMessenger {
      *   float volume
      *   long startEpochMs
      *   long basePosMs
+     * необязательные блоки (клиенты без их поддержки дочитывают до экранов и хвост игнорируют):
+     *   byte tag = SYNC_EXT_AUDIO_ONLY
+     *   repeated screens: boolean audioOnly
      */
     private byte[] buildSyncInnerBytes() throws Exception {
         long now = System.currentTimeMillis();
@@ -99,7 +103,8 @@ public final class CollinsMessenger {
         out.writeInt(runtime.hearRadius);
         out.writeLong(now);
 
-        var all = store.all();
+        // один снимок на экраны и хвостовые блоки — порядок должен совпасть
+        var all = List.copyOf(store.all());
         out.writeInt(all.size());
 
         for (Screen s : all) {
@@ -121,6 +126,11 @@ public final class CollinsMessenger {
             out.writeLong(pb.basePosMs);
         }
 
+        out.writeByte(CollinsProtocol.SYNC_EXT_AUDIO_ONLY);
+        for (Screen s : all) {
+            out.writeBoolean(s.audioOnly());
+        }
+
         out.flush();
         return bout.toByteArray();
     }
@@ -8,6 +8,9 @@ public final class CollinsProtocol {
 
     public static final int PROTOCOL_VERSION = 2;
 
+    // Необязательные блоки в хвосте SYNC v2 (после всех экранов). Старые клиенты хвост не читают.
+    public static final byte SYNC_EXT_AUDIO_ONLY = 1; // boolean audioOnly на каждый экран, в порядке экранов
+
     // S2C (сервер -> клиент)
     public static final byte MSG_SYNC = 1;
 
@@ -62,6 +62,7 @@ public final class ScreenStore {
             boolean playing = cfg.getBoolean(path + "playing", false);
             boolean loop = cfg.getBoolean(path + "loop", true);
             double volumeD = cfg.getDouble(path + "volume", 1.0);
+            boolean audioOnly = cfg.getBoolean(path + "audioOnly", false);
 
             put(new Screen(
                     name,
@@ -72,7 +73,8 @@ public final class ScreenStore {
                     url == null ? "" : url,
                     playing,
                     loop,
-                    (float) volumeD
+                    (float) volumeD,
+                    audioOnly
             ));
         }
     }
@@ -100,6 +102,7 @@ public final class ScreenStore {
             cfg.set(path + "playing", s.playing());
             cfg.set(path + "loop", s.loop());
             cfg.set(path + "volume", (double) s.volume());
+            cfg.set(path + "audioOnly", s.audioOnly());
         }
 
         try {
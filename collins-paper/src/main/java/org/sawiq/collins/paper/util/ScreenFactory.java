@@ -36,7 +36,8 @@ public final class ScreenFactory {
                 "",
                 false,
                 true,
-                1.0f
+                1.0f,
+                false
         );
     }
 }